@@ -35,34 +35,82 @@ BENCHMARK_DIR = os.path.dirname(os.path.realpath(__file__))
 PROJECT_DIR = os.path.abspath(os.path.join(BENCHMARK_DIR, ".."))
 
 
-def get_json_output_file():
-    return os.path.join(BENCHMARK_DIR, "results.json")
+BENCHMARK_PACKAGE = "com.vlkan.log4j2.logstash.layout"
 
+CONCURRENCY_BENCHMARK_CLASS = "LogstashLayoutConcurrencyBenchmark"
 
-def get_mvn_output_file():
-    return os.path.join(BENCHMARK_DIR, "results.out")
 
+def get_json_output_file(suffix=""):
+    return os.path.join(BENCHMARK_DIR, "results{}.json".format(suffix))
 
-def run_benchmark():
-    LOGGER.info("Starting benchmark...")
+
+def get_mvn_output_file(suffix=""):
+    return os.path.join(BENCHMARK_DIR, "results{}.out".format(suffix))
+
+
+def run_benchmarks():
+    # The single-threaded comparison against other layouts.
+    single_thread_json_output_file = get_json_output_file("-single-thread")
+    run_benchmark(
+        main_class="LogstashLayoutBenchmark",
+        json_output_file_property="log4j2.logstashLayoutBenchmark.jsonOutputFile",
+        json_output_file=single_thread_json_output_file,
+        mvn_output_file=get_mvn_output_file(),
+        pinned=True,
+        thread_local_properties=True)
+    # Scalability across threads, which needs more than a single CPU.
+    concurrency_json_output_file = get_json_output_file("-concurrency")
+    run_benchmark(
+        main_class=CONCURRENCY_BENCHMARK_CLASS,
+        json_output_file_property="log4j2.logstashLayoutConcurrencyBenchmark.jsonOutputFile",
+        json_output_file=concurrency_json_output_file,
+        mvn_output_file=get_mvn_output_file("-concurrency"),
+        pinned=False,
+        # Passed to the forks by the benchmark itself.
+        thread_local_properties=False)
+    merge_json_output_files(
+        [single_thread_json_output_file, concurrency_json_output_file],
+        get_json_output_file())
+
+
+def merge_json_output_files(input_files, output_file):
+    json_dicts = []
+    for input_file in input_files:
+        with open(input_file) as input_file_handle:
+            json_dicts.extend(json.load(input_file_handle))
+        os.remove(input_file)
+    with open(output_file, "w") as output_file_handle:
+        json.dump(json_dicts, output_file_handle, indent=4)
+
+
+def run_benchmark(
+        main_class,
+        json_output_file_property,
+        json_output_file,
+        mvn_output_file,
+        pinned,
+        thread_local_properties):
+    LOGGER.info("Starting benchmark... (main_class={})".format(main_class))
     start_instant_seconds = time.time()
-    json_output_file = get_json_output_file()
-    mvn_output_file = get_mvn_output_file()
     with open(mvn_output_file, "w") as mvn_output_file_handle:
         env = os.environ.copy()
         env["MAVEN_OPTS"] = "-XX:+TieredCompilation"
-        popen = subprocess.Popen(
-            ["taskset",
-             "-c", "0",
-             "time",
+        args = ["taskset", "-c", "0"] if pinned else []
+        args.extend(
+            ["time",
              "mvn",
              "-pl", "layout",
              "exec:java",
+             "-Dbenchmark.mainClass={}.{}".format(BENCHMARK_PACKAGE, main_class),
              "-Dlog4j2.garbagefreeThreadContextMap=true",
              "-Dlog4j2.enableDirectEncoders=true",
-             "-Dlog4j2.enable.threadlocals=true",
-             "-Dlog4j2.is.webapp=false",
-             "-Dlog4j2.logstashLayoutBenchmark.jsonOutputFile={}".format(json_output_file)],
+             "-D{}={}".format(json_output_file_property, json_output_file)])
+        if thread_local_properties:
+            args.extend(
+                ["-Dlog4j2.enable.threadlocals=true",
+                 "-Dlog4j2.is.webapp=false"])
+        popen = subprocess.Popen(
+            args,
             env=env,
             bufsize=1,
             universal_newlines=True,
@@ -78,6 +126,10 @@ def run_benchmark():
         LOGGER.info("Completed benchmark... (total_duration_seconds={})".format(total_duration_seconds))
 
 
+def is_concurrency_result(result):
+    return ".{}.".format(CONCURRENCY_BENCHMARK_CLASS) in result["benchmark"]
+
+
 def read_results():
 
     # Collect results.
@@ -88,9 +140,16 @@ def read_results():
         for json_dict in json_dicts:
             results.append({
                 "benchmark": json_dict["benchmark"],
+                "params": json_dict.get("params", {}),
+                "threads": json_dict.get("threads", 1),
                 "op_rate": json_dict["primaryMetric"]["scorePercentiles"]["99.0"],
                 "gc_rate": json_dict["secondaryMetrics"][u"·gc.alloc.rate.norm"]["scorePercentiles"]["99.0"]
             })
+    return results
+
+
+def read_single_thread_results():
+    results = [result for result in read_results() if not is_concurrency_result(result)]
 
     # Enrich results with normalized op rate slowdown.
     max_op_rate = max([result["op_rate"] for result in results])
@@ -102,8 +161,20 @@ def read_results():
     return results
 
 
+def read_concurrency_results():
+    """Groups results by benchmark and parameters, keyed by thread count."""
+    results_by_key = {}
+    for result in read_results():
+        if is_concurrency_result(result):
+            key = (result["benchmark"], tuple(sorted(result["params"].items())))
+            results_by_key.setdefault(key, {})[result["threads"]] = result
+    return [
+        (benchmark, dict(params), results_by_key[(benchmark, params)])
+        for benchmark, params in sorted(results_by_key.keys())]
+
+
 def plot_results():
-    results = read_results()
+    results = read_single_thread_results()
     html_file = os.path.join(BENCHMARK_DIR, "results.html")
     with open(html_file, "w") as html_file_handle:
         html_file_handle.write("""
@@ -124,6 +195,10 @@ def plot_results():
         #results tr[data-benchmark $= "LogstashLayout"] td.gc_rate
         { font-weight: bold }
         #results #footnotes { font-size: 0.8em; }
+        #concurrency-results th, #concurrency-results td { padding: 0.3em }
+        #concurrency-results td.op_rate, #concurrency-results td.gc_rate { text-align: right }
+        #concurrency-results th { background-color: #cfcfcf }
+        #concurrency-results #concurrency-footnotes { font-size: 0.8em; }
     </style>
     <div id="results">
         <table>
@@ -137,6 +212,9 @@ def plot_results():
             <tbody>""")
         for result in results:
             benchmark_name = re.sub(r".*\.([a-zA-Z0-9]+)", r"\1", result["benchmark"])
+            benchmark_params = ", ".join(
+                "{}={}".format(param_name, param_value)
+                for param_name, param_value in sorted(result["params"].items()))
             html_file_handle.write("""
                 <tr data-benchmark="{}">
                     <td class="benchmark">{}</td>
@@ -145,7 +223,7 @@ def plot_results():
                     <td class="gc_rate">{}</td>
                 </tr>""".format(
                 benchmark_name,
-                benchmark_name,
+                benchmark_name + (" ({})".format(benchmark_params) if benchmark_params else ""),
                 "{:,.0f}".format(result["op_rate"] * 1e3),
                 ("▉" * (1 + int(19 * result["op_rate_norm"]))) + (" ({:.0f}%)".format(100 * result["op_rate_norm"])),
                 "{:,.1f}".format(max(0, result["gc_rate"]))))
@@ -155,13 +233,85 @@ def plot_results():
         <p id="footnotes">
             <sup>*</sup> 99<sup>th</sup> percentile
         </p>
-    </div>
+    </div>""")
+        plot_concurrency_results(html_file_handle)
+        html_file_handle.write("""
 </body>
 """)
 
 
+def plot_concurrency_results(html_file_handle):
+    concurrency_results = read_concurrency_results()
+    if not concurrency_results:
+        return
+    thread_counts = sorted(set(
+        thread_count
+        for _, _, results_by_thread_count in concurrency_results
+        for thread_count in results_by_thread_count))
+    html_file_handle.write("""
+    <div id="concurrency-results">
+        <table>
+            <thead>
+                <tr>
+                    <th rowspan="2">Benchmark</th>""")
+    for thread_count in thread_counts:
+        html_file_handle.write("""
+                    <th colspan="3">{} thread(s)</th>""".format(thread_count))
+    html_file_handle.write("""
+                </tr>
+                <tr>""")
+    for _ in thread_counts:
+        html_file_handle.write("""
+                    <th>ops/sec<sup>*</sup></th>
+                    <th>scaling<sup>**</sup></th>
+                    <th>B/op<sup>*</sup></th>""")
+    html_file_handle.write("""
+                </tr>
+            </thead>
+            <tbody>""")
+    for benchmark, params, results_by_thread_count in concurrency_results:
+        benchmark_name = re.sub(r".*\.([a-zA-Z0-9]+)", r"\1", benchmark)
+        benchmark_params = ", ".join(
+            "{}={}".format(param_name, param_value)
+            for param_name, param_value in sorted(params.items()))
+        html_file_handle.write("""
+                <tr data-benchmark="{}">
+                    <td class="benchmark">{}</td>""".format(
+            benchmark_name,
+            benchmark_name + (" ({})".format(benchmark_params) if benchmark_params else "")))
+        single_thread_result = results_by_thread_count.get(1)
+        for thread_count in thread_counts:
+            result = results_by_thread_count.get(thread_count)
+            if result is None:
+                html_file_handle.write("""
+                    <td></td>
+                    <td></td>
+                    <td></td>""")
+                continue
+            scaling = (
+                "{:.0f}%".format(100 * result["op_rate"] / (thread_count * single_thread_result["op_rate"]))
+                if single_thread_result else "")
+            html_file_handle.write("""
+                    <td class="op_rate">{}</td>
+                    <td class="op_rate">{}</td>
+                    <td class="gc_rate">{}</td>""".format(
+                "{:,.0f}".format(result["op_rate"] * 1e3),
+                scaling,
+                "{:,.1f}".format(max(0, result["gc_rate"]))))
+        html_file_handle.write("""
+                </tr>""")
+    html_file_handle.write("""
+            </tbody>
+        </table>
+        <p id="concurrency-footnotes">
+            <sup>*</sup> 99<sup>th</sup> percentile, where ops/sec is summed across threads<br/>
+            <sup>**</sup> ops/sec relative to the single-threaded ops/sec times the thread count
+        </p>
+    </div>""")
+
+
 def main():
-    run_benchmark()
+    run_benchmarks()
     plot_results()
 
 
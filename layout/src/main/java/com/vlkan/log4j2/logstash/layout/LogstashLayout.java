@@ -17,14 +17,20 @@
 package com.vlkan.log4j2.logstash.layout;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vlkan.log4j2.logstash.layout.resolver.EventResolverContext;
+import com.vlkan.log4j2.logstash.layout.resolver.MessageJsonMode;
 import com.vlkan.log4j2.logstash.layout.resolver.StackTraceElementObjectResolverContext;
 import com.vlkan.log4j2.logstash.layout.resolver.TemplateResolver;
 import com.vlkan.log4j2.logstash.layout.resolver.TemplateResolvers;
 import com.vlkan.log4j2.logstash.layout.util.AutoCloseables;
 import com.vlkan.log4j2.logstash.layout.util.ByteBufferDestinations;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferJsonGenerator;
 import com.vlkan.log4j2.logstash.layout.util.ByteBufferOutputStream;
+import com.vlkan.log4j2.logstash.layout.util.JsonValueWriters;
+import com.vlkan.log4j2.logstash.layout.util.StripedObjectPool;
+import com.vlkan.log4j2.logstash.layout.util.Throwables;
 import com.vlkan.log4j2.logstash.layout.util.Uris;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -46,13 +52,17 @@ import org.apache.logging.log4j.core.util.datetime.FastDateFormat;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 @Plugin(name = "LogstashLayout",
@@ -63,44 +73,119 @@ public class LogstashLayout implements Layout<String> {
 
     static final Charset CHARSET = StandardCharsets.UTF_8;
 
-    private static final String CONTENT_TYPE = "application/json; charset=" + CHARSET;
-
     private static final byte[] EMPTY_OBJECT_JSON_BYTES = "{}".getBytes(CHARSET);
 
+    private static final int EVENT_LENGTH_PREFIX_BYTE_COUNT = Integer.BYTES;
+
     private final TemplateResolver<LogEvent> eventResolver;
 
+    /**
+     * The event resolver whose fields are probed by the profiler, if enabled.
+     */
+    private final TemplateResolver<LogEvent> profiledEventResolver;
+
     private final byte[] lineSeparatorBytes;
 
+    private final OutputFormat outputFormat;
+
+    /**
+     * The bytes of the length prefix along with the header written before
+     * every event of a binary output format, where the former gets
+     * overwritten once the event is serialized, or {@code null} for
+     * textual formats.
+     */
+    private final byte[] eventPrefixBytes;
+
+    private final boolean eventTruncationEnabled;
+
+    private final boolean destinationStreamingEnabled;
+
+    /**
+     * The single thread streaming events into destinations, see {@link
+     * #isDestinationStreamingThread()}.
+     */
+    private final AtomicReference<Thread> destinationStreamingThreadRef = new AtomicReference<>();
+
+    /**
+     * Maximum number of bytes a truncated event can occupy, leaving room for
+     * the line separator.
+     */
+    private final int maxTruncatedEventByteCount;
+
     private final Supplier<LogstashLayoutSerializationContext> serializationContextSupplier;
 
     private final ThreadLocal<LogstashLayoutSerializationContext> serializationContextRef;
 
+    private final StripedObjectPool<LogstashLayoutSerializationContext> serializationContextPool;
+
+    private final LogstashLayoutMetrics metrics;
+
+    private final LogstashLayoutProfiler profiler;
+
     private LogstashLayout(Builder builder) {
+        this.metrics = builder.metricsEnabled ? new LogstashLayoutMetrics() : null;
+        this.profiler = builder.profilerEnabled ? new LogstashLayoutProfiler(builder.profilerSampleRate) : null;
         this.lineSeparatorBytes = builder.lineSeparator.getBytes(CHARSET);
-        ObjectMapper objectMapper = createObjectMapper(builder.objectMapperFactoryMethod);
+        this.outputFormat = builder.outputFormat;
+        this.eventPrefixBytes = outputFormat.isBinary()
+                ? createEventPrefixBytes(outputFormat.getEventHeaderBytes())
+                : null;
+        this.eventTruncationEnabled = builder.eventTruncationEnabled;
+        this.destinationStreamingEnabled = builder.destinationStreamingEnabled;
+        this.maxTruncatedEventByteCount = builder.maxByteCount - lineSeparatorBytes.length;
+        ObjectMapper objectMapper = invokeFactoryMethod(builder.objectMapperFactoryMethod, ObjectMapper.class);
         StrSubstitutor substitutor = builder.config.getStrSubstitutor();
         TemplateResolver<StackTraceElement> stackTraceElementObjectResolver =
                 builder.stackTraceEnabled
                         ? createStackTraceElementResolver(builder, objectMapper, substitutor)
                         : null;
-        this.eventResolver = createEventResolver(builder, objectMapper, substitutor, stackTraceElementObjectResolver);
+        EventResolverContext eventResolverContext =
+                createEventResolverContext(builder, objectMapper, substitutor, stackTraceElementObjectResolver);
+        String eventTemplate = readEventTemplate(builder);
+        this.eventResolver = TemplateResolvers.ofTemplate(eventResolverContext, eventTemplate);
+        this.profiledEventResolver = profiler != null
+                ? TemplateResolvers.ofTemplate(eventResolverContext, eventTemplate, profiler)
+                : null;
         this.serializationContextSupplier = createSerializationContextSupplier(builder, objectMapper);
-        this.serializationContextRef = Constants.ENABLE_THREADLOCALS
+        this.serializationContextPool = builder.serializationContextPoolSize > 0
+                ? new StripedObjectPool<>(
+                        builder.serializationContextPoolSize,
+                        serializationContextSupplier,
+                        AutoCloseables::closeUnchecked)
+                : null;
+        this.serializationContextRef = serializationContextPool == null && Constants.ENABLE_THREADLOCALS
                 ? ThreadLocal.withInitial(serializationContextSupplier)
                 : null;
+        if (metrics != null || profiler != null) {
+            String metricsName = builder.metricsName != null
+                    ? builder.metricsName
+                    : "LogstashLayout@" + Integer.toHexString(System.identityHashCode(this));
+            if (metrics != null) {
+                LogstashLayoutMBeans.register(builder.config, metricsName, null, metrics);
+            }
+            if (profiler != null) {
+                LogstashLayoutMBeans.register(builder.config, metricsName, "Profiler", profiler);
+            }
+        }
+    }
+
+    private static byte[] createEventPrefixBytes(byte[] eventHeaderBytes) {
+        byte[] eventPrefixBytes = new byte[EVENT_LENGTH_PREFIX_BYTE_COUNT + eventHeaderBytes.length];
+        System.arraycopy(eventHeaderBytes, 0, eventPrefixBytes, EVENT_LENGTH_PREFIX_BYTE_COUNT, eventHeaderBytes.length);
+        return eventPrefixBytes;
     }
 
-    private static ObjectMapper createObjectMapper(String objectMapperFactoryMethod) {
+    private static <T> T invokeFactoryMethod(String factoryMethod, Class<T> type) {
         try {
-            int splitterIndex = objectMapperFactoryMethod.lastIndexOf('.');
-            String className = objectMapperFactoryMethod.substring(0, splitterIndex);
-            String methodName = objectMapperFactoryMethod.substring(splitterIndex + 1);
+            int splitterIndex = factoryMethod.lastIndexOf('.');
+            String className = factoryMethod.substring(0, splitterIndex);
+            String methodName = factoryMethod.substring(splitterIndex + 1);
             Class<?> clazz = Class.forName(className);
             if ("new".equals(methodName)) {
-                return (ObjectMapper) clazz.newInstance();
+                return type.cast(clazz.newInstance());
             } else {
                 Method method = clazz.getMethod(methodName);
-                return (ObjectMapper) method.invoke(null);
+                return type.cast(method.invoke(null));
             }
         } catch (Exception error) {
             throw new RuntimeException(error);
@@ -117,51 +202,71 @@ public class LogstashLayout implements Layout<String> {
                         .setObjectMapper(objectMapper)
                         .setSubstitutor(substitutor)
                         .setEmptyPropertyExclusionEnabled(builder.emptyPropertyExclusionEnabled)
+                        .setTemplateSpecializationEnabled(builder.templateSpecializationEnabled)
                         .build();
         String stackTraceElementTemplate = readStackTraceElementTemplate(builder);
         return TemplateResolvers.ofTemplate(stackTraceElementObjectResolverContext, stackTraceElementTemplate);
     }
 
-    private TemplateResolver<LogEvent> createEventResolver(
+    private EventResolverContext createEventResolverContext(
             Builder builder,
             ObjectMapper objectMapper,
             StrSubstitutor substitutor,
             TemplateResolver<StackTraceElement> stackTraceElementObjectResolver) {
-        String eventTemplate = readEventTemplate(builder);
         int writerCapacity = builder.maxStringLength > 0
                 ? builder.maxStringLength
                 : builder.maxByteCount;
         TimeZone timeZone = TimeZone.getTimeZone(builder.timeZoneId);
         Locale locale = readLocale(builder.locale);
         FastDateFormat timestampFormat = FastDateFormat.getInstance(builder.dateTimeFormatPattern, timeZone, locale);
-        EventResolverContext resolverContext = EventResolverContext
+        // Spliced stack traces can neither be indented nor written by binary
+        // generators, hence no caching while pretty printing or for binary
+        // output formats.
+        int stackTraceCacheSize = builder.prettyPrintEnabled || builder.outputFormat.isBinary()
+                ? 0
+                : builder.stackTraceCacheSize;
+        return EventResolverContext
                 .newBuilder()
                 .setObjectMapper(objectMapper)
+                .setJsonValueWriters(invokeFactoryMethod(builder.jsonValueWritersFactoryMethod, JsonValueWriters.class))
                 .setSubstitutor(substitutor)
                 .setWriterCapacity(writerCapacity)
+                .setMaxByteCount(builder.maxByteCount)
+                .setMaxStringLength(builder.maxStringLength)
                 .setTimeZone(timeZone)
                 .setLocale(locale)
                 .setTimestampFormat(timestampFormat)
                 .setLocationInfoEnabled(builder.locationInfoEnabled)
                 .setStackTraceEnabled(builder.stackTraceEnabled)
                 .setStackTraceElementObjectResolver(stackTraceElementObjectResolver)
+                .setStackTraceCacheSize(stackTraceCacheSize)
                 .setEmptyPropertyExclusionEnabled(builder.emptyPropertyExclusionEnabled)
+                .setTemplateSpecializationEnabled(builder.templateSpecializationEnabled)
                 .setMdcKeyPattern(builder.mdcKeyPattern)
+                .setMdcKeys(readStrings(builder.mdcKeys))
+                .setMdcKeyPrefixes(readStrings(builder.mdcKeyPrefixes))
                 .setNdcPattern(builder.ndcPattern)
+                .setNdcPrefixes(readStrings(builder.ndcPrefixes))
                 .setAdditionalFields(builder.eventTemplateAdditionalFields.pairs)
                 .setMapMessageFormatterIgnored(builder.mapMessageFormatterIgnored)
+                .setMessageJsonMode(builder.messageJsonMode)
+                .setMetrics(metrics)
                 .build();
-        return TemplateResolvers.ofTemplate(resolverContext, eventTemplate);
     }
 
     private static Supplier<LogstashLayoutSerializationContext>
     createSerializationContextSupplier(Builder builder, ObjectMapper objectMapper) {
+        int initialByteCount = builder.initialByteCount > 0
+                ? builder.initialByteCount
+                : builder.maxByteCount;
         return LogstashLayoutSerializationContexts.createSupplier(
                 objectMapper,
+                initialByteCount,
                 builder.maxByteCount,
                 builder.prettyPrintEnabled,
-                builder.emptyPropertyExclusionEnabled,
-                builder.maxStringLength);
+                builder.maxStringLength,
+                builder.directJsonGeneratorEnabled,
+                builder.outputFormat);
     }
 
     private static String readEventTemplate(Builder builder) {
@@ -191,58 +296,357 @@ public class LogstashLayout implements Layout<String> {
         throw new IllegalArgumentException("invalid locale: " + locale);
     }
 
+    /**
+     * @return the non-blank comma-separated strings, or {@code null}, if
+     * there are none
+     */
+    private static String[] readStrings(String strings) {
+        if (StringUtils.isBlank(strings)) {
+            return null;
+        }
+        return Arrays
+                .stream(strings.split(","))
+                .map(String::trim)
+                .filter(string -> !string.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    /**
+     * @throws UnsupportedOperationException for binary output formats, which
+     * need to be serialized via {@link #toByteArray(LogEvent)} or {@link
+     * #encode(LogEvent, ByteBufferDestination)} instead
+     */
     @Override
     public String toSerializable(LogEvent event) {
+        if (outputFormat.isBinary()) {
+            throw new UnsupportedOperationException("binary output formats cannot be serialized into strings");
+        }
         LogstashLayoutSerializationContext context = getResetSerializationContext();
+        boolean truncated;
+        String json;
         try {
-            encode(event, context);
-            return context.getOutputStream().toString(CHARSET);
+            truncated = encode(event, context);
+            json = context.getOutputStream().toString(CHARSET);
         } catch (Exception error) {
             reloadSerializationContext(context);
             throw new RuntimeException("failed serializing JSON", error);
         }
+        if (truncated) {
+            reloadTruncatedSerializationContext(context);
+        } else {
+            releaseSerializationContext(context);
+        }
+        return json;
     }
 
     @Override
     public byte[] toByteArray(LogEvent event) {
         LogstashLayoutSerializationContext context = getResetSerializationContext();
+        boolean truncated;
+        byte[] jsonBytes;
         try {
-            encode(event, context);
-            return context.getOutputStream().toByteArray();
+            truncated = encode(event, context);
+            jsonBytes = context.getOutputStream().toByteArray();
         } catch (Exception error) {
             reloadSerializationContext(context);
             throw new RuntimeException("failed serializing JSON", error);
         }
+        if (truncated) {
+            reloadTruncatedSerializationContext(context);
+        } else {
+            releaseSerializationContext(context);
+        }
+        return jsonBytes;
     }
 
     @Override
     public void encode(LogEvent event, ByteBufferDestination destination) {
         LogstashLayoutSerializationContext context = getResetSerializationContext();
-        try {
-            encode(event, context);
-            ByteBuffer byteBuffer = context.getOutputStream().getByteBuffer();
-            // noinspection RedundantCast (for Java 8 compatibility)
-            ((Buffer) byteBuffer).flip();
-            // noinspection SynchronizationOnLocalVariableOrMethodParameter
-            synchronized (destination) {
-                ByteBufferDestinations.writeToUnsynchronized(byteBuffer, destination);
+        boolean contextReusable = encode(event, destination, context);
+        if (contextReusable) {
+            releaseSerializationContext(context);
+        }
+    }
+
+    /**
+     * Encodes the given events into the destination reusing the same
+     * serialization context, rather than acquiring one per event.
+     * <p>
+     * Events are serialized back-to-back into the buffer of the context
+     * outside the destination lock, which is then acquired once per filled
+     * buffer to write them at once. An event either not fitting into the rest
+     * of the buffer or failing is retried on its own, after the preceding
+     * ones are written. The {@link #isDestinationStreamingThread() streaming
+     * thread} rather streams the events one after another while holding the
+     * destination lock throughout.
+     * <p>
+     * A failing event does not prevent the succeeding ones from being
+     * encoded. Once all events are processed, the first failure is rethrown
+     * with the rest attached as suppressed.
+     */
+    public void encodeAll(List<LogEvent> events, ByteBufferDestination destination) {
+        if (destinationStreamingEnabled && isDestinationStreamingThread()) {
+            encodeAllToDestination(events, destination);
+        } else {
+            encodeAllToBuffer(events, destination);
+        }
+    }
+
+    private void encodeAllToDestination(List<LogEvent> events, ByteBufferDestination destination) {
+        RuntimeException failure = null;
+        LogstashLayoutSerializationContext context = null;
+        // noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (destination) {
+            // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+            for (int eventIndex = 0; eventIndex < events.size(); eventIndex++) {
+                LogEvent event = events.get(eventIndex);
+                if (context == null) {
+                    context = getResetSerializationContext();
+                }
+                boolean contextReusable = false;
+                try {
+                    contextReusable = encodeToDestination(event, destination, context);
+                } catch (RuntimeException error) {
+                    failure = addFailure(failure, error);
+                }
+                if (contextReusable) {
+                    context.reset();
+                } else {
+                    context = null;
+                }
             }
+        }
+        if (context != null) {
+            releaseSerializationContext(context);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void encodeAllToBuffer(List<LogEvent> events, ByteBufferDestination destination) {
+        RuntimeException failure = null;
+        LogstashLayoutSerializationContext context = getResetSerializationContext();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int eventIndex = 0; eventIndex < events.size(); eventIndex++) {
+            LogEvent event = events.get(eventIndex);
+
+            // Try to append the event to the preceding ones.
+            int eventStartPosition = context.getOutputStream().size();
+            if (eventStartPosition > 0) {
+                long startNanos = metrics != null ? metrics.startEncode() : 0L;
+                try {
+                    append(event, context, eventStartPosition);
+                    if (metrics != null) {
+                        metrics.recordEvent(startNanos, context.getOutputStream().size() - eventStartPosition);
+                    }
+                    continue;
+                } catch (Exception error) {
+                    // Write the preceding events, and retry the event on its
+                    // own, which takes care of truncation and failures. An
+                    // event merely not fitting into the rest of the buffer
+                    // does not spoil the context, hence it is rewound rather
+                    // than reloaded.
+                    writeTo(context.getOutputStream(), eventStartPosition, destination);
+                    boolean rewound = Throwables.isBufferOverflow(error) && rewindSerializationContext(context);
+                    if (!rewound) {
+                        reloadTruncatedSerializationContext(context);
+                        context = getResetSerializationContext();
+                    }
+                }
+            }
+
+            // Encode the event on its own.
+            boolean truncated;
+            try {
+                truncated = encode(event, context);
+            } catch (Exception error) {
+                reloadSerializationContext(context);
+                context = getResetSerializationContext();
+                failure = addFailure(failure, new RuntimeException("failed serializing JSON", error));
+                continue;
+            }
+
+            // Write the truncated event right away, since its context needs to be reloaded.
+            if (truncated) {
+                ByteBufferOutputStream outputStream = context.getOutputStream();
+                writeTo(outputStream, outputStream.size(), destination);
+                reloadTruncatedSerializationContext(context);
+                context = getResetSerializationContext();
+            }
+
+        }
+
+        // Write the rest of the events.
+        ByteBufferOutputStream outputStream = context.getOutputStream();
+        int byteCount = outputStream.size();
+        if (byteCount > 0) {
+            writeTo(outputStream, byteCount, destination);
+        }
+        releaseSerializationContext(context);
+        if (failure != null) {
+            throw failure;
+        }
+
+    }
+
+    private static RuntimeException addFailure(RuntimeException failure, RuntimeException error) {
+        if (failure == null) {
+            return error;
+        }
+        failure.addSuppressed(error);
+        return failure;
+    }
+
+    /**
+     * Writes the first {@code byteCount} bytes of the output into the
+     * destination, while holding the destination lock. The output stream
+     * needs to be cleared afterwards.
+     */
+    private static void writeTo(ByteBufferOutputStream outputStream, int byteCount, ByteBufferDestination destination) {
+        ByteBuffer byteBuffer = outputStream.getByteBuffer();
+        // noinspection RedundantCast (for Java 8 compatibility)
+        ((Buffer) byteBuffer).limit(byteCount).position(0);
+        // noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (destination) {
+            ByteBufferDestinations.writeToUnsynchronized(byteBuffer, destination);
+        }
+    }
+
+    /**
+     * @return {@code true}, if the context can be reused after a reset, that
+     * is, it is not reloaded
+     */
+    private boolean encode(
+            LogEvent event,
+            ByteBufferDestination destination,
+            LogstashLayoutSerializationContext context) {
+        return destinationStreamingEnabled && isDestinationStreamingThread()
+                ? encodeToDestination(event, destination, context)
+                : encodeToBuffer(event, destination, context);
+    }
+
+    /**
+     * Checks if the current thread is the one streaming events into
+     * destinations, which is claimed by the first thread encoding an event
+     * and handed over once that thread dies.
+     * <p>
+     * Streaming holds the destination lock during serialization, which is
+     * only acceptable for a single writer, e.g., the background thread of an
+     * {@code AsyncAppender} or of async loggers. Hence, the rest of the
+     * threads serialize outside the lock and only copy under it.
+     */
+    private boolean isDestinationStreamingThread() {
+        Thread currentThread = Thread.currentThread();
+        Thread streamingThread = destinationStreamingThreadRef.get();
+        if (streamingThread == currentThread) {
+            return true;
+        }
+        return (streamingThread == null || !streamingThread.isAlive()) &&
+                destinationStreamingThreadRef.compareAndSet(streamingThread, currentThread);
+    }
+
+    /**
+     * Serializes the event straight into the buffer of the destination,
+     * draining it on demand, while holding the destination lock, and hence,
+     * is only used by the {@link #isDestinationStreamingThread() streaming
+     * thread}.
+     * <p>
+     * Failures before anything is drained roll the destination buffer back,
+     * and get retried via {@link #encodeToBuffer(LogEvent,
+     * ByteBufferDestination, LogstashLayoutSerializationContext)}, which also
+     * takes care of truncation.
+     *
+     * @return {@code true}, if the context can be reused after a reset
+     */
+    private boolean encodeToDestination(
+            LogEvent event,
+            ByteBufferDestination destination,
+            LogstashLayoutSerializationContext context) {
+        // noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (destination) {
+            if (!ByteBufferOutputStream.isAttachable(destination.getByteBuffer())) {
+                return encodeToBuffer(event, destination, context);
+            }
+            ByteBufferOutputStream outputStream = context.getOutputStream();
+            outputStream.attach(destination);
+            try {
+                long startNanos = metrics != null ? metrics.startEncode() : 0L;
+                JsonGenerator jsonGenerator = context.getJsonGenerator();
+                getEventResolver().resolve(event, jsonGenerator);
+                jsonGenerator.flush();
+                if (outputStream.size() > maxTruncatedEventByteCount) {
+                    throw new BufferOverflowException();
+                }
+                writeEventSuffix(outputStream, 0);
+                if (metrics != null) {
+                    metrics.recordEvent(startNanos, outputStream.size());
+                }
+                outputStream.detach();
+                return true;
+            } catch (Exception error) {
+                boolean reverted = outputStream.revert();
+                outputStream.detach();
+                reloadSerializationContext(context);
+                if (!reverted) {
+                    throw new RuntimeException("failed serializing JSON", error);
+                }
+            }
+            LogstashLayoutSerializationContext bufferContext = getResetSerializationContext();
+            boolean bufferContextReusable = encodeToBuffer(event, destination, bufferContext);
+            if (bufferContextReusable) {
+                releaseSerializationContext(bufferContext);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return {@code true}, if the context can be reused after a reset
+     */
+    private boolean encodeToBuffer(
+            LogEvent event,
+            ByteBufferDestination destination,
+            LogstashLayoutSerializationContext context) {
+        boolean truncated;
+        try {
+            truncated = encode(event, context);
+            ByteBufferOutputStream outputStream = context.getOutputStream();
+            writeTo(outputStream, outputStream.size(), destination);
         } catch (Exception error) {
             reloadSerializationContext(context);
             throw new RuntimeException("failed serializing JSON", error);
         }
+        if (truncated) {
+            reloadTruncatedSerializationContext(context);
+            return false;
+        }
+        return true;
     }
 
     // Visible for tests.
     LogstashLayoutSerializationContext getSerializationContext() {
-        return Constants.ENABLE_THREADLOCALS
+        if (serializationContextPool != null) {
+            LogstashLayoutSerializationContext context = serializationContextPool.acquire();
+            serializationContextPool.release(context);
+            return context;
+        }
+        return serializationContextRef != null
                 ? serializationContextRef.get()
                 : serializationContextSupplier.get();
     }
 
+    /**
+     * Acquires a context, which needs to be either released via {@link
+     * #releaseSerializationContext(LogstashLayoutSerializationContext)} or
+     * reloaded after use.
+     */
     private LogstashLayoutSerializationContext getResetSerializationContext() {
         LogstashLayoutSerializationContext context;
-        if (Constants.ENABLE_THREADLOCALS) {
+        if (serializationContextPool != null) {
+            context = serializationContextPool.acquire();
+            context.reset();
+        } else if (serializationContextRef != null) {
             context = serializationContextRef.get();
             context.reset();
         } else {
@@ -251,27 +655,175 @@ public class LogstashLayout implements Layout<String> {
         return context;
     }
 
+    private void releaseSerializationContext(LogstashLayoutSerializationContext context) {
+        if (serializationContextPool != null) {
+            serializationContextPool.release(context);
+        }
+    }
+
+    /**
+     * Reloads the context whose generator is left in an inconsistent state by
+     * an overflow, after its output is consumed.
+     */
+    /**
+     * Discards the partially serialized event of a context whose preceding
+     * events are already written, by closing the containers left open in the
+     * generator and clearing the output, such that the context can be reused
+     * without getting reloaded.
+     *
+     * @return {@code true}, if the context is rewound, otherwise it needs to
+     * be reloaded
+     */
+    private static boolean rewindSerializationContext(LogstashLayoutSerializationContext context) {
+        context.reset();
+        JsonGenerator jsonGenerator = context.getJsonGenerator();
+        try {
+            JsonStreamContext outputContext;
+            while (!(outputContext = jsonGenerator.getOutputContext()).inRoot()) {
+                if (outputContext.inObject()) {
+                    jsonGenerator.writeEndObject();
+                } else {
+                    jsonGenerator.writeEndArray();
+                }
+            }
+            jsonGenerator.flush();
+        } catch (Exception ignored) {
+            return false;
+        }
+        context.reset();
+        return true;
+    }
+
+    private void reloadTruncatedSerializationContext(LogstashLayoutSerializationContext oldContext) {
+        // Make room for the bytes the generator might flush while closing.
+        oldContext.reset();
+        reloadSerializationContext(oldContext);
+    }
+
     private void reloadSerializationContext(LogstashLayoutSerializationContext oldContext) {
+        if (metrics != null) {
+            metrics.recordContextReload();
+        }
         AutoCloseables.closeUnchecked(oldContext);
-        if (Constants.ENABLE_THREADLOCALS) {
+        if (serializationContextRef != null) {
             LogstashLayoutSerializationContext newContext = serializationContextSupplier.get();
             serializationContextRef.set(newContext);
         }
     }
 
-    private void encode(LogEvent event, LogstashLayoutSerializationContext context) throws IOException {
+    /**
+     * @return {@code true}, if the event is truncated
+     */
+    private boolean encode(LogEvent event, LogstashLayoutSerializationContext context) throws IOException {
+        long startNanos = metrics != null ? metrics.startEncode() : 0L;
+        ByteBufferOutputStream outputStream = context.getOutputStream();
+        boolean truncated = false;
+        try {
+            append(event, context, 0);
+        } catch (Exception error) {
+            boolean overflow = Throwables.isBufferOverflow(error);
+            if (overflow && metrics != null) {
+                metrics.recordOverflow();
+            }
+            if (!eventTruncationEnabled || !overflow) {
+                throw error;
+            }
+            truncated = true;
+        }
+        if (truncated) {
+            encodeTruncated(event, context);
+        }
+        if (metrics != null) {
+            metrics.recordEvent(startNanos, outputStream.size());
+        }
+        return truncated;
+    }
+
+    /**
+     * Serializes the event into the output of the context, following the
+     * events already serialized into it, if any.
+     */
+    private void append(
+            LogEvent event,
+            LogstashLayoutSerializationContext context,
+            int eventStartPosition)
+            throws IOException {
+        ByteBufferOutputStream outputStream = context.getOutputStream();
+        writeEventPrefix(outputStream);
         JsonGenerator jsonGenerator = context.getJsonGenerator();
-        eventResolver.resolve(event, jsonGenerator);
+        getEventResolver().resolve(event, jsonGenerator);
         jsonGenerator.flush();
+        writeEventSuffix(outputStream, eventStartPosition);
+    }
+
+    /**
+     * @return the resolver to serialize the next event with, i.e., the
+     * profiled one, if the event is sampled by the profiler
+     */
+    private TemplateResolver<LogEvent> getEventResolver() {
+        return profiler != null && profiler.isSampled() ? profiledEventResolver : eventResolver;
+    }
+
+    private void encodeTruncated(LogEvent event, LogstashLayoutSerializationContext context) throws IOException {
         ByteBufferOutputStream outputStream = context.getOutputStream();
         ByteBuffer byteBuffer = outputStream.getByteBuffer();
         // noinspection RedundantCast (for Java 8 compatibility)
-        if (((Buffer) byteBuffer).position() == 0) {
+        ((Buffer) byteBuffer).clear();
+        ByteBufferJsonGenerator jsonGenerator = context.createTruncatingJsonGenerator(maxTruncatedEventByteCount);
+        try {
+            eventResolver.resolve(event, jsonGenerator);
+        } catch (Exception error) {
+            if (!jsonGenerator.isTruncated()) {
+                throw error;
+            }
+        }
+        writeEventSuffix(outputStream, 0);
+    }
+
+    /**
+     * Writes the length prefix placeholder and the header of an event of a
+     * binary output format. Neither destination streaming nor truncation are
+     * supported by such formats, hence the event always starts within the
+     * buffer of the stream.
+     */
+    private void writeEventPrefix(ByteBufferOutputStream outputStream) {
+        if (eventPrefixBytes != null) {
+            outputStream.write(eventPrefixBytes);
+        }
+    }
+
+    /**
+     * @param eventStartPosition the output size before the event, i.e., the
+     *                           position where its prefix starts
+     */
+    private void writeEventSuffix(ByteBufferOutputStream outputStream, int eventStartPosition) {
+        if (eventPrefixBytes != null) {
+            int eventByteCount = outputStream.size() - eventStartPosition - EVENT_LENGTH_PREFIX_BYTE_COUNT;
+            outputStream.getByteBuffer().putInt(eventStartPosition, eventByteCount);
+            return;
+        }
+        if (outputStream.size() == eventStartPosition) {
             outputStream.write(EMPTY_OBJECT_JSON_BYTES);
         }
         outputStream.write(lineSeparatorBytes);
     }
 
+    /**
+     * @return the metrics of the layout, or {@code null}, if {@code
+     * metricsEnabled} is not set
+     */
+    public LogstashLayoutMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the profiler of the layout, or {@code null}, if {@code
+     * profilerEnabled} is not set
+     */
+    public LogstashLayoutProfiler getProfiler() {
+        return profiler;
+    }
+
     @Override
     public byte[] getFooter() {
         return null;
@@ -284,7 +836,7 @@ public class LogstashLayout implements Layout<String> {
 
     @Override
     public String getContentType() {
-        return CONTENT_TYPE;
+        return outputFormat.getContentType();
     }
 
     @Override
@@ -343,24 +895,75 @@ public class LogstashLayout implements Layout<String> {
         @PluginBuilderAttribute
         private String mdcKeyPattern;
 
+        @PluginBuilderAttribute
+        private String mdcKeys;
+
+        @PluginBuilderAttribute
+        private String mdcKeyPrefixes;
+
         @PluginBuilderAttribute
         private String ndcPattern;
 
+        @PluginBuilderAttribute
+        private String ndcPrefixes;
+
         @PluginBuilderAttribute
         private String lineSeparator = System.lineSeparator();
 
         @PluginBuilderAttribute
         private int maxByteCount = 1024 * 16;  // 16 KiB
 
+        @PluginBuilderAttribute
+        private int initialByteCount = 0;
+
+        @PluginBuilderAttribute
+        private boolean eventTruncationEnabled = false;
+
         @PluginBuilderAttribute
         private int maxStringLength = 0;
 
         @PluginBuilderAttribute
         private String objectMapperFactoryMethod = "com.fasterxml.jackson.databind.ObjectMapper.new";
 
+        @PluginBuilderAttribute
+        private String jsonValueWritersFactoryMethod = "com.vlkan.log4j2.logstash.layout.util.JsonValueWriters.getDefault";
+
         @PluginBuilderAttribute
         private boolean mapMessageFormatterIgnored = true;
 
+        @PluginBuilderAttribute
+        private MessageJsonMode messageJsonMode = MessageJsonMode.TREE;
+
+        @PluginBuilderAttribute
+        private boolean directJsonGeneratorEnabled = false;
+
+        @PluginBuilderAttribute
+        private int stackTraceCacheSize = 0;
+
+        @PluginBuilderAttribute
+        private boolean destinationStreamingEnabled = false;
+
+        @PluginBuilderAttribute
+        private int serializationContextPoolSize = 0;
+
+        @PluginBuilderAttribute
+        private boolean templateSpecializationEnabled = false;
+
+        @PluginBuilderAttribute
+        private boolean metricsEnabled = false;
+
+        @PluginBuilderAttribute
+        private String metricsName = null;
+
+        @PluginBuilderAttribute
+        private boolean profilerEnabled = false;
+
+        @PluginBuilderAttribute
+        private int profilerSampleRate = 1000;
+
+        @PluginBuilderAttribute
+        private OutputFormat outputFormat = OutputFormat.JSON;
+
         private Builder() {
             // Do nothing.
         }
@@ -491,6 +1094,24 @@ public class LogstashLayout implements Layout<String> {
             return this;
         }
 
+        public String getMdcKeys() {
+            return mdcKeys;
+        }
+
+        public Builder setMdcKeys(String mdcKeys) {
+            this.mdcKeys = mdcKeys;
+            return this;
+        }
+
+        public String getMdcKeyPrefixes() {
+            return mdcKeyPrefixes;
+        }
+
+        public Builder setMdcKeyPrefixes(String mdcKeyPrefixes) {
+            this.mdcKeyPrefixes = mdcKeyPrefixes;
+            return this;
+        }
+
         public String getNdcPattern() {
             return ndcPattern;
         }
@@ -500,6 +1121,15 @@ public class LogstashLayout implements Layout<String> {
             return this;
         }
 
+        public String getNdcPrefixes() {
+            return ndcPrefixes;
+        }
+
+        public Builder setNdcPrefixes(String ndcPrefixes) {
+            this.ndcPrefixes = ndcPrefixes;
+            return this;
+        }
+
         public String getLineSeparator() {
             return lineSeparator;
         }
@@ -518,6 +1148,24 @@ public class LogstashLayout implements Layout<String> {
             return this;
         }
 
+        public int getInitialByteCount() {
+            return initialByteCount;
+        }
+
+        public Builder setInitialByteCount(int initialByteCount) {
+            this.initialByteCount = initialByteCount;
+            return this;
+        }
+
+        public boolean isEventTruncationEnabled() {
+            return eventTruncationEnabled;
+        }
+
+        public Builder setEventTruncationEnabled(boolean eventTruncationEnabled) {
+            this.eventTruncationEnabled = eventTruncationEnabled;
+            return this;
+        }
+
         public int getMaxStringLength() {
             return maxStringLength;
         }
@@ -536,6 +1184,15 @@ public class LogstashLayout implements Layout<String> {
             return this;
         }
 
+        public String getJsonValueWritersFactoryMethod() {
+            return jsonValueWritersFactoryMethod;
+        }
+
+        public Builder setJsonValueWritersFactoryMethod(String jsonValueWritersFactoryMethod) {
+            this.jsonValueWritersFactoryMethod = jsonValueWritersFactoryMethod;
+            return this;
+        }
+
         public boolean isMapMessageFormatterIgnored() {
             return mapMessageFormatterIgnored;
         }
@@ -545,6 +1202,105 @@ public class LogstashLayout implements Layout<String> {
             return this;
         }
 
+        public MessageJsonMode getMessageJsonMode() {
+            return messageJsonMode;
+        }
+
+        public Builder setMessageJsonMode(MessageJsonMode messageJsonMode) {
+            this.messageJsonMode = messageJsonMode;
+            return this;
+        }
+
+        public boolean isDirectJsonGeneratorEnabled() {
+            return directJsonGeneratorEnabled;
+        }
+
+        public Builder setDirectJsonGeneratorEnabled(boolean directJsonGeneratorEnabled) {
+            this.directJsonGeneratorEnabled = directJsonGeneratorEnabled;
+            return this;
+        }
+
+        public int getStackTraceCacheSize() {
+            return stackTraceCacheSize;
+        }
+
+        public Builder setStackTraceCacheSize(int stackTraceCacheSize) {
+            this.stackTraceCacheSize = stackTraceCacheSize;
+            return this;
+        }
+
+        public boolean isDestinationStreamingEnabled() {
+            return destinationStreamingEnabled;
+        }
+
+        public Builder setDestinationStreamingEnabled(boolean destinationStreamingEnabled) {
+            this.destinationStreamingEnabled = destinationStreamingEnabled;
+            return this;
+        }
+
+        public int getSerializationContextPoolSize() {
+            return serializationContextPoolSize;
+        }
+
+        public Builder setSerializationContextPoolSize(int serializationContextPoolSize) {
+            this.serializationContextPoolSize = serializationContextPoolSize;
+            return this;
+        }
+
+        public boolean isTemplateSpecializationEnabled() {
+            return templateSpecializationEnabled;
+        }
+
+        public Builder setTemplateSpecializationEnabled(boolean templateSpecializationEnabled) {
+            this.templateSpecializationEnabled = templateSpecializationEnabled;
+            return this;
+        }
+
+        public boolean isMetricsEnabled() {
+            return metricsEnabled;
+        }
+
+        public Builder setMetricsEnabled(boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+            return this;
+        }
+
+        public String getMetricsName() {
+            return metricsName;
+        }
+
+        public Builder setMetricsName(String metricsName) {
+            this.metricsName = metricsName;
+            return this;
+        }
+
+        public boolean isProfilerEnabled() {
+            return profilerEnabled;
+        }
+
+        public Builder setProfilerEnabled(boolean profilerEnabled) {
+            this.profilerEnabled = profilerEnabled;
+            return this;
+        }
+
+        public int getProfilerSampleRate() {
+            return profilerSampleRate;
+        }
+
+        public Builder setProfilerSampleRate(int profilerSampleRate) {
+            this.profilerSampleRate = profilerSampleRate;
+            return this;
+        }
+
+        public OutputFormat getOutputFormat() {
+            return outputFormat;
+        }
+
+        public Builder setOutputFormat(OutputFormat outputFormat) {
+            this.outputFormat = outputFormat;
+            return this;
+        }
+
         @Override
         public LogstashLayout build() {
             validate();
@@ -565,8 +1321,31 @@ public class LogstashLayout implements Layout<String> {
                         "both stackTraceElementTemplate and stackTraceElementTemplateUri are blank");
             }
             Validate.isTrue(maxByteCount > 0, "maxByteCount requires a non-zero positive integer");
+            Validate.isTrue(initialByteCount >= 0, "initialByteCount requires a positive integer");
+            Validate.isTrue(initialByteCount <= maxByteCount, "initialByteCount cannot be greater than maxByteCount");
             Validate.isTrue(maxStringLength >= 0, "maxStringLength requires a positive integer");
+            Validate.isTrue(stackTraceCacheSize >= 0, "stackTraceCacheSize requires a positive integer");
+            Validate.isTrue(serializationContextPoolSize >= 0, "serializationContextPoolSize requires a positive integer");
             Validate.notNull(objectMapperFactoryMethod, "objectMapperFactoryMethod");
+            Validate.notNull(jsonValueWritersFactoryMethod, "jsonValueWritersFactoryMethod");
+            Validate.notNull(messageJsonMode, "messageJsonMode");
+            if (emptyPropertyExclusionEnabled) {
+                Validate.isTrue(
+                        messageJsonMode != MessageJsonMode.RAW,
+                        "messageJsonMode=raw requires emptyPropertyExclusionEnabled=false");
+            }
+            if (metricsName != null) {
+                Validate.notBlank(metricsName, "metricsName");
+            }
+            Validate.isTrue(profilerSampleRate >= 0, "profilerSampleRate requires a positive integer");
+            Validate.notNull(outputFormat, "outputFormat");
+            if (outputFormat.isBinary()) {
+                Validate.isTrue(!prettyPrintEnabled, "prettyPrintEnabled requires outputFormat=json");
+                Validate.isTrue(!directJsonGeneratorEnabled, "directJsonGeneratorEnabled requires outputFormat=json");
+                Validate.isTrue(!eventTruncationEnabled, "eventTruncationEnabled requires outputFormat=json");
+                Validate.isTrue(!destinationStreamingEnabled, "destinationStreamingEnabled requires outputFormat=json");
+                Validate.isTrue(messageJsonMode != MessageJsonMode.RAW, "messageJsonMode=raw requires outputFormat=json");
+            }
         }
 
     }
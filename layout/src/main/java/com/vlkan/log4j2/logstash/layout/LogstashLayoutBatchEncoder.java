@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appender-side adapter accumulating log events until the end of a batch, as
+ * marked by {@link LogEvent#isEndOfBatch()} (e.g., by async loggers), and
+ * then encoding them at once via {@link LogstashLayout#encodeAll(List,
+ * ByteBufferDestination)}.
+ * <p>
+ * Since async loggers reuse their events, the accumulated ones are copied via
+ * {@link LogEvent#toImmutable()}. Instances are not thread-safe, that is,
+ * they are meant to be fed by a single thread, e.g., the background thread
+ * of an {@link org.apache.logging.log4j.core.appender.AsyncAppender}.
+ */
+public final class LogstashLayoutBatchEncoder {
+
+    private final LogstashLayout layout;
+
+    private final ByteBufferDestination destination;
+
+    private final int maxBatchSize;
+
+    private final List<LogEvent> events;
+
+    /**
+     * @param maxBatchSize maximum number of events accumulated before encoding,
+     *                     even if the end of the batch is not reached yet
+     */
+    public LogstashLayoutBatchEncoder(LogstashLayout layout, ByteBufferDestination destination, int maxBatchSize) {
+        Validate.notNull(layout, "layout");
+        Validate.notNull(destination, "destination");
+        Validate.isTrue(maxBatchSize > 0, "maxBatchSize requires a non-zero positive integer");
+        this.layout = layout;
+        this.destination = destination;
+        this.maxBatchSize = maxBatchSize;
+        this.events = new ArrayList<>(maxBatchSize);
+    }
+
+    /**
+     * @return {@code true}, if the accumulated events are encoded, hence the
+     * destination is due for a flush
+     */
+    public boolean append(LogEvent event) {
+        events.add(event.toImmutable());
+        if (event.isEndOfBatch() || events.size() >= maxBatchSize) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the accumulated events, if there are any.
+     */
+    public void flush() {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            layout.encodeAll(events, destination);
+        } finally {
+            events.clear();
+        }
+    }
+
+}
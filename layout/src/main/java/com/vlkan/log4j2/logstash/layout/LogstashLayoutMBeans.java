@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.jmx.Server;
+import org.apache.logging.log4j.spi.LoggerContextShutdownAware;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.apache.logging.log4j.util.PropertiesUtil;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registers the MBeans of layouts whose configurations have a {@link
+ * LoggerContext}, under names of the form {@code
+ * com.vlkan.log4j2.logstash.layout:type=<logger context
+ * name>,component=Layouts,name=<metricsName>[,subtype=<subtype>]}. MBeans get
+ * unregistered once the configuration is replaced or the logger context is
+ * stopped.
+ * <p>
+ * The domain is deliberately distinct from the one of Log4j, since Log4j
+ * unregisters all of its MBeans of a logger context after every
+ * reconfiguration, i.e., after the layouts are created.
+ */
+enum LogstashLayoutMBeans {;
+
+    private static final String JMX_DOMAIN = "com.vlkan.log4j2.logstash.layout";
+
+    private static final String JMX_DISABLED_PROPERTY_NAME = "log4j2.disable.jmx";
+
+    /**
+     * MBeans registered by this class, such that a layout of a replaced
+     * configuration does not unregister the MBean of its successor
+     * registered under the same name.
+     */
+    private static final ConcurrentMap<ObjectName, Object> REGISTERED_MBEAN_BY_NAME = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the given MBean, replacing the one registered under the same
+     * name, if any, unless JMX is disabled or the configuration does not
+     * belong to a logger context.
+     *
+     * @param subtype the {@code subtype} key of the MBean name, if not {@code null}
+     */
+    static void register(Configuration config, String name, String subtype, Object mbean) {
+        LoggerContext loggerContext = config.getLoggerContext();
+        boolean jmxDisabled = PropertiesUtil.getProperties().getBooleanProperty(JMX_DISABLED_PROPERTY_NAME);
+        if (loggerContext == null || jmxDisabled) {
+            return;
+        }
+        ObjectName objectName;
+        try {
+            objectName = createObjectName(loggerContext.getName(), name, subtype);
+        } catch (JMException error) {
+            StatusLogger.getLogger().error("failed creating the LogstashLayout MBean name: {}", name, error);
+            return;
+        }
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        synchronized (REGISTERED_MBEAN_BY_NAME) {
+            try {
+                if (mbeanServer.isRegistered(objectName)) {
+                    mbeanServer.unregisterMBean(objectName);
+                }
+                mbeanServer.registerMBean(mbean, objectName);
+            } catch (JMException error) {
+                StatusLogger.getLogger().error("failed registering the LogstashLayout MBean: {}", objectName, error);
+                return;
+            }
+            REGISTERED_MBEAN_BY_NAME.put(objectName, mbean);
+        }
+        Unregisterer unregisterer = new Unregisterer(mbeanServer, objectName, mbean, config);
+        loggerContext.addPropertyChangeListener(unregisterer);
+        loggerContext.addShutdownListener(unregisterer);
+    }
+
+    static ObjectName createObjectName(String loggerContextName, String name, String subtype) throws JMException {
+        String objectName = String.format(
+                "%s:type=%s,component=Layouts,name=%s",
+                JMX_DOMAIN, Server.escape(loggerContextName), Server.escape(name));
+        if (subtype != null) {
+            objectName += ",subtype=" + Server.escape(subtype);
+        }
+        return new ObjectName(objectName);
+    }
+
+    private static final class Unregisterer implements PropertyChangeListener, LoggerContextShutdownAware {
+
+        private final MBeanServer mbeanServer;
+
+        private final ObjectName objectName;
+
+        private final Object mbean;
+
+        private final Configuration config;
+
+        private Unregisterer(MBeanServer mbeanServer, ObjectName objectName, Object mbean, Configuration config) {
+            this.mbeanServer = mbeanServer;
+            this.objectName = objectName;
+            this.mbean = mbean;
+            this.config = config;
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            // Log4j fires events where both values are the new configuration
+            // too, which must not be mistaken for a replacement.
+            boolean configReplaced = LoggerContext.PROPERTY_CONFIG.equals(event.getPropertyName()) &&
+                    event.getOldValue() == config &&
+                    event.getNewValue() != config;
+            if (configReplaced) {
+                unregister((LoggerContext) event.getSource());
+            }
+        }
+
+        @Override
+        public void contextShutdown(org.apache.logging.log4j.spi.LoggerContext loggerContext) {
+            unregister((LoggerContext) loggerContext);
+        }
+
+        private void unregister(LoggerContext loggerContext) {
+            loggerContext.removePropertyChangeListener(this);
+            loggerContext.getListeners().remove(this);
+            synchronized (REGISTERED_MBEAN_BY_NAME) {
+                if (!REGISTERED_MBEAN_BY_NAME.remove(objectName, mbean)) {
+                    return;
+                }
+                try {
+                    mbeanServer.unregisterMBean(objectName);
+                } catch (JMException ignored) {
+                    // Already unregistered by someone else.
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import com.vlkan.log4j2.logstash.layout.util.LongHistogram;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a {@link LogstashLayout}, collected if {@code
+ * metricsEnabled} is set.
+ * <p>
+ * Counters are {@link LongAdder}s, which stripe themselves under contention,
+ * and distributions are {@link LongHistogram}s, hence recording neither
+ * locks nor allocates.
+ * <p>
+ * The metrics get registered as an MBean, if the configuration of the layout
+ * belongs to a logger context.
+ */
+public final class LogstashLayoutMetrics implements LogstashLayoutMetricsMXBean {
+
+    /**
+     * The inverse of the ratio of events whose serialization gets timed,
+     * required to be a power of two.
+     */
+    static final int ENCODE_TIMING_SAMPLE_RATE = 16;
+
+    private static final long UNSAMPLED_START_NANOS = Long.MIN_VALUE;
+
+    private final LongHistogram encodeNanosHistogram = new LongHistogram();
+
+    private final LongAdder encodeNanos = new LongAdder();
+
+    private final LongHistogram eventByteCountHistogram = new LongHistogram();
+
+    private final LongAdder byteCount = new LongAdder();
+
+    private final LongAdder overflowCount = new LongAdder();
+
+    private final LongAdder contextReloadCount = new LongAdder();
+
+    private final LongAdder stackTraceCacheHitCount = new LongAdder();
+
+    private final LongAdder stackTraceCacheMissCount = new LongAdder();
+
+    private final ConcurrentMap<String, LongAdder> resolverErrorCountByDirective = new ConcurrentHashMap<>();
+
+    /**
+     * Starts timing the serialization of an event, if the event is sampled.
+     * Timing costs two {@link System#nanoTime()} calls, which would outweigh
+     * the rest of the metrics, hence only 1 out of {@value
+     * #ENCODE_TIMING_SAMPLE_RATE} events (picked by a thread-local random
+     * number generator, rather than a shared counter) gets timed.
+     *
+     * @return the start time to be passed to {@link #recordEvent(long, int)}
+     */
+    public long startEncode() {
+        boolean sampled = (ThreadLocalRandom.current().nextInt() & (ENCODE_TIMING_SAMPLE_RATE - 1)) == 0;
+        return sampled ? System.nanoTime() : UNSAMPLED_START_NANOS;
+    }
+
+    /**
+     * Records a successfully serialized event.
+     *
+     * @param startNanos the value returned by {@link #startEncode()}
+     * @param byteCount the number of bytes of the serialized event
+     */
+    public void recordEvent(long startNanos, int byteCount) {
+        if (startNanos != UNSAMPLED_START_NANOS) {
+            long encodeNanos = System.nanoTime() - startNanos;
+            encodeNanosHistogram.record(encodeNanos);
+            this.encodeNanos.add(encodeNanos);
+        }
+        eventByteCountHistogram.record(byteCount);
+        this.byteCount.add(byteCount);
+    }
+
+    public void recordOverflow() {
+        overflowCount.increment();
+    }
+
+    public void recordContextReload() {
+        contextReloadCount.increment();
+    }
+
+    public void recordStackTraceCacheHit() {
+        stackTraceCacheHitCount.increment();
+    }
+
+    public void recordStackTraceCacheMiss() {
+        stackTraceCacheMissCount.increment();
+    }
+
+    /**
+     * @param directive a {@code ${json:...}} directive without the enclosing
+     *                  {@code ${json:} and {@code }}, e.g., {@code level}
+     * @return the counter of the failures of the given directive, to be
+     * retrieved once per resolver, rather than per failure
+     */
+    public LongAdder getResolverErrorCounter(String directive) {
+        return resolverErrorCountByDirective.computeIfAbsent(directive, ignored -> new LongAdder());
+    }
+
+    @Override
+    public long getEventCount() {
+        return eventByteCountHistogram.getCount();
+    }
+
+    @Override
+    public double getEncodeNanosMean() {
+        return mean(encodeNanos.sum(), encodeNanosHistogram.getCount());
+    }
+
+    @Override
+    public long getEncodeNanosP50() {
+        return encodeNanosHistogram.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getEncodeNanosP90() {
+        return encodeNanosHistogram.getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getEncodeNanosP99() {
+        return encodeNanosHistogram.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getEncodeNanosP999() {
+        return encodeNanosHistogram.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getEncodeNanosMax() {
+        return encodeNanosHistogram.getMaxValue();
+    }
+
+    @Override
+    public long getByteCount() {
+        return byteCount.sum();
+    }
+
+    @Override
+    public double getEventByteCountMean() {
+        return mean(byteCount.sum(), eventByteCountHistogram.getCount());
+    }
+
+    @Override
+    public long getEventByteCountP50() {
+        return eventByteCountHistogram.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getEventByteCountP99() {
+        return eventByteCountHistogram.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getEventByteCountMax() {
+        return eventByteCountHistogram.getMaxValue();
+    }
+
+    private static double mean(long sum, long count) {
+        return count > 0 ? (double) sum / count : 0D;
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    @Override
+    public long getContextReloadCount() {
+        return contextReloadCount.sum();
+    }
+
+    @Override
+    public long getStackTraceCacheHitCount() {
+        return stackTraceCacheHitCount.sum();
+    }
+
+    @Override
+    public long getStackTraceCacheMissCount() {
+        return stackTraceCacheMissCount.sum();
+    }
+
+    @Override
+    public double getStackTraceCacheHitRatio() {
+        long hitCount = stackTraceCacheHitCount.sum();
+        long lookupCount = hitCount + stackTraceCacheMissCount.sum();
+        return lookupCount > 0 ? (double) hitCount / lookupCount : Double.NaN;
+    }
+
+    @Override
+    public Map<String, Long> getResolverErrorCounts() {
+        Map<String, Long> resolverErrorCounts = new LinkedHashMap<>();
+        resolverErrorCountByDirective.forEach((directive, errorCount) ->
+                resolverErrorCounts.put(directive, errorCount.sum()));
+        return Collections.unmodifiableMap(resolverErrorCounts);
+    }
+
+    @Override
+    public void reset() {
+        encodeNanosHistogram.reset();
+        encodeNanos.reset();
+        eventByteCountHistogram.reset();
+        byteCount.reset();
+        overflowCount.reset();
+        contextReloadCount.reset();
+        stackTraceCacheHitCount.reset();
+        stackTraceCacheMissCount.reset();
+        resolverErrorCountByDirective.values().forEach(LongAdder::reset);
+    }
+
+}
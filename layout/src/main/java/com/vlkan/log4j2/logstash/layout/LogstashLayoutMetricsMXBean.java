@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LogstashLayoutMetrics}.
+ * <p>
+ * Durations are in nanoseconds and measured for a random sample of 1 out of
+ * 16 events, whereas counts cover all events. Percentiles and maximums are
+ * reported with a relative error of less than 12.5%.
+ */
+@SuppressWarnings("unused")
+public interface LogstashLayoutMetricsMXBean {
+
+    /**
+     * @return the number of serialized events
+     */
+    long getEventCount();
+
+    double getEncodeNanosMean();
+
+    long getEncodeNanosP50();
+
+    long getEncodeNanosP90();
+
+    long getEncodeNanosP99();
+
+    long getEncodeNanosP999();
+
+    long getEncodeNanosMax();
+
+    /**
+     * @return the number of bytes of the serialized events, including line
+     * separators
+     */
+    long getByteCount();
+
+    double getEventByteCountMean();
+
+    long getEventByteCountP50();
+
+    long getEventByteCountP99();
+
+    long getEventByteCountMax();
+
+    /**
+     * @return the number of events exceeding {@code maxByteCount}, whether
+     * they are truncated or not
+     */
+    long getOverflowCount();
+
+    /**
+     * @return the number of serialization contexts discarded due to failures
+     * or truncations
+     */
+    long getContextReloadCount();
+
+    long getStackTraceCacheHitCount();
+
+    long getStackTraceCacheMissCount();
+
+    /**
+     * @return the ratio of stack trace cache hits to lookups, or {@code NaN},
+     * if there are no lookups
+     */
+    double getStackTraceCacheHitRatio();
+
+    /**
+     * @return the number of failures per {@code ${json:...}} directive of the
+     * event template, excluding buffer overflows
+     */
+    Map<String, Long> getResolverErrorCounts();
+
+    /**
+     * Resets all metrics.
+     */
+    void reset();
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.resolver.TemplateResolver;
+import com.vlkan.log4j2.logstash.layout.resolver.TemplateResolverInterceptor;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import org.apache.commons.lang3.Validate;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sampling profiler of the template fields of a {@link LogstashLayout},
+ * enabled if {@code profilerEnabled} is set.
+ * <p>
+ * The layout compiles its event template a second time, where the resolver
+ * of every object field and array item is wrapped in a probe accumulating
+ * its running time into a {@link LongAdder}, and serializes 1 out of {@link
+ * #getSampleRate()} events using this probed resolver. The remaining events
+ * are serialized by the regular resolver, hence only pay for picking a
+ * random number. Probes of nested fields inflate the costs of their parents
+ * by the cost of {@link System#nanoTime()}.
+ * <p>
+ * The profiler gets registered as an MBean, if the configuration of the
+ * layout belongs to a logger context, allowing the sample rate to be changed
+ * at runtime.
+ */
+public final class LogstashLayoutProfiler implements LogstashLayoutProfilerMXBean, TemplateResolverInterceptor<LogEvent> {
+
+    private volatile int sampleRate;
+
+    private final LongAdder sampledEventCount = new LongAdder();
+
+    /**
+     * Accumulated costs in the order of the fields in the template. Populated
+     * while the template gets compiled, hence rarely contended.
+     */
+    private final Map<String, LongAdder> nanosByPath = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    LogstashLayoutProfiler(int sampleRate) {
+        setSampleRate(sampleRate);
+    }
+
+    @Override
+    public TemplateResolver<LogEvent> intercept(String path, TemplateResolver<LogEvent> resolver) {
+        LongAdder nanos = nanosByPath.computeIfAbsent(path, ignored -> new LongAdder());
+        return new ProbingResolver(resolver, nanos);
+    }
+
+    /**
+     * @return {@code true}, if the next event is to be serialized using the
+     * probed resolver
+     */
+    boolean isSampled() {
+        int sampleRate = this.sampleRate;
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return false;
+        }
+        sampledEventCount.increment();
+        return true;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        Validate.isTrue(sampleRate >= 0, "sampleRate requires a positive integer");
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public long getSampledEventCount() {
+        return sampledEventCount.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFieldNanos() {
+        Map<String, Long> fieldNanos = new LinkedHashMap<>();
+        synchronized (nanosByPath) {
+            nanosByPath.forEach((path, nanos) -> fieldNanos.put(path, nanos.sum()));
+        }
+        return Collections.unmodifiableMap(fieldNanos);
+    }
+
+    @Override
+    public Map<String, Double> getFieldNanosPerEvent() {
+        long eventCount = sampledEventCount.sum();
+        Map<String, Double> fieldNanosPerEvent = new LinkedHashMap<>();
+        synchronized (nanosByPath) {
+            nanosByPath.forEach((path, nanos) -> {
+                double nanosPerEvent = eventCount > 0 ? (double) nanos.sum() / eventCount : 0D;
+                fieldNanosPerEvent.put(path, nanosPerEvent);
+            });
+        }
+        return Collections.unmodifiableMap(fieldNanosPerEvent);
+    }
+
+    @Override
+    public void reset() {
+        sampledEventCount.reset();
+        synchronized (nanosByPath) {
+            nanosByPath.values().forEach(LongAdder::reset);
+        }
+    }
+
+    private static final class ProbingResolver implements TemplateResolver<LogEvent> {
+
+        private final TemplateResolver<LogEvent> delegate;
+
+        private final LongAdder nanos;
+
+        private ProbingResolver(TemplateResolver<LogEvent> delegate, LongAdder nanos) {
+            this.delegate = delegate;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public boolean isResolvable() {
+            return delegate.isResolvable();
+        }
+
+        @Override
+        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+            long startNanos = System.nanoTime();
+            try {
+                delegate.resolve(logEvent, jsonGenerator);
+            } finally {
+                nanos.add(System.nanoTime() - startNanos);
+            }
+        }
+
+        @Override
+        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+            long startNanos = System.nanoTime();
+            try {
+                return delegate.resolveField(logEvent, jsonGenerator, fieldName);
+            } finally {
+                nanos.add(System.nanoTime() - startNanos);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LogstashLayoutProfiler}.
+ * <p>
+ * Costs are keyed by the paths of the template fields, e.g., {@code
+ * exception.stacktrace} or {@code tags[0]}, and are in nanoseconds. The cost
+ * of a field includes the ones of its nested fields.
+ */
+@SuppressWarnings("unused")
+public interface LogstashLayoutProfilerMXBean {
+
+    /**
+     * @return the inverse of the ratio of events that get profiled, where
+     * {@code 0} denotes that profiling is paused
+     */
+    int getSampleRate();
+
+    /**
+     * @param sampleRate the inverse of the ratio of events to be profiled,
+     *                   e.g., {@code 1000} for 1 out of 1000 events, where
+     *                   {@code 0} pauses profiling
+     */
+    void setSampleRate(int sampleRate);
+
+    /**
+     * @return the number of profiled events
+     */
+    long getSampledEventCount();
+
+    /**
+     * @return the total time spent per field over the profiled events
+     */
+    Map<String, Long> getFieldNanos();
+
+    /**
+     * @return the mean time spent per field per profiled event, where the
+     * ones of the top-level fields add up to the cost of the template
+     * excluding the enclosing object itself
+     */
+    Map<String, Double> getFieldNanosPerEvent();
+
+    /**
+     * Discards the accumulated costs, without changing the sample rate.
+     */
+    void reset();
+
+}
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferJsonGenerator;
 import com.vlkan.log4j2.logstash.layout.util.ByteBufferOutputStream;
 
 interface LogstashLayoutSerializationContext extends AutoCloseable {
@@ -25,6 +26,13 @@ interface LogstashLayoutSerializationContext extends AutoCloseable {
 
     JsonGenerator getJsonGenerator();
 
+    /**
+     * Creates a generator writing into the output stream that truncates the
+     * output exceeding {@code maxByteCount}, to be used once the regular
+     * generator overflows.
+     */
+    ByteBufferJsonGenerator createTruncatingJsonGenerator(int maxByteCount);
+
     void reset();
 
 }
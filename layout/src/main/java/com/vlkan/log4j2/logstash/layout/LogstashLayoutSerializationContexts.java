@@ -18,43 +18,47 @@ package com.vlkan.log4j2.logstash.layout;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.core.PrettyPrinter;
-import com.fasterxml.jackson.core.filter.FilteringGeneratorDelegate;
-import com.fasterxml.jackson.core.filter.TokenFilter;
+import com.fasterxml.jackson.core.SerializableString;
 import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferJsonGenerator;
 import com.vlkan.log4j2.logstash.layout.util.ByteBufferOutputStream;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
-import java.nio.Buffer;
-import java.nio.ByteBuffer;
 import java.util.function.Supplier;
 
 enum LogstashLayoutSerializationContexts {;
 
     private static final SerializedString EMPTY_SERIALIZED_STRING = new SerializedString("");
 
-    private static final PrettyPrinter PRETTY_PRINTER = new DefaultPrettyPrinter("");
+    private static final DefaultPrettyPrinter PRETTY_PRINTER = new DefaultPrettyPrinter("");
 
     static Supplier<LogstashLayoutSerializationContext> createSupplier(
             ObjectMapper objectMapper,
+            int initialByteCount,
             int maxByteCount,
             boolean prettyPrintEnabled,
-            boolean emptyPropertyExclusionEnabled,
-            int maxStringLength) {
-        JsonFactory jsonFactory = new JsonFactory(objectMapper);
+            int maxStringLength,
+            boolean directJsonGeneratorEnabled,
+            OutputFormat outputFormat) {
+        JsonFactory jsonFactory = createJsonFactory(outputFormat, objectMapper);
         return () -> {
-            ByteBufferOutputStream outputStream = new ByteBufferOutputStream(maxByteCount);
+            ByteBufferOutputStream outputStream = new ByteBufferOutputStream(initialByteCount, maxByteCount);
             JsonGenerator jsonGenerator = createJsonGenerator(
                     jsonFactory,
                     outputStream,
                     prettyPrintEnabled,
-                    emptyPropertyExclusionEnabled,
-                    maxStringLength);
+                    maxStringLength,
+                    directJsonGeneratorEnabled);
             return new LogstashLayoutSerializationContext() {
 
                 @Override
@@ -67,6 +71,20 @@ enum LogstashLayoutSerializationContexts {;
                     return jsonGenerator;
                 }
 
+                @Override
+                public ByteBufferJsonGenerator createTruncatingJsonGenerator(int maxByteCount) {
+                    ByteBufferJsonGenerator truncatingJsonGenerator = new ByteBufferJsonGenerator(
+                            jsonFactory.getGeneratorFeatures(),
+                            jsonFactory.getCodec(),
+                            outputStream,
+                            maxStringLength,
+                            maxByteCount);
+                    if (prettyPrintEnabled) {
+                        truncatingJsonGenerator.setPrettyPrinter(createPrettyPrinter());
+                    }
+                    return truncatingJsonGenerator;
+                }
+
                 @Override
                 public void close() throws Exception {
                     jsonGenerator.close();
@@ -74,33 +92,65 @@ enum LogstashLayoutSerializationContexts {;
 
                 @Override
                 public void reset() {
-                    ByteBuffer byteBuffer = outputStream.getByteBuffer();
-                    // noinspection RedundantCast (for Java 8 compatibility)
-                    ((Buffer) byteBuffer).clear();
+                    outputStream.clear();
                 }
 
             };
         };
     }
 
+    private static JsonFactory createJsonFactory(OutputFormat outputFormat, ObjectMapper codec) {
+        switch (outputFormat) {
+            case JSON: return new JsonFactory(codec);
+            case CBOR: return CborFactories.create(codec);
+            case SMILE: return SmileFactories.create(codec);
+            default: throw new IllegalArgumentException("unknown output format: " + outputFormat);
+        }
+    }
+
+    /**
+     * Refers to the optional CBOR dependency, hence kept in a separate class
+     * to be loaded only if the format is used.
+     */
+    private enum CborFactories {;
+
+        private static JsonFactory create(ObjectCodec codec) {
+            return new CBORFactory(codec);
+        }
+
+    }
+
+    /**
+     * Refers to the optional Smile dependency, hence kept in a separate class
+     * to be loaded only if the format is used.
+     */
+    private enum SmileFactories {;
+
+        private static JsonFactory create(ObjectCodec codec) {
+            SmileFactory smileFactory = new SmileFactory(codec);
+            // Events are framed individually, hence the header is written
+            // per event by the layout, and back references across events
+            // are ruled out.
+            smileFactory.configure(SmileGenerator.Feature.WRITE_HEADER, false);
+            smileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_NAMES, false);
+            smileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, false);
+            return smileFactory;
+        }
+
+    }
+
     private static JsonGenerator createJsonGenerator(
             JsonFactory jsonFactory,
-            OutputStream outputStream,
+            ByteBufferOutputStream outputStream,
             boolean prettyPrintEnabled,
-            boolean emptyPropertyExclusionEnabled,
-            int maxStringLength) {
+            int maxStringLength,
+            boolean directJsonGeneratorEnabled) {
         try {
-            JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream);
-            jsonGenerator.setRootValueSeparator(EMPTY_SERIALIZED_STRING);
+            JsonGenerator jsonGenerator = directJsonGeneratorEnabled
+                    ? createDirectJsonGenerator(jsonFactory, outputStream, maxStringLength)
+                    : createJacksonJsonGenerator(jsonFactory, outputStream, maxStringLength);
             if (prettyPrintEnabled) {
-                jsonGenerator.setPrettyPrinter(PRETTY_PRINTER);
-            }
-            if (maxStringLength > 0) {
-                jsonGenerator = new StringTruncatingGeneratorDelegate(jsonGenerator, maxStringLength);
-            }
-            // TokenFilter has to come last due to FasterXML/jackson-core#609.
-            if (emptyPropertyExclusionEnabled) {
-                jsonGenerator = new FilteringGeneratorDelegate(jsonGenerator, NullExcludingTokenFilter.INSTANCE, true, true);
+                jsonGenerator.setPrettyPrinter(createPrettyPrinter());
             }
             return jsonGenerator;
         } catch (IOException error) {
@@ -108,15 +158,41 @@ enum LogstashLayoutSerializationContexts {;
         }
     }
 
-    private static class NullExcludingTokenFilter extends TokenFilter {
+    /**
+     * Pretty printers keep track of the nesting, hence every generator gets
+     * its own instance, which also stays consistent after truncations.
+     */
+    private static PrettyPrinter createPrettyPrinter() {
+        return PRETTY_PRINTER.createInstance();
+    }
 
-        private static final NullExcludingTokenFilter INSTANCE = new NullExcludingTokenFilter();
+    private static JsonGenerator createDirectJsonGenerator(
+            JsonFactory jsonFactory,
+            ByteBufferOutputStream outputStream,
+            int maxStringLength) {
+        // String truncation is natively supported by the direct generator,
+        // hence no need for a StringTruncatingGeneratorDelegate.
+        return new ByteBufferJsonGenerator(
+                jsonFactory.getGeneratorFeatures(),
+                jsonFactory.getCodec(),
+                outputStream,
+                maxStringLength);
+    }
 
-        @Override
-        public boolean includeNull() {
-            return false;
+    private static JsonGenerator createJacksonJsonGenerator(
+            JsonFactory jsonFactory,
+            OutputStream outputStream,
+            int maxStringLength)
+            throws IOException {
+        JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream);
+        // Binary generators write root values back-to-back anyway.
+        if (!jsonGenerator.canWriteBinaryNatively()) {
+            jsonGenerator.setRootValueSeparator(EMPTY_SERIALIZED_STRING);
         }
-
+        if (maxStringLength > 0) {
+            jsonGenerator = new StringTruncatingGeneratorDelegate(jsonGenerator, maxStringLength);
+        }
+        return jsonGenerator;
     }
 
     private static class StringTruncatingGeneratorDelegate extends JsonGeneratorDelegate {
@@ -140,6 +216,23 @@ enum LogstashLayoutSerializationContexts {;
             }
         }
 
+        @Override
+        public void writeString(char[] text, int offset, int length) throws IOException {
+            int truncatedLength = maxStringLength > 0 && maxStringLength < length
+                    ? maxStringLength
+                    : length;
+            super.writeString(text, offset, truncatedLength);
+        }
+
+        @Override
+        public void writeString(SerializableString text) throws IOException {
+            if (maxStringLength <= 0 || maxStringLength >= text.charLength()) {
+                super.writeString(text);
+            } else {
+                writeString(text.getValue());
+            }
+        }
+
         @Override
         public void writeFieldName(String name) throws IOException {
             if (maxStringLength <= 0 || maxStringLength >= name.length()) {
@@ -150,6 +243,21 @@ enum LogstashLayoutSerializationContexts {;
             }
         }
 
+        @Override
+        public void writeRawValue(SerializableString raw) throws IOException {
+            // Overriding to avoid JsonGenerator#writeRawValue(String) fallback.
+            delegate.writeRawValue(raw);
+        }
+
+        @Override
+        public void writeFieldName(SerializableString name) throws IOException {
+            if (maxStringLength <= 0 || maxStringLength >= name.charLength()) {
+                super.writeFieldName(name);
+            } else {
+                writeFieldName(name.getValue());
+            }
+        }
+
     }
 
 }
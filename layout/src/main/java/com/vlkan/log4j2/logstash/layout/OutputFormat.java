@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+
+/**
+ * Formats the event templates get serialized into.
+ * <p>
+ * Binary formats require the {@code jackson-dataformat-cbor} or {@code
+ * jackson-dataformat-smile} artifacts, respectively. Rather than being
+ * followed by {@code lineSeparator}, each event in a binary format is
+ * preceded by its length in bytes as a 4-byte big-endian integer, such that
+ * the stream can be split into events without parsing them.
+ */
+public enum OutputFormat {
+
+    JSON("application/json; charset=" + LogstashLayout.CHARSET, null),
+
+    CBOR("application/cbor", new byte[0]),
+
+    /**
+     * Every event starts with a Smile header, i.e., it can be decoded on its
+     * own. Shared names and string values are disabled, since their back
+     * references would cross event boundaries otherwise.
+     */
+    SMILE("application/x-jackson-smile", new byte[]{
+            // Compile-time constants, hence the class is not loaded.
+            SmileConstants.HEADER_BYTE_1,
+            SmileConstants.HEADER_BYTE_2,
+            SmileConstants.HEADER_BYTE_3,
+            SmileConstants.HEADER_BYTE_4
+    });
+
+    private final String contentType;
+
+    private final byte[] eventHeaderBytes;
+
+    OutputFormat(String contentType, byte[] eventHeaderBytes) {
+        this.contentType = contentType;
+        this.eventHeaderBytes = eventHeaderBytes;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    boolean isBinary() {
+        return eventHeaderBytes != null;
+    }
+
+    /**
+     * @return the bytes written after the length prefix of every event of a
+     * binary format, or {@code null} for textual formats
+     */
+    byte[] getEventHeaderBytes() {
+        return eventHeaderBytes;
+    }
+
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutMetrics;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferJsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferOutputStream;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import com.vlkan.log4j2.logstash.layout.util.RawJsonValue;
+import com.vlkan.log4j2.logstash.layout.util.ScratchSpace;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.BufferOverflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Stack trace resolver splicing already serialized stack traces into the
+ * output.
+ * <p>
+ * Serialized stack traces are looked up first by the throwable identity (via
+ * weak keys, hence throwables are not retained) and then by the shape of the
+ * stack trace, i.e., the frames and whatever else the delegate renders. Both
+ * caches are bounded by evicting a random entry once the maximum size is
+ * reached. Lookup keys, shapes, and the serialization buffer are kept in the
+ * {@link ScratchSpace} of the serialization context, hence only misses
+ * allocate, i.e., the cached key and the serialized bytes.
+ * <p>
+ * Throwables are assumed not to change once logged. A throwable whose stack
+ * trace, suppressed throwables, or cause gets modified (e.g., via {@link
+ * Throwable#setStackTrace(StackTraceElement[])} or {@link
+ * Throwable#addSuppressed(Throwable)}) after it got cached keeps on
+ * resolving to its stack trace at the time it got cached.
+ */
+class CachingStackTraceResolver implements StackTraceResolver {
+
+    private static final String CAUSE_MARKER = "Caused by";
+
+    private static final String SUPPRESSED_MARKER = "Suppressed";
+
+    private static final String CIRCULAR_MARKER = "Circular";
+
+    private static final int MAX_INITIAL_BYTE_COUNT = 8 * 1024;
+
+    /**
+     * Serialized stack traces standing for an empty property.
+     */
+    private static final byte[][] EMPTY_VALUES = {
+            "null".getBytes(StandardCharsets.UTF_8),
+            "\"\"".getBytes(StandardCharsets.UTF_8),
+            "[]".getBytes(StandardCharsets.UTF_8)
+    };
+
+    private static final Supplier<LookupContext> LOOKUP_CONTEXT_SUPPLIER = LookupContext::new;
+
+    /**
+     * Extracts the frames of the given throwable, as rendered by {@link StackTraceObjectResolver}.
+     */
+    static final ShapeExtractor FRAMES_SHAPE_EXTRACTOR = (throwable, shape) -> shape.addFrames(throwable);
+
+    /**
+     * Extracts the textual representations and frames of the given throwable
+     * along with its suppressed and causing throwables, as rendered by {@link
+     * StackTraceTextResolver}.
+     */
+    static final ShapeExtractor TEXT_SHAPE_EXTRACTOR = CachingStackTraceResolver::addTextShape;
+
+    private static void addTextShape(Throwable throwable, Shape shape) {
+        if (!shape.visit(throwable)) {
+            shape.add(CIRCULAR_MARKER);
+            shape.add(throwable.toString());
+            return;
+        }
+        shape.add(throwable.toString());
+        shape.addFrames(throwable);
+        Throwable[] suppressedThrowables = throwable.getSuppressed();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int suppressedThrowableIndex = 0;
+             suppressedThrowableIndex < suppressedThrowables.length;
+             suppressedThrowableIndex++) {
+            shape.add(SUPPRESSED_MARKER);
+            addTextShape(suppressedThrowables[suppressedThrowableIndex], shape);
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            shape.add(CAUSE_MARKER);
+            addTextShape(cause, shape);
+        }
+    }
+
+    private final StackTraceResolver delegate;
+
+    private final ShapeExtractor shapeExtractor;
+
+    private final int generatorFeatures;
+
+    private final ObjectMapper objectMapper;
+
+    private final int maxByteCount;
+
+    private final int maxStringLength;
+
+    private final LogstashLayoutMetrics metrics;
+
+    private final RandomEvictingMap<ThrowableReference> valueByThrowable;
+
+    private final ReferenceQueue<Throwable> collectedThrowables = new ReferenceQueue<>();
+
+    private final RandomEvictingMap<List<Object>> valueByShape;
+
+    CachingStackTraceResolver(
+            StackTraceResolver delegate,
+            ShapeExtractor shapeExtractor,
+            int maxSize,
+            ObjectMapper objectMapper,
+            int maxByteCount,
+            int maxStringLength,
+            LogstashLayoutMetrics metrics) {
+        this.delegate = delegate;
+        this.shapeExtractor = shapeExtractor;
+        this.objectMapper = objectMapper;
+        this.generatorFeatures = new JsonFactory(objectMapper).getGeneratorFeatures();
+        this.maxByteCount = maxByteCount;
+        this.maxStringLength = maxStringLength;
+        this.metrics = metrics;
+        this.valueByThrowable = new RandomEvictingMap<>(maxSize);
+        this.valueByShape = new RandomEvictingMap<>(maxSize);
+    }
+
+    @Override
+    public boolean isResolvable() {
+        return delegate.isResolvable();
+    }
+
+    @Override
+    public void resolve(Throwable throwable, JsonGenerator jsonGenerator) throws IOException {
+        RawJsonValue value = getValue(throwable, jsonGenerator);
+        if (value == null) {
+            delegate.resolve(throwable, jsonGenerator);
+        } else {
+            jsonGenerator.writeRawValue(value);
+        }
+    }
+
+    @Override
+    public boolean resolveField(Throwable throwable, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        RawJsonValue value = getValue(throwable, jsonGenerator);
+        if (value == null) {
+            return delegate.resolveField(throwable, jsonGenerator, fieldName);
+        }
+        if (isEmpty(value)) {
+            return false;
+        }
+        fieldName.write(jsonGenerator);
+        jsonGenerator.writeRawValue(value);
+        return true;
+    }
+
+    private static boolean isEmpty(RawJsonValue value) {
+        byte[] bytes = value.asUnquotedUTF8();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int emptyValueIndex = 0; emptyValueIndex < EMPTY_VALUES.length; emptyValueIndex++) {
+            if (Arrays.equals(EMPTY_VALUES[emptyValueIndex], bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private RawJsonValue getValue(Throwable throwable, JsonGenerator jsonGenerator) {
+
+        // Check the throwable identity.
+        LookupContext context = ScratchSpace.of(jsonGenerator).get(LOOKUP_CONTEXT_SUPPLIER);
+        ThrowableLookupKey lookupKey = context.lookupKey;
+        lookupKey.throwable = throwable;
+        RawJsonValue value;
+        try {
+            value = valueByThrowable.get(lookupKey);
+        } finally {
+            lookupKey.throwable = null;
+        }
+        if (value != null) {
+            recordHit();
+            return value;
+        }
+
+        // Check the stack trace shape.
+        try {
+            value = getValueByShape(throwable, context);
+        }
+        // Do not retain the throwables and frames beyond the lookup.
+        finally {
+            context.shape.clear();
+        }
+        if (value == null) {
+            return null;
+        }
+        expungeCollectedThrowables();
+        valueByThrowable.put(new WeakThrowableKey(throwable, collectedThrowables), value);
+        return value;
+
+    }
+
+    private RawJsonValue getValueByShape(Throwable throwable, LookupContext context) {
+        Shape shape = context.shape;
+        try {
+            shapeExtractor.extract(throwable, shape);
+        }
+        // Let the delegate deal with failures while accessing the stack trace.
+        catch (Throwable ignored) {
+            recordMiss();
+            return null;
+        }
+        RawJsonValue value = valueByShape.get(shape.components);
+        if (value == null) {
+            recordMiss();
+            value = serialize(throwable, context);
+            if (value != null) {
+                valueByShape.put(new ArrayList<>(shape.components), value);
+            }
+        } else {
+            recordHit();
+        }
+        return value;
+    }
+
+    private void recordHit() {
+        if (metrics != null) {
+            metrics.recordStackTraceCacheHit();
+        }
+    }
+
+    private void recordMiss() {
+        if (metrics != null) {
+            metrics.recordStackTraceCacheMiss();
+        }
+    }
+
+    private void expungeCollectedThrowables() {
+        Reference<? extends Throwable> reference;
+        while ((reference = collectedThrowables.poll()) != null) {
+            valueByThrowable.remove(reference);
+        }
+    }
+
+    /**
+     * @return the serialized stack trace, or {@code null} if it does not fit
+     * into {@code maxByteCount}
+     */
+    private RawJsonValue serialize(Throwable throwable, LookupContext context) {
+        ByteBufferOutputStream outputStream = context.getOutputStream(maxByteCount);
+        outputStream.clear();
+        try (JsonGenerator jsonGenerator = new ByteBufferJsonGenerator(
+                generatorFeatures,
+                objectMapper,
+                outputStream,
+                maxStringLength)) {
+            delegate.resolve(throwable, jsonGenerator);
+        } catch (BufferOverflowException ignored) {
+            return null;
+        } catch (IOException error) {
+            throw new RuntimeException("stack trace serialization failure", error);
+        }
+        byte[] bytes = outputStream.toByteArray();
+        return new RawJsonValue(bytes);
+    }
+
+    /**
+     * Adds the components of the shape of the given throwable to the given
+     * shape, which is reused across lookups.
+     */
+    @FunctionalInterface
+    interface ShapeExtractor {
+
+        void extract(Throwable throwable, Shape shape);
+
+    }
+
+    /**
+     * Stack trace shape, flattened into a list of components compared by
+     * value, i.e., strings, frames, and markers, which is copied only while
+     * getting cached.
+     */
+    static final class Shape {
+
+        private final List<Object> components = new ArrayList<>();
+
+        private final List<Throwable> visitedThrowables = new ArrayList<>();
+
+        private void add(Object component) {
+            components.add(component);
+        }
+
+        private void addFrames(Throwable throwable) {
+            StackTraceElement[] frames = throwable.getStackTrace();
+            // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+            for (int frameIndex = 0; frameIndex < frames.length; frameIndex++) {
+                components.add(frames[frameIndex]);
+            }
+        }
+
+        /**
+         * @return {@code true}, if the given throwable is not visited yet
+         */
+        private boolean visit(Throwable throwable) {
+            // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+            for (int throwableIndex = 0; throwableIndex < visitedThrowables.size(); throwableIndex++) {
+                if (visitedThrowables.get(throwableIndex) == throwable) {
+                    return false;
+                }
+            }
+            visitedThrowables.add(throwable);
+            return true;
+        }
+
+        private void clear() {
+            components.clear();
+            visitedThrowables.clear();
+        }
+
+    }
+
+    private static final class LookupContext {
+
+        private final ThrowableLookupKey lookupKey = new ThrowableLookupKey();
+
+        private final Shape shape = new Shape();
+
+        private ByteBufferOutputStream outputStream;
+
+        /**
+         * @return the buffer serializing the stack traces, grown on demand
+         * up to {@code maxByteCount}
+         */
+        private ByteBufferOutputStream getOutputStream(int maxByteCount) {
+            if (outputStream == null || outputStream.getMaxByteCount() != maxByteCount) {
+                int initialByteCount = Math.min(MAX_INITIAL_BYTE_COUNT, maxByteCount);
+                outputStream = new ByteBufferOutputStream(initialByteCount, maxByteCount);
+            }
+            return outputStream;
+        }
+
+    }
+
+    /**
+     * Concurrent map bounded by replacing a random entry once the maximum
+     * size is reached, which, unlike clearing the entire map, keeps the
+     * recurring entries cached with a high probability.
+     * <p>
+     * Keys are tracked in slots, which are filled in order first and then
+     * picked at random, hence evictions neither lock nor traverse the map.
+     */
+    private static final class RandomEvictingMap<K> {
+
+        private final Map<K, RawJsonValue> valueByKey = new ConcurrentHashMap<>();
+
+        private final AtomicReferenceArray<K> keys;
+
+        private final AtomicInteger filledSlotCount = new AtomicInteger();
+
+        private RandomEvictingMap(int maxSize) {
+            this.keys = new AtomicReferenceArray<>(maxSize);
+        }
+
+        private RawJsonValue get(Object key) {
+            return valueByKey.get(key);
+        }
+
+        private void remove(Object key) {
+            // noinspection SuspiciousMethodCalls (the reference is a key)
+            valueByKey.remove(key);
+        }
+
+        private void put(K key, RawJsonValue value) {
+            // Put the key before occupying a slot, such that evicting the
+            // slot in between cannot leave the key behind.
+            valueByKey.put(key, value);
+            K evictedKey = keys.getAndSet(nextSlotIndex(), key);
+            if (evictedKey != null && !evictedKey.equals(key)) {
+                valueByKey.remove(evictedKey);
+            }
+        }
+
+        private int nextSlotIndex() {
+            int slotCount = keys.length();
+            int slotIndex = filledSlotCount.get();
+            return slotIndex < slotCount && filledSlotCount.compareAndSet(slotIndex, slotIndex + 1)
+                    ? slotIndex
+                    : ThreadLocalRandom.current().nextInt(slotCount);
+        }
+
+    }
+
+    /**
+     * Key of {@link #valueByThrowable} matching throwables by identity.
+     */
+    private interface ThrowableReference {
+
+        Throwable get();
+
+    }
+
+    private static boolean equals(ThrowableReference reference, Object object) {
+        if (reference == object) {
+            return true;
+        }
+        if (!(object instanceof ThrowableReference)) {
+            return false;
+        }
+        Throwable throwable = reference.get();
+        return throwable != null && throwable == ((ThrowableReference) object).get();
+    }
+
+    private static final class WeakThrowableKey extends WeakReference<Throwable> implements ThrowableReference {
+
+        private final int hashCode;
+
+        private WeakThrowableKey(Throwable throwable, ReferenceQueue<Throwable> queue) {
+            super(throwable, queue);
+            this.hashCode = System.identityHashCode(throwable);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return CachingStackTraceResolver.equals(this, object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    /**
+     * Mutable key reused across lookups, which is reset right after each
+     * lookup, such that it does not retain the throwable.
+     */
+    private static final class ThrowableLookupKey implements ThrowableReference {
+
+        private Throwable throwable;
+
+        @Override
+        public Throwable get() {
+            return throwable;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return CachingStackTraceResolver.equals(this, object);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(throwable);
+        }
+
+    }
+
+}
@@ -17,13 +17,12 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.vlkan.log4j2.logstash.layout.util.JsonGenerators;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.util.IndexedStringMap;
 import org.apache.logging.log4j.util.ReadOnlyStringMap;
 
 import java.io.IOException;
-import java.util.regex.Pattern;
 
 /**
  * Add Mapped Diagnostic Context (MDC).
@@ -34,9 +33,14 @@ class ContextDataResolver implements EventResolver {
 
     private final String key;
 
+    private final MapKeyCache keyCache;
+
     ContextDataResolver(EventResolverContext context, String key) {
         this.context = context;
         this.key = key;
+        this.keyCache = key == null
+                ? new MapKeyCache(context.getMdcKeyMatcher(), MapKeyCache.DEFAULT_MAX_SIZE)
+                : null;
     }
 
     static String getName() {
@@ -60,52 +64,104 @@ class ContextDataResolver implements EventResolver {
             if (valueExcluded) {
                 jsonGenerator.writeNull();
             } else {
-                JsonGenerators.writeObject(jsonGenerator, value);
+                context.getJsonValueWriters().write(jsonGenerator, value);
             }
             return;
         }
 
         // Otherwise return all context data matching the MDC key pattern.
-        Pattern keyPattern = context.getMdcKeyPattern();
         jsonGenerator.writeStartObject();
         if (contextData instanceof IndexedStringMap) {  // First, try access-by-id, which is GC free.
-            resolveIndexedMap(jsonGenerator, (IndexedStringMap) contextData, keyPattern);
+            resolveIndexedMap(jsonGenerator, (IndexedStringMap) contextData);
         } else {                                        // Otherwise, fallback to ReadOnlyStringMap#forEach().
-            resolveGenericMap(jsonGenerator, contextData, keyPattern);
+            resolveGenericMap(jsonGenerator, contextData);
         }
         jsonGenerator.writeEndObject();
 
     }
 
-    private void resolveIndexedMap(JsonGenerator jsonGenerator, IndexedStringMap contextData, Pattern keyPattern) {
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+
+        // Retrieve context data.
+        ReadOnlyStringMap contextData = logEvent.getContextData();
+        if (contextData == null || contextData.isEmpty()) {
+            return false;
+        }
+
+        // Check if key matches.
+        if (key != null) {
+            Object value = contextData.getValue(key);
+            return context.getJsonValueWriters().writeField(jsonGenerator, fieldName, value);
+        }
+
+        // Otherwise return all context data matching the MDC key pattern, if any.
+        boolean started = contextData instanceof IndexedStringMap
+                ? resolveIndexedMap(jsonGenerator, fieldName, (IndexedStringMap) contextData)
+                : resolveGenericMap(jsonGenerator, fieldName, contextData);
+        if (started) {
+            jsonGenerator.writeEndObject();
+        }
+        return started;
+
+    }
+
+    private void resolveIndexedMap(JsonGenerator jsonGenerator, IndexedStringMap contextData) {
+        for (int entryIndex = 0; entryIndex < contextData.size(); entryIndex++) {
+            String key = contextData.getKeyAt(entryIndex);
+            Object value = contextData.getValueAt(entryIndex);
+            resolveEntry(jsonGenerator, null, key, value);
+        }
+    }
+
+    private boolean resolveIndexedMap(JsonGenerator jsonGenerator, LazyFieldName fieldName, IndexedStringMap contextData) {
+        LazyFieldName pendingFieldName = fieldName;
         for (int entryIndex = 0; entryIndex < contextData.size(); entryIndex++) {
             String key = contextData.getKeyAt(entryIndex);
             Object value = contextData.getValueAt(entryIndex);
-            boolean keyMatches = keyPattern == null || keyPattern.matcher(key).matches();
-            resolveEntry(jsonGenerator, key, value, keyMatches);
+            if (resolveEntry(jsonGenerator, pendingFieldName, key, value)) {
+                pendingFieldName = null;
+            }
         }
+        return pendingFieldName == null;
+    }
+
+    private void resolveGenericMap(JsonGenerator jsonGenerator, ReadOnlyStringMap contextData) {
+        contextData.forEach((key, value) -> resolveEntry(jsonGenerator, null, key, value));
     }
 
-    private void resolveGenericMap(JsonGenerator jsonGenerator, ReadOnlyStringMap contextData, Pattern keyPattern) {
+    private boolean resolveGenericMap(JsonGenerator jsonGenerator, LazyFieldName fieldName, ReadOnlyStringMap contextData) {
+        LazyFieldName[] pendingFieldNameRef = {fieldName};
         contextData.forEach((key, value) -> {
-            boolean keyMatches = keyPattern == null || keyPattern.matcher(key).matches();
-            resolveEntry(jsonGenerator, key, value, keyMatches);
+            if (resolveEntry(jsonGenerator, pendingFieldNameRef[0], key, value)) {
+                pendingFieldNameRef[0] = null;
+            }
         });
+        return pendingFieldNameRef[0] == null;
     }
 
-    private void resolveEntry(JsonGenerator jsonGenerator, String key, Object value, boolean keyMatches) {
-        if (keyMatches) {
-            boolean valueExcluded = isValueExcluded(context, value);
-            if (!valueExcluded) {
-                try {
-                    jsonGenerator.writeFieldName(key);
-                    JsonGenerators.writeObject(jsonGenerator, value);
-                } catch (IOException error) {
-                    String message = String.format("failed to append MDC field (key=%s, value=%s)", key, value);
-                    throw new RuntimeException(message, error);
-                }
+    /**
+     * @param fieldName field name of the enclosing object, if it is yet to be
+     *                  started, otherwise {@code null}
+     * @return {@code true}, if the entry is written
+     */
+    private boolean resolveEntry(JsonGenerator jsonGenerator, LazyFieldName fieldName, String key, Object value) {
+        MapKeyCache.Entry keyEntry = keyCache.get(key);
+        if (!keyEntry.isMatching()) {
+            return false;
+        }
+        try {
+            if (context.isEmptyPropertyExclusionEnabled()) {
+                LazyFieldName entryFieldName = keyEntry.getLazyFieldName(fieldName);
+                return context.getJsonValueWriters().writeField(jsonGenerator, entryFieldName, value);
             }
+            jsonGenerator.writeFieldName(keyEntry.getFieldName());
+            context.getJsonValueWriters().write(jsonGenerator, value);
+        } catch (IOException error) {
+            String message = String.format("failed to append MDC field (key=%s, value=%s)", key, value);
+            throw new RuntimeException(message, error);
         }
+        return true;
     }
 
     private static boolean isValueExcluded(EventResolverContext context, Object value) {
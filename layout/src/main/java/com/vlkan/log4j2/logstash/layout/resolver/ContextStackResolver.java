@@ -17,11 +17,13 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.logging.log4j.ThreadContext;
 import org.apache.logging.log4j.core.LogEvent;
 
 import java.io.IOException;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Add Nested Diagnostic Context (NDC).
@@ -45,10 +47,13 @@ class ContextStackResolver implements EventResolver {
             jsonGenerator.writeNull();
             return;
         }
-        Pattern itemPattern = context.getNdcPattern();
+        Predicate<String> itemMatcher = context.getNdcMatcher();
+        List<String> contextStackItems = contextStack.asList();
         boolean arrayStarted = false;
-        for (String contextStackItem : contextStack.asList()) {
-            boolean matches = itemPattern == null || itemPattern.matcher(contextStackItem).matches();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int itemIndex = 0; itemIndex < contextStackItems.size(); itemIndex++) {
+            String contextStackItem = contextStackItems.get(itemIndex);
+            boolean matches = itemMatcher == null || itemMatcher.test(contextStackItem);
             if (matches) {
                 if (!arrayStarted) {
                     jsonGenerator.writeStartArray();
@@ -64,4 +69,33 @@ class ContextStackResolver implements EventResolver {
         }
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        ThreadContext.ContextStack contextStack = logEvent.getContextStack();
+        if (contextStack.getDepth() == 0) {
+            return false;
+        }
+        Predicate<String> itemMatcher = context.getNdcMatcher();
+        List<String> contextStackItems = contextStack.asList();
+        boolean arrayStarted = false;
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int itemIndex = 0; itemIndex < contextStackItems.size(); itemIndex++) {
+            String contextStackItem = contextStackItems.get(itemIndex);
+            boolean matches = !contextStackItem.isEmpty() &&
+                    (itemMatcher == null || itemMatcher.test(contextStackItem));
+            if (matches) {
+                if (!arrayStarted) {
+                    fieldName.write(jsonGenerator);
+                    jsonGenerator.writeStartArray();
+                    arrayStarted = true;
+                }
+                jsonGenerator.writeString(contextStackItem);
+            }
+        }
+        if (arrayStarted) {
+            jsonGenerator.writeEndArray();
+        }
+        return arrayStarted;
+    }
+
 }
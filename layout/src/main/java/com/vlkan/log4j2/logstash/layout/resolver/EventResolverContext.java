@@ -17,6 +17,11 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutMetrics;
+import com.vlkan.log4j2.logstash.layout.util.JsonValueWriters;
+import com.vlkan.log4j2.logstash.layout.util.StackTraceFrameFilter;
+import com.vlkan.log4j2.logstash.layout.util.StackTraceTextRenderer;
+import com.vlkan.log4j2.logstash.layout.util.StringMatchers;
 import org.apache.commons.lang3.Validate;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.lookup.StrSubstitutor;
@@ -26,12 +31,20 @@ import org.apache.logging.log4j.core.util.datetime.FastDateFormat;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
-import java.util.regex.Pattern;
+import java.util.function.Predicate;
 
 public class EventResolverContext implements TemplateResolverContext<LogEvent, EventResolverContext> {
 
+    /**
+     * Number of cached NDC item match results of {@code ndcPattern}. MDC key
+     * match results are rather cached by {@link MapKeyCache}.
+     */
+    private static final int NDC_MATCH_CACHE_SIZE = 256;
+
     private final ObjectMapper objectMapper;
 
+    private final JsonValueWriters jsonValueWriters;
+
     private final StrSubstitutor substitutor;
 
     private final int writerCapacity;
@@ -46,20 +59,39 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
 
     private final boolean stackTraceEnabled;
 
+    private final TemplateResolver<StackTraceElement> stackTraceElementObjectResolver;
+
+    private final int stackTraceCacheSize;
+
+    private final int maxByteCount;
+
+    private final int maxStringLength;
+
+    private final TemplateResolver<Throwable> stackTraceTextResolver;
+
     private final TemplateResolver<Throwable> stackTraceObjectResolver;
 
     private final boolean emptyPropertyExclusionEnabled;
 
-    private final Pattern mdcKeyPattern;
+    private final boolean templateSpecializationEnabled;
+
+    private final Predicate<String> mdcKeyMatcher;
 
-    private final Pattern ndcPattern;
+    private final Predicate<String> ndcMatcher;
 
     private final KeyValuePair[] additionalFields;
 
     private final boolean mapMessageFormatterIgnored;
 
+    private final MessageJsonMode messageJsonMode;
+
+    private final LogstashLayoutMetrics metrics;
+
+    private final Map<String, TemplateResolverFactory<LogEvent, EventResolverContext, ? extends TemplateResolver<LogEvent>>> resolverFactoryByName;
+
     private EventResolverContext(Builder builder) {
         this.objectMapper = builder.objectMapper;
+        this.jsonValueWriters = builder.jsonValueWriters;
         this.substitutor = builder.substitutor;
         this.writerCapacity = builder.writerCapacity;
         this.timeZone = builder.timeZone;
@@ -67,14 +99,69 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
         this.timestampFormat = builder.timestampFormat;
         this.locationInfoEnabled = builder.locationInfoEnabled;
         this.stackTraceEnabled = builder.stackTraceEnabled;
+        this.stackTraceElementObjectResolver = builder.stackTraceElementObjectResolver;
+        this.stackTraceCacheSize = builder.stackTraceCacheSize;
+        this.maxByteCount = builder.maxByteCount;
+        this.maxStringLength = builder.maxStringLength;
+        this.emptyPropertyExclusionEnabled = builder.emptyPropertyExclusionEnabled;
+        this.templateSpecializationEnabled = builder.templateSpecializationEnabled;
+        this.metrics = builder.metrics;
+        this.resolverFactoryByName = EventResolverFactories.getResolverFactoryByName(metrics);
+        this.stackTraceTextResolver = stackTraceEnabled
+                ? createStackTraceTextResolver(StackTraceFrameFilter.ACCEPT_ALL, Integer.MAX_VALUE, Integer.MAX_VALUE)
+                : null;
         this.stackTraceObjectResolver = stackTraceEnabled
-                ? new StackTraceObjectResolver(builder.stackTraceElementObjectResolver)
+                ? createStackTraceObjectResolver(StackTraceFrameFilter.ACCEPT_ALL)
+                : null;
+        this.mdcKeyMatcher = builder.mdcKeyPattern != null
+                ? StringMatchers.ofPattern(builder.mdcKeyPattern, 0)
+                : builder.mdcKeys != null
+                ? StringMatchers.ofValues(builder.mdcKeys)
+                : builder.mdcKeyPrefixes != null
+                ? StringMatchers.ofPrefixes(builder.mdcKeyPrefixes)
+                : null;
+        this.ndcMatcher = builder.ndcPattern != null
+                ? StringMatchers.ofPattern(builder.ndcPattern, NDC_MATCH_CACHE_SIZE)
+                : builder.ndcPrefixes != null
+                ? StringMatchers.ofPrefixes(builder.ndcPrefixes)
                 : null;
-        this.emptyPropertyExclusionEnabled = builder.emptyPropertyExclusionEnabled;
-        this.mdcKeyPattern = builder.mdcKeyPattern == null ? null : Pattern.compile(builder.mdcKeyPattern);
-        this.ndcPattern = builder.ndcPattern == null ? null : Pattern.compile(builder.ndcPattern);
         this.additionalFields = builder.additionalFields;
         this.mapMessageFormatterIgnored = builder.mapMessageFormatterIgnored;
+        this.messageJsonMode = builder.messageJsonMode;
+    }
+
+    StackTraceResolver createStackTraceTextResolver(
+            StackTraceFrameFilter frameFilter,
+            int maxCauseCount,
+            int maxLength) {
+        return createStackTraceResolver(
+                new StackTraceTextResolver(
+                        writerCapacity,
+                        () -> new StackTraceTextRenderer(frameFilter, maxCauseCount, maxLength)),
+                CachingStackTraceResolver.TEXT_SHAPE_EXTRACTOR);
+    }
+
+    StackTraceResolver createStackTraceObjectResolver(StackTraceFrameFilter frameFilter) {
+        return createStackTraceResolver(
+                new StackTraceObjectResolver(
+                        stackTraceElementObjectResolver,
+                        frameFilter),
+                CachingStackTraceResolver.FRAMES_SHAPE_EXTRACTOR);
+    }
+
+    private StackTraceResolver createStackTraceResolver(
+            StackTraceResolver stackTraceResolver,
+            CachingStackTraceResolver.ShapeExtractor shapeExtractor) {
+        return stackTraceCacheSize > 0
+                ? new CachingStackTraceResolver(
+                        stackTraceResolver,
+                        shapeExtractor,
+                        stackTraceCacheSize,
+                        objectMapper,
+                        maxByteCount,
+                        maxStringLength,
+                        metrics)
+                : stackTraceResolver;
     }
 
     @Override
@@ -84,7 +171,7 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
 
     @Override
     public Map<String, TemplateResolverFactory<LogEvent, EventResolverContext, ? extends TemplateResolver<LogEvent>>> getResolverFactoryByName() {
-        return EventResolverFactories.getResolverFactoryByName();
+        return resolverFactoryByName;
     }
 
     @Override
@@ -92,6 +179,10 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
         return objectMapper;
     }
 
+    JsonValueWriters getJsonValueWriters() {
+        return jsonValueWriters;
+    }
+
     @Override
     public StrSubstitutor getSubstitutor() {
         return substitutor;
@@ -121,6 +212,10 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
         return stackTraceEnabled;
     }
 
+    TemplateResolver<Throwable> getStackTraceTextResolver() {
+        return stackTraceTextResolver;
+    }
+
     TemplateResolver<Throwable> getStackTraceObjectResolver() {
         return stackTraceObjectResolver;
     }
@@ -130,12 +225,23 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
         return emptyPropertyExclusionEnabled;
     }
 
-    Pattern getMdcKeyPattern() {
-        return mdcKeyPattern;
+    @Override
+    public boolean isTemplateSpecializationEnabled() {
+        return templateSpecializationEnabled;
     }
 
-    Pattern getNdcPattern() {
-        return ndcPattern;
+    /**
+     * @return the MDC key filter, or {@code null}, if all keys are accepted
+     */
+    Predicate<String> getMdcKeyMatcher() {
+        return mdcKeyMatcher;
+    }
+
+    /**
+     * @return the NDC item filter, or {@code null}, if all items are accepted
+     */
+    Predicate<String> getNdcMatcher() {
+        return ndcMatcher;
     }
 
     KeyValuePair[] getAdditionalFields() {
@@ -146,6 +252,17 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
         return mapMessageFormatterIgnored;
     }
 
+    MessageJsonMode getMessageJsonMode() {
+        return messageJsonMode;
+    }
+
+    /**
+     * @return the metrics to record into, or {@code null}, if metrics are disabled
+     */
+    LogstashLayoutMetrics getMetrics() {
+        return metrics;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -154,10 +271,16 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
 
         private ObjectMapper objectMapper;
 
+        private JsonValueWriters jsonValueWriters = JsonValueWriters.getDefault();
+
         private StrSubstitutor substitutor;
 
         private int writerCapacity;
 
+        private int maxByteCount;
+
+        private int maxStringLength;
+
         private TimeZone timeZone;
 
         private Locale locale;
@@ -170,16 +293,30 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
 
         private TemplateResolver<StackTraceElement> stackTraceElementObjectResolver;
 
+        private int stackTraceCacheSize;
+
         private boolean emptyPropertyExclusionEnabled;
 
+        private boolean templateSpecializationEnabled;
+
         private String mdcKeyPattern;
 
+        private String[] mdcKeys;
+
+        private String[] mdcKeyPrefixes;
+
         private String ndcPattern;
 
+        private String[] ndcPrefixes;
+
         private KeyValuePair[] additionalFields;
 
         private boolean mapMessageFormatterIgnored;
 
+        private MessageJsonMode messageJsonMode = MessageJsonMode.TREE;
+
+        private LogstashLayoutMetrics metrics;
+
         private Builder() {
             // Do nothing.
         }
@@ -189,6 +326,11 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
             return this;
         }
 
+        public Builder setJsonValueWriters(JsonValueWriters jsonValueWriters) {
+            this.jsonValueWriters = jsonValueWriters;
+            return this;
+        }
+
         public Builder setSubstitutor(StrSubstitutor substitutor) {
             this.substitutor = substitutor;
             return this;
@@ -199,6 +341,16 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
             return this;
         }
 
+        public Builder setMaxByteCount(int maxByteCount) {
+            this.maxByteCount = maxByteCount;
+            return this;
+        }
+
+        public Builder setMaxStringLength(int maxStringLength) {
+            this.maxStringLength = maxStringLength;
+            return this;
+        }
+
         public Builder setTimeZone(TimeZone timeZone) {
             this.timeZone = timeZone;
             return this;
@@ -229,21 +381,46 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
             return this;
         }
 
+        public Builder setStackTraceCacheSize(int stackTraceCacheSize) {
+            this.stackTraceCacheSize = stackTraceCacheSize;
+            return this;
+        }
+
         public Builder setEmptyPropertyExclusionEnabled(boolean emptyPropertyExclusionEnabled) {
             this.emptyPropertyExclusionEnabled = emptyPropertyExclusionEnabled;
             return this;
         }
 
+        public Builder setTemplateSpecializationEnabled(boolean templateSpecializationEnabled) {
+            this.templateSpecializationEnabled = templateSpecializationEnabled;
+            return this;
+        }
+
         public Builder setMdcKeyPattern(String mdcKeyPattern) {
             this.mdcKeyPattern = mdcKeyPattern;
             return this;
         }
 
+        public Builder setMdcKeys(String[] mdcKeys) {
+            this.mdcKeys = mdcKeys;
+            return this;
+        }
+
+        public Builder setMdcKeyPrefixes(String[] mdcKeyPrefixes) {
+            this.mdcKeyPrefixes = mdcKeyPrefixes;
+            return this;
+        }
+
         public Builder setNdcPattern(String ndcPattern) {
             this.ndcPattern = ndcPattern;
             return this;
         }
 
+        public Builder setNdcPrefixes(String[] ndcPrefixes) {
+            this.ndcPrefixes = ndcPrefixes;
+            return this;
+        }
+
         public Builder setAdditionalFields(KeyValuePair[] additionalFields) {
             this.additionalFields = additionalFields;
             return this;
@@ -254,6 +431,19 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
             return this;
         }
 
+        public Builder setMessageJsonMode(MessageJsonMode messageJsonMode) {
+            this.messageJsonMode = messageJsonMode;
+            return this;
+        }
+
+        /**
+         * @param metrics the metrics to record into, or {@code null} to disable metrics
+         */
+        public Builder setMetrics(LogstashLayoutMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public EventResolverContext build() {
             validate();
             return new EventResolverContext(this);
@@ -261,6 +451,7 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
 
         private void validate() {
             Validate.notNull(objectMapper, "objectMapper");
+            Validate.notNull(jsonValueWriters, "jsonValueWriters");
             Validate.notNull(substitutor, "substitutor");
             Validate.isTrue(writerCapacity > 0, "writerCapacity requires a non-zero positive integer");
             Validate.notNull(timeZone, "timeZone");
@@ -269,6 +460,27 @@ public class EventResolverContext implements TemplateResolverContext<LogEvent, E
             if (stackTraceEnabled) {
                 Validate.notNull(stackTraceElementObjectResolver, "stackTraceElementObjectResolver");
             }
+            Validate.isTrue(stackTraceCacheSize >= 0, "stackTraceCacheSize requires a positive integer");
+            if (stackTraceCacheSize > 0) {
+                Validate.isTrue(maxByteCount > 0, "maxByteCount requires a non-zero positive integer");
+            }
+            Validate.isTrue(
+                    countNonNulls(mdcKeyPattern, mdcKeys, mdcKeyPrefixes) <= 1,
+                    "only one of mdcKeyPattern, mdcKeys, and mdcKeyPrefixes can be set");
+            Validate.isTrue(
+                    countNonNulls(ndcPattern, ndcPrefixes) <= 1,
+                    "only one of ndcPattern and ndcPrefixes can be set");
+            Validate.notNull(messageJsonMode, "messageJsonMode");
+        }
+
+        private static int countNonNulls(Object... objects) {
+            int nonNullCount = 0;
+            for (Object object : objects) {
+                if (object != null) {
+                    nonNullCount++;
+                }
+            }
+            return nonNullCount;
         }
 
     }
@@ -16,6 +16,7 @@
 
 package com.vlkan.log4j2.logstash.layout.resolver;
 
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutMetrics;
 import org.apache.logging.log4j.core.LogEvent;
 
 import java.util.*;
@@ -57,4 +58,20 @@ enum EventResolverFactories {;
         return RESOLVER_FACTORY_BY_NAME;
     }
 
+    /**
+     * @param metrics the metrics to count the resolver failures in, or {@code null}
+     * @return the resolver factories, wrapped to count the failures of the
+     * resolvers they create, if metrics are given
+     */
+    static Map<String, TemplateResolverFactory<LogEvent, EventResolverContext, ? extends TemplateResolver<LogEvent>>> getResolverFactoryByName(
+            LogstashLayoutMetrics metrics) {
+        if (metrics == null) {
+            return RESOLVER_FACTORY_BY_NAME;
+        }
+        Map<String, TemplateResolverFactory<LogEvent, EventResolverContext, ? extends TemplateResolver<LogEvent>>> resolverFactoryByName = new LinkedHashMap<>();
+        RESOLVER_FACTORY_BY_NAME.forEach((name, resolverFactory) ->
+                resolverFactoryByName.put(name, new MeasuredEventResolverFactory(resolverFactory, metrics)));
+        return Collections.unmodifiableMap(resolverFactoryByName);
+    }
+
 }
@@ -16,9 +16,33 @@
 
 package com.vlkan.log4j2.logstash.layout.resolver;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import com.vlkan.log4j2.logstash.layout.util.StackTraceFrameFilter;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.io.IOException;
+
 abstract class ExceptionInternalResolverFactory {
 
-    private static final EventResolver NULL_RESOLVER = (ignored, jsonGenerator) -> jsonGenerator.writeNull();
+    private static final EventResolver NULL_RESOLVER = new EventResolver() {
+
+        @Override
+        public boolean isResolvable() {
+            return false;
+        }
+
+        @Override
+        public void resolve(LogEvent ignored, JsonGenerator jsonGenerator) throws IOException {
+            jsonGenerator.writeNull();
+        }
+
+        @Override
+        public boolean resolveField(LogEvent ignored, JsonGenerator jsonGenerator, LazyFieldName fieldName) {
+            return false;
+        }
+
+    };
 
     EventResolver createInternalResolver(EventResolverContext context, String key) {
 
@@ -52,15 +76,97 @@ abstract class ExceptionInternalResolverFactory {
         if (!context.isStackTraceEnabled()) {
             return NULL_RESOLVER;
         }
-        switch (minorKey) {
-            case "text": return createStackTraceTextResolver(context);
-            case "": return createStackTraceObjectResolver(context);
+
+        // Read the stack trace type and its options, if any.
+        boolean text;
+        String options;
+        if ("text".equals(minorKey)) {
+            text = true;
+            options = "";
+        } else if (minorKey.startsWith("text:")) {
+            text = true;
+            options = minorKey.substring(5);
+        } else {
+            text = false;
+            options = minorKey;
+        }
+
+        // Create the resolver, employing the shared one in the absence of options.
+        TemplateResolver<Throwable> stackTraceResolver = options.isEmpty()
+                ? (text ? context.getStackTraceTextResolver() : context.getStackTraceObjectResolver())
+                : createStackTraceResolver(context, text, options);
+        return text
+                ? createStackTraceTextResolver(stackTraceResolver)
+                : createStackTraceObjectResolver(stackTraceResolver);
+
+    }
+
+    private static TemplateResolver<Throwable> createStackTraceResolver(
+            EventResolverContext context,
+            boolean text,
+            String options) {
+
+        // Read the options.
+        int maxFrameCount = Integer.MAX_VALUE;
+        String[] includedPackages = {};
+        String[] excludedPackages = {};
+        int maxCauseCount = Integer.MAX_VALUE;
+        int maxLength = Integer.MAX_VALUE;
+        for (String option : options.split(",", -1)) {
+            int equalSignIndex = option.indexOf('=');
+            if (equalSignIndex < 0) {
+                throw new IllegalArgumentException("invalid stack trace option: " + option);
+            }
+            String optionName = option.substring(0, equalSignIndex);
+            String optionValue = option.substring(equalSignIndex + 1);
+            switch (optionName) {
+                case "maxFrameCount": maxFrameCount = readInt(option, optionValue, 1); break;
+                case "includedPackages": includedPackages = readPackages(option, optionValue); break;
+                case "excludedPackages": excludedPackages = readPackages(option, optionValue); break;
+                case "maxCauseCount": maxCauseCount = readInt(option, optionValue, 0); break;
+                case "maxLength": maxLength = readInt(option, optionValue, 1); break;
+                default: throw new IllegalArgumentException("unknown stack trace option: " + option);
+            }
+            boolean textOption = "maxCauseCount".equals(optionName) || "maxLength".equals(optionName);
+            if (textOption && !text) {
+                throw new IllegalArgumentException("stack trace option is only supported by text: " + option);
+            }
+        }
+
+        // Create the resolver.
+        StackTraceFrameFilter frameFilter =
+                new StackTraceFrameFilter(maxFrameCount, includedPackages, excludedPackages);
+        return text
+                ? context.createStackTraceTextResolver(frameFilter, maxCauseCount, maxLength)
+                : context.createStackTraceObjectResolver(frameFilter);
+
+    }
+
+    private static int readInt(String option, String optionValue, int minValue) {
+        int value;
+        try {
+            value = Integer.parseInt(optionValue);
+        } catch (NumberFormatException error) {
+            throw new IllegalArgumentException("invalid stack trace option: " + option, error);
+        }
+        if (value < minValue) {
+            throw new IllegalArgumentException("invalid stack trace option: " + option);
+        }
+        return value;
+    }
+
+    private static String[] readPackages(String option, String optionValue) {
+        String[] packages = optionValue.split("\\|", -1);
+        for (String packageName : packages) {
+            if (packageName.isEmpty()) {
+                throw new IllegalArgumentException("invalid stack trace option: " + option);
+            }
         }
-        throw new IllegalArgumentException("unknown minor key: " + minorKey);
+        return packages;
     }
 
-    abstract EventResolver createStackTraceTextResolver(EventResolverContext context);
+    abstract EventResolver createStackTraceTextResolver(TemplateResolver<Throwable> stackTraceTextResolver);
 
-    abstract EventResolver createStackTraceObjectResolver(EventResolverContext context);
+    abstract EventResolver createStackTraceObjectResolver(TemplateResolver<Throwable> stackTraceObjectResolver);
 
 }
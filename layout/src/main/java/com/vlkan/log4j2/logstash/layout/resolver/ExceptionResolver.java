@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
 
@@ -29,55 +30,85 @@ class ExceptionResolver implements EventResolver {
 
                 @Override
                 EventResolver createClassNameResolver() {
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception == null) {
-                            jsonGenerator.writeNull();
-                        } else {
-                            String exceptionClassName = exception.getClass().getCanonicalName();
-                            jsonGenerator.writeString(exceptionClassName);
+                    return new EventResolver() {
+
+                        @Override
+                        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                jsonGenerator.writeNull();
+                            } else {
+                                String exceptionClassName = exception.getClass().getCanonicalName();
+                                jsonGenerator.writeString(exceptionClassName);
+                            }
                         }
+
+                        @Override
+                        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            return exception != null &&
+                                    fieldName.writeString(jsonGenerator, exception.getClass().getCanonicalName());
+                        }
+
                     };
                 }
 
                 @Override
                 EventResolver createMessageResolver(EventResolverContext context) {
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception != null) {
-                            String exceptionMessage = exception.getMessage();
-                            boolean exceptionMessageExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(exceptionMessage);
-                            if (!exceptionMessageExcluded) {
-                                jsonGenerator.writeString(exceptionMessage);
-                                return;
+                    return new EventResolver() {
+
+                        @Override
+                        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception != null) {
+                                String exceptionMessage = exception.getMessage();
+                                boolean exceptionMessageExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(exceptionMessage);
+                                if (!exceptionMessageExcluded) {
+                                    jsonGenerator.writeString(exceptionMessage);
+                                    return;
+                                }
                             }
+                            jsonGenerator.writeNull();
+                        }
+
+                        @Override
+                        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            return exception != null && fieldName.writeString(jsonGenerator, exception.getMessage());
                         }
-                        jsonGenerator.writeNull();
+
                     };
                 }
 
                 @Override
-                EventResolver createStackTraceTextResolver(EventResolverContext context) {
-                    StackTraceTextResolver stackTraceTextResolver = new StackTraceTextResolver(context.getWriterCapacity());
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception == null) {
-                            jsonGenerator.writeNull();
-                        } else {
-                            stackTraceTextResolver.resolve(exception, jsonGenerator);
-                        }
-                    };
+                EventResolver createStackTraceTextResolver(TemplateResolver<Throwable> stackTraceTextResolver) {
+                    return createStackTraceResolver(stackTraceTextResolver);
                 }
 
                 @Override
-                EventResolver createStackTraceObjectResolver(EventResolverContext context) {
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception == null) {
-                            jsonGenerator.writeNull();
-                        } else {
-                            context.getStackTraceObjectResolver().resolve(exception, jsonGenerator);
+                EventResolver createStackTraceObjectResolver(TemplateResolver<Throwable> stackTraceObjectResolver) {
+                    return createStackTraceResolver(stackTraceObjectResolver);
+                }
+
+                private EventResolver createStackTraceResolver(TemplateResolver<Throwable> stackTraceResolver) {
+                    return new EventResolver() {
+
+                        @Override
+                        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                jsonGenerator.writeNull();
+                            } else {
+                                stackTraceResolver.resolve(exception, jsonGenerator);
+                            }
+                        }
+
+                        @Override
+                        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            return exception != null && stackTraceResolver.resolveField(exception, jsonGenerator, fieldName);
                         }
+
                     };
                 }
 
@@ -93,9 +124,19 @@ class ExceptionResolver implements EventResolver {
         return "exception";
     }
 
+    @Override
+    public boolean isResolvable() {
+        return internalResolver.isResolvable();
+    }
+
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
         internalResolver.resolve(logEvent, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(logEvent, jsonGenerator, fieldName);
+    }
+
 }
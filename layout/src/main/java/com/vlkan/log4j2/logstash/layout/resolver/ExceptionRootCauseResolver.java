@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import com.vlkan.log4j2.logstash.layout.util.Throwables;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
@@ -30,59 +31,99 @@ class ExceptionRootCauseResolver implements EventResolver {
 
                 @Override
                 EventResolver createClassNameResolver() {
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception == null) {
-                            jsonGenerator.writeNull();
-                        } else {
+                    return new EventResolver() {
+
+                        @Override
+                        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                jsonGenerator.writeNull();
+                            } else {
+                                Throwable rootCause = Throwables.getRootCause(exception);
+                                String rootCauseClassName = rootCause.getClass().getCanonicalName();
+                                jsonGenerator.writeString(rootCauseClassName);
+                            }
+                        }
+
+                        @Override
+                        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                return false;
+                            }
                             Throwable rootCause = Throwables.getRootCause(exception);
-                            String rootCauseClassName = rootCause.getClass().getCanonicalName();
-                            jsonGenerator.writeString(rootCauseClassName);
+                            return fieldName.writeString(jsonGenerator, rootCause.getClass().getCanonicalName());
                         }
+
                     };
                 }
 
                 @Override
                 EventResolver createMessageResolver(EventResolverContext context) {
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception != null) {
-                            Throwable rootCause = Throwables.getRootCause(exception);
-                            String rootCauseMessage = rootCause.getMessage();
-                            boolean rootCauseMessageExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(rootCauseMessage);
-                            if (!rootCauseMessageExcluded) {
-                                jsonGenerator.writeString(rootCauseMessage);
-                                return;
+                    return new EventResolver() {
+
+                        @Override
+                        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception != null) {
+                                Throwable rootCause = Throwables.getRootCause(exception);
+                                String rootCauseMessage = rootCause.getMessage();
+                                boolean rootCauseMessageExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(rootCauseMessage);
+                                if (!rootCauseMessageExcluded) {
+                                    jsonGenerator.writeString(rootCauseMessage);
+                                    return;
+                                }
                             }
+                            jsonGenerator.writeNull();
                         }
-                        jsonGenerator.writeNull();
-                    };
-                }
 
-                @Override
-                EventResolver createStackTraceTextResolver(EventResolverContext context) {
-                    StackTraceTextResolver stackTraceTextResolver = new StackTraceTextResolver(context.getWriterCapacity());
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception == null) {
-                            jsonGenerator.writeNull();
-                        } else {
+                        @Override
+                        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                return false;
+                            }
                             Throwable rootCause = Throwables.getRootCause(exception);
-                            stackTraceTextResolver.resolve(rootCause, jsonGenerator);
+                            return fieldName.writeString(jsonGenerator, rootCause.getMessage());
                         }
+
                     };
                 }
 
                 @Override
-                EventResolver createStackTraceObjectResolver(EventResolverContext context) {
-                    return (logEvent, jsonGenerator) -> {
-                        Throwable exception = logEvent.getThrown();
-                        if (exception == null) {
-                            jsonGenerator.writeNull();
-                        } else {
+                EventResolver createStackTraceTextResolver(TemplateResolver<Throwable> stackTraceTextResolver) {
+                    return createStackTraceResolver(stackTraceTextResolver);
+                }
+
+                @Override
+                EventResolver createStackTraceObjectResolver(TemplateResolver<Throwable> stackTraceObjectResolver) {
+                    return createStackTraceResolver(stackTraceObjectResolver);
+                }
+
+                private EventResolver createStackTraceResolver(TemplateResolver<Throwable> stackTraceResolver) {
+                    return new EventResolver() {
+
+                        @Override
+                        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                jsonGenerator.writeNull();
+                            } else {
+                                Throwable rootCause = Throwables.getRootCause(exception);
+                                stackTraceResolver.resolve(rootCause, jsonGenerator);
+                            }
+                        }
+
+                        @Override
+                        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                            Throwable exception = logEvent.getThrown();
+                            if (exception == null) {
+                                return false;
+                            }
                             Throwable rootCause = Throwables.getRootCause(exception);
-                            context.getStackTraceObjectResolver().resolve(rootCause, jsonGenerator);
+                            return stackTraceResolver.resolveField(rootCause, jsonGenerator, fieldName);
                         }
+
                     };
                 }
 
@@ -98,9 +139,19 @@ class ExceptionRootCauseResolver implements EventResolver {
         return "exceptionRootCause";
     }
 
+    @Override
+    public boolean isResolvable() {
+        return internalResolver.isResolvable();
+    }
+
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
         internalResolver.resolve(logEvent, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(logEvent, jsonGenerator, fieldName);
+    }
+
 }
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
 
@@ -39,16 +40,38 @@ class LoggerResolver implements EventResolver {
     }
 
     private static EventResolver createNameResolver(EventResolverContext context) {
-        return (logEvent, jsonGenerator) -> {
-            String loggerName = logEvent.getLoggerName();
-            writeText(jsonGenerator, context, loggerName);
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                String loggerName = logEvent.getLoggerName();
+                writeText(jsonGenerator, context, loggerName);
+            }
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                String loggerName = logEvent.getLoggerName();
+                return fieldName.writeString(jsonGenerator, loggerName);
+            }
+
         };
     }
 
     private static EventResolver createFqcnResolver(EventResolverContext context) {
-        return (logEvent, jsonGenerator) -> {
-            String loggerFqcn = logEvent.getLoggerFqcn();
-            writeText(jsonGenerator, context, loggerFqcn);
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                String loggerFqcn = logEvent.getLoggerFqcn();
+                writeText(jsonGenerator, context, loggerFqcn);
+            }
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                String loggerFqcn = logEvent.getLoggerFqcn();
+                return fieldName.writeString(jsonGenerator, loggerFqcn);
+            }
+
         };
     }
 
@@ -65,9 +88,19 @@ class LoggerResolver implements EventResolver {
         return "logger";
     }
 
+    @Override
+    public boolean isResolvable() {
+        return internalResolver.isResolvable();
+    }
+
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
         internalResolver.resolve(logEvent, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(logEvent, jsonGenerator, fieldName);
+    }
+
 }
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 
 import java.io.IOException;
 
@@ -48,8 +49,14 @@ public class MainMapResolver implements EventResolver {
         if (valueExcluded) {
             jsonGenerator.writeNull();
         } else {
-            jsonGenerator.writeObject(value);
+            jsonGenerator.writeString(value);
         }
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        String value = MAIN_MAP_LOOKUP.lookup(key);
+        return fieldName.writeString(jsonGenerator, value);
+    }
+
 }
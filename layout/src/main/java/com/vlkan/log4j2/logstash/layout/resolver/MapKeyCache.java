@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Caches the keys of context data and {@code MapMessage}s along with their
+ * escaped and encoded field names and key filter results.
+ * <p>
+ * Keys are mostly string literals (e.g., {@code ThreadContext.put("traceId",
+ * ...)}), hence the same instances recur across events. Entries are first
+ * looked up by key identity in a direct-mapped table and then by key value.
+ * The latter is bounded by clearing it once the maximum size is reached.
+ */
+final class MapKeyCache {
+
+    /**
+     * Maximum number of distinct keys cached by value, which bounds the cache
+     * against applications using, e.g., identifiers as keys.
+     */
+    static final int DEFAULT_MAX_SIZE = 1_000;
+
+    private static final int IDENTITY_SLOT_COUNT = 256;
+
+    private static final int IDENTITY_SLOT_MASK = IDENTITY_SLOT_COUNT - 1;
+
+    private final Predicate<String> keyMatcher;
+
+    private final int maxSize;
+
+    private final AtomicReferenceArray<Entry> entryByIdentity = new AtomicReferenceArray<>(IDENTITY_SLOT_COUNT);
+
+    private final Map<String, Entry> entryByValue = new ConcurrentHashMap<>();
+
+    /**
+     * @param keyMatcher MDC key filter, or {@code null} to accept all keys
+     */
+    MapKeyCache(Predicate<String> keyMatcher, int maxSize) {
+        this.keyMatcher = keyMatcher;
+        this.maxSize = maxSize;
+    }
+
+    Entry get(String key) {
+
+        // Check the identity table.
+        int slotIndex = System.identityHashCode(key) & IDENTITY_SLOT_MASK;
+        Entry entry = entryByIdentity.get(slotIndex);
+        if (entry != null && entry.key == key) {
+            return entry;
+        }
+
+        // Check the value table.
+        entry = entryByValue.get(key);
+        if (entry == null) {
+            boolean matching = keyMatcher == null || keyMatcher.test(key);
+            entry = new Entry(key, matching);
+            if (entryByValue.size() >= maxSize) {
+                entryByValue.clear();
+            }
+            entryByValue.put(key, entry);
+        }
+
+        // Entries are immutable, hence racing writers can overwrite each other.
+        Entry identityEntry = entry.key == key ? entry : new Entry(key, entry);
+        entryByIdentity.set(slotIndex, identityEntry);
+        return entry;
+
+    }
+
+    static final class Entry {
+
+        private final String key;
+
+        private final SerializedString fieldName;
+
+        private final LazyFieldName lazyFieldName;
+
+        private final boolean matching;
+
+        private Entry(String key, boolean matching) {
+            this.key = key;
+            this.fieldName = new SerializedString(key);
+            this.lazyFieldName = new LazyFieldName(null, fieldName);
+            this.matching = matching;
+        }
+
+        /**
+         * Rebinds the given entry to another instance of the same key, while
+         * sharing the field name and, hence, its encoded forms.
+         */
+        private Entry(String key, Entry entry) {
+            this.key = key;
+            this.fieldName = entry.fieldName;
+            this.lazyFieldName = entry.lazyFieldName;
+            this.matching = entry.matching;
+        }
+
+        SerializedString getFieldName() {
+            return fieldName;
+        }
+
+        /**
+         * @param parentFieldName field name of the enclosing object, if it is
+         *                        yet to be started, otherwise {@code null}
+         * @return the field name to be written lazily, while excluding empty
+         * properties
+         */
+        LazyFieldName getLazyFieldName(LazyFieldName parentFieldName) {
+            return parentFieldName != null
+                    ? new LazyFieldName(parentFieldName, fieldName)
+                    : lazyFieldName;
+        }
+
+        boolean isMatching() {
+            return matching;
+        }
+
+    }
+
+}
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.message.MapMessage;
 import org.apache.logging.log4j.util.IndexedReadOnlyStringMap;
@@ -25,13 +26,16 @@ import java.io.IOException;
 
 class MapResolver implements EventResolver {
 
+    private final EventResolverContext context;
+
     private final String key;
 
     static String getName() {
         return "map";
     }
 
-    MapResolver(String key) {
+    MapResolver(EventResolverContext context, String key) {
+        this.context = context;
         this.key = key;
     }
 
@@ -44,8 +48,20 @@ class MapResolver implements EventResolver {
             MapMessage<?, Object> message = (MapMessage<?, Object>) logEvent.getMessage();
             IndexedReadOnlyStringMap map = message.getIndexedReadOnlyStringMap();
             final Object value = map.getValue(key);
-            jsonGenerator.writeObject(value);
+            context.getJsonValueWriters().write(jsonGenerator, value);
+        }
+    }
+
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        if (!(logEvent.getMessage() instanceof MapMessage)) {
+            return false;
         }
+        @SuppressWarnings("unchecked")
+        MapMessage<?, Object> message = (MapMessage<?, Object>) logEvent.getMessage();
+        IndexedReadOnlyStringMap map = message.getIndexedReadOnlyStringMap();
+        final Object value = map.getValue(key);
+        return context.getJsonValueWriters().writeField(jsonGenerator, fieldName, value);
     }
 
 }
@@ -33,7 +33,7 @@ public class MapResolverFactory implements EventResolverFactory<MapResolver> {
 
     @Override
     public MapResolver create(EventResolverContext context, String key) {
-        return new MapResolver(key);
+        return new MapResolver(context, key);
     }
 
 }
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.core.LogEvent;
 
@@ -24,13 +25,24 @@ import java.io.IOException;
 
 class MarkerResolver implements EventResolver {
 
-    private static final TemplateResolver<LogEvent> NAME_RESOLVER = (logEvent, jsonGenerator) -> {
-        Marker marker = logEvent.getMarker();
-        if (marker == null) {
-            jsonGenerator.writeNull();
-        } else {
-            jsonGenerator.writeString(marker.getName());
+    private static final TemplateResolver<LogEvent> NAME_RESOLVER = new TemplateResolver<LogEvent>() {
+
+        @Override
+        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+            Marker marker = logEvent.getMarker();
+            if (marker == null) {
+                jsonGenerator.writeNull();
+            } else {
+                jsonGenerator.writeString(marker.getName());
+            }
+        }
+
+        @Override
+        public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+            Marker marker = logEvent.getMarker();
+            return marker != null && fieldName.writeString(jsonGenerator, marker.getName());
         }
+
     };
 
     private final TemplateResolver<LogEvent> internalResolver;
@@ -50,9 +62,19 @@ class MarkerResolver implements EventResolver {
         return "marker";
     }
 
+    @Override
+    public boolean isResolvable() {
+        return internalResolver.isResolvable();
+    }
+
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
         internalResolver.resolve(logEvent, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(logEvent, jsonGenerator, fieldName);
+    }
+
 }
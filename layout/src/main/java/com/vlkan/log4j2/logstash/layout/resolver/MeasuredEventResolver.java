@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import com.vlkan.log4j2.logstash.layout.util.Throwables;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delegating resolver counting the failures of the delegate, except buffer
+ * overflows, which are rather counted per event.
+ */
+class MeasuredEventResolver implements EventResolver {
+
+    private final TemplateResolver<LogEvent> delegate;
+
+    private final LongAdder errorCount;
+
+    MeasuredEventResolver(TemplateResolver<LogEvent> delegate, LongAdder errorCount) {
+        this.delegate = delegate;
+        this.errorCount = errorCount;
+    }
+
+    @Override
+    public boolean isResolvable() {
+        return delegate.isResolvable();
+    }
+
+    @Override
+    public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+        try {
+            delegate.resolve(logEvent, jsonGenerator);
+        } catch (IOException | RuntimeException error) {
+            recordError(error);
+            throw error;
+        }
+    }
+
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        try {
+            return delegate.resolveField(logEvent, jsonGenerator, fieldName);
+        } catch (IOException | RuntimeException error) {
+            recordError(error);
+            throw error;
+        }
+    }
+
+    private void recordError(Exception error) {
+        if (!Throwables.isBufferOverflow(error)) {
+            errorCount.increment();
+        }
+    }
+
+}
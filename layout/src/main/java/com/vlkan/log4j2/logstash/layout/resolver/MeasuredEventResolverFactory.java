@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutMetrics;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class MeasuredEventResolverFactory implements EventResolverFactory<MeasuredEventResolver> {
+
+    private final TemplateResolverFactory<LogEvent, EventResolverContext, ? extends TemplateResolver<LogEvent>> delegate;
+
+    private final LogstashLayoutMetrics metrics;
+
+    MeasuredEventResolverFactory(
+            TemplateResolverFactory<LogEvent, EventResolverContext, ? extends TemplateResolver<LogEvent>> delegate,
+            LogstashLayoutMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public MeasuredEventResolver create(EventResolverContext context, String key) {
+        TemplateResolver<LogEvent> resolver = delegate.create(context, key);
+        String directive = key != null ? getName() + ':' + key : getName();
+        LongAdder errorCount = metrics.getResolverErrorCounter(directive);
+        return new MeasuredEventResolver(resolver, errorCount);
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+/**
+ * Strategies to embed the JSON rendered by a {@link org.apache.logging.log4j.message.MultiformatMessage}
+ * into the output while resolving {@code ${json:message:json}}.
+ */
+public enum MessageJsonMode {
+
+    /**
+     * Parses the JSON into a tree, prunes {@code null}s and empty containers
+     * while excluding empty properties, and writes the tree.
+     */
+    TREE,
+
+    /**
+     * Copies the tokens from a streaming parser to the generator without
+     * materializing a tree. Hence, the JSON gets validated, indented while
+     * pretty printing, its strings get truncated by {@code maxStringLength},
+     * and its empty properties get excluded as in {@link #TREE}.
+     */
+    STREAM,
+
+    /**
+     * Splices the JSON as is via {@link com.fasterxml.jackson.core.JsonGenerator#writeRawValue(String)},
+     * that is, the message is trusted to render valid JSON. Hence, it is
+     * incompatible with empty property exclusion.
+     */
+    RAW
+
+}
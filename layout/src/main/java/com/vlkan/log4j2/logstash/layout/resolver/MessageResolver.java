@@ -17,14 +17,23 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.vlkan.log4j2.logstash.layout.util.JsonGenerators;
+import com.vlkan.log4j2.logstash.layout.util.JsonValueWriters;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import com.vlkan.log4j2.logstash.layout.util.ScratchSpace;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.util.Constants;
 import org.apache.logging.log4j.message.*;
-import org.apache.logging.log4j.util.TriConsumer;
+import org.apache.logging.log4j.util.IndexedReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.StringBuilders;
 
 import java.io.IOException;
+import java.util.function.Supplier;
 
 class MessageResolver implements EventResolver {
 
@@ -32,13 +41,20 @@ class MessageResolver implements EventResolver {
 
     private static final String[] FORMATS = { "JSON" };
 
+    private static final SerializedString NAME_FIELD_NAME = new SerializedString(NAME);
+
     private final EventResolverContext context;
 
     private final String key;
 
+    private final MapKeyCache mapMessageKeyCache;
+
     MessageResolver(EventResolverContext context, String key) {
         this.context = context;
         this.key = key;
+        this.mapMessageKeyCache = FORMATS[0].equalsIgnoreCase(key)
+                ? new MapKeyCache(null, MapKeyCache.DEFAULT_MAX_SIZE)
+                : null;
     }
 
     static String getName() {
@@ -47,78 +63,186 @@ class MessageResolver implements EventResolver {
 
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+        resolve(logEvent, jsonGenerator, null);
+    }
+
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return resolve(logEvent, jsonGenerator, fieldName);
+    }
+
+    /**
+     * @param fieldName field name to be written right before a non-empty
+     *                  value, or {@code null}, if the value is written eagerly
+     * @return {@code true}, if a value is written
+     */
+    private boolean resolve(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
         Message message = logEvent.getMessage();
-        if (FORMATS[0].equalsIgnoreCase(key)) {
-            resolveJson(message, jsonGenerator);
-        } else {
-            resolveText(message, jsonGenerator);
+        return FORMATS[0].equalsIgnoreCase(key)
+                ? resolveJson(message, jsonGenerator, fieldName)
+                : resolveText(message, jsonGenerator, fieldName);
+    }
+
+    private boolean resolveText(Message message, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return writeText(message, jsonGenerator, fieldName, false);
+    }
+
+    private static void writeFieldName(JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        if (fieldName != null) {
+            fieldName.write(jsonGenerator);
         }
     }
 
-    private void resolveText(Message message, JsonGenerator jsonGenerator) throws IOException {
-        String formattedMessage = resolveText(message);
-        if (formattedMessage == null) {
+    /**
+     * Skips an excluded value, which is written as {@code null} in the
+     * absence of a field name.
+     *
+     * @return {@code false}, i.e., nothing but {@code null} is written
+     */
+    private static boolean writeExcluded(JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        if (fieldName == null) {
             jsonGenerator.writeNull();
-        } else {
+        }
+        return false;
+    }
+
+    /**
+     * Writes the formatted message as a string, optionally wrapped in an
+     * object, or {@code null}, if it is excluded.
+     * <p>
+     * {@link StringBuilderFormattable} messages, e.g., parameterized ones,
+     * are formatted into a buffer kept in the {@link ScratchSpace} of the
+     * serialization context, rather than allocating a string per event via
+     * {@link Message#getFormattedMessage()}.
+     */
+    private boolean writeText(
+            Message message,
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            boolean wrapped)
+            throws IOException {
+
+        // Write the formatted message, if the message is not formattable.
+        if (!(message instanceof StringBuilderFormattable)) {
+            String formattedMessage = resolveText(message);
+            if (formattedMessage == null) {
+                return writeExcluded(jsonGenerator, fieldName);
+            }
+            writeTextStart(jsonGenerator, fieldName, wrapped);
             jsonGenerator.writeString(formattedMessage);
+            writeTextEnd(jsonGenerator, wrapped);
+            return true;
+        }
+
+        // Format the message.
+        TextContext textContext = ScratchSpace.of(jsonGenerator).get(TEXT_CONTEXT_SUPPLIER);
+        StringBuilder builder = textContext.builder;
+        builder.setLength(0);
+        ((StringBuilderFormattable) message).formatTo(builder);
+        int length = builder.length();
+        if (length == 0 && context.isEmptyPropertyExclusionEnabled()) {
+            return writeExcluded(jsonGenerator, fieldName);
+        }
+
+        // Write the formatted message. Excessively long ones are written as
+        // is, such that the buffers do not retain their capacity.
+        writeTextStart(jsonGenerator, fieldName, wrapped);
+        if (length > Constants.MAX_REUSABLE_MESSAGE_SIZE) {
+            jsonGenerator.writeString(builder.toString());
+            StringBuilders.trimToMaxSize(builder, Constants.MAX_REUSABLE_MESSAGE_SIZE);
+        } else {
+            char[] buffer = textContext.getBuffer(length);
+            builder.getChars(0, length, buffer, 0);
+            jsonGenerator.writeString(buffer, 0, length);
+        }
+        writeTextEnd(jsonGenerator, wrapped);
+        return true;
+
+    }
+
+    private static void writeTextStart(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            boolean wrapped)
+            throws IOException {
+        writeFieldName(jsonGenerator, fieldName);
+        if (wrapped) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeFieldName(NAME_FIELD_NAME);
+        }
+    }
+
+    private static void writeTextEnd(JsonGenerator jsonGenerator, boolean wrapped) throws IOException {
+        if (wrapped) {
+            jsonGenerator.writeEndObject();
         }
     }
 
+    private static final class TextContext {
+
+        private final StringBuilder builder = new StringBuilder();
+
+        private char[] buffer = new char[128];
+
+        private char[] getBuffer(int length) {
+            if (buffer.length < length) {
+                buffer = new char[Math.max(length, 2 * buffer.length)];
+            }
+            return buffer;
+        }
+
+    }
+
+    private static final Supplier<TextContext> TEXT_CONTEXT_SUPPLIER = TextContext::new;
+
     private String resolveText(Message message) {
         String formattedMessage = message.getFormattedMessage();
         boolean messageExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(formattedMessage);
         return messageExcluded ? null : formattedMessage;
     }
 
-    private void resolveJson(Message message, JsonGenerator jsonGenerator) throws IOException {
+    private boolean resolveJson(Message message, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
 
         // Try SimpleMessage serializer.
-        if (writeSimpleMessage(jsonGenerator, message)) {
-            return;
+        if (message instanceof SimpleMessage) {
+            return writeSimpleMessage(jsonGenerator, fieldName, (SimpleMessage) message);
         }
 
         // Try MultiformatMessage serializer.
-        if (writeMultiformatMessage(jsonGenerator, message)) {
-            return;
+        if (message instanceof MultiformatMessage) {
+            return writeMultiformatMessage(jsonGenerator, fieldName, (MultiformatMessage) message);
         }
 
         // Try ObjectMessage serializer.
-        if (writeObjectMessage(jsonGenerator, message)) {
-            return;
+        if (message instanceof ObjectMessage) {
+            return writeObjectMessage(jsonGenerator, fieldName, (ObjectMessage) message);
         }
 
         // Fallback to plain Object write.
-        writeObject(message, jsonGenerator);
+        return writeObject(message, jsonGenerator, fieldName);
 
     }
 
-    private boolean writeSimpleMessage(JsonGenerator jsonGenerator, Message message) throws IOException {
-
-        // Check type.
-        if (!(message instanceof SimpleMessage)) {
-            return false;
-        }
-        SimpleMessage simpleMessage = (SimpleMessage) message;
-
-        // Write message.
+    private boolean writeSimpleMessage(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            SimpleMessage simpleMessage)
+            throws IOException {
         String formattedMessage = simpleMessage.getFormattedMessage();
         boolean messageExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(formattedMessage);
         if (messageExcluded) {
-            jsonGenerator.writeNull();
-        } else {
-            jsonGenerator.writeString(formattedMessage);
+            return writeExcluded(jsonGenerator, fieldName);
         }
+        writeFieldName(jsonGenerator, fieldName);
+        jsonGenerator.writeString(formattedMessage);
         return true;
-
     }
 
-    private boolean writeMultiformatMessage(JsonGenerator jsonGenerator, Message message) throws IOException {
-
-        // Check type.
-        if (!(message instanceof MultiformatMessage)) {
-            return false;
-        }
-        MultiformatMessage multiformatMessage = (MultiformatMessage) message;
+    private boolean writeMultiformatMessage(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            MultiformatMessage multiformatMessage)
+            throws IOException {
 
         // As described in LOG4J2-2703, MapMessage#getFormattedMessage() is
         // incorrectly formatting Object's. Hence, we will temporarily work
@@ -126,57 +250,175 @@ class MessageResolver implements EventResolver {
         // default provided formatter.
 
         // Override the provided MapMessage formatter.
-        if (context.isMapMessageFormatterIgnored() && message instanceof MapMessage) {
+        if (context.isMapMessageFormatterIgnored() && multiformatMessage instanceof MapMessage) {
             @SuppressWarnings("unchecked")
-            MapMessage<?, Object> mapMessage = (MapMessage<?, Object>) message;
-            writeMapMessage(jsonGenerator, mapMessage);
-            return true;
-        }
-
-        // Check formatter's JSON support.
-        boolean jsonSupported = false;
-        String[] formats = multiformatMessage.getFormats();
-        for (String format : formats) {
-            if (FORMATS[0].equalsIgnoreCase(format)) {
-                jsonSupported = true;
-                break;
-            }
+            MapMessage<?, Object> mapMessage = (MapMessage<?, Object>) multiformatMessage;
+            return writeMapMessage(jsonGenerator, fieldName, mapMessage);
         }
 
         // Get the formatted message, if there is any.
-        if (!jsonSupported) {
-            writeObject(message, jsonGenerator);
-            return true;
+        if (!isJsonSupported(multiformatMessage)) {
+            return writeObject(multiformatMessage, jsonGenerator, fieldName);
         }
 
         // Write the formatted JSON.
         String messageJson = multiformatMessage.getFormattedMessage(FORMATS);
+        switch (context.getMessageJsonMode()) {
+            case TREE: return writeJsonTree(jsonGenerator, fieldName, messageJson);
+            case STREAM: return writeJsonStream(jsonGenerator, fieldName, messageJson);
+            case RAW: return writeJsonRaw(jsonGenerator, fieldName, messageJson);
+            default: throw new IllegalStateException("unknown mode: " + context.getMessageJsonMode());
+        }
+
+    }
+
+    private boolean writeJsonTree(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            String messageJson)
+            throws IOException {
         JsonNode jsonNode = readMessageJson(context, messageJson);
+        if (fieldName != null) {
+            try (JsonParser jsonParser = jsonNode.traverse(context.getObjectMapper())) {
+                jsonParser.nextToken();
+                return JsonGenerators.copyNonEmptyValue(jsonParser, jsonGenerator, fieldName);
+            }
+        }
         boolean nodeExcluded = isNodeExcluded(jsonNode);
         if (nodeExcluded) {
             jsonGenerator.writeNull();
-        } else {
-            jsonGenerator.writeTree(jsonNode);
+            return false;
+        }
+        jsonGenerator.writeTree(jsonNode);
+        return true;
+    }
+
+    private boolean writeJsonStream(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            String messageJson)
+            throws IOException {
+        if (isJsonExcluded(messageJson)) {
+            return writeExcluded(jsonGenerator, fieldName);
+        }
+        try (JsonParser jsonParser = context.getObjectMapper().getFactory().createParser(messageJson)) {
+            if (fieldName != null) {
+                jsonParser.nextToken();
+                return JsonGenerators.copyNonEmptyValue(jsonParser, jsonGenerator, fieldName);
+            }
+            if (jsonParser.nextToken() == null) {
+                jsonGenerator.writeNull();
+                return false;
+            }
+            jsonGenerator.copyCurrentStructure(jsonParser);
+            return true;
         }
+    }
+
+    private static boolean writeJsonRaw(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            String messageJson)
+            throws IOException {
+        // Empty property exclusion is not supported, since it would require parsing.
+        writeFieldName(jsonGenerator, fieldName);
+        jsonGenerator.writeRawValue(messageJson);
         return true;
+    }
 
+    /**
+     * Checks if the given JSON is an empty top-level value, i.e., {@code null},
+     * an empty string, or an empty container, without parsing it.
+     */
+    private boolean isJsonExcluded(String json) {
+        return context.isEmptyPropertyExclusionEnabled() && isJsonEmpty(json);
     }
 
-    private static void writeMapMessage(JsonGenerator jsonGenerator, MapMessage<?, Object> mapMessage) throws IOException {
-        jsonGenerator.writeStartObject();
-        mapMessage.forEach(MAP_MESSAGE_ENTRY_WRITER, jsonGenerator);
-        jsonGenerator.writeEndObject();
+    static boolean isJsonEmpty(String json) {
+        int startIndex = skipWhitespace(json, 0);
+        if (startIndex == json.length()) {
+            return true;
+        }
+        int endIndex;
+        if (json.startsWith("null", startIndex)) {
+            endIndex = startIndex + 4;
+        } else {
+            char openingChar = json.charAt(startIndex);
+            char closingChar;
+            switch (openingChar) {
+                case '"': closingChar = '"'; break;
+                case '{': closingChar = '}'; break;
+                case '[': closingChar = ']'; break;
+                default: return false;
+            }
+            // Whitespace is allowed within empty containers, but not within empty strings.
+            int closingIndex = openingChar == '"'
+                    ? startIndex + 1
+                    : skipWhitespace(json, startIndex + 1);
+            if (closingIndex == json.length() || json.charAt(closingIndex) != closingChar) {
+                return false;
+            }
+            endIndex = closingIndex + 1;
+        }
+        return skipWhitespace(json, endIndex) == json.length();
+    }
+
+    private static int skipWhitespace(String json, int startIndex) {
+        int index = startIndex;
+        while (index < json.length()) {
+            char c = json.charAt(index);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            index++;
+        }
+        return index;
     }
 
-    private static TriConsumer<String, Object, JsonGenerator> MAP_MESSAGE_ENTRY_WRITER =
-            (key, value, jsonGenerator) -> {
-                try {
-                    jsonGenerator.writeFieldName(key);
-                    JsonGenerators.writeObject(jsonGenerator, value);
-                } catch (IOException error) {
-                    throw new RuntimeException("MapMessage entry serialization failure", error);
+    private static boolean isJsonSupported(MultiformatMessage multiformatMessage) {
+        String[] formats = multiformatMessage.getFormats();
+        for (String format : formats) {
+            if (FORMATS[0].equalsIgnoreCase(format)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean writeMapMessage(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            MapMessage<?, Object> mapMessage)
+            throws IOException {
+        // Access entries by index rather than via MapMessage#forEach(), which
+        // is GC free and lets I/O errors propagate as is.
+        IndexedReadOnlyStringMap map = mapMessage.getIndexedReadOnlyStringMap();
+        JsonValueWriters jsonValueWriters = context.getJsonValueWriters();
+        LazyFieldName pendingFieldName = fieldName;
+        if (fieldName == null) {
+            jsonGenerator.writeStartObject();
+        }
+        for (int entryIndex = 0; entryIndex < map.size(); entryIndex++) {
+            String key = map.getKeyAt(entryIndex);
+            Object value = map.getValueAt(entryIndex);
+            MapKeyCache.Entry keyEntry = mapMessageKeyCache.get(key);
+            if (fieldName != null) {
+                // Exclude empty values, since the object is written lazily.
+                LazyFieldName entryFieldName = keyEntry.getLazyFieldName(pendingFieldName);
+                if (jsonValueWriters.writeField(jsonGenerator, entryFieldName, value)) {
+                    pendingFieldName = null;
                 }
-            };
+            } else {
+                jsonGenerator.writeFieldName(keyEntry.getFieldName());
+                jsonValueWriters.write(jsonGenerator, value);
+            }
+        }
+        if (pendingFieldName != null) {
+            return false;
+        }
+        jsonGenerator.writeEndObject();
+        return true;
+    }
 
     private static JsonNode readMessageJson(EventResolverContext context, String messageJson) {
         try {
@@ -186,20 +428,9 @@ class MessageResolver implements EventResolver {
         }
     }
 
-    private void writeObject(Message message, JsonGenerator jsonGenerator) throws IOException {
-
-        // Resolve text node.
-        String formattedMessage = resolveText(message);
-        if (formattedMessage == null) {
-            jsonGenerator.writeNull();
-            return;
-        }
-
+    private boolean writeObject(Message message, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
         // Put textual representation of the message in an object.
-        jsonGenerator.writeStartObject();
-        jsonGenerator.writeObjectField(NAME, formattedMessage);
-        jsonGenerator.writeEndObject();
-
+        return writeText(message, jsonGenerator, fieldName, true);
     }
 
     private boolean isNodeExcluded(JsonNode jsonNode) {
@@ -225,19 +456,17 @@ class MessageResolver implements EventResolver {
 
     }
 
-    private boolean writeObjectMessage(JsonGenerator jsonGenerator, Message message) throws IOException {
-
-        // Check type.
-        if (!(message instanceof ObjectMessage)) {
-            return false;
-        }
-
-        // Serialize object.
-        ObjectMessage objectMessage = (ObjectMessage) message;
+    private boolean writeObjectMessage(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            ObjectMessage objectMessage)
+            throws IOException {
         Object object = objectMessage.getParameter();
-        JsonGenerators.writeObject(jsonGenerator, object);
+        if (fieldName != null) {
+            return context.getJsonValueWriters().writeField(jsonGenerator, fieldName, object);
+        }
+        context.getJsonValueWriters().write(jsonGenerator, object);
         return true;
-
     }
 
 }
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
 
@@ -24,7 +25,24 @@ import java.io.IOException;
 
 class SourceResolver implements EventResolver {
 
-    private static final EventResolver NULL_RESOLVER = (value, jsonGenerator) -> jsonGenerator.writeNull();
+    private static final EventResolver NULL_RESOLVER = new EventResolver() {
+
+        @Override
+        public boolean isResolvable() {
+            return false;
+        }
+
+        @Override
+        public void resolve(LogEvent ignored, JsonGenerator jsonGenerator) throws IOException {
+            jsonGenerator.writeNull();
+        }
+
+        @Override
+        public boolean resolveField(LogEvent ignored, JsonGenerator jsonGenerator, LazyFieldName fieldName) {
+            return false;
+        }
+
+    };
 
     private final EventResolver internalResolver;
 
@@ -46,59 +64,108 @@ class SourceResolver implements EventResolver {
     }
 
     private static EventResolver createClassNameResolver(EventResolverContext context) {
-        return (logEvent, jsonGenerator) -> {
-            StackTraceElement logEventSource = logEvent.getSource();
-            if (logEventSource != null) {
-                String sourceClassName = logEventSource.getClassName();
-                boolean sourceClassNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(sourceClassName);
-                if (!sourceClassNameExcluded) {
-                    jsonGenerator.writeString(sourceClassName);
-                    return;
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                if (logEventSource != null) {
+                    String sourceClassName = logEventSource.getClassName();
+                    boolean sourceClassNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(sourceClassName);
+                    if (!sourceClassNameExcluded) {
+                        jsonGenerator.writeString(sourceClassName);
+                        return;
+                    }
                 }
+                jsonGenerator.writeNull();
             }
-            jsonGenerator.writeNull();
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                return logEventSource != null && fieldName.writeString(jsonGenerator, logEventSource.getClassName());
+            }
+
         };
     }
 
     private static EventResolver createFileNameResolver(EventResolverContext context) {
-        return (logEvent, jsonGenerator) -> {
-            StackTraceElement logEventSource = logEvent.getSource();
-            if (logEventSource != null) {
-                String sourceFileName = logEventSource.getFileName();
-                boolean sourceFileNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(sourceFileName);
-                if (!sourceFileNameExcluded) {
-                    jsonGenerator.writeString(sourceFileName);
-                    return;
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                if (logEventSource != null) {
+                    String sourceFileName = logEventSource.getFileName();
+                    boolean sourceFileNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(sourceFileName);
+                    if (!sourceFileNameExcluded) {
+                        jsonGenerator.writeString(sourceFileName);
+                        return;
+                    }
                 }
+                jsonGenerator.writeNull();
             }
-            jsonGenerator.writeNull();
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                return logEventSource != null && fieldName.writeString(jsonGenerator, logEventSource.getFileName());
+            }
+
         };
     }
 
     private static EventResolver createLineNumberResolver() {
-        return (logEvent, jsonGenerator) -> {
-            StackTraceElement logEventSource = logEvent.getSource();
-            if (logEventSource == null) {
-                jsonGenerator.writeNull();
-            } else {
-                int sourceLineNumber = logEventSource.getLineNumber();
-                jsonGenerator.writeNumber(sourceLineNumber);
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                if (logEventSource == null) {
+                    jsonGenerator.writeNull();
+                } else {
+                    int sourceLineNumber = logEventSource.getLineNumber();
+                    jsonGenerator.writeNumber(sourceLineNumber);
+                }
+            }
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                if (logEventSource == null) {
+                    return false;
+                }
+                fieldName.write(jsonGenerator);
+                jsonGenerator.writeNumber(logEventSource.getLineNumber());
+                return true;
             }
+
         };
     }
 
     private static EventResolver createMethodNameResolver(EventResolverContext context) {
-        return (logEvent, jsonGenerator) -> {
-            StackTraceElement logEventSource = logEvent.getSource();
-            if (logEventSource != null) {
-                String sourceMethodName = logEventSource.getMethodName();
-                boolean sourceMethodNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(sourceMethodName);
-                if (!sourceMethodNameExcluded) {
-                    jsonGenerator.writeString(sourceMethodName);
-                    return;
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                if (logEventSource != null) {
+                    String sourceMethodName = logEventSource.getMethodName();
+                    boolean sourceMethodNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(sourceMethodName);
+                    if (!sourceMethodNameExcluded) {
+                        jsonGenerator.writeString(sourceMethodName);
+                        return;
+                    }
                 }
+                jsonGenerator.writeNull();
             }
-            jsonGenerator.writeNull();
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                StackTraceElement logEventSource = logEvent.getSource();
+                return logEventSource != null && fieldName.writeString(jsonGenerator, logEventSource.getMethodName());
+            }
+
         };
     }
 
@@ -106,9 +173,19 @@ class SourceResolver implements EventResolver {
         return "source";
     }
 
+    @Override
+    public boolean isResolvable() {
+        return internalResolver.isResolvable();
+    }
+
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
         internalResolver.resolve(logEvent, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(logEvent, jsonGenerator, fieldName);
+    }
+
 }
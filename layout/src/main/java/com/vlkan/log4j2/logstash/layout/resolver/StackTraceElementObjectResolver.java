@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 
 import java.io.IOException;
 
@@ -29,7 +30,19 @@ class StackTraceElementObjectResolver implements TemplateResolver<StackTraceElem
             (stackTraceElement, jsonGenerator) -> jsonGenerator.writeString(stackTraceElement.getMethodName());
 
     private static final TemplateResolver<StackTraceElement> FILE_NAME_RESOLVER =
-            (stackTraceElement, jsonGenerator) -> jsonGenerator.writeString(stackTraceElement.getFileName());
+            new TemplateResolver<StackTraceElement>() {
+
+                @Override
+                public void resolve(StackTraceElement stackTraceElement, JsonGenerator jsonGenerator) throws IOException {
+                    jsonGenerator.writeString(stackTraceElement.getFileName());
+                }
+
+                @Override
+                public boolean resolveField(StackTraceElement stackTraceElement, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                    return fieldName.writeString(jsonGenerator, stackTraceElement.getFileName());
+                }
+
+            };
 
     private static final TemplateResolver<StackTraceElement> LINE_NUMBER_RESOLVER =
             (stackTraceElement, jsonGenerator) -> jsonGenerator.writeNumber(stackTraceElement.getLineNumber());
@@ -59,4 +72,9 @@ class StackTraceElementObjectResolver implements TemplateResolver<StackTraceElem
         internalResolver.resolve(stackTraceElement, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(StackTraceElement stackTraceElement, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(stackTraceElement, jsonGenerator, fieldName);
+    }
+
 }
@@ -30,10 +30,13 @@ public class StackTraceElementObjectResolverContext implements TemplateResolverC
 
     private final boolean emptyPropertyExclusionEnabled;
 
+    private final boolean templateSpecializationEnabled;
+
     private StackTraceElementObjectResolverContext(Builder builder) {
         this.objectMapper = builder.objectMapper;
         this.substitutor = builder.substitutor;
         this.emptyPropertyExclusionEnabled = builder.emptyPropertyExclusionEnabled;
+        this.templateSpecializationEnabled = builder.templateSpecializationEnabled;
     }
 
     @Override
@@ -61,6 +64,11 @@ public class StackTraceElementObjectResolverContext implements TemplateResolverC
         return emptyPropertyExclusionEnabled;
     }
 
+    @Override
+    public boolean isTemplateSpecializationEnabled() {
+        return templateSpecializationEnabled;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -73,6 +81,8 @@ public class StackTraceElementObjectResolverContext implements TemplateResolverC
 
         private boolean emptyPropertyExclusionEnabled;
 
+        private boolean templateSpecializationEnabled;
+
         private Builder() {
             // Do nothing.
         }
@@ -92,6 +102,11 @@ public class StackTraceElementObjectResolverContext implements TemplateResolverC
             return this;
         }
 
+        public Builder setTemplateSpecializationEnabled(boolean templateSpecializationEnabled) {
+            this.templateSpecializationEnabled = templateSpecializationEnabled;
+            return this;
+        }
+
         public StackTraceElementObjectResolverContext build() {
             validate();
             return new StackTraceElementObjectResolverContext(this);
@@ -17,21 +17,109 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import com.vlkan.log4j2.logstash.layout.util.StackTraceFrameFilter;
 
 import java.io.IOException;
 
+/**
+ * Renders stack traces as arrays of frames, where each run of consecutive
+ * frames omitted by the filter is folded into a single
+ * {@code {"omittedFrameCount": N}} element, similar to the
+ * {@code ... N frames omitted} lines of {@link StackTraceTextResolver}.
+ */
 class StackTraceObjectResolver implements StackTraceResolver {
 
+    private static final SerializedString OMITTED_FRAME_COUNT_FIELD_NAME =
+            new SerializedString("omittedFrameCount");
+
     private final TemplateResolver<StackTraceElement> stackTraceElementResolver;
 
-    StackTraceObjectResolver(TemplateResolver<StackTraceElement> stackTraceElementResolver) {
+    private final StackTraceFrameFilter frameFilter;
+
+    StackTraceObjectResolver(
+            TemplateResolver<StackTraceElement> stackTraceElementResolver,
+            StackTraceFrameFilter frameFilter) {
         this.stackTraceElementResolver = stackTraceElementResolver;
+        this.frameFilter = frameFilter;
     }
 
     @Override
     public void resolve(Throwable throwable, JsonGenerator jsonGenerator) throws IOException {
 
         // Extract the stack trace.
+        StackTraceElement[] stackTraceElements = extractStackTraceElements(throwable);
+
+        // Resolve the stack trace elements.
+        if (stackTraceElements.length  == 0) {
+            jsonGenerator.writeNull();
+        } else {
+            jsonGenerator.writeStartArray();
+            writeStackTraceElements(stackTraceElements, jsonGenerator);
+            jsonGenerator.writeEndArray();
+        }
+
+    }
+
+    @Override
+    public boolean resolveField(Throwable throwable, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+
+        // Extract the stack trace.
+        StackTraceElement[] stackTraceElements = extractStackTraceElements(throwable);
+
+        // Resolve the stack trace elements, which always yield at least
+        // either a frame or an omitted frame count, if there are any.
+        if (stackTraceElements.length == 0) {
+            return false;
+        }
+        fieldName.write(jsonGenerator);
+        jsonGenerator.writeStartArray();
+        writeStackTraceElements(stackTraceElements, jsonGenerator);
+        jsonGenerator.writeEndArray();
+        return true;
+
+    }
+
+    private void writeStackTraceElements(
+            StackTraceElement[] stackTraceElements,
+            JsonGenerator jsonGenerator)
+            throws IOException {
+        int includedStackTraceElementCount = 0;
+        int omittedStackTraceElementCount = 0;
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int stackTraceElementIndex = 0;
+             stackTraceElementIndex < stackTraceElements.length;
+             stackTraceElementIndex++) {
+            StackTraceElement stackTraceElement = stackTraceElements[stackTraceElementIndex];
+            if (includedStackTraceElementCount < frameFilter.getMaxFrameCount() &&
+                    frameFilter.isIncluded(stackTraceElement)) {
+                if (omittedStackTraceElementCount != 0) {
+                    writeOmittedFrameCount(omittedStackTraceElementCount, jsonGenerator);
+                    omittedStackTraceElementCount = 0;
+                }
+                includedStackTraceElementCount++;
+                stackTraceElementResolver.resolve(stackTraceElement, jsonGenerator);
+            } else {
+                omittedStackTraceElementCount++;
+            }
+        }
+        if (omittedStackTraceElementCount != 0) {
+            writeOmittedFrameCount(omittedStackTraceElementCount, jsonGenerator);
+        }
+    }
+
+    private static void writeOmittedFrameCount(
+            int omittedFrameCount,
+            JsonGenerator jsonGenerator)
+            throws IOException {
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeFieldName(OMITTED_FRAME_COUNT_FIELD_NAME);
+        jsonGenerator.writeNumber(omittedFrameCount);
+        jsonGenerator.writeEndObject();
+    }
+
+    private static StackTraceElement[] extractStackTraceElements(Throwable throwable) {
         StackTraceElement[] stackTraceElements;
         Throwable lastThrowable = throwable;
         while (true) {
@@ -47,20 +135,7 @@ class StackTraceObjectResolver implements StackTraceResolver {
                 lastThrowable = newThrowable;
             }
         }
-
-        // Resolve the stack trace elements.
-        if (stackTraceElements.length  == 0) {
-            jsonGenerator.writeNull();
-        } else {
-            jsonGenerator.writeStartArray();
-            // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
-            for (int stackTraceElementIndex = 0; stackTraceElementIndex < stackTraceElements.length; stackTraceElementIndex++) {
-                StackTraceElement stackTraceElement = stackTraceElements[stackTraceElementIndex];
-                stackTraceElementResolver.resolve(stackTraceElement, jsonGenerator);
-            }
-            jsonGenerator.writeEndArray();
-        }
-
+        return stackTraceElements;
     }
 
 }
@@ -18,37 +18,43 @@ package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.vlkan.log4j2.logstash.layout.util.BufferedPrintWriter;
-import org.apache.logging.log4j.util.Constants;
+import com.vlkan.log4j2.logstash.layout.util.ScratchSpace;
+import com.vlkan.log4j2.logstash.layout.util.StackTraceTextRenderer;
 
 import java.io.IOException;
 import java.util.function.Supplier;
 
+/**
+ * Renders stack traces into a writer and a renderer kept in the {@link
+ * ScratchSpace} of the serialization context.
+ */
 class StackTraceTextResolver implements StackTraceResolver {
 
     private final Supplier<BufferedPrintWriter> writerSupplier;
 
-    private final ThreadLocal<BufferedPrintWriter> writerRef;
+    private final Supplier<StackTraceTextRenderer> rendererSupplier;
 
-    StackTraceTextResolver(int writerCapacity) {
+    StackTraceTextResolver(int writerCapacity, Supplier<StackTraceTextRenderer> rendererSupplier) {
         this.writerSupplier = () -> BufferedPrintWriter.ofCapacity(writerCapacity);
-        this.writerRef = Constants.ENABLE_THREADLOCALS
-                ? ThreadLocal.withInitial(writerSupplier)
-                : null;
+        this.rendererSupplier = rendererSupplier;
     }
 
     @Override
     public void resolve(Throwable throwable, JsonGenerator jsonGenerator) throws IOException {
-        BufferedPrintWriter writer = getResetWriter();
+        ScratchSpace scratchSpace = ScratchSpace.of(jsonGenerator);
+        BufferedPrintWriter writer = scratchSpace.get(writerSupplier);
+        writer.close();
+        StackTraceTextRenderer renderer = scratchSpace.get(rendererSupplier);
         Throwable lastThrowable = throwable;
         while (true) {
             try {
-                lastThrowable.printStackTrace(writer);
+                renderer.render(lastThrowable, writer);
                 break;
             }
             // It is indeed not a good practice to catch `Throwable`s, but what
             // one should do while trying to dump the stack trace of a failure?
-            // Hence, if `Throwable#printStackTrace(PrintWriter)` fails for some
-            // reason, at least try to dump the reason of the failure.
+            // Hence, if rendering fails for some reason, at least try to dump
+            // the reason of the failure.
             catch (Throwable newThrowable) {
                 writer.close();
                 lastThrowable = newThrowable;
@@ -57,15 +63,4 @@ class StackTraceTextResolver implements StackTraceResolver {
         jsonGenerator.writeString(writer.getBuffer(), 0, writer.getPosition());
     }
 
-    private BufferedPrintWriter getResetWriter() {
-        BufferedPrintWriter writer;
-        if (Constants.ENABLE_THREADLOCALS) {
-            writer = writerRef.get();
-            writer.close();
-        } else {
-            writer = writerSupplier.get();
-        }
-        return writer;
-    }
-
 }
@@ -17,11 +17,40 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 
 import java.io.IOException;
 
 public interface TemplateResolver<V> {
 
+    /**
+     * Indicates if the resolver can ever emit a value. Consulted at template
+     * compilation time, while excluding empty properties, to elide fields
+     * that would never make it to the output. Empty values emitted at
+     * runtime are excluded by {@link #resolveField(Object, JsonGenerator,
+     * LazyFieldName)} instead.
+     */
+    default boolean isResolvable() {
+        return true;
+    }
+
     void resolve(V value, JsonGenerator jsonGenerator) throws IOException;
 
+    /**
+     * Resolves the value of an object field or an array item while excluding
+     * empty properties, where the field name is written by the resolver
+     * itself right before the value, unless the value turns out to be empty,
+     * i.e., {@code null}, an empty string, or an empty container.
+     * <p>
+     * Resolvers of values that might be empty are expected to override this,
+     * deciding on the emptiness from the very value they are about to write.
+     *
+     * @return {@code true}, if the value (and hence the field name) is written
+     */
+    default boolean resolveField(V value, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        fieldName.write(jsonGenerator);
+        resolve(value, jsonGenerator);
+        return true;
+    }
+
 }
@@ -33,4 +33,10 @@ interface TemplateResolverContext<V, C extends TemplateResolverContext<V, C>> {
 
     boolean isEmptyPropertyExclusionEnabled();
 
+    /**
+     * Indicates if object and array nodes are compiled into {@link
+     * UnrolledCompositeResolver}s, rather than generic loops.
+     */
+    boolean isTemplateSpecializationEnabled();
+
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+/**
+ * Decorates the resolvers of object fields and array items while compiling a
+ * template via {@link TemplateResolvers#ofTemplate(TemplateResolverContext,
+ * String, TemplateResolverInterceptor)}, e.g., to time them.
+ */
+@FunctionalInterface
+public interface TemplateResolverInterceptor<V> {
+
+    /**
+     * @param path the path of the node in the template, where object field
+     *             names are separated by dots and array items are denoted
+     *             by their indices, e.g., {@code exception.stacktrace} or
+     *             {@code tags[0]}
+     * @param resolver the resolver of the node
+     * @return the resolver to be used in place of the given one
+     */
+    TemplateResolver<V> intercept(String path, TemplateResolver<V> resolver);
+
+}
@@ -16,34 +16,76 @@
 
 package com.vlkan.log4j2.logstash.layout.resolver;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.util.KeyValuePair;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 public enum TemplateResolvers {;
 
-    private static final TemplateResolver<?> EMPTY_ARRAY_RESOLVER = (TemplateResolver<Object>) (ignored, jsonGenerator) -> {
-        jsonGenerator.writeStartArray();
-        jsonGenerator.writeEndArray();
+    private static final TemplateResolver<?> EMPTY_ARRAY_RESOLVER = new UnresolvableTemplateResolver() {
+        @Override
+        public void resolve(Object ignored, JsonGenerator jsonGenerator) throws IOException {
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeEndArray();
+        }
+    };
+
+    private static final TemplateResolver<?> EMPTY_OBJECT_RESOLVER = new UnresolvableTemplateResolver() {
+        @Override
+        public void resolve(Object ignored, JsonGenerator jsonGenerator) throws IOException {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeEndObject();
+        }
     };
 
-    private static final TemplateResolver<?> EMPTY_OBJECT_RESOLVER = (TemplateResolver<Object>) (ignored, jsonGenerator) -> {
-        jsonGenerator.writeStartObject();
-        jsonGenerator.writeEndObject();
+    private static final TemplateResolver<?> NULL_NODE_RESOLVER = new UnresolvableTemplateResolver() {
+        @Override
+        public void resolve(Object ignored, JsonGenerator jsonGenerator) throws IOException {
+            jsonGenerator.writeNull();
+        }
     };
 
-    private static final TemplateResolver<?> NULL_NODE_RESOLVER = (TemplateResolver<Object>) (ignored, jsonGenerator) -> jsonGenerator.writeNull();
+    /**
+     * Resolver of constants (null, empty arrays and objects) that are subject
+     * to elision while excluding empty properties.
+     */
+    private abstract static class UnresolvableTemplateResolver implements TemplateResolver<Object> {
+
+        @Override
+        public boolean isResolvable() {
+            return false;
+        }
+
+    }
 
     public static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofTemplate(C context, String template) {
+        return ofTemplate(context, template, null);
+    }
+
+    /**
+     * Compiles the template, where the resolver of every object field and
+     * array item, if included, is passed through the given interceptor.
+     *
+     * @param interceptor an interceptor, or {@code null} to skip interception
+     */
+    public static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofTemplate(
+            C context,
+            String template,
+            TemplateResolverInterceptor<V> interceptor) {
 
         // Read the template.
         ObjectNode node;
@@ -65,19 +107,36 @@ public enum TemplateResolvers {;
             }
         }
 
-        // Resolve the template.
-        return ofNode(context, node);
+        // Resolve the template. The root object is resolved eagerly, hence
+        // there are no field names it could be lazily resolved with.
+        return ofNode(context, node, interceptor, "", new LazyFieldName[0]);
 
     }
 
-    private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofNode(C context, JsonNode node) {
+    /**
+     * @param fieldNames the field names the node can be lazily resolved with,
+     *                   indexed by their {@link LazyFieldName#getPendingDepth()
+     *                   pending depths}, while excluding empty properties
+     */
+    private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofNode(
+            C context,
+            JsonNode node,
+            TemplateResolverInterceptor<V> interceptor,
+            String path,
+            LazyFieldName[] fieldNames) {
 
         // Check for known types.
         JsonNodeType nodeType = node.getNodeType();
         switch (nodeType) {
-            case ARRAY: return ofArrayNode(context, node);
-            case OBJECT: return ofObjectNode(context, node);
+            case ARRAY: return ofArrayNode(context, node, interceptor, path, fieldNames);
+            case OBJECT: return ofObjectNode(context, node, interceptor, path, fieldNames);
             case STRING: return ofStringNode(context, node);
+            case NUMBER: return ofNumberNode(node);
+            case BOOLEAN: return ofBooleanNode(node);
+            case NULL: {
+                @SuppressWarnings("unchecked") TemplateResolver<V> nullNodeResolver = (TemplateResolver<V>) NULL_NODE_RESOLVER;
+                return nullNodeResolver;
+            }
         }
 
         // Create constant resolver for the JSON.
@@ -85,14 +144,56 @@ public enum TemplateResolvers {;
 
     }
 
-    private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofArrayNode(C context, JsonNode arrayNode) {
+    private static <V> TemplateResolver<V> ofNumberNode(JsonNode numberNode) {
+
+        // Write integral numbers using their primitive writers.
+        switch (numberNode.numberType()) {
+            case INT: {
+                int number = numberNode.intValue();
+                return (ignored, jsonGenerator) -> jsonGenerator.writeNumber(number);
+            }
+            case LONG: {
+                long number = numberNode.longValue();
+                return (ignored, jsonGenerator) -> jsonGenerator.writeNumber(number);
+            }
+            case BIG_INTEGER: {
+                BigInteger number = numberNode.bigIntegerValue();
+                return (ignored, jsonGenerator) -> jsonGenerator.writeNumber(number);
+            }
+        }
+
+        // Format floating point numbers once, rather than at every write.
+        String formattedNumber = numberNode.asText();
+        return (ignored, jsonGenerator) -> jsonGenerator.writeNumber(formattedNumber);
+
+    }
+
+    private static <V> TemplateResolver<V> ofBooleanNode(JsonNode booleanNode) {
+        boolean value = booleanNode.booleanValue();
+        return (ignored, jsonGenerator) -> jsonGenerator.writeBoolean(value);
+    }
 
-        // Create resolver for each children.
+    private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofArrayNode(
+            C context,
+            JsonNode arrayNode,
+            TemplateResolverInterceptor<V> interceptor,
+            String path,
+            LazyFieldName[] fieldNames) {
+
+        // Create resolver for each children. While excluding empty
+        // properties, skip the ones that will never emit a value.
+        boolean emptyPropertyExclusionEnabled = context.isEmptyPropertyExclusionEnabled();
+        LazyFieldName[] itemFieldNames = emptyPropertyExclusionEnabled
+                ? createFieldNames(fieldNames, null)
+                : null;
         List<TemplateResolver<V>> itemResolvers = new ArrayList<>();
         for (int itemIndex = 0; itemIndex < arrayNode.size(); itemIndex++) {
             JsonNode itemNode = arrayNode.get(itemIndex);
-            TemplateResolver<V> itemResolver = ofNode(context, itemNode);
-            itemResolvers.add(itemResolver);
+            String itemPath = interceptor != null ? path + '[' + itemIndex + ']' : null;
+            TemplateResolver<V> itemResolver = ofNode(context, itemNode, interceptor, itemPath, itemFieldNames);
+            if (!emptyPropertyExclusionEnabled || itemResolver.isResolvable()) {
+                itemResolvers.add(interceptor != null ? interceptor.intercept(itemPath, itemResolver) : itemResolver);
+            }
         }
 
         // Short-circuit if the array is empty.
@@ -101,12 +202,25 @@ public enum TemplateResolvers {;
             return emptyArrayResolver;
         }
 
+        // Create a dedicated straight-line resolver, if requested.
+        List<LazyFieldName[]> itemFieldNamesList = emptyPropertyExclusionEnabled
+                ? Collections.nCopies(itemResolvers.size(), itemFieldNames)
+                : null;
+        if (context.isTemplateSpecializationEnabled()) {
+            return UnrolledCompositeResolver.of(null, itemFieldNamesList, itemResolvers);
+        }
+
+        // Create a parent resolver writing the items lazily, if requested.
+        if (emptyPropertyExclusionEnabled) {
+            return new LazyCompositeResolver<>(false, itemFieldNamesList, itemResolvers);
+        }
+
         // Create a parent resolver collecting each child resolver execution.
+        int itemCount = itemResolvers.size();
         return (value, jsonGenerator) -> {
             jsonGenerator.writeStartArray();
-            // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
-            for (int itemResolverIndex = 0; itemResolverIndex < itemResolvers.size(); itemResolverIndex++) {
-                TemplateResolver<V> itemResolver = itemResolvers.get(itemResolverIndex);
+            for (int itemIndex = 0; itemIndex < itemCount; itemIndex++) {
+                TemplateResolver<V> itemResolver = itemResolvers.get(itemIndex);
                 itemResolver.resolve(value, jsonGenerator);
             }
             jsonGenerator.writeEndArray();
@@ -114,33 +228,65 @@ public enum TemplateResolvers {;
 
     }
 
-    private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofObjectNode(C context, JsonNode srcNode) {
-
-        // Create resolver for each object field.
-        List<String> fieldNames = new ArrayList<>();
+    private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofObjectNode(
+            C context,
+            JsonNode srcNode,
+            TemplateResolverInterceptor<V> interceptor,
+            String path,
+            LazyFieldName[] fieldNames) {
+
+        // Create resolver for each object field. Field names are kept in
+        // their pre-escaped and pre-encoded form to avoid doing so for
+        // every event. While excluding empty properties, skip the fields
+        // that will never emit a value.
+        boolean emptyPropertyExclusionEnabled = context.isEmptyPropertyExclusionEnabled();
+        List<SerializedString> serializedFieldNames = new ArrayList<>();
+        List<LazyFieldName[]> lazyFieldNames = emptyPropertyExclusionEnabled ? new ArrayList<>() : null;
         List<TemplateResolver<V>> fieldResolvers = new ArrayList<>();
         Iterator<Map.Entry<String, JsonNode>> srcNodeFieldIterator = srcNode.fields();
         while (srcNodeFieldIterator.hasNext()) {
             Map.Entry<String, JsonNode> srcNodeField = srcNodeFieldIterator.next();
             String fieldName = srcNodeField.getKey();
             JsonNode fieldValue = srcNodeField.getValue();
-            TemplateResolver<V> fieldResolver = ofNode(context, fieldValue);
-            fieldNames.add(fieldName);
-            fieldResolvers.add(fieldResolver);
+            String fieldPath = interceptor != null
+                    ? (path.isEmpty() ? fieldName : path + '.' + fieldName)
+                    : null;
+            SerializedString serializedFieldName = new SerializedString(fieldName);
+            LazyFieldName[] lazyFieldName = emptyPropertyExclusionEnabled
+                    ? createFieldNames(fieldNames, serializedFieldName)
+                    : null;
+            TemplateResolver<V> fieldResolver = ofNode(context, fieldValue, interceptor, fieldPath, lazyFieldName);
+            if (!emptyPropertyExclusionEnabled || fieldResolver.isResolvable()) {
+                serializedFieldNames.add(serializedFieldName);
+                if (emptyPropertyExclusionEnabled) {
+                    lazyFieldNames.add(lazyFieldName);
+                }
+                fieldResolvers.add(interceptor != null ? interceptor.intercept(fieldPath, fieldResolver) : fieldResolver);
+            }
         }
 
         // Short-circuit if the object is empty.
-        int fieldCount = fieldNames.size();
+        int fieldCount = serializedFieldNames.size();
         if (fieldCount == 0) {
             @SuppressWarnings("unchecked") TemplateResolver<V> emptyObjectResolver = (TemplateResolver<V>) EMPTY_OBJECT_RESOLVER;
             return emptyObjectResolver;
         }
 
+        // Create a dedicated straight-line resolver, if requested.
+        if (context.isTemplateSpecializationEnabled()) {
+            return UnrolledCompositeResolver.of(serializedFieldNames, lazyFieldNames, fieldResolvers);
+        }
+
+        // Create a parent resolver writing the fields lazily, if requested.
+        if (emptyPropertyExclusionEnabled) {
+            return new LazyCompositeResolver<>(true, lazyFieldNames, fieldResolvers);
+        }
+
         // Create a parent resolver collecting each object field resolver execution.
         return (value, jsonGenerator) -> {
             jsonGenerator.writeStartObject();
             for (int fieldIndex = 0; fieldIndex < fieldCount; fieldIndex++) {
-                String fieldName = fieldNames.get(fieldIndex);
+                SerializedString fieldName = serializedFieldNames.get(fieldIndex);
                 TemplateResolver<V> fieldResolver = fieldResolvers.get(fieldIndex);
                 jsonGenerator.writeFieldName(fieldName);
                 fieldResolver.resolve(value, jsonGenerator);
@@ -150,6 +296,90 @@ public enum TemplateResolvers {;
 
     }
 
+    /**
+     * Creates the field names of a child, given the field names of its
+     * parent, for every depth of pending containers the child can be
+     * resolved at, where the first one is used once the parent is started.
+     *
+     * @param name field name of the child, or {@code null} for array items
+     */
+    private static LazyFieldName[] createFieldNames(LazyFieldName[] parentFieldNames, SerializedString name) {
+        LazyFieldName[] fieldNames = new LazyFieldName[parentFieldNames.length + 1];
+        fieldNames[0] = new LazyFieldName(null, name);
+        for (int parentPendingDepth = 0; parentPendingDepth < parentFieldNames.length; parentPendingDepth++) {
+            fieldNames[parentPendingDepth + 1] = new LazyFieldName(parentFieldNames[parentPendingDepth], name);
+        }
+        return fieldNames;
+    }
+
+    /**
+     * Object (or array) resolver excluding empty properties, where children
+     * write their field names themselves, and hence the container, only if
+     * they have a non-empty value.
+     */
+    private static final class LazyCompositeResolver<V> implements TemplateResolver<V> {
+
+        private final boolean object;
+
+        private final List<LazyFieldName[]> fieldNames;
+
+        private final List<TemplateResolver<V>> resolvers;
+
+        private LazyCompositeResolver(
+                boolean object,
+                List<LazyFieldName[]> fieldNames,
+                List<TemplateResolver<V>> resolvers) {
+            this.object = object;
+            this.fieldNames = fieldNames;
+            this.resolvers = resolvers;
+        }
+
+        @Override
+        public void resolve(V value, JsonGenerator jsonGenerator) throws IOException {
+            if (object) {
+                jsonGenerator.writeStartObject();
+            } else {
+                jsonGenerator.writeStartArray();
+            }
+            resolveChildren(value, jsonGenerator, 0);
+            writeEnd(jsonGenerator);
+        }
+
+        @Override
+        public boolean resolveField(V value, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+            boolean started = resolveChildren(value, jsonGenerator, fieldName.getPendingDepth() + 1);
+            if (started) {
+                writeEnd(jsonGenerator);
+            }
+            return started;
+        }
+
+        /**
+         * @param pendingDepth the depth of pending containers, including this
+         *                     one, or zero, if this container is started
+         * @return {@code true}, if this container is started
+         */
+        private boolean resolveChildren(V value, JsonGenerator jsonGenerator, int pendingDepth) throws IOException {
+            for (int childIndex = 0; childIndex < resolvers.size(); childIndex++) {
+                LazyFieldName fieldName = fieldNames.get(childIndex)[pendingDepth];
+                TemplateResolver<V> resolver = resolvers.get(childIndex);
+                if (resolver.resolveField(value, jsonGenerator, fieldName)) {
+                    pendingDepth = 0;
+                }
+            }
+            return pendingDepth == 0;
+        }
+
+        private void writeEnd(JsonGenerator jsonGenerator) throws IOException {
+            if (object) {
+                jsonGenerator.writeEndObject();
+            } else {
+                jsonGenerator.writeEndArray();
+            }
+        }
+
+    }
+
     private static <V, C extends TemplateResolverContext<V, C>> TemplateResolver<V> ofStringNode(C context, JsonNode textNode) {
 
         // Short-circuit if content is blank and not allowed.
@@ -176,33 +406,37 @@ public enum TemplateResolvers {;
         // Check if substitution needed at all. (Copied logic from AbstractJacksonLayout.valueNeedsLookup() method.)
         boolean substitutionNeeded = fieldValue.contains("${");
         if (substitutionNeeded) {
-            if (EventResolverContext.class.isAssignableFrom(context.getContextClass())) {
-                // Use Log4j substitutor with LogEvent.
-                return (value, jsonGenerator) -> {
-                    LogEvent logEvent = (LogEvent) value;
-                    String replacedText = context.getSubstitutor().replace(logEvent, fieldValue);
-                    boolean replacedTextExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(replacedText);
-                    if (replacedTextExcluded) {
-                        jsonGenerator.writeNull();
-                    } else {
-                        jsonGenerator.writeString(replacedText);
-                    }
-                };
-            } else {
-                // Use standalone Log4j substitutor.
-                return (value, jsonGenerator) -> {
-                    String replacedText = context.getSubstitutor().replace(null, fieldValue);
+            boolean logEventSubstitution = EventResolverContext.class.isAssignableFrom(context.getContextClass());
+            return new TemplateResolver<V>() {
+
+                @Override
+                public void resolve(V value, JsonGenerator jsonGenerator) throws IOException {
+                    String replacedText = replace(value);
                     boolean replacedTextExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(replacedText);
                     if (replacedTextExcluded) {
                         jsonGenerator.writeNull();
                     } else {
                         jsonGenerator.writeString(replacedText);
                     }
-                };
-            }
+                }
+
+                @Override
+                public boolean resolveField(V value, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                    String replacedText = replace(value);
+                    return fieldName.writeString(jsonGenerator, replacedText);
+                }
+
+                private String replace(V value) {
+                    // Use Log4j substitutor with LogEvent, if available.
+                    LogEvent logEvent = logEventSubstitution ? (LogEvent) value : null;
+                    return context.getSubstitutor().replace(logEvent, fieldValue);
+                }
+
+            };
         } else {
             // Write the field value as is. (Blank value check has already been done at the top.)
-            return (value, jsonGenerator) -> jsonGenerator.writeString(fieldValue);
+            SerializedString serializedFieldValue = new SerializedString(fieldValue);
+            return (value, jsonGenerator) -> jsonGenerator.writeString(serializedFieldValue);
         }
 
     }
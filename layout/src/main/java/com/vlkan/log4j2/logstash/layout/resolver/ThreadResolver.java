@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.LogEvent;
 
@@ -40,14 +41,25 @@ class ThreadResolver implements EventResolver {
     }
 
     private static EventResolver createNameResolver(EventResolverContext context) {
-        return (logEvent, jsonGenerator) -> {
-            String threadName = logEvent.getThreadName();
-            boolean threadNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(threadName);
-            if (threadNameExcluded) {
-                jsonGenerator.writeNull();
-            } else {
-                jsonGenerator.writeString(threadName);
+        return new EventResolver() {
+
+            @Override
+            public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+                String threadName = logEvent.getThreadName();
+                boolean threadNameExcluded = context.isEmptyPropertyExclusionEnabled() && StringUtils.isEmpty(threadName);
+                if (threadNameExcluded) {
+                    jsonGenerator.writeNull();
+                } else {
+                    jsonGenerator.writeString(threadName);
+                }
+            }
+
+            @Override
+            public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                String threadName = logEvent.getThreadName();
+                return fieldName.writeString(jsonGenerator, threadName);
             }
+
         };
     }
 
@@ -69,9 +81,19 @@ class ThreadResolver implements EventResolver {
         return "thread";
     }
 
+    @Override
+    public boolean isResolvable() {
+        return internalResolver.isResolvable();
+    }
+
     @Override
     public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
         internalResolver.resolve(logEvent, jsonGenerator);
     }
 
+    @Override
+    public boolean resolveField(LogEvent logEvent, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        return internalResolver.resolveField(logEvent, jsonGenerator, fieldName);
+    }
+
 }
@@ -18,21 +18,29 @@ package com.vlkan.log4j2.logstash.layout.resolver;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.vlkan.log4j2.logstash.layout.util.JsonGenerators;
+import org.apache.commons.lang3.Validate;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.time.Instant;
 import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.core.util.Integers;
 import org.apache.logging.log4j.core.util.datetime.FastDateFormat;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 class TimestampResolver implements EventResolver {
+
+    private static final int DEFAULT_STRIPE_COUNT = 2 * Runtime.getRuntime().availableProcessors();
+
     private final EventResolver internalResolver;
 
     TimestampResolver(EventResolverContext context, String key) {
@@ -84,6 +92,138 @@ class TimestampResolver implements EventResolver {
 
     }
 
+    /**
+     * Splits a {@link FastDateFormat} pattern around its fraction-of-second
+     * (i.e., {@code S}) letters, such that the rest can be formatted once per
+     * second and the fraction digits can be patched in place per event.
+     */
+    private static final class PatchableFormat {
+
+        private static final int MAX_FRACTION_DIGIT_COUNT = 9;
+
+        /**
+         * Fraction digits are taken as millisecond-padded numbers by {@link
+         * FastDateFormat} for {@code S} and {@code SS}, hence they are not
+         * patchable.
+         */
+        private static final int MIN_FRACTION_DIGIT_COUNT = 3;
+
+        private static final char FRACTION_LETTER = 'S';
+
+        private final FastDateFormat prefixFormat;
+
+        private final int fractionDigitCount;
+
+        private final int fractionDivisor;
+
+        private final FastDateFormat suffixFormat;
+
+        private PatchableFormat(
+                FastDateFormat prefixFormat,
+                int fractionDigitCount,
+                FastDateFormat suffixFormat) {
+            this.prefixFormat = prefixFormat;
+            this.fractionDigitCount = fractionDigitCount;
+            int fractionDivisor = 1;
+            for (int digitIndex = fractionDigitCount; digitIndex < MAX_FRACTION_DIGIT_COUNT; digitIndex++) {
+                fractionDivisor *= 10;
+            }
+            this.fractionDivisor = fractionDivisor;
+            this.suffixFormat = suffixFormat;
+        }
+
+        /**
+         * @return a patchable format, or {@code null} if the pattern either
+         * contains multiple fraction-of-second fields or one with an
+         * unsupported precision
+         */
+        private static PatchableFormat ofFormat(FastDateFormat format) {
+
+            // Locate the fraction letters, if there are any.
+            String pattern = format.getPattern();
+            int fractionStartIndex = -1;
+            int fractionEndIndex = -1;
+            boolean quoted = false;
+            for (int charIndex = 0; charIndex < pattern.length(); charIndex++) {
+                char c = pattern.charAt(charIndex);
+                if (c == '\'') {
+                    quoted = !quoted;
+                } else if (!quoted && c == FRACTION_LETTER) {
+                    boolean runStart = charIndex == 0 || pattern.charAt(charIndex - 1) != FRACTION_LETTER;
+                    if (runStart) {
+                        if (fractionStartIndex >= 0) {
+                            return null;
+                        }
+                        fractionStartIndex = charIndex;
+                    }
+                    fractionEndIndex = charIndex + 1;
+                }
+            }
+
+            // Check the number of fraction digits.
+            if (fractionStartIndex < 0) {
+                return new PatchableFormat(format, 0, null);
+            }
+            int fractionDigitCount = fractionEndIndex - fractionStartIndex;
+            if (fractionDigitCount < MIN_FRACTION_DIGIT_COUNT || fractionDigitCount > MAX_FRACTION_DIGIT_COUNT) {
+                return null;
+            }
+
+            // Split the pattern around the fraction letters.
+            String prefixPattern = pattern.substring(0, fractionStartIndex);
+            String suffixPattern = pattern.substring(fractionEndIndex);
+            FastDateFormat prefixFormat = prefixPattern.isEmpty()
+                    ? null
+                    : FastDateFormat.getInstance(prefixPattern, format.getTimeZone(), format.getLocale());
+            FastDateFormat suffixFormat = suffixPattern.isEmpty()
+                    ? null
+                    : FastDateFormat.getInstance(suffixPattern, format.getTimeZone(), format.getLocale());
+            return new PatchableFormat(prefixFormat, fractionDigitCount, suffixFormat);
+
+        }
+
+        /**
+         * Overwrites the fraction digits starting at the given index with the
+         * ones of the given nanoseconds.
+         */
+        private void patchFraction(char[] buffer, int fractionStartIndex, int nanoOfSecond) {
+            int fraction = nanoOfSecond / fractionDivisor;
+            int digitIndex = fractionStartIndex + fractionDigitCount;
+            while (digitIndex > fractionStartIndex) {
+                buffer[--digitIndex] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+        }
+
+    }
+
+    /**
+     * Immutable snapshot of a second formatted by a {@link PatchableFormat},
+     * with fraction digits left as zeros.
+     */
+    private static final class FormattedSecond {
+
+        private final PatchableFormat patchableFormat;
+
+        private final long epochSecond;
+
+        private final char[] chars;
+
+        private final int fractionStartIndex;
+
+        private FormattedSecond(
+                PatchableFormat patchableFormat,
+                long epochSecond,
+                char[] chars,
+                int fractionStartIndex) {
+            this.patchableFormat = patchableFormat;
+            this.epochSecond = epochSecond;
+            this.chars = chars;
+            this.fractionStartIndex = fractionStartIndex;
+        }
+
+    }
+
     /**
      * Context for GC-free formatted timestamp resolvers.
      */
@@ -91,27 +231,136 @@ class TimestampResolver implements EventResolver {
 
         private final FastDateFormat timestampFormat;
 
+        private final PatchableFormat patchableFormat;
+
+        /**
+         * Formatted second shared between contexts, if there is any.
+         */
+        private final AtomicReference<FormattedSecond> formattedSecondRef;
+
         private final Calendar calendar;
 
         private final StringBuilder formattedTimestampBuilder;
 
         private char[] formattedTimestampBuffer;
 
-        private FormatResolverContext(TimeZone timeZone, Locale locale, FastDateFormat timestampFormat) {
+        private int formattedTimestampLength;
+
+        private long formattedEpochSecond = Long.MIN_VALUE;
+
+        private int formattedFractionStartIndex;
+
+        private FormatResolverContext(
+                TimeZone timeZone,
+                Locale locale,
+                FastDateFormat timestampFormat,
+                AtomicReference<FormattedSecond> formattedSecondRef) {
             this.timestampFormat = timestampFormat;
+            this.patchableFormat = PatchableFormat.ofFormat(timestampFormat);
+            this.formattedSecondRef = formattedSecondRef;
             this.formattedTimestampBuilder = new StringBuilder();
             this.calendar = Calendar.getInstance(timeZone, locale);
             timestampFormat.format(calendar, formattedTimestampBuilder);
-            int formattedTimestampLength = formattedTimestampBuilder.length();
-            this.formattedTimestampBuffer = new char[formattedTimestampLength];
-            formattedTimestampBuilder.getChars(0, formattedTimestampLength, formattedTimestampBuffer, 0);
+            this.formattedTimestampBuffer = new char[formattedTimestampBuilder.length()];
+            copyFormattedTimestamp();
         }
 
-        private static FormatResolverContext fromEventResolverContext(EventResolverContext eventResolverContext) {
+        private static FormatResolverContext fromEventResolverContext(
+                EventResolverContext eventResolverContext,
+                AtomicReference<FormattedSecond> formattedSecondRef) {
             return new FormatResolverContext(
                     eventResolverContext.getTimeZone(),
                     eventResolverContext.getLocale(),
-                    eventResolverContext.getTimestampFormat());
+                    eventResolverContext.getTimestampFormat(),
+                    formattedSecondRef);
+        }
+
+        private void format(Instant instant) {
+            long epochSecond = instant.getEpochSecond();
+            int nanoOfSecond = instant.getNanoOfSecond();
+            if (patchableFormat == null || nanoOfSecond < 0) {
+                formatMillis(instant.getEpochMillisecond());
+            } else {
+                if (formattedEpochSecond != epochSecond) {
+                    formatSecond(epochSecond);
+                }
+                patchFraction(nanoOfSecond);
+            }
+        }
+
+        private void formatMillis(long epochMillis) {
+
+            // Short-circuit if the timestamp matches the last formatted one.
+            // (The calendar does not reflect the buffer if it is patched.)
+            if (formattedEpochSecond == Long.MIN_VALUE && calendar.getTimeInMillis() == epochMillis) {
+                return;
+            }
+
+            // Format the timestamp.
+            formattedTimestampBuilder.setLength(0);
+            calendar.setTimeInMillis(epochMillis);
+            timestampFormat.format(calendar, formattedTimestampBuilder);
+            copyFormattedTimestamp();
+            formattedEpochSecond = Long.MIN_VALUE;
+
+        }
+
+        /**
+         * Formats the parts of the timestamp around the fraction digits,
+         * which are left as zeros to be patched by {@link #patchFraction(int)}.
+         */
+        private void formatSecond(long epochSecond) {
+
+            // Try to reuse the shared formatted second.
+            FormattedSecond sharedSecond = formattedSecondRef != null ? formattedSecondRef.get() : null;
+            if (sharedSecond != null && sharedSecond.epochSecond == epochSecond) {
+                int sharedLength = sharedSecond.chars.length;
+                if (sharedLength > formattedTimestampBuffer.length) {
+                    formattedTimestampBuffer = new char[sharedLength];
+                }
+                System.arraycopy(sharedSecond.chars, 0, formattedTimestampBuffer, 0, sharedLength);
+                formattedTimestampLength = sharedLength;
+                formattedFractionStartIndex = sharedSecond.fractionStartIndex;
+                formattedEpochSecond = epochSecond;
+                return;
+            }
+
+            // Format the second.
+            formattedTimestampBuilder.setLength(0);
+            calendar.setTimeInMillis(Math.multiplyExact(epochSecond, 1_000L));
+            if (patchableFormat.prefixFormat != null) {
+                patchableFormat.prefixFormat.format(calendar, formattedTimestampBuilder);
+            }
+            formattedFractionStartIndex = formattedTimestampBuilder.length();
+            for (int digitIndex = 0; digitIndex < patchableFormat.fractionDigitCount; digitIndex++) {
+                formattedTimestampBuilder.append('0');
+            }
+            if (patchableFormat.suffixFormat != null) {
+                patchableFormat.suffixFormat.format(calendar, formattedTimestampBuilder);
+            }
+            copyFormattedTimestamp();
+            formattedEpochSecond = epochSecond;
+
+            // Share the formatted second, unless it is older than the shared one.
+            // (Racing publishers are benign, since they format the same text.)
+            if (formattedSecondRef != null && (sharedSecond == null || sharedSecond.epochSecond < epochSecond)) {
+                char[] chars = Arrays.copyOf(formattedTimestampBuffer, formattedTimestampLength);
+                formattedSecondRef.set(new FormattedSecond(
+                        patchableFormat, epochSecond, chars, formattedFractionStartIndex));
+            }
+
+        }
+
+        private void patchFraction(int nanoOfSecond) {
+            patchableFormat.patchFraction(formattedTimestampBuffer, formattedFractionStartIndex, nanoOfSecond);
+        }
+
+        private void copyFormattedTimestamp() {
+            formattedTimestampLength = formattedTimestampBuilder.length();
+            if (formattedTimestampLength > formattedTimestampBuffer.length) {
+                formattedTimestampBuffer = new char[formattedTimestampLength];
+            }
+            formattedTimestampBuilder.getChars(0, formattedTimestampLength, formattedTimestampBuffer, 0);
         }
 
     }
@@ -127,34 +376,14 @@ class TimestampResolver implements EventResolver {
 
         @Override
         public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
-            long timestampMillis = logEvent.getTimeMillis();
+            Instant instant = logEvent.getInstant();
             FormatResolverContext formatResolverContext = acquireContext();
             try {
-
-                // Format timestamp if it doesn't match the last cached one.
-                if (formatResolverContext.calendar.getTimeInMillis() != timestampMillis) {
-                    formatResolverContext.formattedTimestampBuilder.setLength(0);
-                    formatResolverContext.calendar.setTimeInMillis(timestampMillis);
-                    formatResolverContext.timestampFormat.format(
-                            formatResolverContext.calendar,
-                            formatResolverContext.formattedTimestampBuilder);
-                    int formattedTimestampLength = formatResolverContext.formattedTimestampBuilder.length();
-                    if (formattedTimestampLength > formatResolverContext.formattedTimestampBuffer.length) {
-                        formatResolverContext.formattedTimestampBuffer = new char[formattedTimestampLength];
-                    }
-                    formatResolverContext.formattedTimestampBuilder.getChars(
-                            0,
-                            formattedTimestampLength,
-                            formatResolverContext.formattedTimestampBuffer,
-                            0);
-                }
-
-                // Write the formatted timestamp.
+                formatResolverContext.format(instant);
                 jsonGenerator.writeString(
                         formatResolverContext.formattedTimestampBuffer,
                         0,
-                        formatResolverContext.formattedTimestampBuilder.length());
-
+                        formatResolverContext.formattedTimestampLength);
             } finally {
                 releaseContext();
             }
@@ -171,7 +400,7 @@ class TimestampResolver implements EventResolver {
 
         private ThreadLocalFormatResolver(EventResolverContext eventResolverContext) {
             this.formatResolverContextRef = ThreadLocal.withInitial(
-                    () -> FormatResolverContext.fromEventResolverContext(eventResolverContext));
+                    () -> FormatResolverContext.fromEventResolverContext(eventResolverContext, null));
         }
 
         @Override
@@ -185,28 +414,92 @@ class TimestampResolver implements EventResolver {
     }
 
     /**
-     * GC-free formatted timestamp resolver by means of a shared context.
+     * GC-free formatted timestamp resolver by means of a striped pool of
+     * locked contexts.
+     * <p>
+     * Threads are mapped to stripes by their ids, hence contention is limited
+     * to threads sharing a stripe. Stripes share the last formatted second via
+     * an atomically published immutable snapshot, so that only a single stripe
+     * needs to run the {@link FastDateFormat} per second.
+     * <p>
+     * Events of the shared second are served without locking: the snapshot
+     * gets copied into a scratch buffer, which is claimed from the stripe by
+     * an atomic swap, and its fraction digits get patched. (A thread finding
+     * the buffer claimed by another one of the stripe allocates its own.) The
+     * stripe lock is only taken to format a new second.
      */
-    private static final class LockingFormatResolver extends ContextualFormatResolver {
+    private static final class StripedFormatResolver extends ContextualFormatResolver {
+
+        private final FormatResolverContext[] formatResolverContexts;
+
+        private final Lock[] locks;
 
-        private final FormatResolverContext formatResolverContext;
+        private final int stripeMask;
 
-        private final Lock lock = new ReentrantLock();
+        private final AtomicReference<FormattedSecond> formattedSecondRef;
 
-        private LockingFormatResolver(EventResolverContext eventResolverContext) {
-            this.formatResolverContext =
-                    FormatResolverContext.fromEventResolverContext(eventResolverContext);
+        private final AtomicReferenceArray<char[]> scratchBuffers;
+
+        private StripedFormatResolver(EventResolverContext eventResolverContext, int stripeCount) {
+            int effectiveStripeCount = Integers.ceilingNextPowerOfTwo(stripeCount);
+            AtomicReference<FormattedSecond> formattedSecondRef = new AtomicReference<>();
+            this.formattedSecondRef = formattedSecondRef;
+            this.scratchBuffers = new AtomicReferenceArray<>(effectiveStripeCount);
+            this.formatResolverContexts = new FormatResolverContext[effectiveStripeCount];
+            this.locks = new Lock[effectiveStripeCount];
+            for (int stripeIndex = 0; stripeIndex < effectiveStripeCount; stripeIndex++) {
+                formatResolverContexts[stripeIndex] =
+                        FormatResolverContext.fromEventResolverContext(eventResolverContext, formattedSecondRef);
+                locks[stripeIndex] = new ReentrantLock();
+            }
+            this.stripeMask = effectiveStripeCount - 1;
+        }
+
+        private int stripeIndex() {
+            return (int) Thread.currentThread().getId() & stripeMask;
         }
 
         @Override
         FormatResolverContext acquireContext() {
-            lock.lock();
-            return formatResolverContext;
+            int stripeIndex = stripeIndex();
+            locks[stripeIndex].lock();
+            return formatResolverContexts[stripeIndex];
         }
 
         @Override
         void releaseContext() {
-            lock.unlock();
+            locks[stripeIndex()].unlock();
+        }
+
+        @Override
+        public void resolve(LogEvent logEvent, JsonGenerator jsonGenerator) throws IOException {
+
+            // Fallback to the locked context, unless the second is shared.
+            Instant instant = logEvent.getInstant();
+            FormattedSecond sharedSecond = formattedSecondRef.get();
+            int nanoOfSecond = instant.getNanoOfSecond();
+            if (sharedSecond == null || sharedSecond.epochSecond != instant.getEpochSecond() || nanoOfSecond < 0) {
+                super.resolve(logEvent, jsonGenerator);
+                return;
+            }
+
+            // Claim the scratch buffer of the stripe.
+            int stripeIndex = stripeIndex();
+            int length = sharedSecond.chars.length;
+            char[] buffer = scratchBuffers.getAndSet(stripeIndex, null);
+            if (buffer == null || buffer.length < length) {
+                buffer = new char[length];
+            }
+
+            // Patch the shared second and write it.
+            try {
+                System.arraycopy(sharedSecond.chars, 0, buffer, 0, length);
+                sharedSecond.patchableFormat.patchFraction(buffer, sharedSecond.fractionStartIndex, nanoOfSecond);
+                jsonGenerator.writeString(buffer, 0, length);
+            } finally {
+                scratchBuffers.set(stripeIndex, buffer);
+            }
+
         }
 
     }
@@ -214,7 +507,17 @@ class TimestampResolver implements EventResolver {
     private static EventResolver createFormatResolver(EventResolverContext eventResolverContext) {
         return Constants.ENABLE_THREADLOCALS
                 ? new ThreadLocalFormatResolver(eventResolverContext)
-                : new LockingFormatResolver(eventResolverContext);
+                : createStripedFormatResolver(eventResolverContext, DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Creates a formatted timestamp resolver that is not backed by thread
+     * locals, where a single stripe corresponds to a globally locked context
+     * for formatting new seconds.
+     */
+    static EventResolver createStripedFormatResolver(EventResolverContext eventResolverContext, int stripeCount) {
+        Validate.isTrue(stripeCount > 0, "stripeCount requires a non-zero positive integer");
+        return new StripedFormatResolver(eventResolverContext, stripeCount);
     }
 
     private static final EventResolver SECS_LONG_RESOLVER = (logEvent, jsonGenerator) -> {
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.vlkan.log4j2.logstash.layout.util.ClassCloner;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Object (or array) resolver invoking its children from distinct call sites,
+ * i.e., the straight-line counterpart of the loops in {@link
+ * TemplateResolvers}, where a single call site dispatches to every child.
+ * <p>
+ * Instances are created from {@link ClassCloner clones} of this class, one
+ * per sequence of child resolver classes, hence the type profile of each
+ * call site below is confined to a single child resolver class and stays
+ * monomorphic (i.e., inlinable) regardless of the other templates loaded in
+ * the JVM. Clones are cached, hence recompiling the same templates, e.g., on
+ * reconfiguration, does not define new classes. Nodes with more than
+ * {@value #MAX_CHILD_COUNT} children are chained.
+ * <p>
+ * Since clones reside in a different runtime package, this class must only
+ * refer to public types.
+ */
+final class UnrolledCompositeResolver<V> implements TemplateResolver<V> {
+
+    static final int MAX_CHILD_COUNT = 4;
+
+    private final boolean object;
+
+    private final boolean enclosed;
+
+    private final SerializedString name0;
+
+    private final LazyFieldName[] fieldNames0;
+
+    private final TemplateResolver<V> resolver0;
+
+    private final SerializedString name1;
+
+    private final LazyFieldName[] fieldNames1;
+
+    private final TemplateResolver<V> resolver1;
+
+    private final SerializedString name2;
+
+    private final LazyFieldName[] fieldNames2;
+
+    private final TemplateResolver<V> resolver2;
+
+    private final SerializedString name3;
+
+    private final LazyFieldName[] fieldNames3;
+
+    private final TemplateResolver<V> resolver3;
+
+    /**
+     * Resolver of the children beyond {@value #MAX_CHILD_COUNT}, if any.
+     * While excluding empty properties, it is lazily resolved with either
+     * the field name of this resolver, if the container is still pending,
+     * or {@code null}, if the container is started.
+     */
+    private final TemplateResolver<V> next;
+
+    /**
+     * @param object {@code true} for objects, {@code false} for arrays
+     * @param enclosed indicates if start and end tokens are to be written,
+     *                 i.e., if this is not a chained resolver
+     * @param names field names of objects, {@code null} for arrays
+     * @param fieldNames lazily written field names of the children while
+     *                   excluding empty properties, otherwise {@code null}
+     */
+    @SuppressWarnings("unused")
+    UnrolledCompositeResolver(
+            boolean object,
+            boolean enclosed,
+            SerializedString[] names,
+            LazyFieldName[][] fieldNames,
+            TemplateResolver<V>[] resolvers,
+            TemplateResolver<V> next) {
+        this.object = object;
+        this.enclosed = enclosed;
+        this.name0 = names != null && names.length > 0 ? names[0] : null;
+        this.fieldNames0 = fieldNames != null && fieldNames.length > 0 ? fieldNames[0] : null;
+        this.resolver0 = resolvers.length > 0 ? resolvers[0] : null;
+        this.name1 = names != null && names.length > 1 ? names[1] : null;
+        this.fieldNames1 = fieldNames != null && fieldNames.length > 1 ? fieldNames[1] : null;
+        this.resolver1 = resolvers.length > 1 ? resolvers[1] : null;
+        this.name2 = names != null && names.length > 2 ? names[2] : null;
+        this.fieldNames2 = fieldNames != null && fieldNames.length > 2 ? fieldNames[2] : null;
+        this.resolver2 = resolvers.length > 2 ? resolvers[2] : null;
+        this.name3 = names != null && names.length > 3 ? names[3] : null;
+        this.fieldNames3 = fieldNames != null && fieldNames.length > 3 ? fieldNames[3] : null;
+        this.resolver3 = resolvers.length > 3 ? resolvers[3] : null;
+        this.next = next;
+    }
+
+    /**
+     * Creates a resolver from a dedicated clone of this class per chunk of
+     * {@value #MAX_CHILD_COUNT} children.
+     *
+     * @param names field names of objects, {@code null} for arrays
+     * @param fieldNames lazily written field names of the children while
+     *                   excluding empty properties, otherwise {@code null}
+     */
+    static <V> TemplateResolver<V> of(
+            List<SerializedString> names,
+            List<LazyFieldName[]> fieldNames,
+            List<TemplateResolver<V>> resolvers) {
+        boolean object = names != null;
+        int childCount = resolvers.size();
+        int lastChunkIndex = (childCount - 1) / MAX_CHILD_COUNT;
+        TemplateResolver<V> next = null;
+        for (int chunkIndex = lastChunkIndex; chunkIndex >= 0; chunkIndex--) {
+            int startIndex = chunkIndex * MAX_CHILD_COUNT;
+            int endIndex = Math.min(startIndex + MAX_CHILD_COUNT, childCount);
+            SerializedString[] chunkNames = object
+                    ? names.subList(startIndex, endIndex).toArray(new SerializedString[0])
+                    : null;
+            LazyFieldName[][] chunkFieldNames = fieldNames != null
+                    ? fieldNames.subList(startIndex, endIndex).toArray(new LazyFieldName[0][])
+                    : null;
+            @SuppressWarnings("unchecked")
+            TemplateResolver<V>[] chunkResolvers =
+                    resolvers.subList(startIndex, endIndex).toArray(new TemplateResolver[0]);
+            next = newInstance(object, chunkIndex == 0, chunkNames, chunkFieldNames, chunkResolvers, next);
+        }
+        return next;
+    }
+
+    /**
+     * @return the classes of the given resolvers, which determine the type
+     * profiles of the call sites of a clone
+     */
+    private static <V> List<Class<?>> getClasses(TemplateResolver<V>[] resolvers, TemplateResolver<V> next) {
+        List<Class<?>> classes = new ArrayList<>(resolvers.length + 1);
+        for (TemplateResolver<V> resolver : resolvers) {
+            classes.add(resolver.getClass());
+        }
+        classes.add(next != null ? next.getClass() : null);
+        return classes;
+    }
+
+    private static <V> TemplateResolver<V> newInstance(
+            boolean object,
+            boolean enclosed,
+            SerializedString[] names,
+            LazyFieldName[][] fieldNames,
+            TemplateResolver<V>[] resolvers,
+            TemplateResolver<V> next) {
+        @SuppressWarnings("rawtypes")
+        Class<? extends TemplateResolver> clazz = ClassCloner.cloneClass(
+                UnrolledCompositeResolver.class,
+                TemplateResolver.class,
+                getClasses(resolvers, next));
+        try {
+            Constructor<? extends TemplateResolver> constructor = clazz.getDeclaredConstructor(
+                    boolean.class,
+                    boolean.class,
+                    SerializedString[].class,
+                    LazyFieldName[][].class,
+                    TemplateResolver[].class,
+                    TemplateResolver.class);
+            constructor.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            TemplateResolver<V> resolver = constructor.newInstance(
+                    object, enclosed, names, fieldNames, resolvers, next);
+            return resolver;
+        } catch (ReflectiveOperationException | SecurityException error) {
+            throw new RuntimeException("failed instantiating " + clazz, error);
+        }
+    }
+
+    @Override
+    public void resolve(V value, JsonGenerator jsonGenerator) throws IOException {
+        if (enclosed) {
+            if (object) {
+                jsonGenerator.writeStartObject();
+            } else {
+                jsonGenerator.writeStartArray();
+            }
+        }
+        if (fieldNames0 != null) {
+            resolveLazily(value, jsonGenerator, null);
+        } else {
+            resolveEagerly(value, jsonGenerator);
+        }
+        if (enclosed) {
+            writeEnd(jsonGenerator);
+        }
+    }
+
+    @Override
+    public boolean resolveField(V value, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        boolean started = resolveLazily(value, jsonGenerator, fieldName);
+        if (started && enclosed) {
+            writeEnd(jsonGenerator);
+        }
+        return started;
+    }
+
+    /**
+     * @param fieldName the field name of the container, if it is pending,
+     *                  otherwise {@code null}
+     * @return {@code true}, if the container is started
+     */
+    private boolean resolveLazily(V value, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+        int pendingDepth = fieldName != null ? fieldName.getPendingDepth() + 1 : 0;
+        if (resolver0 != null && resolver0.resolveField(value, jsonGenerator, fieldNames0[pendingDepth])) {
+            pendingDepth = 0;
+        }
+        if (resolver1 != null && resolver1.resolveField(value, jsonGenerator, fieldNames1[pendingDepth])) {
+            pendingDepth = 0;
+        }
+        if (resolver2 != null && resolver2.resolveField(value, jsonGenerator, fieldNames2[pendingDepth])) {
+            pendingDepth = 0;
+        }
+        if (resolver3 != null && resolver3.resolveField(value, jsonGenerator, fieldNames3[pendingDepth])) {
+            pendingDepth = 0;
+        }
+        if (next != null && next.resolveField(value, jsonGenerator, pendingDepth > 0 ? fieldName : null)) {
+            pendingDepth = 0;
+        }
+        return pendingDepth == 0;
+    }
+
+    private void resolveEagerly(V value, JsonGenerator jsonGenerator) throws IOException {
+        if (resolver0 != null) {
+            if (object) {
+                jsonGenerator.writeFieldName(name0);
+            }
+            resolver0.resolve(value, jsonGenerator);
+        }
+        if (resolver1 != null) {
+            if (object) {
+                jsonGenerator.writeFieldName(name1);
+            }
+            resolver1.resolve(value, jsonGenerator);
+        }
+        if (resolver2 != null) {
+            if (object) {
+                jsonGenerator.writeFieldName(name2);
+            }
+            resolver2.resolve(value, jsonGenerator);
+        }
+        if (resolver3 != null) {
+            if (object) {
+                jsonGenerator.writeFieldName(name3);
+            }
+            resolver3.resolve(value, jsonGenerator);
+        }
+        if (next != null) {
+            next.resolve(value, jsonGenerator);
+        }
+    }
+
+    private void writeEnd(JsonGenerator jsonGenerator) throws IOException {
+        if (object) {
+            jsonGenerator.writeEndObject();
+        } else {
+            jsonGenerator.writeEndArray();
+        }
+    }
+
+}
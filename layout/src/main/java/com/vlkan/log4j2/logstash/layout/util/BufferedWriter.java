@@ -63,6 +63,32 @@ public final class BufferedWriter extends Writer {
         }
     }
 
+    @Override
+    public void write(String source, int offset, int length) {
+        if (!overflow) {
+            int limit = buffer.length - position;
+            if (length > limit) {
+                overflow = true;
+                source.getChars(offset, offset + limit, buffer, position);
+                position = buffer.length;
+            } else {
+                source.getChars(offset, offset + length, buffer, position);
+                position += length;
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        if (!overflow) {
+            if (position < buffer.length) {
+                buffer[position++] = (char) c;
+            } else {
+                overflow = true;
+            }
+        }
+    }
+
     @Override
     public void flush() {}
 
@@ -0,0 +1,876 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+import com.fasterxml.jackson.core.io.CharTypes;
+import com.fasterxml.jackson.core.io.NumberOutput;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal {@link com.fasterxml.jackson.core.JsonGenerator} writing escaped
+ * UTF-8 straight into the backing array of a {@link ByteBufferOutputStream}.
+ * <p>
+ * Contrary to the stock Jackson generators, there is no intermediate
+ * buffering or flushing: every token is encoded in place and the position of
+ * the underlying {@link ByteBuffer} is advanced right away. Running out of
+ * space results in a {@link BufferOverflowException}, just like writing to
+ * the {@link ByteBufferOutputStream} itself. String truncation (see
+ * {@code maxStringLength}) is handled natively rather than via a delegate.
+ * <p>
+ * If a positive {@code maxByteCount} is provided, output that would exceed
+ * it is truncated instead: the entry (i.e., an object field or an array
+ * element) being written is rolled back, the open containers get closed,
+ * and a {@code "_truncated": true} field is appended to the root object.
+ * Space for the closing tokens is reserved up front, hence the output is
+ * always valid JSON. The write causing the truncation, and any write
+ * following it, fail with a {@link BufferOverflowException}; see
+ * {@link #isTruncated()}.
+ * <p>
+ * Character escaping follows the Jackson defaults: 7-bit control characters,
+ * quotes, and back slashes are escaped, surrogates are written as
+ * {@code \\uXXXX}, and the rest is emitted as UTF-8. Root values are not
+ * separated. Custom character escapes, unquoted field names, and non-ASCII
+ * escaping are not supported. Neither is strict duplicate field name
+ * detection.
+ */
+public final class ByteBufferJsonGenerator extends GeneratorBase {
+
+    private static final int[] OUTPUT_ESCAPES = CharTypes.get7BitOutputEscapes();
+
+    /**
+     * Generator feature of {@link JsonWriteFeature#WRITE_NAN_AS_STRINGS}, in
+     * place of its deprecated {@link Feature} constant.
+     */
+    private static final Feature NAN_AS_STRINGS_FEATURE = JsonWriteFeature.WRITE_NAN_AS_STRINGS.mappedFeature();
+
+    private static final byte[] HEX_BYTES = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NULL_BYTES = {'n', 'u', 'l', 'l'};
+
+    private static final byte[] TRUE_BYTES = {'t', 'r', 'u', 'e'};
+
+    private static final byte[] FALSE_BYTES = {'f', 'a', 'l', 's', 'e'};
+
+    private static final int MAX_INT_LENGTH = 11;
+
+    private static final int MAX_LONG_LENGTH = 20;
+
+    private static final byte[] TRUNCATION_FIELD_BYTES = "\"_truncated\":true".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TRUNCATED_OBJECT_BYTES = "{\"_truncated\":true}".getBytes(StandardCharsets.US_ASCII);
+
+    private enum TruncationState { NONE, CLOSING, DONE }
+
+    private final ByteBufferOutputStream outputStream;
+
+    private ByteBuffer byteBuffer;
+
+    private byte[] buffer;
+
+    /**
+     * Position the writes cannot exceed without taking the slow path, i.e.,
+     * growing the buffer or truncating the output.
+     */
+    private int limit;
+
+    private final int maxStringLength;
+
+    private final int maxByteCount;
+
+    private TruncationState truncationState = TruncationState.NONE;
+
+    /**
+     * Number of open containers, only tracked if truncation is enabled.
+     */
+    private int depth = 0;
+
+    /**
+     * Start positions of the last entries per depth, only tracked if
+     * truncation is enabled.
+     */
+    private int[] entryStartPositions;
+
+    /**
+     * Bytes reserved for closing the open containers and appending the
+     * truncation field.
+     */
+    private int reservedByteCount = 0;
+
+    /**
+     * Buffer to format floating point numbers into without allocating a
+     * {@link String}; see {@link #writeDecimal(boolean)}.
+     */
+    private final StringBuilder decimalBuilder = new StringBuilder();
+
+    public ByteBufferJsonGenerator(
+            int features,
+            ObjectCodec codec,
+            ByteBufferOutputStream outputStream,
+            int maxStringLength) {
+        this(features, codec, outputStream, maxStringLength, 0);
+    }
+
+    /**
+     * @param maxByteCount maximum number of bytes before the output gets
+     *                     truncated, truncation is disabled if not positive
+     */
+    // The IOContext-based GeneratorBase constructor requires Jackson 2.16.
+    @SuppressWarnings("deprecation")
+    public ByteBufferJsonGenerator(
+            int features,
+            ObjectCodec codec,
+            ByteBufferOutputStream outputStream,
+            int maxStringLength,
+            int maxByteCount) {
+        super(features, codec, JsonWriteContext.createRootContext(null));
+        this.outputStream = outputStream;
+        this.maxStringLength = maxStringLength;
+        this.maxByteCount = Math.min(maxByteCount, outputStream.getMaxByteCount());
+        this.entryStartPositions = this.maxByteCount > 0 ? new int[8] : null;
+        setByteBuffer(outputStream.getByteBuffer());
+    }
+
+    private void setByteBuffer(ByteBuffer byteBuffer) {
+        this.byteBuffer = byteBuffer;
+        this.buffer = byteBuffer.array();
+        if (truncationState == TruncationState.DONE) {
+            this.limit = -1;
+        } else if (maxByteCount > 0 && truncationState == TruncationState.NONE) {
+            this.limit = Math.min(buffer.length, maxByteCount);
+        } else {
+            this.limit = buffer.length;
+        }
+    }
+
+    /**
+     * @return {@code true}, if the output is truncated
+     */
+    public boolean isTruncated() {
+        return truncationState != TruncationState.NONE;
+    }
+
+    @Override
+    public Object getOutputTarget() {
+        return outputStream;
+    }
+
+    @Override
+    public void writeStartArray() throws IOException {
+        _verifyValueWrite("start an array");
+        openContainer();
+        _writeContext = _writeContext.createChildArrayContext();
+        if (_cfgPrettyPrinter != null) {
+            _cfgPrettyPrinter.writeStartArray(this);
+        } else {
+            writeByte('[');
+        }
+    }
+
+    @Override
+    public void writeEndArray() throws IOException {
+        if (!_writeContext.inArray()) {
+            _reportError("Current context not Array but " + _writeContext.typeDesc());
+        }
+        if (_cfgPrettyPrinter != null) {
+            _cfgPrettyPrinter.writeEndArray(this, _writeContext.getEntryCount());
+        } else {
+            writeByte(']');
+        }
+        _writeContext = _writeContext.clearAndGetParent();
+        closeContainer();
+    }
+
+    @Override
+    public void writeStartObject() throws IOException {
+        _verifyValueWrite("start an object");
+        openContainer();
+        _writeContext = _writeContext.createChildObjectContext();
+        if (_cfgPrettyPrinter != null) {
+            _cfgPrettyPrinter.writeStartObject(this);
+        } else {
+            writeByte('{');
+        }
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        if (!_writeContext.inObject()) {
+            _reportError("Current context not Object but " + _writeContext.typeDesc());
+        }
+        if (_cfgPrettyPrinter != null) {
+            _cfgPrettyPrinter.writeEndObject(this, _writeContext.getEntryCount());
+        } else {
+            writeByte('}');
+        }
+        _writeContext = _writeContext.clearAndGetParent();
+        closeContainer();
+    }
+
+    private void openContainer() {
+        if (maxByteCount > 0 && truncationState == TruncationState.NONE) {
+            int nextDepth = depth + 1;
+            reservedByteCount += getClosingByteCount(nextDepth);
+            reserve(1);
+            depth = nextDepth;
+            if (depth == entryStartPositions.length) {
+                entryStartPositions = Arrays.copyOf(entryStartPositions, 2 * depth);
+            }
+            entryStartPositions[depth] = position() + 1;
+        }
+    }
+
+    private void closeContainer() {
+        if (maxByteCount > 0 && truncationState == TruncationState.NONE) {
+            reservedByteCount -= getClosingByteCount(depth);
+            depth--;
+        }
+    }
+
+    /**
+     * @return an upper bound for the bytes needed to close a container at
+     * the given depth, including the truncation field for the root
+     */
+    private int getClosingByteCount(int depth) {
+        // Pretty printers write a new line (at most 2 bytes) and an
+        // indentation (2 spaces per level) before the closing token.
+        int closingByteCount = _cfgPrettyPrinter != null ? 3 + 2 * depth : 1;
+        if (depth == 1) {
+            closingByteCount += 1 + TRUNCATION_FIELD_BYTES.length;
+        }
+        return closingByteCount;
+    }
+
+    private void markEntryStart() {
+        if (maxByteCount > 0 && truncationState == TruncationState.NONE) {
+            entryStartPositions[depth] = position();
+        }
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        markEntryStart();
+        verifyFieldNameWrite(name);
+        int length = maxStringLength > 0 && maxStringLength < name.length()
+                ? maxStringLength
+                : name.length();
+        writeQuotedString(name, length);
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        if (maxStringLength > 0 && maxStringLength < name.charLength()) {
+            writeFieldName(name.getValue());
+        } else {
+            markEntryStart();
+            verifyFieldNameWrite(name.getValue());
+            writeQuotedBytes(name.asQuotedUTF8());
+        }
+    }
+
+    private void verifyFieldNameWrite(String name) throws IOException {
+        int status = _writeContext.writeFieldName(name);
+        if (status == JsonWriteContext.STATUS_EXPECT_VALUE) {
+            _reportError("Can not write a field name, expecting a value");
+        }
+        boolean commaRequired = status == JsonWriteContext.STATUS_OK_AFTER_COMMA;
+        if (_cfgPrettyPrinter != null) {
+            if (commaRequired) {
+                _cfgPrettyPrinter.writeObjectEntrySeparator(this);
+            } else {
+                _cfgPrettyPrinter.beforeObjectEntries(this);
+            }
+        } else if (commaRequired) {
+            writeByte(',');
+        }
+    }
+
+    @Override
+    public void writeString(String text) throws IOException {
+        if (text == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite(WRITE_STRING);
+        int length = maxStringLength > 0 && maxStringLength < text.length()
+                ? maxStringLength
+                : text.length();
+        writeQuotedString(text, length);
+    }
+
+    @Override
+    public void writeString(char[] text, int offset, int length) throws IOException {
+        _verifyValueWrite(WRITE_STRING);
+        if (maxStringLength > 0 && maxStringLength < length) {
+            length = maxStringLength;
+        }
+        int position = reserve(1);
+        buffer[position++] = '"';
+        position = writeEscapedChars(text, offset, offset + length, position);
+        position = reserve(position, 1);
+        buffer[position++] = '"';
+        setPosition(position);
+    }
+
+    @Override
+    public void writeString(SerializableString text) throws IOException {
+        if (maxStringLength > 0 && maxStringLength < text.charLength()) {
+            writeString(text.getValue());
+        } else {
+            _verifyValueWrite(WRITE_STRING);
+            writeQuotedBytes(text.asQuotedUTF8());
+        }
+    }
+
+    @Override
+    public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException {
+        _verifyValueWrite(WRITE_STRING);
+        int position = reserve(1);
+        buffer[position++] = '"';
+        position = writeBytes(position, text, offset, length);
+        position = reserve(position, 1);
+        buffer[position++] = '"';
+        setPosition(position);
+    }
+
+    @Override
+    public void writeUTF8String(byte[] text, int offset, int length) throws IOException {
+        _verifyValueWrite(WRITE_STRING);
+        int position = reserve(1);
+        buffer[position++] = '"';
+        int limit = offset + length;
+        for (int index = offset; index < limit; index++) {
+            byte b = text[index];
+            int escape = b >= 0 ? OUTPUT_ESCAPES[b] : 0;
+            position = escape == 0
+                    ? writeByte(position, b)
+                    : writeEscape(position, b, escape);
+        }
+        position = reserve(position, 1);
+        buffer[position++] = '"';
+        setPosition(position);
+    }
+
+    @Override
+    public void writeRaw(String text) throws IOException {
+        writeRaw(text, 0, text.length());
+    }
+
+    @Override
+    public void writeRaw(String text, int offset, int length) throws IOException {
+        int position = position();
+        int limit = offset + length;
+        for (int index = offset; index < limit; index++) {
+            char c = text.charAt(index);
+            if (c < 0x80) {
+                position = writeByte(position, c);
+            } else if (Character.isHighSurrogate(c) && index + 1 < limit) {
+                position = writeSurrogates(position, c, text.charAt(++index));
+            } else {
+                position = writeRawMultiByteChar(position, c);
+            }
+        }
+        setPosition(position);
+    }
+
+    @Override
+    public void writeRaw(char[] text, int offset, int length) throws IOException {
+        int position = position();
+        int limit = offset + length;
+        for (int index = offset; index < limit; index++) {
+            char c = text[index];
+            if (c < 0x80) {
+                position = writeByte(position, c);
+            } else if (Character.isHighSurrogate(c) && index + 1 < limit) {
+                position = writeSurrogates(position, c, text[++index]);
+            } else {
+                position = writeRawMultiByteChar(position, c);
+            }
+        }
+        setPosition(position);
+    }
+
+    @Override
+    public void writeRaw(SerializableString text) throws IOException {
+        writeBytes(text.asUnquotedUTF8());
+    }
+
+    @Override
+    public void writeRaw(char c) throws IOException {
+        if (c < 0x80) {
+            writeByte(c);
+        } else {
+            setPosition(writeRawMultiByteChar(position(), c));
+        }
+    }
+
+    @Override
+    public void writeBinary(Base64Variant b64variant, byte[] data, int offset, int length) throws IOException {
+        _verifyValueWrite(WRITE_BINARY);
+        int position = reserve(1);
+        buffer[position++] = '"';
+        int inputIndex = offset;
+        int inputLimit = offset + length;
+        int chunksBeforeLineFeed = b64variant.getMaxLineLength() >> 2;
+        while (inputIndex <= inputLimit - 3) {
+            position = reserve(position, 6);
+            int b24 = ((int) data[inputIndex++]) << 8;
+            b24 |= ((int) data[inputIndex++]) & 0xFF;
+            b24 = (b24 << 8) | (((int) data[inputIndex++]) & 0xFF);
+            position = b64variant.encodeBase64Chunk(b24, buffer, position);
+            if (--chunksBeforeLineFeed <= 0) {
+                buffer[position++] = '\\';
+                buffer[position++] = 'n';
+                chunksBeforeLineFeed = b64variant.getMaxLineLength() >> 2;
+            }
+        }
+        int inputLeft = inputLimit - inputIndex;
+        if (inputLeft > 0) {
+            position = reserve(position, 4);
+            int b24 = ((int) data[inputIndex++]) << 16;
+            if (inputLeft == 2) {
+                b24 |= (((int) data[inputIndex]) & 0xFF) << 8;
+            }
+            position = b64variant.encodeBase64Partial(b24, inputLeft, buffer, position);
+        }
+        position = reserve(position, 1);
+        buffer[position++] = '"';
+        setPosition(position);
+    }
+
+    @Override
+    public void writeNumber(int number) throws IOException {
+        _verifyValueWrite(WRITE_NUMBER);
+        if (_cfgNumbersAsStrings) {
+            int position = reserve(MAX_INT_LENGTH + 2);
+            buffer[position++] = '"';
+            position = NumberOutput.outputInt(number, buffer, position);
+            buffer[position++] = '"';
+            setPosition(position);
+        } else {
+            int position = reserve(MAX_INT_LENGTH);
+            setPosition(NumberOutput.outputInt(number, buffer, position));
+        }
+    }
+
+    @Override
+    public void writeNumber(long number) throws IOException {
+        _verifyValueWrite(WRITE_NUMBER);
+        if (_cfgNumbersAsStrings) {
+            int position = reserve(MAX_LONG_LENGTH + 2);
+            buffer[position++] = '"';
+            position = NumberOutput.outputLong(number, buffer, position);
+            buffer[position++] = '"';
+            setPosition(position);
+        } else {
+            int position = reserve(MAX_LONG_LENGTH);
+            setPosition(NumberOutput.outputLong(number, buffer, position));
+        }
+    }
+
+    @Override
+    public void writeNumber(BigInteger number) throws IOException {
+        if (number == null) {
+            writeNull();
+        } else {
+            writeNumber(number.toString());
+        }
+    }
+
+    @Override
+    public void writeNumber(double number) throws IOException {
+        _verifyValueWrite(WRITE_NUMBER);
+        decimalBuilder.setLength(0);
+        decimalBuilder.append(number);
+        writeDecimal(_cfgNumbersAsStrings ||
+                (!Double.isFinite(number) && NAN_AS_STRINGS_FEATURE.enabledIn(_features)));
+    }
+
+    @Override
+    public void writeNumber(float number) throws IOException {
+        _verifyValueWrite(WRITE_NUMBER);
+        decimalBuilder.setLength(0);
+        decimalBuilder.append(number);
+        writeDecimal(_cfgNumbersAsStrings ||
+                (!Float.isFinite(number) && NAN_AS_STRINGS_FEATURE.enabledIn(_features)));
+    }
+
+    /**
+     * Writes the number formatted into {@link #decimalBuilder}, which renders
+     * the same (ASCII) characters as {@link Double#toString(double)} and
+     * {@link Float#toString(float)} do.
+     */
+    private void writeDecimal(boolean quoted) {
+        int length = decimalBuilder.length();
+        int position = reserve(length + 2);
+        if (quoted) {
+            buffer[position++] = '"';
+        }
+        for (int charIndex = 0; charIndex < length; charIndex++) {
+            buffer[position++] = (byte) decimalBuilder.charAt(charIndex);
+        }
+        if (quoted) {
+            buffer[position++] = '"';
+        }
+        setPosition(position);
+    }
+
+    @Override
+    public void writeNumber(BigDecimal number) throws IOException {
+        if (number == null) {
+            writeNull();
+        } else {
+            writeNumber(_asString(number));
+        }
+    }
+
+    @Override
+    public void writeNumber(String encodedNumber) throws IOException {
+        _verifyValueWrite(WRITE_NUMBER);
+        if (_cfgNumbersAsStrings) {
+            writeByte('"');
+            writeRaw(encodedNumber);
+            writeByte('"');
+        } else {
+            writeRaw(encodedNumber);
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean state) throws IOException {
+        _verifyValueWrite(WRITE_BOOLEAN);
+        writeBytes(state ? TRUE_BYTES : FALSE_BYTES);
+    }
+
+    @Override
+    public void writeNull() throws IOException {
+        _verifyValueWrite(WRITE_NULL);
+        writeBytes(NULL_BYTES);
+    }
+
+    @Override
+    protected void _verifyValueWrite(String typeMsg) throws IOException {
+        if (!_writeContext.inObject()) {
+            markEntryStart();
+        }
+        int status = _writeContext.writeValue();
+        if (_cfgPrettyPrinter != null) {
+            verifyPrettyValueWrite(typeMsg, status);
+            return;
+        }
+        switch (status) {
+            case JsonWriteContext.STATUS_OK_AFTER_COMMA:
+                writeByte(',');
+                break;
+            case JsonWriteContext.STATUS_OK_AFTER_COLON:
+                writeByte(':');
+                break;
+            case JsonWriteContext.STATUS_EXPECT_NAME:
+                reportExpectingFieldName(typeMsg);
+                break;
+            default:
+                // Root values are not separated.
+                break;
+        }
+    }
+
+    private void verifyPrettyValueWrite(String typeMsg, int status) throws IOException {
+        switch (status) {
+            case JsonWriteContext.STATUS_OK_AFTER_COMMA:
+                _cfgPrettyPrinter.writeArrayValueSeparator(this);
+                break;
+            case JsonWriteContext.STATUS_OK_AFTER_COLON:
+                _cfgPrettyPrinter.writeObjectFieldValueSeparator(this);
+                break;
+            case JsonWriteContext.STATUS_OK_AFTER_SPACE:
+                _cfgPrettyPrinter.writeRootValueSeparator(this);
+                break;
+            case JsonWriteContext.STATUS_OK_AS_IS:
+                if (_writeContext.inArray()) {
+                    _cfgPrettyPrinter.beforeArrayValues(this);
+                } else if (_writeContext.inObject()) {
+                    _cfgPrettyPrinter.beforeObjectEntries(this);
+                }
+                break;
+            case JsonWriteContext.STATUS_EXPECT_NAME:
+                reportExpectingFieldName(typeMsg);
+                break;
+            default:
+                _throwInternal();
+                break;
+        }
+    }
+
+    private void reportExpectingFieldName(String typeMsg) throws IOException {
+        String message = String.format(
+                "Can not %s, expecting field name (context: %s)",
+                typeMsg, _writeContext.typeDesc());
+        _reportError(message);
+    }
+
+    @Override
+    public void flush() {
+        // Nothing is buffered.
+    }
+
+    @Override
+    protected void _releaseBuffers() {
+        // Nothing is pooled.
+    }
+
+    private void writeQuotedString(String text, int length) {
+        int position = reserve(1);
+        buffer[position++] = '"';
+        position = writeEscapedChars(text, length, position);
+        position = reserve(position, 1);
+        buffer[position++] = '"';
+        setPosition(position);
+    }
+
+    private void writeQuotedBytes(byte[] quotedBytes) {
+        int position = reserve(1);
+        buffer[position++] = '"';
+        position = writeBytes(position, quotedBytes, 0, quotedBytes.length);
+        position = reserve(position, 1);
+        buffer[position++] = '"';
+        setPosition(position);
+    }
+
+    private int writeEscapedChars(String text, int length, int position) {
+        for (int index = 0; index < length; index++) {
+            position = writeEscapedChar(position, text.charAt(index));
+        }
+        return position;
+    }
+
+    private int writeEscapedChars(char[] text, int offset, int limit, int position) {
+        for (int index = offset; index < limit; index++) {
+            position = writeEscapedChar(position, text[index]);
+        }
+        return position;
+    }
+
+    private int writeEscapedChar(int position, char c) {
+        if (c < 0x80) {
+            int escape = OUTPUT_ESCAPES[c];
+            return escape == 0
+                    ? writeByte(position, c)
+                    : writeEscape(position, c, escape);
+        } else if (c < 0x800) {
+            position = reserve(position, 2);
+            buffer[position++] = (byte) (0xc0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            return position;
+        } else if (c >= SURR1_FIRST && c <= SURR2_LAST) {
+            return writeUnicodeEscape(position, c);
+        } else {
+            position = reserve(position, 3);
+            buffer[position++] = (byte) (0xe0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            return position;
+        }
+    }
+
+    private int writeEscape(int position, int c, int escape) {
+        if (escape > 0) {
+            position = reserve(position, 2);
+            buffer[position++] = '\\';
+            buffer[position++] = (byte) escape;
+            return position;
+        }
+        return writeUnicodeEscape(position, c);
+    }
+
+    private int writeUnicodeEscape(int position, int c) {
+        position = reserve(position, 6);
+        buffer[position++] = '\\';
+        buffer[position++] = 'u';
+        buffer[position++] = HEX_BYTES[(c >> 12) & 0xF];
+        buffer[position++] = HEX_BYTES[(c >> 8) & 0xF];
+        buffer[position++] = HEX_BYTES[(c >> 4) & 0xF];
+        buffer[position++] = HEX_BYTES[c & 0xF];
+        return position;
+    }
+
+    private int writeSurrogates(int position, char highSurrogate, char lowSurrogate) throws IOException {
+        int c = _decodeSurrogate(highSurrogate, lowSurrogate);
+        position = reserve(position, 4);
+        buffer[position++] = (byte) (0xf0 | (c >> 18));
+        buffer[position++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        return position;
+    }
+
+    private int writeRawMultiByteChar(int position, char c) throws IOException {
+        if (c < 0x800) {
+            position = reserve(position, 2);
+            buffer[position++] = (byte) (0xc0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            return position;
+        }
+        if (c >= SURR1_FIRST && c <= SURR2_LAST) {
+            _reportError(String.format("Split surrogate on writeRaw() input: 0x%04x", (int) c));
+        }
+        position = reserve(position, 3);
+        buffer[position++] = (byte) (0xe0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        return position;
+    }
+
+    private void writeByte(int b) {
+        int position = reserve(1);
+        buffer[position] = (byte) b;
+        setPosition(position + 1);
+    }
+
+    private int writeByte(int position, int b) {
+        position = reserve(position, 1);
+        buffer[position] = (byte) b;
+        return position + 1;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        setPosition(writeBytes(position(), bytes, 0, bytes.length));
+    }
+
+    private int writeBytes(int position, byte[] bytes, int offset, int length) {
+        // Copy in chunks, if the bytes do not fit, since a draining output
+        // stream cannot provide more room than its destination buffer.
+        while (position + length + reservedByteCount > limit) {
+            position = reserve(position, 1);
+            int chunkLength = Math.min(length, limit - reservedByteCount - position);
+            System.arraycopy(bytes, offset, buffer, position, chunkLength);
+            position += chunkLength;
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        return position + length;
+    }
+
+    private int position() {
+        // The output stream replaces its buffer while shrinking.
+        ByteBuffer currentByteBuffer = outputStream.getByteBuffer();
+        if (currentByteBuffer != byteBuffer) {
+            setByteBuffer(currentByteBuffer);
+        }
+        // noinspection RedundantCast (for Java 8 compatibility)
+        return ((Buffer) byteBuffer).position();
+    }
+
+    private void setPosition(int position) {
+        // noinspection RedundantCast (for Java 8 compatibility)
+        ((Buffer) byteBuffer).position(position);
+    }
+
+    private int reserve(int byteCount) {
+        return reserve(position(), byteCount);
+    }
+
+    /**
+     * @return the position to write at, which differs from the given one, if
+     * the output stream drains its buffer
+     */
+    private int reserve(int position, int byteCount) {
+        int requiredByteCount = position + byteCount + reservedByteCount;
+        if (requiredByteCount > limit) {
+            return reserveSlowly(position, byteCount, requiredByteCount);
+        }
+        return position;
+    }
+
+    private int reserveSlowly(int position, int byteCount, int requiredByteCount) {
+        if (truncationState == TruncationState.DONE) {
+            throw new BufferOverflowException();
+        }
+        if (maxByteCount > 0 && truncationState == TruncationState.NONE && requiredByteCount > maxByteCount) {
+            truncate();
+            throw new BufferOverflowException();
+        }
+        setByteBuffer(outputStream.reserve(position, byteCount + reservedByteCount));
+        // noinspection RedundantCast (for Java 8 compatibility)
+        return ((Buffer) byteBuffer).position();
+    }
+
+    private void truncate() {
+
+        // Roll back the last entry.
+        truncationState = TruncationState.CLOSING;
+        reservedByteCount = 0;
+        setByteBuffer(byteBuffer);
+        setPosition(entryStartPositions[depth]);
+
+        // Close the open containers.
+        if (depth == 0) {
+            writeBytes(TRUNCATED_OBJECT_BYTES);
+        } else {
+            try {
+                while (depth > 0) {
+                    if (_writeContext.inArray()) {
+                        writeEndArray();
+                    } else {
+                        if (depth == 1) {
+                            writeTruncationField();
+                        }
+                        writeEndObject();
+                    }
+                    depth--;
+                }
+            } catch (IOException error) {
+                // Should not happen, since the contexts are known to be open.
+                throw new IllegalStateException(error);
+            }
+        }
+        truncationState = TruncationState.DONE;
+        setByteBuffer(byteBuffer);
+
+    }
+
+    private void writeTruncationField() {
+        // Find the last non-whitespace byte to determine whether a comma is required.
+        int position = position();
+        int lastIndex = position - 1;
+        while (lastIndex >= 0 && isWhitespace(buffer[lastIndex])) {
+            lastIndex--;
+        }
+        if (lastIndex >= 0 && buffer[lastIndex] != '{') {
+            writeByte(',');
+        }
+        writeBytes(TRUNCATION_FIELD_BYTES);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+}
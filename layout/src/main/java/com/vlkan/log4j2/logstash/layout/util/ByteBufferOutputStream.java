@@ -16,39 +16,284 @@
 
 package com.vlkan.log4j2.logstash.layout.util;
 
+import org.apache.commons.lang3.Validate;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
 import java.io.OutputStream;
 import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+/**
+ * {@link OutputStream} writing into a heap {@link ByteBuffer}.
+ * <p>
+ * The buffer starts with {@code initialByteCount} and doubles in size, up to
+ * {@code maxByteCount}, while writing larger outputs. Exceeding {@code
+ * maxByteCount} results in a {@link BufferOverflowException}. Once {@link
+ * #clear()} is called {@value #SHRINK_CLEAR_COUNT} times in a row without
+ * the output exceeding {@code initialByteCount}, the buffer shrinks back to
+ * its initial size.
+ * <p>
+ * The stream can also be {@link #attach(ByteBufferDestination) attached} to a
+ * {@link ByteBufferDestination}, in which case the output is written into the
+ * buffer of the destination, which gets drained whenever it fills up, rather
+ * than the buffer of the stream. While attached, {@code maxByteCount} is
+ * checked against the bytes written since attaching whenever the destination
+ * gets drained; the rest is up to the caller, see {@link #size()}.
+ */
 public class ByteBufferOutputStream extends OutputStream {
 
-    private final ByteBuffer byteBuffer;
+    static final int SHRINK_CLEAR_COUNT = 1024;
+
+    private final int initialByteCount;
+
+    private final int maxByteCount;
+
+    private ByteBuffer byteBuffer;
+
+    private int quietClearCount = 0;
+
+    private ByteBufferDestination destination;
+
+    /**
+     * Buffer of the stream itself, while attached to a destination.
+     */
+    private ByteBuffer detachedByteBuffer;
+
+    /**
+     * Position in the destination buffer where the output started, either at
+     * attaching or after the last drain.
+     */
+    private int attachedPosition;
+
+    private int drainedByteCount;
+
+    private ScratchSpace scratchSpace;
 
     public ByteBufferOutputStream(int byteCount) {
-        this.byteBuffer = ByteBuffer.allocate(byteCount);
+        this(byteCount, byteCount);
+    }
+
+    public ByteBufferOutputStream(int initialByteCount, int maxByteCount) {
+        Validate.isTrue(initialByteCount > 0, "initialByteCount requires a non-zero positive integer");
+        Validate.isTrue(maxByteCount >= initialByteCount, "maxByteCount cannot be less than initialByteCount");
+        this.initialByteCount = initialByteCount;
+        this.maxByteCount = maxByteCount;
+        this.byteBuffer = ByteBuffer.allocate(initialByteCount);
     }
 
+    /**
+     * @return the current buffer, which is replaced while growing and
+     * shrinking
+     */
     public ByteBuffer getByteBuffer() {
         return byteBuffer;
     }
 
+    public int getMaxByteCount() {
+        return maxByteCount;
+    }
+
+    /**
+     * @return the scratch space of the generators writing into this stream,
+     * created on first access
+     */
+    public ScratchSpace getScratchSpace() {
+        if (scratchSpace == null) {
+            scratchSpace = new ScratchSpace();
+        }
+        return scratchSpace;
+    }
+
+    /**
+     * @return {@code true}, if the stream can be attached to a destination
+     * with the given buffer, that is, a heap buffer in write mode
+     */
+    public static boolean isAttachable(ByteBuffer byteBuffer) {
+        // noinspection RedundantCast (for Java 8 compatibility)
+        return byteBuffer.hasArray() &&
+                byteBuffer.arrayOffset() == 0 &&
+                ((Buffer) byteBuffer).limit() == byteBuffer.capacity();
+    }
+
+    /**
+     * Redirects the output to the buffer of the given destination, until
+     * {@link #detach()} is called. The caller is expected to have exclusive
+     * access to the destination in the meantime.
+     */
+    public void attach(ByteBufferDestination destination) {
+        checkState(this.destination == null, "already attached");
+        ByteBuffer destinationByteBuffer = destination.getByteBuffer();
+        if (!isAttachable(destinationByteBuffer)) {
+            throw new IllegalArgumentException("destination buffer is not attachable");
+        }
+        this.destination = destination;
+        this.detachedByteBuffer = byteBuffer;
+        this.byteBuffer = destinationByteBuffer;
+        // noinspection RedundantCast (for Java 8 compatibility)
+        this.attachedPosition = ((Buffer) destinationByteBuffer).position();
+        this.drainedByteCount = 0;
+    }
+
+    /**
+     * Discards the output written to the destination since attaching, if none
+     * of it is drained yet.
+     *
+     * @return {@code true}, if the output is discarded
+     */
+    public boolean revert() {
+        checkState(destination != null, "not attached");
+        if (drainedByteCount > 0) {
+            return false;
+        }
+        // noinspection RedundantCast (for Java 8 compatibility)
+        ((Buffer) byteBuffer).position(attachedPosition);
+        return true;
+    }
+
+    /**
+     * Restores the buffer of the stream, leaving the written output in the
+     * destination buffer.
+     */
+    public void detach() {
+        checkState(destination != null, "not attached");
+        byteBuffer = detachedByteBuffer;
+        detachedByteBuffer = null;
+        destination = null;
+    }
+
+    /**
+     * @return the number of bytes written, i.e., since attaching to a
+     * destination, if attached, otherwise since the last {@link #clear()}
+     */
+    public int size() {
+        // noinspection RedundantCast (for Java 8 compatibility)
+        int position = ((Buffer) byteBuffer).position();
+        return destination != null
+                ? drainedByteCount + position - attachedPosition
+                : position;
+    }
+
+    /**
+     * Ensures that {@code byteCount} bytes can be written into the returned
+     * buffer at its position. The position of the buffer is set to the given
+     * one, unless the buffer is drained, in which case the output continues
+     * at the position of the buffer returned by the destination.
+     *
+     * @return the buffer to write into
+     * @throws BufferOverflowException if {@code maxByteCount} is exceeded
+     */
+    public ByteBuffer reserve(int position, int byteCount) {
+        // noinspection RedundantCast (for Java 8 compatibility)
+        ((Buffer) byteBuffer).position(position);
+        int requiredByteCount = position + byteCount;
+        // noinspection RedundantCast (for Java 8 compatibility)
+        if (requiredByteCount > ((Buffer) byteBuffer).limit()) {
+            if (destination != null) {
+                drain(byteCount);
+            } else {
+                grow(requiredByteCount);
+            }
+        }
+        return byteBuffer;
+    }
+
+    /**
+     * Drains the destination buffer to make room for the given number of
+     * bytes.
+     *
+     * @throws BufferOverflowException if {@code maxByteCount} is exceeded, or
+     *                                 the drained buffer does not have enough
+     *                                 room either
+     */
+    private void drain(int byteCount) {
+        int writtenByteCount = size();
+        if (writtenByteCount + (long) byteCount > maxByteCount) {
+            throw new BufferOverflowException();
+        }
+        ByteBuffer drainedByteBuffer = destination.drain(byteBuffer);
+        drainedByteCount = writtenByteCount;
+        if (!isAttachable(drainedByteBuffer)) {
+            throw new IllegalStateException("destination has drained into a buffer that is not attachable");
+        }
+        byteBuffer = drainedByteBuffer;
+        // noinspection RedundantCast (for Java 8 compatibility)
+        attachedPosition = ((Buffer) drainedByteBuffer).position();
+        if (drainedByteBuffer.remaining() < byteCount) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private void grow(int requiredByteCount) {
+        if (requiredByteCount > maxByteCount || requiredByteCount < 0) {
+            throw new BufferOverflowException();
+        }
+        int capacity = byteBuffer.capacity();
+        int newCapacity = (int) Math.min(maxByteCount, Math.max(2L * capacity, requiredByteCount));
+        ByteBuffer newByteBuffer = ByteBuffer.allocate(newCapacity);
+        // noinspection RedundantCast (for Java 8 compatibility)
+        int position = ((Buffer) byteBuffer).position();
+        System.arraycopy(byteBuffer.array(), 0, newByteBuffer.array(), 0, position);
+        // noinspection RedundantCast (for Java 8 compatibility)
+        ((Buffer) newByteBuffer).position(position);
+        byteBuffer = newByteBuffer;
+    }
+
+    /**
+     * Clears the buffer and shrinks it back to {@code initialByteCount}, if
+     * it has not been needed for a while.
+     */
+    public void clear() {
+        checkState(destination == null, "cannot clear while attached");
+        if (byteBuffer.capacity() > initialByteCount) {
+            // noinspection RedundantCast (for Java 8 compatibility)
+            int position = ((Buffer) byteBuffer).position();
+            quietClearCount = position > initialByteCount ? 0 : quietClearCount + 1;
+            if (quietClearCount >= SHRINK_CLEAR_COUNT) {
+                quietClearCount = 0;
+                byteBuffer = ByteBuffer.allocate(initialByteCount);
+                return;
+            }
+        }
+        // noinspection RedundantCast (for Java 8 compatibility)
+        ((Buffer) byteBuffer).clear();
+    }
+
     @Override
     public void write(int codeInt) {
         byte codeByte = (byte) codeInt;
+        ensureRemaining(1);
         byteBuffer.put(codeByte);
     }
 
     @Override
     public void write(byte[] buf) {
-        byteBuffer.put(buf);
+        write(buf, 0, buf.length);
     }
 
     @Override
     public void write(byte[] buf, int off, int len) {
+        // Write in chunks while attached, since the destination buffer
+        // might be smaller than the given array.
+        while (destination != null && byteBuffer.remaining() < len) {
+            int chunkLength = byteBuffer.remaining();
+            byteBuffer.put(buf, off, chunkLength);
+            off += chunkLength;
+            len -= chunkLength;
+            drain(1);
+        }
+        ensureRemaining(len);
         byteBuffer.put(buf, off, len);
     }
 
+    private void ensureRemaining(int byteCount) {
+        if (byteBuffer.remaining() < byteCount) {
+            // noinspection RedundantCast (for Java 8 compatibility)
+            reserve(((Buffer) byteBuffer).position(), byteCount);
+        }
+    }
+
     public byte[] toByteArray() {
         @SuppressWarnings("RedundantCast")  // for Java 8 compatibility
         int size = ((Buffer) byteBuffer).position();
@@ -62,4 +307,14 @@ public class ByteBufferOutputStream extends OutputStream {
         return new String(byteBuffer.array(), 0, ((Buffer) byteBuffer).position(), charset);
     }
 
+    /**
+     * Replaces {@link Validate#validState(boolean, String, Object...)} on
+     * the per-event paths, since its varargs allocate an array per call.
+     */
+    private static void checkState(boolean state, String message) {
+        if (!state) {
+            throw new IllegalStateException(message);
+        }
+    }
+
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Defines copies of classes from their own bytecode, each in a dedicated
+ * class loader.
+ * <p>
+ * The JIT collects type profiles per class, hence a call site in a cloned
+ * class only observes the receivers of that very copy, rather than the
+ * receivers of every instance of the original class in the JVM.
+ * <p>
+ * Clones reside in a different runtime package than the original, hence
+ * they can only access public types of the original package. Every clone
+ * occupies metaspace of its own until it gets unloaded along with its
+ * instances, unless it is cached via {@link #cloneClass(Class, Class,
+ * Object)}.
+ */
+public enum ClassCloner {;
+
+    private static final ClassValue<byte[]> CLASS_BYTES = new ClassValue<byte[]>() {
+        @Override
+        protected byte[] computeValue(Class<?> clazz) {
+            return readClassBytes(clazz);
+        }
+    };
+
+    private static final Map<List<Object>, Class<?>> CLONE_BY_KEY = new ConcurrentHashMap<>();
+
+    /**
+     * Clones the given class once per key, such that the same key yields the
+     * same clone, e.g., across reconfigurations. Cached clones are never
+     * unloaded, hence the number of distinct keys needs to be bounded.
+     *
+     * @see #cloneClass(Class, Class)
+     */
+    public static <T> Class<? extends T> cloneClass(Class<? extends T> clazz, Class<T> superType, Object key) {
+        List<Object> cacheKey = Arrays.asList(clazz, key);
+        Class<?> clone = CLONE_BY_KEY.get(cacheKey);
+        if (clone == null) {
+            clone = CLONE_BY_KEY.computeIfAbsent(cacheKey, ignored -> cloneClass(clazz, superType));
+        }
+        return clone.asSubclass(superType);
+    }
+
+    /**
+     * Clones are distinct classes, hence they are typed by a public super
+     * type of the original, e.g., an interface implemented by it.
+     *
+     * @return a copy of the given class, or the class itself, if it cannot
+     * be cloned, e.g., on platforms without access to the class files
+     */
+    public static <T> Class<? extends T> cloneClass(Class<? extends T> clazz, Class<T> superType) {
+        byte[] classBytes = CLASS_BYTES.get(clazz);
+        if (classBytes == null) {
+            return clazz;
+        }
+        CloningClassLoader classLoader = new CloningClassLoader(clazz, classBytes);
+        try {
+            return classLoader.loadClass(clazz.getName()).asSubclass(superType);
+        } catch (ClassCastException | ClassNotFoundException | LinkageError ignored) {
+            return clazz;
+        }
+    }
+
+    private static byte[] readClassBytes(Class<?> clazz) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        if (classLoader == null) {
+            return null;
+        }
+        String resourceName = clazz.getName().replace('.', '/') + ".class";
+        try (InputStream inputStream = classLoader.getResourceAsStream(resourceName)) {
+            if (inputStream == null) {
+                return null;
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int readByteCount;
+            while ((readByteCount = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, readByteCount);
+            }
+            return outputStream.toByteArray();
+        } catch (IOException | SecurityException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Defines the cloned class itself, while delegating every other class,
+     * e.g., the super types and the ones referenced by the clone, to the
+     * class loader of the original class.
+     */
+    private static final class CloningClassLoader extends ClassLoader {
+
+        private final String className;
+
+        private final byte[] classBytes;
+
+        private CloningClassLoader(Class<?> clazz, byte[] classBytes) {
+            super(clazz.getClassLoader());
+            this.className = clazz.getName();
+            this.classBytes = classBytes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!className.equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    clazz = defineClass(name, classBytes, 0, classBytes.length);
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+    }
+
+}
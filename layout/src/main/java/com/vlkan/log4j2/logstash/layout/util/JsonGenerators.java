@@ -17,10 +17,12 @@
 package com.vlkan.log4j2.logstash.layout.util;
 
 import com.fasterxml.jackson.core.JsonGenerator;
-import org.apache.logging.log4j.core.util.Constants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
 public enum JsonGenerators {;
 
@@ -36,85 +38,177 @@ public enum JsonGenerators {;
 
     }
 
-    private static final ThreadLocal<DoubleWriterContext> DOUBLE_WRITER_CONTEXT_REF =
-            Constants.ENABLE_THREADLOCALS
-                    ? ThreadLocal.withInitial(DoubleWriterContext::new)
-                    : null;
+    private static final Supplier<DoubleWriterContext> DOUBLE_WRITER_CONTEXT_SUPPLIER = DoubleWriterContext::new;
 
     public static void writeDouble(JsonGenerator jsonGenerator, long integralPart, int fractionalPart) throws IOException {
         if (fractionalPart < 0) {
             throw new IllegalArgumentException("negative fraction");
         } else if (fractionalPart == 0) {
             jsonGenerator.writeNumber(integralPart);
-        } else if (Constants.ENABLE_THREADLOCALS) {
-            DoubleWriterContext context = DOUBLE_WRITER_CONTEXT_REF.get();
+        } else if (!isTextual(jsonGenerator)) {
+            // Append the digits of the fractional part, as in the textual form.
+            double fractionalPartDivisor = 10;
+            while (fractionalPartDivisor <= fractionalPart) {
+                fractionalPartDivisor *= 10;
+            }
+            jsonGenerator.writeNumber(integralPart + fractionalPart / fractionalPartDivisor);
+        } else {
+            DoubleWriterContext context = ScratchSpace.of(jsonGenerator).get(DOUBLE_WRITER_CONTEXT_SUPPLIER);
             context.builder.setLength(0);
             context.builder.append(integralPart);
             context.builder.append('.');
             context.builder.append(fractionalPart);
             int length = context.builder.length();
             context.builder.getChars(0, length, context.buffer, 0);
-            // jackson-core version >=2.10.2 is required for the following line
-            // to avoid FasterXML/jackson-core#588 bug.
+            // The minimum jackson-core version of the pom.xml (i.e., 2.10.2)
+            // covers the FasterXML/jackson-core#588 fix this line relies on.
             jsonGenerator.writeRawValue(context.buffer, 0, length);
-        } else {
-            String formattedNumber = "" + integralPart + '.' + fractionalPart;
-            jsonGenerator.writeNumber(formattedNumber);
         }
     }
 
     /**
-     * Writes given object, preferably using GC-free writers.
+     * Indicates if the generator renders text, e.g., JSON, rather than a
+     * binary format, e.g., CBOR or Smile, where raw values are not supported.
      */
-    public static void writeObject(JsonGenerator jsonGenerator, Object object) throws IOException {
-
-        if (object == null) {
-            jsonGenerator.writeNull();
-            return;
-        }
+    public static boolean isTextual(JsonGenerator jsonGenerator) {
+        return !jsonGenerator.canWriteBinaryNatively();
+    }
 
-        if (object instanceof String) {
-            jsonGenerator.writeString((String) object);
-            return;
+    /**
+     * Copies the value the parser points at, excluding empty values, i.e.,
+     * {@code null}s, empty strings, and containers without any non-empty
+     * values, along with their field names, at every nesting level.
+     * <p>
+     * The given field name is written right before the first token, unless
+     * the value turns out to be empty. Containers are started only once
+     * their first non-empty value is encountered, where the pending ones
+     * are kept in the {@link ScratchSpace} of the generator.
+     *
+     * @return {@code true}, if the value is written
+     */
+    public static boolean copyNonEmptyValue(
+            JsonParser jsonParser,
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName)
+            throws IOException {
+        JsonToken token = jsonParser.currentToken();
+        if (token == null) {
+            return false;
         }
-
-        if (object instanceof Short) {
-            jsonGenerator.writeNumber((Short) object);
-            return;
-        }
-
-        if (object instanceof Integer) {
-            jsonGenerator.writeNumber((Integer) object);
-            return;
+        if (!token.isStructStart()) {
+            if (isEmptyScalar(jsonParser, token)) {
+                return false;
+            }
+            fieldName.write(jsonGenerator);
+            jsonGenerator.copyCurrentEvent(jsonParser);
+            return true;
         }
+        CopyContext context = ScratchSpace.of(jsonGenerator).get(COPY_CONTEXT_SUPPLIER);
+        return context.copy(jsonParser, jsonGenerator, fieldName);
+    }
 
-        if (object instanceof Long) {
-            jsonGenerator.writeNumber((Long) object);
-            return;
-        }
+    private static boolean isEmptyScalar(JsonParser jsonParser, JsonToken token) throws IOException {
+        return token == JsonToken.VALUE_NULL ||
+                (token == JsonToken.VALUE_STRING && jsonParser.getTextLength() == 0);
+    }
 
-        if (object instanceof BigDecimal) {
-            jsonGenerator.writeNumber((BigDecimal) object);
-            return;
+    private static final class CopyContext {
+
+        /**
+         * Field names of the open containers in their parents, where array
+         * items and the copied value itself have none.
+         */
+        private String[] names = new String[8];
+
+        private boolean[] objects = new boolean[8];
+
+        private boolean copy(
+                JsonParser jsonParser,
+                JsonGenerator jsonGenerator,
+                LazyFieldName fieldName)
+                throws IOException {
+            int depth = 0;
+            int startedDepth = 0;
+            String name = null;
+            for (JsonToken token = jsonParser.currentToken(); ; token = jsonParser.nextToken()) {
+                if (token.isStructStart()) {
+                    push(depth++, name, token == JsonToken.START_OBJECT);
+                    name = null;
+                } else if (token.isStructEnd()) {
+                    boolean started = startedDepth == depth;
+                    if (started) {
+                        if (objects[--startedDepth]) {
+                            jsonGenerator.writeEndObject();
+                        } else {
+                            jsonGenerator.writeEndArray();
+                        }
+                    }
+                    names[--depth] = null;
+                    name = null;
+                    if (depth == 0) {
+                        return started;
+                    }
+                } else if (token == JsonToken.FIELD_NAME) {
+                    name = jsonParser.currentName();
+                } else {
+                    if (!isEmptyScalar(jsonParser, token)) {
+                        startedDepth = start(jsonGenerator, fieldName, startedDepth, depth);
+                        if (name != null) {
+                            jsonGenerator.writeFieldName(name);
+                        }
+                        jsonGenerator.copyCurrentEvent(jsonParser);
+                    }
+                    name = null;
+                }
+            }
         }
 
-        if (object instanceof Float) {
-            jsonGenerator.writeNumber((Float) object);          // Not GC-free!
-            return;
+        private void push(int depth, String name, boolean object) {
+            if (depth == names.length) {
+                names = Arrays.copyOf(names, 2 * depth);
+                objects = Arrays.copyOf(objects, 2 * depth);
+            }
+            names[depth] = name;
+            objects[depth] = object;
         }
 
-        if (object instanceof Double) {
-            jsonGenerator.writeNumber((Double) object);         // Not GC-free!
-            return;
+        /**
+         * Starts the pending containers, along with their field names.
+         *
+         * @return the new depth of started containers
+         */
+        private int start(
+                JsonGenerator jsonGenerator,
+                LazyFieldName fieldName,
+                int startedDepth,
+                int depth)
+                throws IOException {
+            for (int containerIndex = startedDepth; containerIndex < depth; containerIndex++) {
+                if (containerIndex == 0) {
+                    fieldName.write(jsonGenerator);
+                } else if (names[containerIndex] != null) {
+                    jsonGenerator.writeFieldName(names[containerIndex]);
+                }
+                if (objects[containerIndex]) {
+                    jsonGenerator.writeStartObject();
+                } else {
+                    jsonGenerator.writeStartArray();
+                }
+            }
+            return depth;
         }
 
-        if (object instanceof byte[]) {
-            jsonGenerator.writeBinary((byte[]) object);
-            return;
-        }
+    }
 
-        jsonGenerator.writeObject(object);
+    private static final Supplier<CopyContext> COPY_CONTEXT_SUPPLIER = CopyContext::new;
 
+    /**
+     * Writes given object, preferably using GC-free writers.
+     *
+     * @see JsonValueWriters#getDefault()
+     */
+    public static void writeObject(JsonGenerator jsonGenerator, Object object) throws IOException {
+        JsonValueWriters.getDefault().write(jsonGenerator, object);
     }
 
 }
@@ -0,0 +1,656 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of {@link JsonValueWriter}s keyed by class, writing arbitrary
+ * values, e.g., MDC values and {@code MapMessage} values.
+ * <p>
+ * Writers are resolved once per class and cached. Writers registered via
+ * {@link Builder#register(Class, JsonValueWriter)} apply to the given class
+ * and its subclasses, and have precedence over the built-in ones, which are
+ * GC-free for the following types:
+ * <ul>
+ *     <li>{@link String}, {@link CharSequence}s, and {@link Character}</li>
+ *     <li>{@link Boolean}, {@link Byte}, {@link Short}, {@link Integer},
+ *     {@link Long}, {@link Float}, and {@link Double}</li>
+ *     <li>{@link UUID}s and {@link Enum}s (unless customized via Jackson
+ *     annotations or features)</li>
+ *     <li>{@link Instant}, {@link LocalDate}, {@link LocalTime},
+ *     {@link LocalDateTime}, and {@link OffsetDateTime} in ISO-8601 format,
+ *     i.e., as rendered by their {@code toString()}</li>
+ *     <li>primitive arrays</li>
+ * </ul>
+ * Elements of {@link Collection}s are written using the registry as well,
+ * whereas values of other types are delegated to the {@link ObjectCodec} of
+ * the generator, i.e., Jackson databind.
+ * <p>
+ * While excluding empty properties, values are written via {@link
+ * #writeField(JsonGenerator, LazyFieldName, Object)}, which excludes empty
+ * values at every nesting level.
+ */
+public final class JsonValueWriters {
+
+    private static final JsonValueWriters DEFAULT = newBuilder().build();
+
+    /**
+     * Maximum length of {@link CharSequence}s copied into the scratch buffer,
+     * longer ones are converted to {@link String}s instead.
+     */
+    private static final int MAX_BUFFERED_CHAR_SEQUENCE_LENGTH = 4096;
+
+    /**
+     * Generator feature of {@link JsonWriteFeature#WRITE_NUMBERS_AS_STRINGS},
+     * in place of its deprecated {@link JsonGenerator.Feature} constant.
+     */
+    private static final JsonGenerator.Feature NUMBERS_AS_STRINGS_FEATURE =
+            JsonWriteFeature.WRITE_NUMBERS_AS_STRINGS.mappedFeature();
+
+    private static final Map<Class<?>, JsonValueWriter<?>> BUILTIN_WRITER_BY_CLASS = createBuiltinWriterByClass();
+
+    private static final JsonValueWriter<Object> CODEC_WRITER = JsonGenerator::writeObject;
+
+    private final Map<Class<?>, JsonValueWriter<?>> writerByClass;
+
+    /**
+     * Registered writers, whose output might contain nested empty values.
+     */
+    private final Set<JsonValueWriter<?>> registeredWriters;
+
+    private final Map<Class<?>, JsonValueWriter<Object>> resolvedWriterByClass = new ConcurrentHashMap<>();
+
+    private JsonValueWriters(Builder builder) {
+        this.writerByClass = Collections.unmodifiableMap(new LinkedHashMap<>(builder.writerByClass));
+        this.registeredWriters = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.registeredWriters.addAll(writerByClass.values());
+    }
+
+    public static JsonValueWriters getDefault() {
+        return DEFAULT;
+    }
+
+    public void write(JsonGenerator jsonGenerator, Object value) throws IOException {
+        if (value == null) {
+            jsonGenerator.writeNull();
+        } else {
+            getWriter(value.getClass()).write(jsonGenerator, value);
+        }
+    }
+
+    /**
+     * Writes the value preceded by its field name, unless the value is empty,
+     * i.e., {@code null}, an empty string, or a container without any
+     * non-empty values.
+     * <p>
+     * Values written by either registered writers or the codec are captured
+     * into a {@link TokenBuffer} first, in order to exclude their nested empty
+     * values, and hence are not GC-free.
+     *
+     * @return {@code true}, if the value is written
+     */
+    public boolean writeField(JsonGenerator jsonGenerator, LazyFieldName fieldName, Object value) throws IOException {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof CharSequence && ((CharSequence) value).length() == 0) {
+            return false;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz.isArray() && Array.getLength(value) == 0) {
+            return false;
+        }
+        JsonValueWriter<Object> writer = getWriter(clazz);
+        if (writer == CODEC_WRITER || registeredWriters.contains(writer)) {
+            return writeCapturedField(jsonGenerator, fieldName, writer, value);
+        }
+        if (value instanceof Collection) {
+            return writeCollectionField(jsonGenerator, fieldName, (Collection<?>) value);
+        }
+        fieldName.write(jsonGenerator);
+        writer.write(jsonGenerator, value);
+        return true;
+    }
+
+    private static boolean writeCapturedField(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            JsonValueWriter<Object> writer,
+            Object value)
+            throws IOException {
+        TokenBuffer tokenBuffer = new TokenBuffer(jsonGenerator.getCodec(), false);
+        writer.write(tokenBuffer, value);
+        try (JsonParser jsonParser = tokenBuffer.asParser()) {
+            jsonParser.nextToken();
+            return JsonGenerators.copyNonEmptyValue(jsonParser, jsonGenerator, fieldName);
+        }
+    }
+
+    private boolean writeCollectionField(
+            JsonGenerator jsonGenerator,
+            LazyFieldName fieldName,
+            Collection<?> collection)
+            throws IOException {
+        if (collection.isEmpty()) {
+            return false;
+        }
+        // The array gets started along with its first non-empty item.
+        LazyFieldName pendingItemName = new LazyFieldName(fieldName, null);
+        LazyFieldName itemName = pendingItemName;
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            List<?> list = (List<?>) collection;
+            for (int itemIndex = 0; itemIndex < list.size(); itemIndex++) {
+                if (writeField(jsonGenerator, itemName, list.get(itemIndex))) {
+                    itemName = LazyFieldName.ITEM;
+                }
+            }
+        } else {
+            for (Object item : collection) {
+                if (writeField(jsonGenerator, itemName, item)) {
+                    itemName = LazyFieldName.ITEM;
+                }
+            }
+        }
+        if (itemName == pendingItemName) {
+            return false;
+        }
+        jsonGenerator.writeEndArray();
+        return true;
+    }
+
+    public JsonValueWriter<Object> getWriter(Class<?> clazz) {
+        JsonValueWriter<Object> writer = resolvedWriterByClass.get(clazz);
+        if (writer == null) {
+            writer = resolvedWriterByClass.computeIfAbsent(clazz, this::resolveWriter);
+        }
+        return writer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JsonValueWriter<Object> resolveWriter(Class<?> clazz) {
+
+        // Check the registered writers.
+        JsonValueWriter<?> writer = writerByClass.get(clazz);
+        if (writer != null) {
+            return (JsonValueWriter<Object>) writer;
+        }
+        for (Map.Entry<Class<?>, JsonValueWriter<?>> entry : writerByClass.entrySet()) {
+            if (entry.getKey().isAssignableFrom(clazz)) {
+                return (JsonValueWriter<Object>) entry.getValue();
+            }
+        }
+
+        // Check the built-in writers.
+        writer = BUILTIN_WRITER_BY_CLASS.get(clazz);
+        if (writer != null) {
+            return (JsonValueWriter<Object>) writer;
+        }
+        if (CharSequence.class.isAssignableFrom(clazz)) {
+            return (jsonGenerator, value) -> writeCharSequence(jsonGenerator, (CharSequence) value);
+        }
+        if (Enum.class.isAssignableFrom(clazz)) {
+            // Constants with bodies are anonymous subclasses of the enum.
+            Class<?> enumClass = clazz.isEnum() ? clazz : clazz.getSuperclass();
+            return isAnnotated(enumClass)
+                    ? CODEC_WRITER
+                    : (jsonGenerator, value) -> writeEnum(jsonGenerator, (Enum<?>) value);
+        }
+        if (Collection.class.isAssignableFrom(clazz)) {
+            return (jsonGenerator, value) -> writeCollection(jsonGenerator, (Collection<?>) value);
+        }
+
+        // Fallback to the codec.
+        return CODEC_WRITER;
+
+    }
+
+    private static boolean isAnnotated(Class<?> enumClass) {
+        return isAnnotated(new AnnotatedElement[]{enumClass}) ||
+                isAnnotated(enumClass.getDeclaredFields()) ||
+                isAnnotated(enumClass.getDeclaredMethods());
+    }
+
+    private static boolean isAnnotated(AnnotatedElement[] elements) {
+        for (AnnotatedElement element : elements) {
+            if (element.getAnnotations().length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeCollection(JsonGenerator jsonGenerator, Collection<?> collection) throws IOException {
+        jsonGenerator.writeStartArray();
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            List<?> list = (List<?>) collection;
+            for (int itemIndex = 0; itemIndex < list.size(); itemIndex++) {
+                write(jsonGenerator, list.get(itemIndex));
+            }
+        } else {
+            for (Object item : collection) {
+                write(jsonGenerator, item);
+            }
+        }
+        jsonGenerator.writeEndArray();
+    }
+
+    private static Map<Class<?>, JsonValueWriter<?>> createBuiltinWriterByClass() {
+        Map<Class<?>, JsonValueWriter<?>> writerByClass = new HashMap<>();
+        putWriter(writerByClass, String.class, JsonGenerator::writeString);
+        putWriter(writerByClass, Character.class, JsonValueWriters::writeCharacter);
+        putWriter(writerByClass, Boolean.class, JsonGenerator::writeBoolean);
+        putWriter(writerByClass, Byte.class, (jsonGenerator, value) -> jsonGenerator.writeNumber(value));
+        putWriter(writerByClass, Short.class, JsonGenerator::writeNumber);
+        putWriter(writerByClass, Integer.class, JsonGenerator::writeNumber);
+        putWriter(writerByClass, Long.class, JsonGenerator::writeNumber);
+        putWriter(writerByClass, BigInteger.class, JsonGenerator::writeNumber);     // Not GC-free!
+        putWriter(writerByClass, BigDecimal.class, JsonGenerator::writeNumber);     // Not GC-free!
+        putWriter(writerByClass, Float.class, JsonValueWriters::writeFloat);
+        putWriter(writerByClass, Double.class, JsonValueWriters::writeDouble);
+        putWriter(writerByClass, UUID.class, JsonValueWriters::writeUuid);
+        putWriter(writerByClass, Instant.class, JsonValueWriters::writeInstant);
+        putWriter(writerByClass, LocalDate.class, JsonValueWriters::writeLocalDate);
+        putWriter(writerByClass, LocalTime.class, JsonValueWriters::writeLocalTime);
+        putWriter(writerByClass, LocalDateTime.class, JsonValueWriters::writeLocalDateTime);
+        putWriter(writerByClass, OffsetDateTime.class, JsonValueWriters::writeOffsetDateTime);
+        putWriter(writerByClass, byte[].class, JsonGenerator::writeBinary);
+        putWriter(writerByClass, char[].class, (jsonGenerator, array) -> jsonGenerator.writeString(array, 0, array.length));
+        putWriter(writerByClass, boolean[].class, JsonValueWriters::writeBooleanArray);
+        putWriter(writerByClass, short[].class, JsonValueWriters::writeShortArray);
+        putWriter(writerByClass, int[].class, (jsonGenerator, array) -> jsonGenerator.writeArray(array, 0, array.length));
+        putWriter(writerByClass, long[].class, (jsonGenerator, array) -> jsonGenerator.writeArray(array, 0, array.length));
+        putWriter(writerByClass, float[].class, JsonValueWriters::writeFloatArray);
+        putWriter(writerByClass, double[].class, JsonValueWriters::writeDoubleArray);
+        return Collections.unmodifiableMap(writerByClass);
+    }
+
+    private static <V> void putWriter(
+            Map<Class<?>, JsonValueWriter<?>> writerByClass,
+            Class<V> clazz,
+            JsonValueWriter<V> writer) {
+        writerByClass.put(clazz, writer);
+    }
+
+    private static final class WriterContext {
+
+        private final StringBuilder builder = new StringBuilder();
+
+        private char[] buffer = new char[64];
+
+        private char[] getBuffer(int minLength) {
+            if (buffer.length < minLength) {
+                buffer = new char[Math.max(minLength, 2 * buffer.length)];
+            }
+            return buffer;
+        }
+
+    }
+
+    private static final Supplier<WriterContext> WRITER_CONTEXT_SUPPLIER = WriterContext::new;
+
+    private static WriterContext getWriterContext(JsonGenerator jsonGenerator) {
+        return ScratchSpace.of(jsonGenerator).get(WRITER_CONTEXT_SUPPLIER);
+    }
+
+    private static void writeCharacter(JsonGenerator jsonGenerator, Character value) throws IOException {
+        char[] buffer = getWriterContext(jsonGenerator).buffer;
+        buffer[0] = value;
+        jsonGenerator.writeString(buffer, 0, 1);
+    }
+
+    private static void writeCharSequence(JsonGenerator jsonGenerator, CharSequence value) throws IOException {
+        int length = value.length();
+        if (length > MAX_BUFFERED_CHAR_SEQUENCE_LENGTH) {
+            jsonGenerator.writeString(value.toString());
+            return;
+        }
+        char[] buffer = getWriterContext(jsonGenerator).getBuffer(length);
+        if (value instanceof StringBuilder) {
+            ((StringBuilder) value).getChars(0, length, buffer, 0);
+        } else if (value instanceof StringBuffer) {
+            ((StringBuffer) value).getChars(0, length, buffer, 0);
+        } else {
+            for (int charIndex = 0; charIndex < length; charIndex++) {
+                buffer[charIndex] = value.charAt(charIndex);
+            }
+        }
+        jsonGenerator.writeString(buffer, 0, length);
+    }
+
+    private static void writeEnum(JsonGenerator jsonGenerator, Enum<?> value) throws IOException {
+        ObjectCodec codec = jsonGenerator.getCodec();
+        boolean customized = codec instanceof ObjectMapper && (
+                ((ObjectMapper) codec).isEnabled(SerializationFeature.WRITE_ENUMS_USING_TO_STRING) ||
+                        ((ObjectMapper) codec).isEnabled(SerializationFeature.WRITE_ENUMS_USING_INDEX));
+        if (customized) {
+            jsonGenerator.writeObject(value);
+        } else {
+            jsonGenerator.writeString(value.name());
+        }
+    }
+
+    /**
+     * Formats the given number via {@link StringBuilder#append(float)}, which
+     * renders the same digits as {@link Float#toString(float)} without
+     * allocating a {@link String}.
+     */
+    private static void writeFloat(JsonGenerator jsonGenerator, float value) throws IOException {
+        if (!Float.isFinite(value) ||
+                jsonGenerator.isEnabled(NUMBERS_AS_STRINGS_FEATURE) ||
+                !JsonGenerators.isTextual(jsonGenerator)) {
+            jsonGenerator.writeNumber(value);
+        } else {
+            WriterContext context = getWriterContext(jsonGenerator);
+            context.builder.setLength(0);
+            context.builder.append(value);
+            writeRawBuilderValue(jsonGenerator, context);
+        }
+    }
+
+    /**
+     * Formats the given number via {@link StringBuilder#append(double)}, which
+     * renders the same digits as {@link Double#toString(double)} without
+     * allocating a {@link String}.
+     */
+    private static void writeDouble(JsonGenerator jsonGenerator, double value) throws IOException {
+        if (!Double.isFinite(value) ||
+                jsonGenerator.isEnabled(NUMBERS_AS_STRINGS_FEATURE) ||
+                !JsonGenerators.isTextual(jsonGenerator)) {
+            jsonGenerator.writeNumber(value);
+        } else {
+            WriterContext context = getWriterContext(jsonGenerator);
+            context.builder.setLength(0);
+            context.builder.append(value);
+            writeRawBuilderValue(jsonGenerator, context);
+        }
+    }
+
+    private static void writeRawBuilderValue(JsonGenerator jsonGenerator, WriterContext context) throws IOException {
+        int length = context.builder.length();
+        char[] buffer = context.getBuffer(length);
+        context.builder.getChars(0, length, buffer, 0);
+        jsonGenerator.writeRawValue(buffer, 0, length);
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static void writeUuid(JsonGenerator jsonGenerator, UUID value) throws IOException {
+        char[] buffer = getWriterContext(jsonGenerator).buffer;
+        long mostSigBits = value.getMostSignificantBits();
+        long leastSigBits = value.getLeastSignificantBits();
+        appendHexDigits(buffer, 0, mostSigBits >>> 32, 8);
+        buffer[8] = '-';
+        appendHexDigits(buffer, 9, mostSigBits >>> 16, 4);
+        buffer[13] = '-';
+        appendHexDigits(buffer, 14, mostSigBits, 4);
+        buffer[18] = '-';
+        appendHexDigits(buffer, 19, leastSigBits >>> 48, 4);
+        buffer[23] = '-';
+        appendHexDigits(buffer, 24, leastSigBits, 12);
+        jsonGenerator.writeString(buffer, 0, 36);
+    }
+
+    private static void appendHexDigits(char[] buffer, int offset, long value, int digitCount) {
+        for (int digitIndex = digitCount - 1; digitIndex >= 0; digitIndex--) {
+            buffer[offset + digitIndex] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    private static void writeInstant(JsonGenerator jsonGenerator, Instant value) throws IOException {
+
+        // Convert the epoch day to a date. (See "chrono-Compatible Low-Level
+        // Date Algorithms" by Howard Hinnant.)
+        long epochSecond = value.getEpochSecond();
+        long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(epochSecond, SECONDS_PER_DAY);
+        long shiftedEpochDay = epochDay + 719_468;
+        long era = Math.floorDiv(shiftedEpochDay, 146_097);
+        long dayOfEra = shiftedEpochDay - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        // Fallback to toString() for years requiring a sign.
+        if (year < 0 || year > 9999) {
+            jsonGenerator.writeString(value.toString());
+            return;
+        }
+
+        // Write the date and time.
+        char[] buffer = getWriterContext(jsonGenerator).buffer;
+        int position = appendDate(buffer, 0, (int) year, month, day);
+        buffer[position++] = 'T';
+        position = appendTwoDigits(buffer, position, secondOfDay / 3_600);
+        buffer[position++] = ':';
+        position = appendTwoDigits(buffer, position, (secondOfDay / 60) % 60);
+        buffer[position++] = ':';
+        position = appendTwoDigits(buffer, position, secondOfDay % 60);
+        position = appendNanos(buffer, position, value.getNano());
+        buffer[position++] = 'Z';
+        jsonGenerator.writeString(buffer, 0, position);
+
+    }
+
+    private static void writeLocalDate(JsonGenerator jsonGenerator, LocalDate value) throws IOException {
+        int year = value.getYear();
+        if (year < 0 || year > 9999) {
+            jsonGenerator.writeString(value.toString());
+        } else {
+            char[] buffer = getWriterContext(jsonGenerator).buffer;
+            int length = appendDate(buffer, 0, year, value.getMonthValue(), value.getDayOfMonth());
+            jsonGenerator.writeString(buffer, 0, length);
+        }
+    }
+
+    private static void writeLocalTime(JsonGenerator jsonGenerator, LocalTime value) throws IOException {
+        char[] buffer = getWriterContext(jsonGenerator).buffer;
+        int length = appendTime(buffer, 0, value);
+        jsonGenerator.writeString(buffer, 0, length);
+    }
+
+    private static void writeLocalDateTime(JsonGenerator jsonGenerator, LocalDateTime value) throws IOException {
+        int year = value.getYear();
+        if (year < 0 || year > 9999) {
+            jsonGenerator.writeString(value.toString());
+        } else {
+            char[] buffer = getWriterContext(jsonGenerator).buffer;
+            int length = appendDateTime(buffer, 0, value);
+            jsonGenerator.writeString(buffer, 0, length);
+        }
+    }
+
+    private static void writeOffsetDateTime(JsonGenerator jsonGenerator, OffsetDateTime value) throws IOException {
+        int year = value.getYear();
+        if (year < 0 || year > 9999) {
+            jsonGenerator.writeString(value.toString());
+        } else {
+            char[] buffer = getWriterContext(jsonGenerator).buffer;
+            int position = appendDateTime(buffer, 0, value.toLocalDateTime());
+            String offsetId = value.getOffset().getId();
+            offsetId.getChars(0, offsetId.length(), buffer, position);
+            jsonGenerator.writeString(buffer, 0, position + offsetId.length());
+        }
+    }
+
+    private static int appendDateTime(char[] buffer, int position, LocalDateTime value) {
+        position = appendDate(buffer, position, value.getYear(), value.getMonthValue(), value.getDayOfMonth());
+        buffer[position++] = 'T';
+        return appendTime(buffer, position, value.toLocalTime());
+    }
+
+    private static int appendDate(char[] buffer, int position, int year, int month, int day) {
+        position = appendTwoDigits(buffer, position, year / 100);
+        position = appendTwoDigits(buffer, position, year % 100);
+        buffer[position++] = '-';
+        position = appendTwoDigits(buffer, position, month);
+        buffer[position++] = '-';
+        return appendTwoDigits(buffer, position, day);
+    }
+
+    /**
+     * Appends the time the same way {@link LocalTime#toString()} does, that
+     * is, omitting zero seconds and nanoseconds.
+     */
+    private static int appendTime(char[] buffer, int position, LocalTime value) {
+        position = appendTwoDigits(buffer, position, value.getHour());
+        buffer[position++] = ':';
+        position = appendTwoDigits(buffer, position, value.getMinute());
+        int second = value.getSecond();
+        int nano = value.getNano();
+        if (second > 0 || nano > 0) {
+            buffer[position++] = ':';
+            position = appendTwoDigits(buffer, position, second);
+            position = appendNanos(buffer, position, nano);
+        }
+        return position;
+    }
+
+    /**
+     * Appends the fraction of second in groups of 3 digits, if non-zero.
+     */
+    private static int appendNanos(char[] buffer, int position, int nano) {
+        if (nano == 0) {
+            return position;
+        }
+        buffer[position++] = '.';
+        int digitCount;
+        if (nano % 1_000_000 == 0) {
+            nano /= 1_000_000;
+            digitCount = 3;
+        } else if (nano % 1_000 == 0) {
+            nano /= 1_000;
+            digitCount = 6;
+        } else {
+            digitCount = 9;
+        }
+        for (int digitIndex = digitCount - 1; digitIndex >= 0; digitIndex--) {
+            buffer[position + digitIndex] = (char) ('0' + nano % 10);
+            nano /= 10;
+        }
+        return position + digitCount;
+    }
+
+    private static int appendTwoDigits(char[] buffer, int position, int value) {
+        buffer[position++] = (char) ('0' + value / 10);
+        buffer[position++] = (char) ('0' + value % 10);
+        return position;
+    }
+
+    private static void writeBooleanArray(JsonGenerator jsonGenerator, boolean[] array) throws IOException {
+        jsonGenerator.writeStartArray();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int itemIndex = 0; itemIndex < array.length; itemIndex++) {
+            jsonGenerator.writeBoolean(array[itemIndex]);
+        }
+        jsonGenerator.writeEndArray();
+    }
+
+    private static void writeShortArray(JsonGenerator jsonGenerator, short[] array) throws IOException {
+        jsonGenerator.writeStartArray();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int itemIndex = 0; itemIndex < array.length; itemIndex++) {
+            jsonGenerator.writeNumber(array[itemIndex]);
+        }
+        jsonGenerator.writeEndArray();
+    }
+
+    private static void writeFloatArray(JsonGenerator jsonGenerator, float[] array) throws IOException {
+        jsonGenerator.writeStartArray();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int itemIndex = 0; itemIndex < array.length; itemIndex++) {
+            writeFloat(jsonGenerator, array[itemIndex]);
+        }
+        jsonGenerator.writeEndArray();
+    }
+
+    private static void writeDoubleArray(JsonGenerator jsonGenerator, double[] array) throws IOException {
+        jsonGenerator.writeStartArray();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int itemIndex = 0; itemIndex < array.length; itemIndex++) {
+            writeDouble(jsonGenerator, array[itemIndex]);
+        }
+        jsonGenerator.writeEndArray();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private final Map<Class<?>, JsonValueWriter<?>> writerByClass = new LinkedHashMap<>();
+
+        private Builder() {
+            // Do nothing.
+        }
+
+        /**
+         * Registers a writer for the given class and its subclasses. Writers
+         * of exact class matches have precedence, otherwise the first
+         * registered writer of a super type is used.
+         */
+        public <V> Builder register(Class<V> clazz, JsonValueWriter<? super V> writer) {
+            Validate.notNull(clazz, "clazz");
+            Validate.notNull(writer, "writer");
+            writerByClass.put(clazz, writer);
+            return this;
+        }
+
+        public JsonValueWriters build() {
+            return new JsonValueWriters(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+
+import java.io.IOException;
+
+/**
+ * Field name of an object, or the slot of an array item, that is written
+ * only right before the first token of a non-empty value, while excluding
+ * empty properties.
+ * <p>
+ * Enclosing containers that have not been started yet, since none of their
+ * members has been written so far, are referred to as the parent, and get
+ * started first, along with their own field names.
+ * <p>
+ * Instances are immutable, hence can be created once per template node and
+ * depth of pending parents, and shared across threads.
+ */
+public final class LazyFieldName {
+
+    /**
+     * Slot of an item of an already started array.
+     */
+    public static final LazyFieldName ITEM = new LazyFieldName(null, null);
+
+    private final LazyFieldName parent;
+
+    private final SerializableString name;
+
+    private final int pendingDepth;
+
+    /**
+     * @param parent field name of the enclosing container, if it is yet to
+     *               be started, otherwise {@code null}
+     * @param name field name in an object, or {@code null} for array items
+     */
+    public LazyFieldName(LazyFieldName parent, SerializableString name) {
+        this.parent = parent;
+        this.name = name;
+        this.pendingDepth = parent != null ? parent.pendingDepth + 1 : 0;
+    }
+
+    /**
+     * @return the number of enclosing containers yet to be started
+     */
+    public int getPendingDepth() {
+        return pendingDepth;
+    }
+
+    /**
+     * Starts the pending enclosing containers, if any, and writes the field
+     * name, if this is not an array item.
+     */
+    public void write(JsonGenerator jsonGenerator) throws IOException {
+        if (parent != null) {
+            parent.write(jsonGenerator);
+            if (name != null) {
+                jsonGenerator.writeStartObject();
+            } else {
+                jsonGenerator.writeStartArray();
+            }
+        }
+        if (name != null) {
+            jsonGenerator.writeFieldName(name);
+        }
+    }
+
+    /**
+     * Writes the field name followed by the given text, unless the text is
+     * either {@code null} or empty.
+     *
+     * @return {@code true}, if the text is written
+     */
+    public boolean writeString(JsonGenerator jsonGenerator, String text) throws IOException {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        write(jsonGenerator);
+        jsonGenerator.writeString(text);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        String string = name != null ? name.getValue() : "[]";
+        return parent != null ? parent + "/" + string : string;
+    }
+
+}
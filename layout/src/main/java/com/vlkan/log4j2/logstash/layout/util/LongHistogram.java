@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative {@code long} values, e.g., durations
+ * in nanoseconds.
+ * <p>
+ * In the spirit of HdrHistogram, values are counted in log-linear buckets:
+ * values below {@value #SUB_BUCKET_COUNT} get a bucket each, and every
+ * higher power of two range is split into {@value #SUB_BUCKET_COUNT} equal
+ * buckets. Hence recording costs a single atomic increment, and reported
+ * values are off by less than 1/{@value #SUB_BUCKET_COUNT} of the recorded
+ * ones, covering the entire {@code long} range in a fixed number of
+ * buckets. Reads are not atomic with respect to concurrent recordings.
+ */
+public final class LongHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = getBucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * @param value the recorded value, where negative ones are counted as zero
+     */
+    public void record(long value) {
+        int bucketIndex = getBucketIndex(Math.max(0L, value));
+        counts.incrementAndGet(bucketIndex);
+    }
+
+    // Visible for tests.
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucketIndex = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucketIndex;
+    }
+
+    /**
+     * @return the highest value counted in the bucket of the given index
+     */
+    // Visible for tests.
+    static long getBucketMaxValue(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+        int subBucketIndex = bucketIndex % SUB_BUCKET_COUNT;
+        long minValue = (long) (SUB_BUCKET_COUNT + subBucketIndex) << shift;
+        return minValue + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            count += counts.get(bucketIndex);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile a percentile in {@code [0, 100]}
+     * @return the highest value equivalent to the one at the given
+     * percentile, or zero, if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        Validate.inclusiveBetween(0D, 100D, percentile, "percentile requires a value in [0, 100]");
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            long bucketCount = counts.get(bucketIndex);
+            bucketCounts[bucketIndex] = bucketCount;
+            count += bucketCount;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100D * count));
+        long cumulativeCount = 0;
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            cumulativeCount += bucketCounts[bucketIndex];
+            if (cumulativeCount >= rank) {
+                return getBucketMaxValue(bucketIndex);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the highest value equivalent to the maximum recorded one, or
+     * zero, if nothing is recorded
+     */
+    public long getMaxValue() {
+        for (int bucketIndex = BUCKET_COUNT - 1; bucketIndex >= 0; bucketIndex--) {
+            if (counts.get(bucketIndex) > 0) {
+                return getBucketMaxValue(bucketIndex);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Discards the recorded values. Values recorded concurrently might get
+     * discarded too.
+     */
+    public void reset() {
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            counts.set(bucketIndex, 0);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.logging.log4j.core.util.Integers;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable set of strings supporting exact and prefix lookups.
+ * <p>
+ * Strings are placed in an open-addressing table whose size and hash
+ * multiplier are searched at construction such that no two strings collide,
+ * hence a lookup costs a single hash computation and a comparison. If no
+ * such configuration is found (e.g., for strings sharing the same hash
+ * code), lookups fall back to linear probing.
+ */
+public final class PerfectHashStringSet {
+
+    private static final int MAX_SEARCH_SIZE_FACTOR = 8;
+
+    private static final int MAX_SEARCH_MULTIPLIER_COUNT = 64;
+
+    private static final int INITIAL_MULTIPLIER = 0x9E3779B9;
+
+    private final String[] slots;
+
+    private final int shift;
+
+    private final int multiplier;
+
+    /**
+     * Distinct lengths of the strings in ascending order, used to probe the
+     * prefixes of a string.
+     */
+    private final int[] lengths;
+
+    public PerfectHashStringSet(String[] strings) {
+        Validate.noNullElements(strings, "strings cannot contain nulls");
+        Set<String> distinctStrings = new LinkedHashSet<>(Arrays.asList(strings));
+        int minSize = Integers.ceilingNextPowerOfTwo(Math.max(2, 2 * distinctStrings.size()));
+        String[] slots = null;
+        int shift = 0;
+        int multiplier = INITIAL_MULTIPLIER;
+        search:
+        for (int size = minSize; size <= MAX_SEARCH_SIZE_FACTOR * minSize; size <<= 1) {
+            shift = Integer.SIZE - Integer.numberOfTrailingZeros(size);
+            for (int multiplierIndex = 0; multiplierIndex < MAX_SEARCH_MULTIPLIER_COUNT; multiplierIndex++) {
+                // Multipliers are kept odd, hence bijective.
+                multiplier = INITIAL_MULTIPLIER + 2 * multiplierIndex;
+                slots = place(distinctStrings, size, shift, multiplier, false);
+                if (slots != null) {
+                    break search;
+                }
+            }
+        }
+        if (slots == null) {
+            shift = Integer.SIZE - Integer.numberOfTrailingZeros(minSize);
+            multiplier = INITIAL_MULTIPLIER;
+            slots = place(distinctStrings, minSize, shift, multiplier, true);
+        }
+        this.slots = slots;
+        this.shift = shift;
+        this.multiplier = multiplier;
+        this.lengths = distinctStrings.stream().mapToInt(String::length).distinct().sorted().toArray();
+    }
+
+    private static String[] place(
+            Set<String> strings,
+            int size,
+            int shift,
+            int multiplier,
+            boolean probingEnabled) {
+        String[] slots = new String[size];
+        int mask = size - 1;
+        for (String string : strings) {
+            int slotIndex = (string.hashCode() * multiplier) >>> shift;
+            while (slots[slotIndex] != null) {
+                if (!probingEnabled) {
+                    return null;
+                }
+                slotIndex = (slotIndex + 1) & mask;
+            }
+            slots[slotIndex] = string;
+        }
+        return slots;
+    }
+
+    public boolean contains(String string) {
+        return contains(string, string.length(), string.hashCode());
+    }
+
+    /**
+     * @return {@code true}, if any of the strings is a prefix of the given one
+     */
+    public boolean containsPrefixOf(String string) {
+        int length = string.length();
+        int lengthIndex = 0;
+        int hash = 0;
+        int hashedLength = 0;
+        while (lengthIndex < lengths.length) {
+            int prefixLength = lengths[lengthIndex++];
+            if (prefixLength > length) {
+                break;
+            }
+            // Extend the hash incrementally, the same way String#hashCode() does.
+            for (; hashedLength < prefixLength; hashedLength++) {
+                hash = 31 * hash + string.charAt(hashedLength);
+            }
+            if (contains(string, prefixLength, hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean contains(String string, int length, int hash) {
+        int mask = slots.length - 1;
+        int slotIndex = (hash * multiplier) >>> shift;
+        String slot;
+        while ((slot = slots[slotIndex]) != null) {
+            if (slot.length() == length && string.regionMatches(0, slot, 0, length)) {
+                return true;
+            }
+            slotIndex = (slotIndex + 1) & mask;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.SerializableString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An already serialized JSON value in UTF-8, to be spliced into the output
+ * via {@link com.fasterxml.jackson.core.JsonGenerator#writeRawValue(SerializableString)}.
+ * <p>
+ * Only the unquoted accessors are supported, since the value is already in
+ * its JSON-encoded form.
+ */
+public final class RawJsonValue implements SerializableString {
+
+    private final byte[] bytes;
+
+    private volatile String value;
+
+    public RawJsonValue(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public String getValue() {
+        String value = this.value;
+        if (value == null) {
+            value = this.value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    @Override
+    public int charLength() {
+        return getValue().length();
+    }
+
+    @Override
+    public byte[] asUnquotedUTF8() {
+        return bytes;
+    }
+
+    @Override
+    public int appendUnquotedUTF8(byte[] buffer, int offset) {
+        if (offset + bytes.length > buffer.length) {
+            return -1;
+        }
+        System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+        return bytes.length;
+    }
+
+    @Override
+    public int appendUnquoted(char[] buffer, int offset) {
+        String value = getValue();
+        int length = value.length();
+        if (offset + length > buffer.length) {
+            return -1;
+        }
+        value.getChars(0, length, buffer, offset);
+        return length;
+    }
+
+    @Override
+    public int writeUnquotedUTF8(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes);
+        return bytes.length;
+    }
+
+    @Override
+    public int putUnquotedUTF8(ByteBuffer buffer) {
+        if (bytes.length > buffer.remaining()) {
+            return -1;
+        }
+        buffer.put(bytes);
+        return bytes.length;
+    }
+
+    @Override
+    public char[] asQuotedChars() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] asQuotedUTF8() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int appendQuotedUTF8(byte[] buffer, int offset) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int appendQuoted(char[] buffer, int offset) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int writeQuotedUTF8(OutputStream outputStream) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int putQuotedUTF8(ByteBuffer buffer) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString() {
+        return getValue();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.logging.log4j.core.util.Constants;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Auxiliary objects (e.g., buffers) reused by the resolvers across events.
+ * <p>
+ * Resolvers only get to see the {@link JsonGenerator}, hence scratch spaces
+ * are carried by the {@link ByteBufferOutputStream} of the serialization
+ * context, which is the output target of the generator. That is, scratch
+ * objects share the life cycle of the serialization context, whether it is
+ * bound to a thread local or pooled.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class ScratchSpace {
+
+    /**
+     * Scratch spaces of generators not writing into a {@link
+     * ByteBufferOutputStream}, e.g., the ones created by third parties.
+     */
+    private static final ThreadLocal<ScratchSpace> FALLBACK_SCRATCH_SPACE_REF =
+            Constants.ENABLE_THREADLOCALS
+                    ? ThreadLocal.withInitial(ScratchSpace::new)
+                    : null;
+
+    private Supplier<?>[] suppliers = new Supplier<?>[4];
+
+    private Object[] objects = new Object[4];
+
+    private int objectCount = 0;
+
+    public static ScratchSpace of(JsonGenerator jsonGenerator) {
+        Object outputTarget = jsonGenerator.getOutputTarget();
+        if (outputTarget instanceof ByteBufferOutputStream) {
+            return ((ByteBufferOutputStream) outputTarget).getScratchSpace();
+        }
+        return FALLBACK_SCRATCH_SPACE_REF != null
+                ? FALLBACK_SCRATCH_SPACE_REF.get()
+                : new ScratchSpace();
+    }
+
+    /**
+     * Gets the object created by the given supplier, which is invoked only on
+     * first access. That is, objects are keyed by the identity of their
+     * suppliers, which are expected to be long-lived, e.g., constants or
+     * resolver fields.
+     */
+    public <T> T get(Supplier<T> supplier) {
+        // Linear search, since there are only a few suppliers per template.
+        for (int objectIndex = 0; objectIndex < objectCount; objectIndex++) {
+            if (suppliers[objectIndex] == supplier) {
+                @SuppressWarnings("unchecked")
+                T object = (T) objects[objectIndex];
+                return object;
+            }
+        }
+        T object = supplier.get();
+        if (objectCount == suppliers.length) {
+            suppliers = Arrays.copyOf(suppliers, 2 * objectCount);
+            objects = Arrays.copyOf(objects, 2 * objectCount);
+        }
+        suppliers[objectCount] = supplier;
+        objects[objectCount++] = object;
+        return object;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Selects the stack trace frames to be rendered by their class name prefixes,
+ * up to a maximum number of frames per throwable.
+ */
+public final class StackTraceFrameFilter {
+
+    public static final StackTraceFrameFilter ACCEPT_ALL =
+            new StackTraceFrameFilter(Integer.MAX_VALUE, new String[0], new String[0]);
+
+    private final int maxFrameCount;
+
+    private final String[] includedPrefixes;
+
+    private final String[] excludedPrefixes;
+
+    /**
+     * @param maxFrameCount maximum number of frames rendered per throwable
+     * @param includedPrefixes class name prefixes of the frames to be
+     *                         rendered, all frames are candidates if empty
+     * @param excludedPrefixes class name prefixes of the frames to be omitted
+     */
+    public StackTraceFrameFilter(int maxFrameCount, String[] includedPrefixes, String[] excludedPrefixes) {
+        Validate.isTrue(maxFrameCount > 0, "maxFrameCount requires a positive integer");
+        Validate.noNullElements(includedPrefixes, "includedPrefixes cannot contain nulls");
+        Validate.noNullElements(excludedPrefixes, "excludedPrefixes cannot contain nulls");
+        this.maxFrameCount = maxFrameCount;
+        this.includedPrefixes = includedPrefixes.clone();
+        this.excludedPrefixes = excludedPrefixes.clone();
+    }
+
+    public int getMaxFrameCount() {
+        return maxFrameCount;
+    }
+
+    public boolean isIncluded(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return (includedPrefixes.length == 0 || startsWithAny(className, includedPrefixes)) &&
+                !startsWithAny(className, excludedPrefixes);
+    }
+
+    private static boolean startsWithAny(String className, String[] prefixes) {
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int prefixIndex = 0; prefixIndex < prefixes.length; prefixIndex++) {
+            if (className.startsWith(prefixes[prefixIndex])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Renders stack traces in the format of {@link Throwable#printStackTrace()}
+ * without the intermediate allocations of the JDK implementation, that is,
+ * the identity set used for circular reference detection and the string
+ * concatenations per frame.
+ * <p>
+ * Since {@link Throwable#getStackTrace()} is the only public access to the
+ * frames, each rendered throwable still costs a clone of its {@link
+ * StackTraceElement} array. Throwables overriding {@link Object#toString()}
+ * are rendered via their own implementation.
+ * <p>
+ * On Java 9 and later, frames are prefixed with their class loader and
+ * module, which {@link StackTraceElement#toString()} renders depending on
+ * internal flags, e.g., it omits built-in class loaders and versions of JDK
+ * modules. Hence the prefix is obtained from {@link
+ * StackTraceElement#toString()} once per class loader and module, and cached
+ * afterwards.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class StackTraceTextRenderer {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final String CAUSE_CAPTION = "Caused by: ";
+
+    private static final String SUPPRESSED_CAPTION = "Suppressed: ";
+
+    /**
+     * Java 9 and later prefix frames with class loader and module names,
+     * whose getters are not accessible from Java 8 sources, hence are
+     * looked up via method handles.
+     */
+    private static final boolean LEGACY_FORMAT =
+            "1.8".equals(System.getProperty("java.specification.version"));
+
+    private static final MethodHandle CLASS_LOADER_NAME_GETTER = findFrameGetter("getClassLoaderName");
+
+    private static final MethodHandle MODULE_NAME_GETTER = findFrameGetter("getModuleName");
+
+    private static final MethodHandle MODULE_VERSION_GETTER = findFrameGetter("getModuleVersion");
+
+    private static final boolean FRAME_GETTERS_FOUND =
+            CLASS_LOADER_NAME_GETTER != null &&
+                    MODULE_NAME_GETTER != null &&
+                    MODULE_VERSION_GETTER != null;
+
+    /**
+     * Maximum number of distinct class loader and module combinations whose
+     * frame prefixes are cached, beyond which frames are rendered via {@link
+     * StackTraceElement#toString()}.
+     */
+    private static final int MAX_FRAME_PREFIX_COUNT = 64;
+
+    private static MethodHandle findFrameGetter(String methodName) {
+        if (LEGACY_FORMAT) {
+            return null;
+        }
+        try {
+            MethodType methodType = MethodType.methodType(String.class);
+            return MethodHandles.publicLookup().findVirtual(StackTraceElement.class, methodName, methodType);
+        } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Older Java 8 updates render circular references without the caption and
+     * the indentation, hence the format is probed at class initialization.
+     */
+    private static final boolean LEGACY_CIRCULAR_REFERENCE_FORMAT = probeLegacyCircularReferenceFormat();
+
+    private static boolean probeLegacyCircularReferenceFormat() {
+        Throwable cause = new Throwable();
+        Throwable throwable = new Throwable(cause);
+        cause.initCause(throwable);
+        StringWriter writer = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(writer));
+        return writer.toString().contains("\t[CIRCULAR REFERENCE:" + throwable + ']');
+    }
+
+    private static final ClassValue<Boolean> TO_STRING_OVERRIDDEN = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> clazz) {
+            try {
+                return clazz.getMethod("toString").getDeclaringClass() != Throwable.class;
+            } catch (NoSuchMethodException ignored) {
+                return true;
+            }
+        }
+    };
+
+    private final StackTraceFrameFilter frameFilter;
+
+    private final int maxCauseCount;
+
+    private final int maxLength;
+
+    private final char[] digits = new char[10];
+
+    private final FramePrefix[] framePrefixes = new FramePrefix[MAX_FRAME_PREFIX_COUNT];
+
+    private int framePrefixCount = 0;
+
+    private Throwable[] visitedThrowables = new Throwable[8];
+
+    private int visitedThrowableCount = 0;
+
+    private Writer writer;
+
+    private int remainingLength;
+
+    public StackTraceTextRenderer() {
+        this(StackTraceFrameFilter.ACCEPT_ALL, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param frameFilter filter selecting the frames to be rendered, omitted
+     *                    frames are folded into {@code ... N frames omitted}
+     *                    lines
+     * @param maxCauseCount maximum number of causes rendered per causal chain,
+     *                      omitted causes are folded into a {@code ... N causes
+     *                      omitted} line
+     * @param maxLength maximum number of characters to be rendered, rendering
+     *                  stops once it is reached
+     */
+    public StackTraceTextRenderer(StackTraceFrameFilter frameFilter, int maxCauseCount, int maxLength) {
+        Validate.notNull(frameFilter, "frameFilter");
+        Validate.isTrue(maxCauseCount >= 0, "maxCauseCount requires a non-negative integer");
+        Validate.isTrue(maxLength > 0, "maxLength requires a positive integer");
+        this.frameFilter = frameFilter;
+        this.maxCauseCount = maxCauseCount;
+        this.maxLength = maxLength;
+    }
+
+    public void render(Throwable throwable, Writer writer) throws IOException {
+        this.writer = writer;
+        this.remainingLength = maxLength;
+        try {
+            render(throwable, null, "", 0, 0);
+        } finally {
+            Arrays.fill(visitedThrowables, 0, visitedThrowableCount, null);
+            visitedThrowableCount = 0;
+            this.writer = null;
+        }
+    }
+
+    private void render(
+            Throwable throwable,
+            StackTraceElement[] enclosingTrace,
+            String caption,
+            int depth,
+            int causeIndex)
+            throws IOException {
+
+        // Short-circuit circular references.
+        if (!visit(throwable)) {
+            if (LEGACY_CIRCULAR_REFERENCE_FORMAT) {
+                write("\t[CIRCULAR REFERENCE:");
+            } else {
+                writeTabs(depth);
+                write(caption);
+                write("[CIRCULAR REFERENCE: ");
+            }
+            writeThrowable(throwable);
+            write(']');
+            write(LINE_SEPARATOR);
+            return;
+        }
+
+        // Determine the frames in common with the enclosing trace.
+        StackTraceElement[] trace = throwable.getStackTrace();
+        int lastUncommonIndex = trace.length - 1;
+        if (enclosingTrace != null) {
+            int enclosingIndex = enclosingTrace.length - 1;
+            while (lastUncommonIndex >= 0 && enclosingIndex >= 0 &&
+                    trace[lastUncommonIndex].equals(enclosingTrace[enclosingIndex])) {
+                lastUncommonIndex--;
+                enclosingIndex--;
+            }
+        }
+        int commonFrameCount = trace.length - 1 - lastUncommonIndex;
+
+        // Write the throwable and its frames.
+        writeTabs(depth);
+        write(caption);
+        writeThrowable(throwable);
+        write(LINE_SEPARATOR);
+        writeFrames(trace, lastUncommonIndex, depth);
+        if (commonFrameCount != 0) {
+            writeTabs(depth);
+            write("\t... ");
+            writeNonNegativeInt(commonFrameCount);
+            write(" more");
+            write(LINE_SEPARATOR);
+        }
+
+        // Write the suppressed throwables.
+        for (Throwable suppressedThrowable : throwable.getSuppressed()) {
+            if (remainingLength == 0) {
+                return;
+            }
+            render(suppressedThrowable, trace, SUPPRESSED_CAPTION, depth + 1, 0);
+        }
+
+        // Write the causing throwables.
+        Throwable cause = throwable.getCause();
+        if (cause != null && remainingLength != 0) {
+            if (causeIndex < maxCauseCount) {
+                render(cause, trace, CAUSE_CAPTION, depth, causeIndex + 1);
+            } else {
+                writeTabs(depth);
+                write("\t... ");
+                writeNonNegativeInt(countCauses(cause));
+                write(" causes omitted");
+                write(LINE_SEPARATOR);
+            }
+        }
+
+    }
+
+    private void writeFrames(StackTraceElement[] trace, int lastFrameIndex, int depth) throws IOException {
+        int writtenFrameCount = 0;
+        int omittedFrameCount = 0;
+        for (int frameIndex = 0; frameIndex <= lastFrameIndex && remainingLength != 0; frameIndex++) {
+            StackTraceElement frame = trace[frameIndex];
+            if (writtenFrameCount < frameFilter.getMaxFrameCount() && frameFilter.isIncluded(frame)) {
+                if (omittedFrameCount != 0) {
+                    writeOmittedFrameCount(omittedFrameCount, depth);
+                    omittedFrameCount = 0;
+                }
+                writeTabs(depth);
+                write("\tat ");
+                writeFrame(frame);
+                write(LINE_SEPARATOR);
+                writtenFrameCount++;
+            } else {
+                omittedFrameCount++;
+            }
+        }
+        if (omittedFrameCount != 0) {
+            writeOmittedFrameCount(omittedFrameCount, depth);
+        }
+    }
+
+    private void writeOmittedFrameCount(int omittedFrameCount, int depth) throws IOException {
+        writeTabs(depth);
+        write("\t... ");
+        writeNonNegativeInt(omittedFrameCount);
+        write(" frames omitted");
+        write(LINE_SEPARATOR);
+    }
+
+    /**
+     * @return the number of causes in the causal chain starting with the
+     * given one, up to an already visited one or a loop
+     */
+    private int countCauses(Throwable cause) {
+        // Walk a slow pointer along, as in Throwables#getRootCause(), to
+        // detect loops among the causes that are not visited yet.
+        Throwable slowPointer = cause;
+        boolean advanceSlowPointer = false;
+        int causeCount = 0;
+        for (Throwable lastCause = cause; lastCause != null && !isVisited(lastCause); lastCause = lastCause.getCause()) {
+            causeCount++;
+            if (advanceSlowPointer) {
+                slowPointer = slowPointer.getCause();
+                if (slowPointer == lastCause.getCause()) {
+                    break;
+                }
+            }
+            advanceSlowPointer = !advanceSlowPointer;
+        }
+        return causeCount;
+    }
+
+    private boolean isVisited(Throwable throwable) {
+        for (int throwableIndex = 0; throwableIndex < visitedThrowableCount; throwableIndex++) {
+            if (visitedThrowables[throwableIndex] == throwable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code false}, if the throwable is already visited
+     */
+    private boolean visit(Throwable throwable) {
+        if (isVisited(throwable)) {
+            return false;
+        }
+        if (visitedThrowableCount == visitedThrowables.length) {
+            visitedThrowables = Arrays.copyOf(visitedThrowables, 2 * visitedThrowableCount);
+        }
+        visitedThrowables[visitedThrowableCount++] = throwable;
+        return true;
+    }
+
+    private void writeTabs(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            write('\t');
+        }
+    }
+
+    private void writeThrowable(Throwable throwable) throws IOException {
+        if (TO_STRING_OVERRIDDEN.get(throwable.getClass())) {
+            write(String.valueOf(throwable));
+        } else {
+            write(throwable.getClass().getName());
+            String message = throwable.getLocalizedMessage();
+            if (message != null) {
+                write(": ");
+                write(message);
+            }
+        }
+    }
+
+    private void writeFrame(StackTraceElement frame) throws IOException {
+        if (!LEGACY_FORMAT) {
+            String framePrefix = findFramePrefix(frame);
+            if (framePrefix == null) {
+                write(frame.toString());
+                return;
+            }
+            write(framePrefix);
+        }
+        write(frame.getClassName());
+        write('.');
+        write(frame.getMethodName());
+        String fileName = frame.getFileName();
+        int lineNumber = frame.getLineNumber();
+        if (frame.isNativeMethod()) {
+            write("(Native Method)");
+        } else if (fileName == null) {
+            write("(Unknown Source)");
+        } else {
+            write('(');
+            write(fileName);
+            if (lineNumber >= 0) {
+                write(':');
+                writeNonNegativeInt(lineNumber);
+            }
+            write(')');
+        }
+    }
+
+    /**
+     * @return the class loader and module prefix of the given frame, or
+     * {@code null}, if it cannot be determined
+     */
+    private String findFramePrefix(StackTraceElement frame) {
+
+        // Read the class loader and module of the frame.
+        if (!FRAME_GETTERS_FOUND) {
+            return null;
+        }
+        String classLoaderName;
+        String moduleName;
+        String moduleVersion;
+        try {
+            classLoaderName = (String) CLASS_LOADER_NAME_GETTER.invokeExact(frame);
+            moduleName = (String) MODULE_NAME_GETTER.invokeExact(frame);
+            moduleVersion = (String) MODULE_VERSION_GETTER.invokeExact(frame);
+        } catch (Throwable error) {
+            throw new RuntimeException("failed reading the stack trace element", error);
+        }
+
+        // Check the cache.
+        for (int prefixIndex = 0; prefixIndex < framePrefixCount; prefixIndex++) {
+            FramePrefix framePrefix = framePrefixes[prefixIndex];
+            if (Objects.equals(framePrefix.classLoaderName, classLoaderName) &&
+                    Objects.equals(framePrefix.moduleName, moduleName) &&
+                    Objects.equals(framePrefix.moduleVersion, moduleVersion)) {
+                return framePrefix.prefix;
+            }
+        }
+
+        // Extract the prefix from the text of the frame, which is followed
+        // by the class and method names, and cache it.
+        String prefix;
+        if (classLoaderName == null && moduleName == null) {
+            prefix = "";
+        } else {
+            String frameText = frame.toString();
+            int prefixLength = frameText.indexOf(frame.getClassName() + '.' + frame.getMethodName() + '(');
+            if (prefixLength < 0) {
+                return null;
+            }
+            prefix = frameText.substring(0, prefixLength);
+        }
+        if (framePrefixCount < MAX_FRAME_PREFIX_COUNT) {
+            framePrefixes[framePrefixCount++] =
+                    new FramePrefix(classLoaderName, moduleName, moduleVersion, prefix);
+        }
+        return prefix;
+
+    }
+
+    private static final class FramePrefix {
+
+        private final String classLoaderName;
+
+        private final String moduleName;
+
+        private final String moduleVersion;
+
+        private final String prefix;
+
+        private FramePrefix(String classLoaderName, String moduleName, String moduleVersion, String prefix) {
+            this.classLoaderName = classLoaderName;
+            this.moduleName = moduleName;
+            this.moduleVersion = moduleVersion;
+            this.prefix = prefix;
+        }
+
+    }
+
+    private void writeNonNegativeInt(int value) throws IOException {
+        int startIndex = digits.length;
+        do {
+            digits[--startIndex] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        int length = Math.min(digits.length - startIndex, remainingLength);
+        writer.write(digits, startIndex, length);
+        remainingLength -= length;
+    }
+
+    private void write(String text) throws IOException {
+        int length = Math.min(text.length(), remainingLength);
+        writer.write(text, 0, length);
+        remainingLength -= length;
+    }
+
+    private void write(char c) throws IOException {
+        if (remainingLength != 0) {
+            writer.write(c);
+            remainingLength--;
+        }
+    }
+
+}
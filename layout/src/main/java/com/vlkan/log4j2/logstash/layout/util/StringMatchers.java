@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.logging.log4j.core.util.Integers;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Factories of thread-safe string predicates filtering, e.g., MDC keys and
+ * NDC items.
+ */
+public enum StringMatchers {;
+
+    /**
+     * @param cacheSize number of cached match results, caching is disabled
+     *                  if zero
+     */
+    public static Predicate<String> ofPattern(String regex, int cacheSize) {
+        Validate.isTrue(cacheSize >= 0, "cacheSize requires a positive integer");
+        Pattern pattern = Pattern.compile(regex);
+        return cacheSize > 0
+                ? new CachingPatternMatcher(pattern, cacheSize)
+                : string -> pattern.matcher(string).matches();
+    }
+
+    public static Predicate<String> ofValues(String[] values) {
+        PerfectHashStringSet valueSet = new PerfectHashStringSet(values);
+        return valueSet::contains;
+    }
+
+    public static Predicate<String> ofPrefixes(String[] prefixes) {
+        PerfectHashStringSet prefixSet = new PerfectHashStringSet(prefixes);
+        return prefixSet::containsPrefixOf;
+    }
+
+    /**
+     * Caches match results in a direct-mapped table, that is, a result
+     * evicts the one occupying its slot. Hence, the cache stays bounded for
+     * high-cardinality inputs, e.g., NDC items containing identifiers, while
+     * recurring ones still hit the cache unless they collide with each other.
+     */
+    private static final class CachingPatternMatcher implements Predicate<String> {
+
+        private final Pattern pattern;
+
+        private final int slotMask;
+
+        private final AtomicReferenceArray<MatchResult> results;
+
+        private CachingPatternMatcher(Pattern pattern, int cacheSize) {
+            int slotCount = Integers.ceilingNextPowerOfTwo(cacheSize);
+            this.pattern = pattern;
+            this.slotMask = slotCount - 1;
+            this.results = new AtomicReferenceArray<>(slotCount);
+        }
+
+        @Override
+        public boolean test(String string) {
+            int hash = string.hashCode();
+            // Spread the higher bits, since only the lower ones index the slots.
+            int slotIndex = (hash ^ (hash >>> 16)) & slotMask;
+            MatchResult result = results.get(slotIndex);
+            // noinspection StringEquality (check identity first)
+            if (result != null && (result.string == string || result.string.equals(string))) {
+                return result.matching;
+            }
+            boolean matching = pattern.matcher(string).matches();
+            // Results are immutable, hence racing writers can overwrite each other.
+            results.set(slotIndex, new MatchResult(string, matching));
+            return matching;
+        }
+
+    }
+
+    private static final class MatchResult {
+
+        private final String string;
+
+        private final boolean matching;
+
+        private MatchResult(String string, boolean matching) {
+            this.string = string;
+            this.matching = matching;
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.logging.log4j.core.util.Integers;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock-free pool of reusable objects.
+ * <p>
+ * Pooled objects are kept in an array of slots, which are emptied and filled
+ * via compare-and-set. Each thread starts probing the slots at an index
+ * determined by its identifier, hence concurrent threads mostly contend on
+ * distinct slots. Acquiring from an empty pool creates a new object, whereas
+ * releasing into a full pool disposes the object.
+ */
+public final class StripedObjectPool<T> {
+
+    private final AtomicReferenceArray<T> slots;
+
+    private final int slotMask;
+
+    private final Supplier<T> supplier;
+
+    private final Consumer<T> disposer;
+
+    /**
+     * @param capacity maximum number of pooled objects, rounded up to the
+     *                 next power of two
+     * @param supplier creates objects when the pool is empty
+     * @param disposer disposes objects released into a full pool
+     */
+    public StripedObjectPool(int capacity, Supplier<T> supplier, Consumer<T> disposer) {
+        Validate.isTrue(capacity > 0, "capacity requires a non-zero positive integer");
+        Validate.notNull(supplier, "supplier");
+        Validate.notNull(disposer, "disposer");
+        int effectiveCapacity = Integers.ceilingNextPowerOfTwo(capacity);
+        this.slots = new AtomicReferenceArray<>(effectiveCapacity);
+        this.slotMask = effectiveCapacity - 1;
+        this.supplier = supplier;
+        this.disposer = disposer;
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return a pooled object, if there is any, otherwise a new one
+     */
+    public T acquire() {
+        int startIndex = getStartIndex();
+        for (int offset = 0; offset <= slotMask; offset++) {
+            int index = (startIndex + offset) & slotMask;
+            T object = slots.get(index);
+            if (object != null && slots.compareAndSet(index, object, null)) {
+                return object;
+            }
+        }
+        return supplier.get();
+    }
+
+    /**
+     * Pools the given object, if there is an empty slot, otherwise disposes it.
+     */
+    public void release(T object) {
+        int startIndex = getStartIndex();
+        for (int offset = 0; offset <= slotMask; offset++) {
+            int index = (startIndex + offset) & slotMask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, object)) {
+                return;
+            }
+        }
+        disposer.accept(object);
+    }
+
+    private int getStartIndex() {
+        return (int) Thread.currentThread().getId() & slotMask;
+    }
+
+}
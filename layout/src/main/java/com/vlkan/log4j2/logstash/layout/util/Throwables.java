@@ -16,6 +16,8 @@
 
 package com.vlkan.log4j2.logstash.layout.util;
 
+import java.nio.BufferOverflowException;
+
 public enum Throwables {;
 
     public static Throwable getRootCause(Throwable throwable) {
@@ -40,4 +42,18 @@ public enum Throwables {;
 
     }
 
+    /**
+     * @return {@code true}, if the given throwable or any of its causes is a
+     * {@link BufferOverflowException}
+     */
+    public static boolean isBufferOverflow(Throwable throwable) {
+        // Errors get wrapped while serializing via ObjectMapper, e.g., for ObjectMessage parameters.
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BufferOverflowException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
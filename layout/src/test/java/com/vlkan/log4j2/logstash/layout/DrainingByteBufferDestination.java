@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Destination collecting the drained bytes, as {@link
+ * org.apache.logging.log4j.core.appender.OutputStreamManager} does.
+ */
+class DrainingByteBufferDestination implements ByteBufferDestination {
+
+    private final ByteBuffer byteBuffer;
+
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    private int drainCount = 0;
+
+    DrainingByteBufferDestination(ByteBuffer byteBuffer) {
+        this.byteBuffer = byteBuffer;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return byteBuffer;
+    }
+
+    @Override
+    public synchronized ByteBuffer drain(ByteBuffer sourceByteBuffer) {
+        drainCount++;
+        sourceByteBuffer.flip();
+        writeBytes(sourceByteBuffer);
+        sourceByteBuffer.clear();
+        return sourceByteBuffer;
+    }
+
+    @Override
+    public synchronized void writeBytes(ByteBuffer sourceByteBuffer) {
+        while (sourceByteBuffer.hasRemaining()) {
+            outputStream.write(sourceByteBuffer.get());
+        }
+    }
+
+    @Override
+    public synchronized void writeBytes(byte[] data, int offset, int length) {
+        outputStream.write(data, offset, length);
+    }
+
+    int getDrainCount() {
+        return drainCount;
+    }
+
+    synchronized String getOutput() {
+        byteBuffer.flip();
+        writeBytes(byteBuffer);
+        byteBuffer.clear();
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
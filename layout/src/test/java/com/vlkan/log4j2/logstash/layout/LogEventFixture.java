@@ -20,6 +20,7 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.impl.ContextDataFactory;
 import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.MapMessage;
 import org.apache.logging.log4j.message.SimpleMessage;
 import org.apache.logging.log4j.spi.MutableThreadContextStack;
 import org.apache.logging.log4j.spi.ThreadContextStack;
@@ -29,6 +30,7 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 enum LogEventFixture {;
 
@@ -75,6 +77,49 @@ enum LogEventFixture {;
         return logEvents;
     }
 
+    /**
+     * Creates events of structured {@link MapMessage}s sharing the same keys,
+     * as logged by services emitting structured events only.
+     */
+    static List<LogEvent> createMapMessageLogEvents(int logEventCount) {
+        List<LogEvent> logEvents = new ArrayList<>(logEventCount);
+        long startTimeMillis = System.currentTimeMillis();
+        for (int logEventIndex = 0; logEventIndex < logEventCount; logEventIndex++) {
+            String logEventId = String.valueOf(logEventIndex);
+            long logEventTimeMillis = createLogEventTimeMillis(startTimeMillis, logEventIndex);
+            LogEvent logEvent = LogEventFixture.createMapMessageLogEvent(logEventId, logEventIndex, logEventTimeMillis);
+            logEvents.add(logEvent);
+        }
+        return logEvents;
+    }
+
+    private static LogEvent createMapMessageLogEvent(String id, int index, long timeMillis) {
+        MapMessage<?, Object> message = new MapMessage<>()
+                .with("event", "http.request")
+                .with("http.method", index % 3 == 0 ? "POST" : "GET")
+                .with("http.path", "/api/v1/orders/" + id)
+                .with("http.status", 200 + index % 5)
+                .with("http.durationMillis", 0.25 * index)
+                .with("http.requestByteCount", 512L + index)
+                .with("http.cached", index % 2 == 0)
+                .with("user.id", "user-" + (index % 100))
+                .with("trace.id", new UUID(index, ~index))
+                .with("span.id", Long.toHexString(index));
+        StringMap contextData = ContextDataFactory.createContextData();
+        contextData.putValue("traceId", new UUID(index, ~index).toString());
+        contextData.putValue("spanId", Long.toHexString(index));
+        return Log4jLogEvent
+                .newBuilder()
+                .setLoggerName("a.B")
+                .setLoggerFqcn("f.q.c.n")
+                .setLevel(Level.INFO)
+                .setMessage(message)
+                .setContextData(contextData)
+                .setTimeMillis(timeMillis)
+                .setNanoTime(timeMillis * 2)
+                .build();
+    }
+
     private static long createLogEventTimeMillis(long startTimeMillis, int logEventIndex) {
         // Create event time repeating every certain number of consecutive
         // events. This is better aligned with the real-world use case and
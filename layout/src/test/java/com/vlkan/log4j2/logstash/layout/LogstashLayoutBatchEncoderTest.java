@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class LogstashLayoutBatchEncoderTest {
+
+    private static final Configuration CONFIGURATION = new DefaultConfiguration();
+
+    private static final LogstashLayout LAYOUT = LogstashLayout
+            .newBuilder()
+            .setConfiguration(CONFIGURATION)
+            .setEventTemplate("{\"message\": \"${json:message}\"}")
+            .build();
+
+    @Test
+    public void test_endOfBatch() {
+
+        // Create the encoder.
+        DrainingByteBufferDestination destination = new DrainingByteBufferDestination(ByteBuffer.allocate(1024));
+        LogstashLayoutBatchEncoder encoder = new LogstashLayoutBatchEncoder(LAYOUT, destination, 3);
+
+        // Feed a reused mutable event, as async loggers do.
+        MutableLogEvent event = new MutableLogEvent();
+        Assertions.assertThat(append(encoder, event, "1", false)).isFalse();
+        Assertions.assertThat(append(encoder, event, "2", false)).isFalse();
+        Assertions.assertThat(destination.getOutput()).isEmpty();
+
+        // Verify encoding at the end of the batch.
+        Assertions.assertThat(append(encoder, event, "3", true)).isTrue();
+        Assertions.assertThat(destination.getOutput()).isEqualTo(serialize("1", "2", "3"));
+
+        // Verify encoding at the maximum batch size.
+        Assertions.assertThat(append(encoder, event, "4", false)).isFalse();
+        Assertions.assertThat(append(encoder, event, "5", false)).isFalse();
+        Assertions.assertThat(append(encoder, event, "6", false)).isTrue();
+        Assertions.assertThat(destination.getOutput()).isEqualTo(serialize("1", "2", "3", "4", "5", "6"));
+
+        // Verify explicit flushes.
+        Assertions.assertThat(append(encoder, event, "7", false)).isFalse();
+        encoder.flush();
+        encoder.flush();
+        Assertions.assertThat(destination.getOutput()).isEqualTo(serialize("1", "2", "3", "4", "5", "6", "7"));
+
+    }
+
+    private static boolean append(
+            LogstashLayoutBatchEncoder encoder,
+            MutableLogEvent event,
+            String message,
+            boolean endOfBatch) {
+        event.setMessage(new SimpleMessage(message));
+        event.setEndOfBatch(endOfBatch);
+        return encoder.append(event);
+    }
+
+    private static String serialize(String... messages) {
+        StringBuilder outputBuilder = new StringBuilder();
+        for (String message : messages) {
+            LogEvent event = new MutableLogEvent();
+            ((MutableLogEvent) event).setMessage(new SimpleMessage(message));
+            outputBuilder.append(LAYOUT.toSerializable(event));
+        }
+        return outputBuilder.toString();
+    }
+
+}
@@ -136,19 +136,40 @@ public class LogstashLayoutConcurrentEncodeTest {
 
     @Test
     public void test_concurrent_encode() {
+        test_concurrent_encode(false, 0);
+    }
+
+    @Test
+    public void test_concurrent_encode_with_destinationStreamingEnabled() {
+        test_concurrent_encode(true, 0);
+    }
+
+    @Test
+    public void test_concurrent_encode_with_serializationContextPoolSize() {
+        test_concurrent_encode(false, 4);
+    }
+
+    @Test
+    public void test_concurrent_encode_with_destinationStreamingEnabled_and_serializationContextPoolSize() {
+        test_concurrent_encode(true, 4);
+    }
+
+    private void test_concurrent_encode(boolean destinationStreamingEnabled, int serializationContextPoolSize) {
         int threadCount = 10;
         int maxAppendCount = 1_000;
         AtomicReference<Exception> encodeFailureRef = new AtomicReference<>(null);
-        produce(threadCount, maxAppendCount, encodeFailureRef);
+        produce(threadCount, maxAppendCount, encodeFailureRef, destinationStreamingEnabled, serializationContextPoolSize);
         Assertions.assertThat(encodeFailureRef.get()).isNull();
     }
 
     private void produce(
             int threadCount,
             int maxEncodeCount,
-            AtomicReference<Exception> encodeFailureRef) {
+            AtomicReference<Exception> encodeFailureRef,
+            boolean destinationStreamingEnabled,
+            int serializationContextPoolSize) {
         int maxByteCount = LogstashLayout.newBuilder().getMaxByteCount();
-        LogstashLayout layout = createLayout(maxByteCount);
+        LogstashLayout layout = createLayout(maxByteCount, destinationStreamingEnabled, serializationContextPoolSize);
         ByteBufferDestination destination = new ConcurrentAccessDetectingByteBufferDestination(maxByteCount);
         AtomicLong encodeCounter = new AtomicLong(0);
         List<Thread> workers = IntStream
@@ -165,7 +186,10 @@ public class LogstashLayoutConcurrentEncodeTest {
         });
     }
 
-    private LogstashLayout createLayout(int maxByteCount) {
+    private LogstashLayout createLayout(
+            int maxByteCount,
+            boolean destinationStreamingEnabled,
+            int serializationContextPoolSize) {
         Configuration configuration = new DefaultConfiguration();
         return LogstashLayout
                 .newBuilder()
@@ -175,6 +199,8 @@ public class LogstashLayoutConcurrentEncodeTest {
                 .setStackTraceEnabled(false)
                 .setLocationInfoEnabled(false)
                 .setPrettyPrintEnabled(false)
+                .setDestinationStreamingEnabled(destinationStreamingEnabled)
+                .setSerializationContextPoolSize(serializationContextPoolSize)
                 .build();
     }
 
@@ -17,6 +17,7 @@
 package com.vlkan.log4j2.logstash.layout;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -24,51 +25,86 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.vlkan.log4j2.logstash.layout.resolver.MessageJsonMode;
+import com.vlkan.log4j2.logstash.layout.util.JsonValueWriters;
 import joptsimple.internal.Strings;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
 import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
 import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
 import org.apache.logging.log4j.core.layout.ByteBufferDestination;
 import org.apache.logging.log4j.core.lookup.MainMapLookup;
 import org.apache.logging.log4j.core.net.Severity;
 import org.apache.logging.log4j.core.time.MutableInstant;
+import org.apache.logging.log4j.core.util.Constants;
 import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.core.util.datetime.FastDateFormat;
 import org.apache.logging.log4j.message.MapMessage;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.MultiformatMessage;
 import org.apache.logging.log4j.message.ObjectMessage;
+import org.apache.logging.log4j.message.ReusableMessageFactory;
 import org.apache.logging.log4j.message.SimpleMessage;
 import org.apache.logging.log4j.message.StringMapMessage;
+import org.apache.logging.log4j.spi.MutableThreadContextStack;
 import org.apache.logging.log4j.util.SortedArrayStringMap;
 import org.apache.logging.log4j.util.StringMap;
 import org.assertj.core.data.Percentage;
+import org.junit.Assume;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.vlkan.log4j2.logstash.layout.ObjectMapperFixture.OBJECT_MAPPER;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class LogstashLayoutTest {
 
@@ -349,6 +385,25 @@ public class LogstashLayoutTest {
 
     }
 
+    @Test
+    public void test_MapMessage_fixture_serialization() throws Exception {
+        List<LogEvent> logEvents = LogEventFixture.createMapMessageLogEvents(100);
+        for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate("{\"message\": \"${json:message:json}\"}")
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                    .build();
+            for (LogEvent logEvent : logEvents) {
+                MapMessage<?, ?> mapMessage = (MapMessage<?, ?>) logEvent.getMessage();
+                JsonNode expectedMessageNode = OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(mapMessage.getData()));
+                JsonNode rootNode = OBJECT_MAPPER.readTree(layout.toSerializable(logEvent));
+                assertThat(point(rootNode, "message")).isEqualTo(expectedMessageNode);
+            }
+        }
+    }
+
     @Test
     public void test_property_injection() throws Exception {
 
@@ -654,6 +709,124 @@ public class LogstashLayoutTest {
 
     }
 
+    @Test
+    public void test_mdcKeys_and_ndcPrefixes() throws IOException {
+
+        // Create the log event.
+        StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("traceId", "t");
+        contextData.putValue("spanId", "s");
+        contextData.putValue("userId", "u");
+        contextData.putValue("user", "v");
+        MutableThreadContextStack contextStack = new MutableThreadContextStack();
+        contextStack.push("request:1");
+        contextStack.push("session:2");
+        contextStack.push("request");
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .setContextData(contextData)
+                .setContextStack(contextStack)
+                .build();
+
+        // Create the event template.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("mdc", "${json:mdc}");
+        eventTemplateRootNode.put("ndc", "${json:ndc}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        // Check MDC key and NDC item prefixes.
+        LogstashLayout prefixLayout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate)
+                .setMdcKeyPrefixes("trace, userI")
+                .setNdcPrefixes("request:,session")
+                .build();
+        JsonNode prefixRootNode = OBJECT_MAPPER.readTree(prefixLayout.toSerializable(logEvent));
+        assertThat(Strings.join(fieldNames(point(prefixRootNode, "mdc")), ",")).isEqualTo("traceId,userId");
+        List<String> prefixNdcItems =
+                OBJECT_MAPPER.convertValue(point(prefixRootNode, "ndc"), new TypeReference<List<String>>() {});
+        assertThat(prefixNdcItems).containsExactly("request:1", "session:2");
+
+        // Check MDC keys.
+        LogstashLayout keyLayout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate)
+                .setMdcKeys("spanId,user,absent")
+                .build();
+        JsonNode keyRootNode = OBJECT_MAPPER.readTree(keyLayout.toSerializable(logEvent));
+        assertThat(Strings.join(fieldNames(point(keyRootNode, "mdc")), ",")).isEqualTo("spanId,user");
+        assertThat(point(keyRootNode, "ndc").size()).isEqualTo(3);
+
+        // Check conflicting filters.
+        assertThatThrownBy(() -> LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate)
+                .setMdcKeyPattern("trace.*")
+                .setMdcKeys("traceId")
+                .build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("mdcKeys");
+
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> fieldNames = new ArrayList<>();
+        node.fieldNames().forEachRemaining(fieldNames::add);
+        return fieldNames;
+    }
+
+    @Test
+    public void test_jsonValueWritersFactoryMethod() throws IOException {
+
+        // Create the log event.
+        UUID uuid = UUID.randomUUID();
+        StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("uuid", uuid);
+        contextData.putValue("time", Instant.EPOCH);
+        contextData.putValue("sb", new StringBuilder("0123456789"));
+        contextData.putValue("num", new BigDecimal("1.5"));
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .setContextData(contextData)
+                .build();
+
+        // Check the serialized event using built-in and custom writers.
+        // (Field names are subject to truncation as well, hence short keys.)
+        for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate("{\"mdc\": \"${json:mdc}\"}")
+                    .setMaxStringLength(5)
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                    .setJsonValueWritersFactoryMethod(LogstashLayoutTest.class.getName() + ".createJsonValueWriters")
+                    .build();
+            JsonNode rootNode = OBJECT_MAPPER.readTree(layout.toSerializable(logEvent));
+            assertThat(point(rootNode, "mdc", "uuid").asText()).isEqualTo(uuid.toString().substring(0, 5));
+            assertThat(point(rootNode, "mdc", "time").asText()).isEqualTo("1970-");
+            assertThat(point(rootNode, "mdc", "sb").asText()).isEqualTo("01234");
+            assertThat(point(rootNode, "mdc", "num").asText()).isEqualTo("1.5");
+        }
+
+    }
+
+    @SuppressWarnings("unused")
+    public static JsonValueWriters createJsonValueWriters() {
+        return JsonValueWriters
+                .newBuilder()
+                .register(BigDecimal.class, (jsonGenerator, value) -> jsonGenerator.writeString(value.toPlainString()))
+                .build();
+    }
+
     @Test
     public void test_MapResolver() throws IOException {
 
@@ -783,6 +956,105 @@ public class LogstashLayoutTest {
 
     }
 
+    @Test
+    public void test_emptyPropertyExclusionEnabled_nested_nodes() {
+
+        // Create the log event without a marker and an exception.
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .build();
+
+        // Create the event template with partially and fully empty nodes.
+        String eventTemplate = "{" +
+                "\"partialObject\": {\"marker\": \"${json:marker:name}\", \"level\": \"${json:level}\"}," +
+                "\"emptyObject\": {\"marker\": \"${json:marker:name}\", \"nested\": {\"ex\": \"${json:exception:message}\"}}," +
+                "\"partialArray\": [\"${json:marker:name}\", \"${json:level}\", null]," +
+                "\"emptyArray\": [\"${json:exception:stackTrace}\", {\"ex\": \"${json:exception:className}\"}]" +
+                "}";
+
+        for (boolean directJsonGeneratorEnabled : new boolean[] { false, true }) {
+
+            // Create the layout.
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate(eventTemplate)
+                    .setStackTraceEnabled(true)
+                    .setEmptyPropertyExclusionEnabled(true)
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                    .build();
+
+            // Check the serialized event.
+            String serializedLogEvent = layout.toSerializable(logEvent);
+            assertThat(serializedLogEvent).isEqualTo(
+                    "{\"partialObject\":{\"level\":\"INFO\"},\"partialArray\":[\"INFO\"]}" +
+                            System.lineSeparator());
+
+        }
+
+    }
+
+    @Test
+    public void test_emptyPropertyExclusionEnabled_nested_object_values() {
+
+        // Create the message with nested empty values.
+        Map<String, Object> nestedObject = new LinkedHashMap<>();
+        nestedObject.put("array", Collections.singletonList(null));
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("null", null);
+        object.put("emptyObject", Collections.emptyMap());
+        object.put("nestedObject", nestedObject);
+        object.put("number", 1);
+        ObjectMessage message = new ObjectMessage(object);
+
+        // Create the context data with empty values.
+        StringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("emptyList", Collections.emptyList());
+        contextData.putValue("emptyString", "");
+        contextData.putValue("string", "foo");
+
+        // Create the log event.
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(message)
+                .setContextData(contextData)
+                .build();
+
+        // Create the event template.
+        String eventTemplate = "{" +
+                "\"message\": \"${json:message:json}\"," +
+                "\"mdc\": \"${json:mdc}\"," +
+                "\"emptyList\": \"${json:mdc:emptyList}\"" +
+                "}";
+
+        for (boolean directJsonGeneratorEnabled : new boolean[] { false, true }) {
+
+            // Create the layout.
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate(eventTemplate)
+                    .setEmptyPropertyExclusionEnabled(true)
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                    .build();
+
+            // Check the serialized event.
+            String serializedLogEvent = layout.toSerializable(logEvent);
+            assertThat(serializedLogEvent)
+                    .as("directJsonGeneratorEnabled=%s", directJsonGeneratorEnabled)
+                    .isEqualTo(
+                            "{\"message\":{\"number\":1},\"mdc\":{\"string\":\"foo\"}}" +
+                                    System.lineSeparator());
+
+        }
+
+    }
+
     @Test
     public void test_message_json() throws IOException {
 
@@ -852,6 +1124,211 @@ public class LogstashLayoutTest {
 
     }
 
+    @Test
+    public void test_parameterized_message_allocations() throws IOException {
+
+        // Check if thread allocation measurement is available.
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        // Serialization contexts are created per event without thread locals.
+        Assume.assumeTrue(Constants.ENABLE_THREADLOCALS);
+
+        // Create the log event, the way garbage-free logging does.
+        MutableLogEvent logEvent = new MutableLogEvent();
+        logEvent.setLoggerName(LogstashLayoutTest.class.getSimpleName());
+        logEvent.setLevel(Level.INFO);
+        Object[] names = {"World", "Kickapoo Joy Juice"};
+        Object[] numbers = {1, 2};
+
+        // Create the event template.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("message", "${json:message}");
+        eventTemplateRootNode.put("messageObject", "${json:message:json}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        Configuration configuration = ConfigurationBuilderFactory.newConfigurationBuilder().build();
+        for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+
+            // Create the layout.
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(configuration)
+                    .setEventTemplate(eventTemplate)
+                    .setEmptyPropertyExclusionEnabled(true)
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                    .build();
+
+            // Check the serialized event.
+            setParameterizedMessage(logEvent, names[0], numbers[0]);
+            JsonNode rootNode = OBJECT_MAPPER.readTree(layout.toSerializable(logEvent));
+            assertThat(point(rootNode, "message").asText()).isEqualTo("Hello, World! #1");
+            assertThat(point(rootNode, "messageObject", "message").asText()).isEqualTo("Hello, World! #1");
+
+            // Warm up.
+            ByteBufferDestination destination = new BlackHoleByteBufferDestination(1024);
+            int encodeCount = 10_000;
+            for (int i = 0; i < encodeCount; i++) {
+                setParameterizedMessage(logEvent, names[i & 1], numbers[i & 1]);
+                layout.encode(logEvent, destination);
+            }
+
+            // Measure allocations, excluding the ones of the measurement itself.
+            long threadId = Thread.currentThread().getId();
+            long measurementBytes = -allocationMXBean.getThreadAllocatedBytes(threadId) +
+                    allocationMXBean.getThreadAllocatedBytes(threadId);
+            long startBytes = allocationMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < encodeCount; i++) {
+                setParameterizedMessage(logEvent, names[i & 1], numbers[i & 1]);
+                layout.encode(logEvent, destination);
+            }
+            long allocatedBytes = allocationMXBean.getThreadAllocatedBytes(threadId) - startBytes - measurementBytes;
+
+            // Verify that nothing is allocated per event.
+            assertThat(allocatedBytes)
+                    .as("directJsonGeneratorEnabled=%s", directJsonGeneratorEnabled)
+                    .isLessThan(encodeCount);
+
+        }
+
+    }
+
+    private static void setParameterizedMessage(MutableLogEvent logEvent, Object name, Object number) {
+        Message message = ReusableMessageFactory.INSTANCE.newMessage("Hello, {}! #{}", name, number);
+        logEvent.setMessage(message);
+        ReusableMessageFactory.release(message);
+    }
+
+    @Test
+    public void test_messageJsonMode() throws IOException {
+
+        // Create the event template.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("message", "${json:message:json}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        // Check every mode against the JSON rendered by the message.
+        Configuration configuration = ConfigurationBuilderFactory.newConfigurationBuilder().build();
+        String messageJson = "{\"a\": 1, \"b\": [true, \"x\\ny\", {\"c\": null}], \"d\": {\"e\": 1.5e-3, \"f\": \"\u00e7\"}}";
+        JsonNode expectedMessageNode = OBJECT_MAPPER.readTree(messageJson);
+        LogEvent logEvent = createJsonMessageLogEvent(messageJson);
+        for (MessageJsonMode messageJsonMode : MessageJsonMode.values()) {
+            for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+                LogstashLayout layout = LogstashLayout
+                        .newBuilder()
+                        .setConfiguration(configuration)
+                        .setEventTemplate(eventTemplate)
+                        .setMessageJsonMode(messageJsonMode)
+                        .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                        .build();
+                JsonNode rootNode = OBJECT_MAPPER.readTree(layout.toSerializable(logEvent));
+                assertThat(point(rootNode, "message"))
+                        .as("messageJsonMode=%s, directJsonGeneratorEnabled=%s", messageJsonMode, directJsonGeneratorEnabled)
+                        .isEqualTo(expectedMessageNode);
+            }
+        }
+
+    }
+
+    @Test
+    public void test_messageJsonMode_with_emptyPropertyExclusionEnabled() throws IOException {
+
+        // Create the event template.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("message", "${json:message:json}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        // Check the exclusion of empty values in every parsing mode.
+        Configuration configuration = ConfigurationBuilderFactory.newConfigurationBuilder().build();
+        for (MessageJsonMode messageJsonMode : new MessageJsonMode[]{MessageJsonMode.TREE, MessageJsonMode.STREAM}) {
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(configuration)
+                    .setEventTemplate(eventTemplate)
+                    .setEmptyPropertyExclusionEnabled(true)
+                    .setMessageJsonMode(messageJsonMode)
+                    .build();
+            for (String messageJson : new String[]{"null", " \"\" ", "{ }", "\n[\t]\n"}) {
+                LogEvent logEvent = createJsonMessageLogEvent(messageJson);
+                JsonNode rootNode = OBJECT_MAPPER.readTree(layout.toSerializable(logEvent));
+                assertThat(point(rootNode, "message"))
+                        .as("messageJsonMode=%s, messageJson=%s", messageJsonMode, messageJson)
+                        .isInstanceOf(MissingNode.class);
+            }
+
+            // Check the exclusion of nested empty values.
+            LogEvent logEvent = createJsonMessageLogEvent("{\"a\": null, \"b\": 1, \"c\": {\"d\": []}}");
+            JsonNode rootNode = OBJECT_MAPPER.readTree(layout.toSerializable(logEvent));
+            assertThat(point(rootNode, "message"))
+                    .as("messageJsonMode=%s", messageJsonMode)
+                    .isEqualTo(OBJECT_MAPPER.readTree("{\"b\": 1}"));
+        }
+
+        // Check the rejection of the raw mode, which does not parse the JSON.
+        assertThatThrownBy(() -> LogstashLayout
+                .newBuilder()
+                .setConfiguration(configuration)
+                .setEventTemplate(eventTemplate)
+                .setEmptyPropertyExclusionEnabled(true)
+                .setMessageJsonMode(MessageJsonMode.RAW)
+                .build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("messageJsonMode=raw requires emptyPropertyExclusionEnabled=false");
+
+    }
+
+    private static LogEvent createJsonMessageLogEvent(String messageJson) {
+        return Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new JsonMessage(messageJson))
+                .build();
+    }
+
+    private static final class JsonMessage implements MultiformatMessage {
+
+        private final String json;
+
+        private JsonMessage(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public String getFormattedMessage(String[] formats) {
+            return json;
+        }
+
+        @Override
+        public String[] getFormats() {
+            return new String[]{"JSON"};
+        }
+
+        @Override
+        public String getFormattedMessage() {
+            return json;
+        }
+
+        @Override
+        public String getFormat() {
+            return json;
+        }
+
+        @Override
+        public Object[] getParameters() {
+            return null;
+        }
+
+        @Override
+        public Throwable getThrowable() {
+            return null;
+        }
+
+    }
+
     private static final class ObjectMessageAttachment {
 
         @JsonProperty
@@ -1215,6 +1692,79 @@ public class LogstashLayoutTest {
 
     }
 
+    @Test
+    public void test_constant_template_values() throws IOException {
+
+        // Create the log event.
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .build();
+
+        // Create the event template containing every constant type.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("int", 1);
+        eventTemplateRootNode.put("long", Long.MAX_VALUE);
+        eventTemplateRootNode.put("bigInteger", new BigInteger("18446744073709551616"));
+        eventTemplateRootNode.put("double", 0.25D);
+        eventTemplateRootNode.put("boolean", true);
+        eventTemplateRootNode.putNull("null");
+        eventTemplateRootNode.put("string", "\"quoted\" அஆஇ");
+        eventTemplateRootNode.putArray("array").add(1).add("two").add(false);
+        eventTemplateRootNode.putObject("object").put("message", "${json:message}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        // Create the layout.
+        Configuration configuration = ConfigurationBuilderFactory.newConfigurationBuilder().build();
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(configuration)
+                .setEventTemplate(eventTemplate)
+                .build();
+
+        // Check the serialized event.
+        String serializedLogEvent = layout.toSerializable(logEvent);
+        JsonNode rootNode = OBJECT_MAPPER.readTree(serializedLogEvent);
+        ObjectNode expectedRootNode = eventTemplateRootNode.deepCopy();
+        ((ObjectNode) expectedRootNode.get("object")).put("message", "Hello, World!");
+        assertThat(rootNode).isEqualTo(expectedRootNode);
+
+    }
+
+    @Test
+    public void test_maxStringLength_with_constant_template_values() throws IOException {
+
+        // Create the log event.
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .build();
+
+        // Create the event template with a long constant field name and value.
+        int maxStringLength = 5;
+        String eventTemplate = "{\"keyToBeTruncated\": \"valueToBeTruncated\", \"key\": \"value\"}";
+
+        // Create the layout.
+        Configuration configuration = ConfigurationBuilderFactory.newConfigurationBuilder().build();
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(configuration)
+                .setEventTemplate(eventTemplate)
+                .setMaxStringLength(maxStringLength)
+                .build();
+
+        // Check the serialized event.
+        String serializedLogEvent = layout.toSerializable(logEvent);
+        JsonNode rootNode = OBJECT_MAPPER.readTree(serializedLogEvent);
+        assertThat(point(rootNode, "keyTo").asText()).isEqualTo("value");
+        assertThat(point(rootNode, "key").asText()).isEqualTo("value");
+
+    }
+
     @Test
     public void test_timestamp_divisor() throws IOException {
 
@@ -1360,14 +1910,15 @@ public class LogstashLayoutTest {
     @Test
     public void test_StackTraceTextResolver_against_printStackTrace_failures() throws IOException {
 
-        // Create a throwable with failing printStackTrace().
+        // Create a throwable with failing getStackTrace(), which is the
+        // closest to a printStackTrace() failure while rendering the text.
         Throwable orgThrowable = new Error("this should not be printed");
         Throwable unprintableThrowable = Mockito.spy(orgThrowable);
         Throwable printableThrowable = new RuntimeException("some printStackTrace() failure");
         Mockito
                 .doThrow(printableThrowable)
                 .when(unprintableThrowable)
-                .printStackTrace(Mockito.any(PrintWriter.class));
+                .getStackTrace();
 
         // Create the log event.
         SimpleMessage message = new SimpleMessage("testing unprintable throwables");
@@ -1526,6 +2077,131 @@ public class LogstashLayoutTest {
                 .build();
     }
 
+    @Test
+    public void test_timestamp_resolver_fraction_digits() throws IOException {
+
+        // Create log events, a couple of them sharing the same second.
+        long epochSecond = Instant.parse("2019-01-02T09:34:11Z").getEpochSecond();
+        LogEvent logEvent1 = createLogEventAtInstant(epochSecond, 123_456_789);
+        LogEvent logEvent2 = createLogEventAtInstant(epochSecond, 5);
+        LogEvent logEvent3 = createLogEventAtInstant(epochSecond + 1, 999_999_999);
+
+        // Check patterns with fraction-of-second digits of varying precision.
+        assertThat(formatTimestamps("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS'Z'", logEvent1, logEvent2, logEvent3))
+                .containsExactly(
+                        "2019-01-02T09:34:11.123456789Z",
+                        "2019-01-02T09:34:11.000000005Z",
+                        "2019-01-02T09:34:12.999999999Z");
+        assertThat(formatTimestamps("SSSSSS HH:mm:ss", logEvent1, logEvent2, logEvent3))
+                .containsExactly("123456 09:34:11", "000000 09:34:11", "999999 09:34:12");
+        assertThat(formatTimestamps("'SS' ss.SSS", logEvent1, logEvent2, logEvent3))
+                .containsExactly("SS 11.123", "SS 11.000", "SS 12.999");
+
+        // Check patterns falling back to FastDateFormat.
+        for (String pattern : new String[]{"ss.S", "ss.SS", "SSS.ss.SSS"}) {
+            FastDateFormat format = FastDateFormat.getInstance(pattern, TimeZone.getTimeZone("UTC"));
+            assertThat(formatTimestamps(pattern, logEvent1, logEvent2, logEvent3))
+                    .containsExactly(
+                            format.format(logEvent1.getTimeMillis()),
+                            format.format(logEvent2.getTimeMillis()),
+                            format.format(logEvent3.getTimeMillis()));
+        }
+
+    }
+
+    @Test
+    public void test_timestamp_resolver_microsecond_digits() throws IOException {
+
+        // Create a log event with sub-millisecond digits.
+        long epochSecond = Instant.parse("2019-01-02T09:34:11Z").getEpochSecond();
+        LogEvent logEvent = createLogEventAtInstant(epochSecond, 123_456_789);
+
+        // Check that SSSSSS renders microseconds, rather than the milliseconds
+        // padded with leading zeros as FastDateFormat did before.
+        String pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'";
+        String legacyTimestamp = FastDateFormat
+                .getInstance(pattern, TimeZone.getTimeZone("UTC"))
+                .format(logEvent.getTimeMillis());
+        assertThat(legacyTimestamp).isEqualTo("2019-01-02T09:34:11.000123Z");
+        assertThat(formatTimestamps(pattern, logEvent)).containsExactly("2019-01-02T09:34:11.123456Z");
+
+    }
+
+    @Test
+    public void test_timestamp_resolver_concurrent_formatting() throws Exception {
+
+        // Create the layout.
+        String dateTimeFormatPattern = "yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'";
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate("{\"timestamp\": \"${json:timestamp}\"}")
+                .setTimeZoneId("UTC")
+                .setDateTimeFormatPattern(dateTimeFormatPattern)
+                .build();
+        DateTimeFormatter expectedFormatter = DateTimeFormatter
+                .ofPattern(dateTimeFormatPattern)
+                .withZone(ZoneOffset.UTC);
+
+        // Format timestamps of a few seconds concurrently.
+        int threadCount = 8;
+        int logEventCountPerThread = 1_000;
+        long startEpochSecond = Instant.parse("2019-01-02T09:34:11Z").getEpochSecond();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>(threadCount);
+            for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+                Random random = new Random(threadIndex);
+                futures.add(executorService.submit(() -> {
+                    for (int logEventIndex = 0; logEventIndex < logEventCountPerThread; logEventIndex++) {
+                        long epochSecond = startEpochSecond + random.nextInt(3);
+                        int nanoOfSecond = random.nextInt(1_000_000_000);
+                        LogEvent logEvent = createLogEventAtInstant(epochSecond, nanoOfSecond);
+                        String expectedTimestamp = expectedFormatter.format(Instant.ofEpochSecond(epochSecond, nanoOfSecond));
+                        String serializedLogEvent = layout.toSerializable(logEvent);
+                        JsonNode rootNode = OBJECT_MAPPER.readTree(serializedLogEvent);
+                        assertThat(point(rootNode, "timestamp").asText()).isEqualTo(expectedTimestamp);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+    }
+
+    private static LogEvent createLogEventAtInstant(long epochSecond, int nanoOfSecond) {
+        MutableInstant instant = new MutableInstant();
+        instant.initFromEpochSecond(epochSecond, nanoOfSecond);
+        return Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setMessage(new SimpleMessage("LogEvent at instant " + instant))
+                .setInstant(instant)
+                .build();
+    }
+
+    private static List<String> formatTimestamps(String dateTimeFormatPattern, LogEvent... logEvents) throws IOException {
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate("{\"timestamp\": \"${json:timestamp}\"}")
+                .setTimeZoneId("UTC")
+                .setDateTimeFormatPattern(dateTimeFormatPattern)
+                .build();
+        List<String> formattedTimestamps = new ArrayList<>(logEvents.length);
+        for (LogEvent logEvent : logEvents) {
+            String serializedLogEvent = layout.toSerializable(logEvent);
+            JsonNode rootNode = OBJECT_MAPPER.readTree(serializedLogEvent);
+            formattedTimestamps.add(point(rootNode, "timestamp").asText());
+        }
+        return formattedTimestamps;
+    }
+
     @Test
     public void test_StackTraceTextResolver_with_maxStringLength() throws Exception {
 
@@ -1596,4 +2272,1148 @@ public class LogstashLayoutTest {
 
     }
 
+    @Test
+    public void test_directJsonGeneratorEnabled() {
+        for (boolean prettyPrintEnabled : new boolean[]{false, true}) {
+            for (boolean emptyPropertyExclusionEnabled : new boolean[]{false, true}) {
+                for (int maxStringLength : new int[]{0, 8}) {
+                    test_directJsonGeneratorEnabled(prettyPrintEnabled, emptyPropertyExclusionEnabled, maxStringLength);
+                }
+            }
+        }
+    }
+
+    private static void test_directJsonGeneratorEnabled(
+            boolean prettyPrintEnabled,
+            boolean emptyPropertyExclusionEnabled,
+            int maxStringLength) {
+
+        // Create the layouts.
+        Configuration configuration = ConfigurationBuilderFactory.newConfigurationBuilder().build();
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(configuration)
+                .setStackTraceEnabled(true)
+                .setLocationInfoEnabled(true)
+                .setPrettyPrintEnabled(prettyPrintEnabled)
+                .setEmptyPropertyExclusionEnabled(emptyPropertyExclusionEnabled)
+                .setMaxStringLength(maxStringLength);
+        LogstashLayout jacksonLayout = layoutBuilder.setDirectJsonGeneratorEnabled(false).build();
+        LogstashLayout directLayout = layoutBuilder.setDirectJsonGeneratorEnabled(true).build();
+
+        // Compare the outputs.
+        for (LogEvent logEvent : LOG_EVENTS) {
+            String jacksonOutput = jacksonLayout.toSerializable(logEvent);
+            String directOutput = directLayout.toSerializable(logEvent);
+            assertThat(directOutput)
+                    .as("prettyPrintEnabled=%s, emptyPropertyExclusionEnabled=%s, maxStringLength=%d",
+                            prettyPrintEnabled, emptyPropertyExclusionEnabled, maxStringLength)
+                    .isEqualTo(jacksonOutput);
+        }
+
+    }
+
+    @Test
+    public void test_templateSpecializationEnabled() {
+
+        // Create a template with more fields than an unrolled resolver can hold.
+        String wideEventTemplate = "{" +
+                IntStream
+                        .range(0, 20)
+                        .mapToObj(fieldIndex -> String.format("\"field%d\": \"${json:level}\"", fieldIndex))
+                        .collect(Collectors.joining(", ")) +
+                ", \"array\": [" +
+                IntStream
+                        .range(0, 20)
+                        .mapToObj(itemIndex -> itemIndex % 2 == 0 ? "\"${json:mdc:key1}\"" : String.valueOf(itemIndex))
+                        .collect(Collectors.joining(", ")) +
+                "], \"nested\": {\"message\": \"${json:message}\", \"empty\": \"${json:ndc}\"}}";
+
+        for (String eventTemplateUri : new String[]{
+                null,
+                "classpath:LogstashJsonEventLayoutV1.json",
+                "classpath:EcsLayout.json",
+                "classpath:GelfLayout.json"}) {
+            for (boolean prettyPrintEnabled : new boolean[]{false, true}) {
+                for (boolean emptyPropertyExclusionEnabled : new boolean[]{false, true}) {
+
+                    // Create the layouts.
+                    LogstashLayout.Builder layoutBuilder = LogstashLayout
+                            .newBuilder()
+                            .setConfiguration(CONFIGURATION)
+                            .setStackTraceEnabled(true)
+                            .setLocationInfoEnabled(true)
+                            .setPrettyPrintEnabled(prettyPrintEnabled)
+                            .setEmptyPropertyExclusionEnabled(emptyPropertyExclusionEnabled);
+                    if (eventTemplateUri == null) {
+                        layoutBuilder.setEventTemplate(wideEventTemplate);
+                    } else {
+                        layoutBuilder.setEventTemplateUri(eventTemplateUri);
+                    }
+                    LogstashLayout layout = layoutBuilder.setTemplateSpecializationEnabled(false).build();
+                    LogstashLayout specializedLayout = layoutBuilder.setTemplateSpecializationEnabled(true).build();
+
+                    // Compare the outputs.
+                    for (LogEvent logEvent : LOG_EVENTS) {
+                        String output = layout.toSerializable(logEvent);
+                        String specializedOutput = specializedLayout.toSerializable(logEvent);
+                        assertThat(specializedOutput)
+                                .as("eventTemplateUri=%s, prettyPrintEnabled=%s, emptyPropertyExclusionEnabled=%s",
+                                        eventTemplateUri, prettyPrintEnabled, emptyPropertyExclusionEnabled)
+                                .isEqualTo(output);
+                    }
+
+                }
+            }
+        }
+
+    }
+
+    @Test
+    public void test_initialByteCount() {
+        for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+            LogstashLayout.Builder layoutBuilder = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setStackTraceEnabled(true)
+                    .setLocationInfoEnabled(true)
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled);
+            LogstashLayout fixedLayout = layoutBuilder.build();
+            LogstashLayout growingLayout = layoutBuilder.setInitialByteCount(16).build();
+            for (LogEvent logEvent : LOG_EVENTS) {
+                String fixedOutput = fixedLayout.toSerializable(logEvent);
+                String growingOutput = growingLayout.toSerializable(logEvent);
+                assertThat(growingOutput)
+                        .as("directJsonGeneratorEnabled=%s", directJsonGeneratorEnabled)
+                        .isEqualTo(fixedOutput);
+            }
+        }
+    }
+
+    @Test
+    public void test_invalid_initialByteCount() {
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setMaxByteCount(1024);
+        assertThatThrownBy(() -> layoutBuilder.setInitialByteCount(-1).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> layoutBuilder.setInitialByteCount(1025).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void test_eventTruncationEnabled() throws IOException {
+
+        // Create a log event exceeding the maximum byte count.
+        int maxByteCount = 1024;
+        String largeMessage = Strings.repeat('x', maxByteCount);
+        LogEvent largeLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(largeMessage))
+                .setThrown(new RuntimeException(largeMessage))
+                .build();
+        LogEvent smallLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .build();
+
+        String eventTemplate = "{" +
+                "\"level\": \"${json:level}\"," +
+                "\"message\": \"${json:message}\"," +
+                "\"error\": {" +
+                "  \"message\": \"${json:exception:message}\"," +
+                "  \"stackTrace\": \"${json:exception:stackTrace}\"" +
+                "}" +
+                "}";
+        for (boolean prettyPrintEnabled : new boolean[]{false, true}) {
+            for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+                String description = String.format(
+                        "prettyPrintEnabled=%s, directJsonGeneratorEnabled=%s",
+                        prettyPrintEnabled, directJsonGeneratorEnabled);
+                LogstashLayout.Builder layoutBuilder = LogstashLayout
+                        .newBuilder()
+                        .setConfiguration(CONFIGURATION)
+                        .setEventTemplate(eventTemplate)
+                        .setStackTraceEnabled(true)
+                        .setPrettyPrintEnabled(prettyPrintEnabled)
+                        .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                        .setMaxByteCount(maxByteCount);
+
+                // Verify the failure without truncation.
+                LogstashLayout failingLayout = layoutBuilder.build();
+                assertThatThrownBy(() -> failingLayout.toSerializable(largeLogEvent))
+                        .as(description)
+                        .isInstanceOf(RuntimeException.class);
+
+                // Verify the truncated output.
+                LogstashLayout truncatingLayout = layoutBuilder.setEventTruncationEnabled(true).build();
+                for (int repetitionIndex = 0; repetitionIndex < 2; repetitionIndex++) {
+                    byte[] truncatedOutputBytes = truncatingLayout.toByteArray(largeLogEvent);
+                    assertThat(truncatedOutputBytes.length).as(description).isLessThanOrEqualTo(maxByteCount);
+                    String truncatedOutput = new String(truncatedOutputBytes, StandardCharsets.UTF_8);
+                    assertThat(truncatedOutput).as(description).endsWith(System.lineSeparator());
+                    JsonNode truncatedRootNode = OBJECT_MAPPER.readTree(truncatedOutput);
+                    assertThat(point(truncatedRootNode, "_truncated").asBoolean()).as(description).isTrue();
+                    assertThat(point(truncatedRootNode, "level").asText()).as(description).isEqualTo("INFO");
+
+                    // Verify that the succeeding event is not affected.
+                    String smallOutput = truncatingLayout.toSerializable(smallLogEvent);
+                    assertThat(smallOutput).as(description).isEqualTo(failingLayout.toSerializable(smallLogEvent));
+                }
+
+            }
+        }
+
+    }
+
+    @Test
+    public void test_destinationStreamingEnabled() {
+        for (boolean prettyPrintEnabled : new boolean[]{false, true}) {
+            for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+                LogstashLayout.Builder layoutBuilder = LogstashLayout
+                        .newBuilder()
+                        .setConfiguration(CONFIGURATION)
+                        .setStackTraceEnabled(true)
+                        .setLocationInfoEnabled(true)
+                        .setPrettyPrintEnabled(prettyPrintEnabled)
+                        .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled);
+                LogstashLayout bufferingLayout = layoutBuilder.build();
+                LogstashLayout streamingLayout = layoutBuilder.setDestinationStreamingEnabled(true).build();
+                String expectedOutput = LOG_EVENTS
+                        .stream()
+                        .map(bufferingLayout::toSerializable)
+                        .collect(Collectors.joining());
+                // Check small (i.e., draining), large, and non-heap destination buffers.
+                ByteBuffer[] destinationByteBuffers = {
+                        ByteBuffer.allocate(64),
+                        ByteBuffer.allocate(1024 * 512),
+                        ByteBuffer.allocateDirect(64)
+                };
+                for (ByteBuffer destinationByteBuffer : destinationByteBuffers) {
+                    DrainingByteBufferDestination destination = new DrainingByteBufferDestination(destinationByteBuffer);
+                    for (LogEvent logEvent : LOG_EVENTS) {
+                        streamingLayout.encode(logEvent, destination);
+                    }
+                    assertThat(destination.getOutput())
+                            .as("prettyPrintEnabled=%s, directJsonGeneratorEnabled=%s, destinationByteBuffer=%s",
+                                    prettyPrintEnabled, directJsonGeneratorEnabled, destinationByteBuffer)
+                            .isEqualTo(expectedOutput);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_destinationStreamingEnabled_with_overflow() {
+
+        // Create a log event exceeding the maximum byte count.
+        int maxByteCount = 512;
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(Strings.repeat('x', maxByteCount)))
+                .build();
+
+        for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+            String description = String.format("directJsonGeneratorEnabled=%s", directJsonGeneratorEnabled);
+            LogstashLayout.Builder layoutBuilder = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate("{\"level\": \"${json:level}\", \"message\": \"${json:message}\"}")
+                    .setMaxByteCount(maxByteCount)
+                    .setEventTruncationEnabled(true)
+                    .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled);
+            String expectedOutput = layoutBuilder.build().toSerializable(logEvent);
+            LogstashLayout streamingLayout = layoutBuilder.setDestinationStreamingEnabled(true).build();
+
+            // Overflows without draining fall back to truncation.
+            DrainingByteBufferDestination largeDestination =
+                    new DrainingByteBufferDestination(ByteBuffer.allocate(maxByteCount * 4));
+            streamingLayout.encode(logEvent, largeDestination);
+            assertThat(largeDestination.getDrainCount()).as(description).isZero();
+            assertThat(largeDestination.getOutput()).as(description).isEqualTo(expectedOutput);
+
+            // Overflows after draining fail.
+            DrainingByteBufferDestination smallDestination =
+                    new DrainingByteBufferDestination(ByteBuffer.allocate(maxByteCount / 4));
+            assertThatThrownBy(() -> streamingLayout.encode(logEvent, smallDestination))
+                    .as(description)
+                    .isInstanceOf(RuntimeException.class)
+                    .hasRootCauseInstanceOf(BufferOverflowException.class);
+        }
+
+    }
+
+    @Test
+    public void test_destinationStreamingEnabled_with_multiple_threads() throws Exception {
+
+        // Create a log event exceeding the destination buffer.
+        int maxByteCount = 512;
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(Strings.repeat('x', maxByteCount)))
+                .build();
+
+        // Create the layout.
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate("{\"level\": \"${json:level}\", \"message\": \"${json:message}\"}")
+                .setMaxByteCount(maxByteCount)
+                .setEventTruncationEnabled(true);
+        String expectedOutput = layoutBuilder.build().toSerializable(logEvent);
+        LogstashLayout streamingLayout = layoutBuilder.setDestinationStreamingEnabled(true).build();
+
+        // The first thread streams, and hence fails after draining.
+        DrainingByteBufferDestination destination =
+                new DrainingByteBufferDestination(ByteBuffer.allocate(maxByteCount / 4));
+        assertThatThrownBy(() -> streamingLayout.encode(logEvent, destination))
+                .isInstanceOf(RuntimeException.class)
+                .hasRootCauseInstanceOf(BufferOverflowException.class);
+        String streamedOutput = destination.getOutput();
+
+        // The rest of the threads serialize outside the lock, and hence truncate.
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            executorService.submit(() -> streamingLayout.encode(logEvent, destination)).get();
+        } finally {
+            executorService.shutdown();
+        }
+        assertThat(destination.getOutput()).isEqualTo(streamedOutput + expectedOutput);
+
+    }
+
+    @Test
+    public void test_encodeAll() {
+
+        // Create log events with a failing one in the middle.
+        int maxByteCount = 1024;
+        LogEvent largeLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(Strings.repeat('x', maxByteCount)))
+                .build();
+        List<LogEvent> logEvents = new ArrayList<>(LOG_EVENTS);
+        logEvents.add(logEvents.size() / 2, largeLogEvent);
+        logEvents.add(logEvents.size() / 2, largeLogEvent);
+
+        for (boolean destinationStreamingEnabled : new boolean[]{false, true}) {
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setStackTraceEnabled(true)
+                    .setMaxByteCount(maxByteCount * 8)
+                    .setMaxStringLength(maxByteCount)
+                    .setEventTemplate("{\"message\": \"${json:message}\", \"error\": \"${json:exception:stackTrace:text}\"}")
+                    .setDestinationStreamingEnabled(destinationStreamingEnabled)
+                    .build();
+            LogstashLayout failingLayout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setMaxByteCount(maxByteCount)
+                    .setDestinationStreamingEnabled(destinationStreamingEnabled)
+                    .build();
+            for (LogstashLayout batchLayout : new LogstashLayout[]{layout, failingLayout}) {
+                String expectedOutput = logEvents
+                        .stream()
+                        .map(logEvent -> {
+                            try {
+                                return batchLayout.toSerializable(logEvent);
+                            } catch (RuntimeException ignored) {
+                                return "";
+                            }
+                        })
+                        .collect(Collectors.joining());
+                // Avoid drains, which would leave the partial output of streamed failures behind.
+                DrainingByteBufferDestination destination =
+                        new DrainingByteBufferDestination(ByteBuffer.allocate(1024 * 1024));
+                if (batchLayout == failingLayout) {
+                    assertThatThrownBy(() -> batchLayout.encodeAll(logEvents, destination))
+                            .as("destinationStreamingEnabled=%s", destinationStreamingEnabled)
+                            .isInstanceOf(RuntimeException.class)
+                            .satisfies(error -> assertThat(error.getSuppressed()).hasSize(1));
+                } else {
+                    batchLayout.encodeAll(logEvents, destination);
+                }
+                assertThat(destination.getOutput())
+                        .as("destinationStreamingEnabled=%s", destinationStreamingEnabled)
+                        .isEqualTo(expectedOutput);
+            }
+        }
+
+    }
+
+    @Test
+    public void test_encodeAll_writes_buffered_batch_at_once() {
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate("{\"message\": \"${json:message}\"}")
+                .setMaxByteCount(1024 * 64)
+                .build();
+        List<LogEvent> logEvents = LOG_EVENTS;
+        AtomicInteger writeCount = new AtomicInteger(0);
+        DrainingByteBufferDestination destination =
+                new DrainingByteBufferDestination(ByteBuffer.allocate(1024 * 1024)) {
+                    @Override
+                    public ByteBuffer getByteBuffer() {
+                        // Accessed once per write, unless drained.
+                        writeCount.incrementAndGet();
+                        return super.getByteBuffer();
+                    }
+                };
+        layout.encodeAll(logEvents, destination);
+        String expectedOutput = logEvents
+                .stream()
+                .map(layout::toSerializable)
+                .collect(Collectors.joining());
+        assertThat(destination.getOutput()).isEqualTo(expectedOutput);
+        assertThat(destination.getDrainCount()).isZero();
+        assertThat(writeCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_encodeAll_spanning_buffer_fills_without_context_reloads() {
+
+        // Create log events filling the buffer several times.
+        int maxByteCount = 1024;
+        List<LogEvent> logEvents = IntStream
+                .range(0, 64)
+                .mapToObj(eventIndex -> Log4jLogEvent
+                        .newBuilder()
+                        .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                        .setLevel(Level.INFO)
+                        .setMessage(new SimpleMessage(Strings.repeat('x', 100) + eventIndex))
+                        .build())
+                .collect(Collectors.toList());
+
+        // Nested containers get left open by the events not fitting into the rest of the buffer.
+        String eventTemplate = "{\"outer\": {\"message\": \"${json:message}\", \"levels\": [\"${json:level}\"]}}";
+        for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+            for (boolean prettyPrintEnabled : new boolean[]{false, true}) {
+
+                // Create the layout.
+                LogstashLayout layout = LogstashLayout
+                        .newBuilder()
+                        .setConfiguration(CONFIGURATION)
+                        .setEventTemplate(eventTemplate)
+                        .setMaxByteCount(maxByteCount)
+                        .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                        .setPrettyPrintEnabled(prettyPrintEnabled)
+                        .setMetricsEnabled(true)
+                        .build();
+                String expectedOutput = logEvents
+                        .stream()
+                        .map(layout::toSerializable)
+                        .collect(Collectors.joining());
+                layout.getMetrics().reset();
+
+                // Verify the output and the metrics.
+                DrainingByteBufferDestination destination =
+                        new DrainingByteBufferDestination(ByteBuffer.allocate(1024 * 1024));
+                layout.encodeAll(logEvents, destination);
+                LogstashLayoutMetrics metrics = layout.getMetrics();
+                String description = String.format(
+                        "directJsonGeneratorEnabled=%s, prettyPrintEnabled=%s",
+                        directJsonGeneratorEnabled, prettyPrintEnabled);
+                assertThat(destination.getOutput()).as(description).isEqualTo(expectedOutput);
+                assertThat(metrics.getEventCount()).as(description).isEqualTo(logEvents.size());
+                assertThat(metrics.getOverflowCount()).as(description).isZero();
+                assertThat(metrics.getContextReloadCount()).as(description).isZero();
+
+            }
+        }
+
+    }
+
+    @Test
+    public void test_serializationContextPoolSize() {
+
+        // Create log events with an overflowing one in the middle.
+        int maxByteCount = 1024;
+        LogEvent largeLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(Strings.repeat('x', maxByteCount)))
+                .build();
+        List<LogEvent> logEvents = new ArrayList<>(LOG_EVENTS);
+        logEvents.add(logEvents.size() / 2, largeLogEvent);
+
+        for (boolean eventTruncationEnabled : new boolean[]{false, true}) {
+
+            // Create the layouts.
+            LogstashLayout.Builder layoutBuilder = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setStackTraceEnabled(true)
+                    .setMaxByteCount(maxByteCount)
+                    .setEventTruncationEnabled(eventTruncationEnabled);
+            LogstashLayout layout = layoutBuilder.build();
+            LogstashLayout pooledLayout = layoutBuilder.setSerializationContextPoolSize(2).build();
+
+            // Compare the outputs.
+            for (LogEvent logEvent : logEvents) {
+                String output;
+                try {
+                    output = layout.toSerializable(logEvent);
+                } catch (RuntimeException ignored) {
+                    assertThatThrownBy(() -> pooledLayout.toSerializable(logEvent))
+                            .as("eventTruncationEnabled=%s", eventTruncationEnabled)
+                            .isInstanceOf(RuntimeException.class);
+                    continue;
+                }
+                assertThat(pooledLayout.toSerializable(logEvent))
+                        .as("eventTruncationEnabled=%s", eventTruncationEnabled)
+                        .isEqualTo(output);
+                assertThat(new String(pooledLayout.toByteArray(logEvent), LogstashLayout.CHARSET))
+                        .as("eventTruncationEnabled=%s", eventTruncationEnabled)
+                        .isEqualTo(output);
+                DrainingByteBufferDestination destination =
+                        new DrainingByteBufferDestination(ByteBuffer.allocate(maxByteCount * 2));
+                pooledLayout.encode(logEvent, destination);
+                assertThat(destination.getOutput())
+                        .as("eventTruncationEnabled=%s", eventTruncationEnabled)
+                        .isEqualTo(output);
+            }
+
+            // Check if contexts are reused.
+            assertThat(pooledLayout.getSerializationContext()).isSameAs(pooledLayout.getSerializationContext());
+
+        }
+
+        // Check invalid pool sizes.
+        assertThatThrownBy(() -> LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setSerializationContextPoolSize(-1)
+                .build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("serializationContextPoolSize");
+
+    }
+
+    @Test
+    public void test_stackTraceCacheSize() {
+
+        // Create log events with repeated throwables and stack trace shapes.
+        List<LogEvent> logEvents = new ArrayList<>(LOG_EVENTS);
+        RuntimeException sharedError = new RuntimeException("shared", new IOException("cause"));
+        sharedError.addSuppressed(new IllegalStateException("suppressed"));
+        for (int errorIndex = 0; errorIndex < 3; errorIndex++) {
+            // Distinct throwables sharing the same frames with different messages.
+            RuntimeException error = new RuntimeException("error #" + errorIndex);
+            // Distinct throwables equal to each other, which must be told apart by identity.
+            RuntimeException equalError = new EqualException("equal error #" + errorIndex);
+            for (Throwable thrown : new Throwable[]{sharedError, error, error, equalError}) {
+                logEvents.add(Log4jLogEvent
+                        .newBuilder()
+                        .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                        .setMessage(new SimpleMessage("Hello, World!"))
+                        .setThrown(thrown)
+                        .build());
+            }
+        }
+
+        // Compare the outputs with and without the cache.
+        String eventTemplate = "{" +
+                "\"text\": \"${json:exception:stackTrace:text}\"," +
+                "\"object\": \"${json:exception:stackTrace}\"," +
+                "\"rootCauseText\": \"${json:exceptionRootCause:stackTrace:text}\"" +
+                "}";
+        for (boolean emptyPropertyExclusionEnabled : new boolean[]{false, true}) {
+            for (int maxStringLength : new int[]{0, 8}) {
+                for (boolean directJsonGeneratorEnabled : new boolean[]{false, true}) {
+                    LogstashLayout.Builder layoutBuilder = LogstashLayout
+                            .newBuilder()
+                            .setConfiguration(CONFIGURATION)
+                            .setEventTemplate(eventTemplate)
+                            .setStackTraceEnabled(true)
+                            .setEmptyPropertyExclusionEnabled(emptyPropertyExclusionEnabled)
+                            .setMaxStringLength(maxStringLength)
+                            .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled);
+                    LogstashLayout uncachedLayout = layoutBuilder.setStackTraceCacheSize(0).build();
+                    for (int stackTraceCacheSize : new int[]{2, 64}) {
+                        LogstashLayout cachedLayout = layoutBuilder.setStackTraceCacheSize(stackTraceCacheSize).build();
+                        for (LogEvent logEvent : logEvents) {
+                            String uncachedOutput = uncachedLayout.toSerializable(logEvent);
+                            String cachedOutput = cachedLayout.toSerializable(logEvent);
+                            assertThat(cachedOutput)
+                                    .as("emptyPropertyExclusionEnabled=%s, maxStringLength=%d, directJsonGeneratorEnabled=%s, stackTraceCacheSize=%d",
+                                            emptyPropertyExclusionEnabled, maxStringLength, directJsonGeneratorEnabled, stackTraceCacheSize)
+                                    .isEqualTo(uncachedOutput);
+                        }
+                    }
+                }
+            }
+        }
+
+    }
+
+    @Test
+    public void test_stackTraceCacheSize_eviction() {
+
+        // Create log events with distinct stack trace shapes.
+        int stackTraceCacheSize = 4;
+        List<LogEvent> logEvents = new ArrayList<>();
+        for (int errorIndex = 0; errorIndex <= stackTraceCacheSize; errorIndex++) {
+            RuntimeException error = new RuntimeException("error #" + errorIndex);
+            error.setStackTrace(new StackTraceElement[]{
+                    new StackTraceElement("com.acme.Service", "call", "Service.java", errorIndex)
+            });
+            logEvents.add(Log4jLogEvent
+                    .newBuilder()
+                    .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                    .setMessage(new SimpleMessage("Hello, World!"))
+                    .setThrown(error)
+                    .build());
+        }
+
+        // Create the layout.
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate("{\"object\": \"${json:exception:stackTrace}\"}")
+                .setStackTraceEnabled(true)
+                .setStackTraceCacheSize(stackTraceCacheSize)
+                .setMetricsEnabled(true)
+                .build();
+
+        // Overflow the cache by a single stack trace.
+        for (LogEvent logEvent : logEvents) {
+            layout.toSerializable(logEvent);
+        }
+        LogstashLayoutMetrics metrics = layout.getMetrics();
+        assertThat(metrics.getStackTraceCacheMissCount()).isEqualTo(stackTraceCacheSize + 1);
+
+        // Check that the overflow evicted a single entry rather than all of them.
+        metrics.reset();
+        for (LogEvent logEvent : logEvents.subList(0, stackTraceCacheSize)) {
+            layout.toSerializable(logEvent);
+        }
+        assertThat(metrics.getStackTraceCacheHitCount()).isGreaterThanOrEqualTo(stackTraceCacheSize - 1);
+
+    }
+
+    private static final class EqualException extends RuntimeException {
+
+        private EqualException(String message) {
+            super(message);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof EqualException;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+    }
+
+    @Test
+    public void test_stackTrace_options() throws IOException {
+
+        // Create the log event.
+        RuntimeException error = new RuntimeException("error", new IOException("cause"));
+        error.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("com.acme.Service", "call", "Service.java", 1),
+                new StackTraceElement("org.springframework.Proxy", "invoke", "Proxy.java", 2),
+                new StackTraceElement("org.springframework.Proxy", "invoke", "Proxy.java", 3),
+                new StackTraceElement("com.acme.Main", "main", "Main.java", 4)
+        });
+        error.getCause().setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("com.acme.Io", "read", "Io.java", 5)
+        });
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .setThrown(error)
+                .build();
+
+        // Create the event template.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("text", "${json:exception:stackTrace:text:excludedPackages=org.springframework,maxCauseCount=0}");
+        eventTemplateRootNode.put("maxFrameCountText", "${json:exception:stackTrace:text:maxFrameCount=1}");
+        eventTemplateRootNode.put("maxLengthText", "${json:exception:stackTrace:text:maxLength=10}");
+        eventTemplateRootNode.put("object", "${json:exception:stackTrace:includedPackages=com.acme|org.apache,maxFrameCount=2}");
+        eventTemplateRootNode.put("rootCauseText", "${json:exceptionRootCause:stackTrace:text:includedPackages=org.apache}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        // Create the layout.
+        LogstashLayout layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate)
+                .setStackTraceEnabled(true)
+                .build();
+
+        // Check the serialized event.
+        String serializedLogEvent = layout.toSerializable(logEvent);
+        JsonNode rootNode = OBJECT_MAPPER.readTree(serializedLogEvent);
+        String lineSeparator = System.lineSeparator();
+        assertThat(point(rootNode, "text").asText()).isEqualTo(
+                "java.lang.RuntimeException: error" + lineSeparator +
+                        "\tat com.acme.Service.call(Service.java:1)" + lineSeparator +
+                        "\t... 2 frames omitted" + lineSeparator +
+                        "\tat com.acme.Main.main(Main.java:4)" + lineSeparator +
+                        "\t... 1 causes omitted" + lineSeparator);
+        assertThat(point(rootNode, "maxFrameCountText").asText()).isEqualTo(
+                "java.lang.RuntimeException: error" + lineSeparator +
+                        "\tat com.acme.Service.call(Service.java:1)" + lineSeparator +
+                        "\t... 3 frames omitted" + lineSeparator +
+                        "Caused by: java.io.IOException: cause" + lineSeparator +
+                        "\tat com.acme.Io.read(Io.java:5)" + lineSeparator);
+        assertThat(point(rootNode, "maxLengthText").asText()).isEqualTo("java.lang.");
+        JsonNode objectNode = point(rootNode, "object");
+        assertThat(objectNode.size()).isEqualTo(3);
+        assertThat(point(objectNode, 0, "line").asInt()).isEqualTo(1);
+        assertThat(point(objectNode, 1, "omittedFrameCount").asInt()).isEqualTo(2);
+        assertThat(point(objectNode, 2, "line").asInt()).isEqualTo(4);
+        assertThat(point(rootNode, "rootCauseText").asText()).isEqualTo(
+                "java.io.IOException: cause" + lineSeparator +
+                        "\t... 1 frames omitted" + lineSeparator);
+
+    }
+
+    @Test
+    public void test_stackTrace_object_omitted_frames() throws IOException {
+
+        // Create the log event.
+        RuntimeException error = new RuntimeException("error");
+        error.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("org.springframework.Proxy", "invoke", "Proxy.java", 1),
+                new StackTraceElement("com.acme.Service", "call", "Service.java", 2),
+                new StackTraceElement("org.springframework.Proxy", "invoke", "Proxy.java", 3),
+                new StackTraceElement("org.springframework.Proxy", "invoke", "Proxy.java", 4),
+                new StackTraceElement("org.springframework.Proxy", "invoke", "Proxy.java", 5),
+                new StackTraceElement("com.acme.Dao", "query", "Dao.java", 6),
+                new StackTraceElement("com.acme.Main", "main", "Main.java", 7),
+                new StackTraceElement("com.acme.Launcher", "launch", "Launcher.java", 8)
+        });
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .setThrown(error)
+                .build();
+
+        // Create the event template.
+        ObjectNode eventTemplateRootNode = JSON_NODE_FACTORY.objectNode();
+        eventTemplateRootNode.put("excluded", "${json:exception:stackTrace:excludedPackages=org.springframework,maxFrameCount=3}");
+        eventTemplateRootNode.put("allExcluded", "${json:exception:stackTrace:includedPackages=org.apache}");
+        String eventTemplate = eventTemplateRootNode.toString();
+
+        // Check the serialized event with and without empty property exclusion.
+        for (boolean emptyPropertyExclusionEnabled : new boolean[]{false, true}) {
+
+            // Create the layout.
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate(eventTemplate)
+                    .setStackTraceEnabled(true)
+                    .setEmptyPropertyExclusionEnabled(emptyPropertyExclusionEnabled)
+                    .build();
+
+            // Check the serialized event.
+            String serializedLogEvent = layout.toSerializable(logEvent);
+            JsonNode rootNode = OBJECT_MAPPER.readTree(serializedLogEvent);
+            JsonNode excludedNode = point(rootNode, "excluded");
+            assertThat(excludedNode.size()).isEqualTo(6);
+            assertThat(point(excludedNode, 0, "omittedFrameCount").asInt()).isEqualTo(1);
+            assertThat(point(excludedNode, 1, "line").asInt()).isEqualTo(2);
+            assertThat(point(excludedNode, 2, "omittedFrameCount").asInt()).isEqualTo(3);
+            assertThat(point(excludedNode, 3, "line").asInt()).isEqualTo(6);
+            assertThat(point(excludedNode, 4, "line").asInt()).isEqualTo(7);
+            assertThat(point(excludedNode, 5, "omittedFrameCount").asInt()).isEqualTo(1);
+            JsonNode allExcludedNode = point(rootNode, "allExcluded");
+            assertThat(allExcludedNode.size()).isEqualTo(1);
+            assertThat(point(allExcludedNode, 0, "omittedFrameCount").asInt()).isEqualTo(8);
+
+        }
+
+    }
+
+    @Test
+    public void test_stackTrace_invalid_options() {
+        String[] keys = {
+                "exception:stackTrace:text:maxFrameCount=0",
+                "exception:stackTrace:text:maxLength=x",
+                "exception:stackTrace:text:excludedPackages=",
+                "exception:stackTrace:text:unknown=1",
+                "exception:stackTrace:text:maxFrameCount",
+                "exception:stackTrace:maxCauseCount=1",
+                "exceptionRootCause:stackTrace:maxLength=1"
+        };
+        for (String key : keys) {
+            String eventTemplate = "{\"stackTrace\": \"${json:" + key + "}\"}";
+            assertThatThrownBy(() -> LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(CONFIGURATION)
+                    .setEventTemplate(eventTemplate)
+                    .setStackTraceEnabled(true)
+                    .build())
+                    .as("key=%s", key)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void test_metricsEnabled() {
+
+        // Create the layout.
+        int maxByteCount = 1024;
+        String eventTemplate = "{" +
+                "\"level\": \"${json:level}\"," +
+                "\"message\": \"${json:message}\"," +
+                "\"stackTrace\": \"${json:exception:stackTrace:text}\"" +
+                "}";
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate)
+                .setStackTraceEnabled(true)
+                .setStackTraceCacheSize(4)
+                .setMaxByteCount(maxByteCount)
+                .setEventTruncationEnabled(true);
+        assertThat(layoutBuilder.build().getMetrics()).isNull();
+        LogstashLayout layout = layoutBuilder.setMetricsEnabled(true).build();
+        LogstashLayoutMetrics metrics = layout.getMetrics();
+        assertThat(metrics).isNotNull();
+
+        // Verify the event and byte counts.
+        LogEvent logEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .build();
+        int byteCount = layout.toByteArray(logEvent).length;
+        assertThat(metrics.getEventCount()).isEqualTo(1);
+        assertThat(metrics.getByteCount()).isEqualTo(byteCount);
+        assertThat(metrics.getEventByteCountMean()).isEqualTo(byteCount);
+        assertThat(metrics.getEventByteCountMax()).isBetween((long) byteCount, byteCount + byteCount / 8L);
+        assertThat(metrics.getEncodeNanosP50()).isLessThanOrEqualTo(metrics.getEncodeNanosMax());
+
+        // Verify the stack trace cache hits and misses.
+        RuntimeException error = new RuntimeException("error");
+        error.setStackTrace(new StackTraceElement[]{new StackTraceElement("A", "b", "A.java", 1)});
+        LogEvent errorLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage("Hello, World!"))
+                .setThrown(error)
+                .build();
+        assertThat(metrics.getStackTraceCacheHitRatio()).isNaN();
+        layout.toByteArray(errorLogEvent);
+        layout.toByteArray(errorLogEvent);
+        assertThat(metrics.getStackTraceCacheMissCount()).isEqualTo(1);
+        assertThat(metrics.getStackTraceCacheHitCount()).isEqualTo(1);
+        assertThat(metrics.getStackTraceCacheHitRatio()).isEqualTo(0.5);
+
+        // Verify the overflows.
+        LogEvent largeLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(Strings.repeat('x', maxByteCount)))
+                .build();
+        layout.toByteArray(largeLogEvent);
+        assertThat(metrics.getOverflowCount()).isEqualTo(1);
+        assertThat(metrics.getContextReloadCount()).isEqualTo(1);
+        assertThat(metrics.getEventCount()).isEqualTo(4);
+        assertThat(metrics.getEventByteCountMax()).isLessThanOrEqualTo(maxByteCount + maxByteCount / 8);
+
+        // Verify the resolver failures.
+        LogEvent failingLogEvent = Log4jLogEvent
+                .newBuilder()
+                .setLoggerName(LogstashLayoutTest.class.getSimpleName())
+                .setLevel(Level.INFO)
+                .setMessage(new ObjectMessage(new Object() {
+                    @Override
+                    public String toString() {
+                        throw new IllegalStateException("failing toString()");
+                    }
+                }))
+                .build();
+        assertThatThrownBy(() -> layout.toByteArray(failingLogEvent)).isInstanceOf(RuntimeException.class);
+        assertThat(metrics.getResolverErrorCounts())
+                .containsEntry("level", 0L)
+                .containsEntry("message", 1L)
+                .containsEntry("exception:stackTrace:text", 0L);
+        assertThat(metrics.getContextReloadCount()).isEqualTo(2);
+        assertThat(metrics.getEventCount()).isEqualTo(4);
+
+        // Verify the reset.
+        metrics.reset();
+        assertThat(metrics.getEventCount()).isZero();
+        assertThat(metrics.getByteCount()).isZero();
+        assertThat(metrics.getEncodeNanosMax()).isZero();
+        assertThat(metrics.getOverflowCount()).isZero();
+        assertThat(metrics.getContextReloadCount()).isZero();
+        assertThat(metrics.getResolverErrorCounts()).containsEntry("message", 0L);
+
+    }
+
+    @Test
+    public void test_metricsEnabled_MBean_registration() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        LoggerContext loggerContext = new LoggerContext(LogstashLayoutTest.class.getSimpleName());
+        try {
+
+            // Register the metrics of a layout.
+            Configuration oldConfig = createLoggerContextConfiguration(loggerContext);
+            loggerContext.start(oldConfig);
+            ObjectName objectName = LogstashLayoutMBeans.createObjectName(loggerContext.getName(), "test", null);
+            LogstashLayout.Builder layoutBuilder = LogstashLayout
+                    .newBuilder()
+                    .setEventTemplate("{\"message\": \"${json:message}\"}")
+                    .setMetricsEnabled(true)
+                    .setMetricsName("test");
+            LogstashLayout oldLayout = layoutBuilder.setConfiguration(oldConfig).build();
+            assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+            oldLayout.toByteArray(LOG_EVENTS.get(0));
+            assertThat(mbeanServer.getAttribute(objectName, "EventCount")).isEqualTo(1L);
+
+            // Verify that the successor layout replaces the metrics and survives the reconfiguration.
+            Configuration newConfig = createLoggerContextConfiguration(loggerContext);
+            LogstashLayout newLayout = layoutBuilder.setConfiguration(newConfig).build();
+            loggerContext.setConfiguration(newConfig);
+            assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+            assertThat(mbeanServer.getAttribute(objectName, "EventCount")).isEqualTo(0L);
+            newLayout.toByteArray(LOG_EVENTS.get(0));
+            newLayout.toByteArray(LOG_EVENTS.get(1));
+            assertThat(mbeanServer.getAttribute(objectName, "EventCount")).isEqualTo(2L);
+
+            // Verify the unregistration once the configuration is replaced.
+            loggerContext.setConfiguration(createLoggerContextConfiguration(loggerContext));
+            assertThat(mbeanServer.isRegistered(objectName)).isFalse();
+
+            // Verify the unregistration once the logger context is stopped.
+            layoutBuilder.setConfiguration(loggerContext.getConfiguration()).build();
+            assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+            loggerContext.stop();
+            assertThat(mbeanServer.isRegistered(objectName)).isFalse();
+
+        } finally {
+            loggerContext.stop();
+        }
+    }
+
+    @Test
+    public void test_profilerEnabled() {
+
+        // Create the layout.
+        String eventTemplate = "{" +
+                "\"level\": \"${json:level}\"," +
+                "\"tags\": [\"${json:logger:name}\", \"constant\"]," +
+                "\"source\": {\"message\": \"${json:message}\"}" +
+                "}";
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate);
+        assertThat(layoutBuilder.build().getProfiler()).isNull();
+        LogstashLayout layout = layoutBuilder
+                .setProfilerEnabled(true)
+                .setProfilerSampleRate(1)
+                .build();
+        LogstashLayoutProfiler profiler = layout.getProfiler();
+        assertThat(profiler).isNotNull();
+        assertThat(profiler.getFieldNanos()).containsOnlyKeys(
+                "level", "tags[0]", "tags[1]", "tags", "source.message", "source");
+
+        // Verify that the profiled events are serialized as usual.
+        LogEvent logEvent = LOG_EVENTS.get(0);
+        String profiledJson = new String(layout.toByteArray(logEvent), LogstashLayout.CHARSET);
+        String json = new String(layoutBuilder.setProfilerEnabled(false).build().toByteArray(logEvent), LogstashLayout.CHARSET);
+        assertThat(profiledJson).isEqualTo(json);
+        layout.toByteArray(logEvent);
+        assertThat(profiler.getSampledEventCount()).isEqualTo(2);
+        Map<String, Long> fieldNanos = profiler.getFieldNanos();
+        assertThat(fieldNanos.get("source")).isGreaterThanOrEqualTo(fieldNanos.get("source.message"));
+        assertThat(fieldNanos.get("tags")).isGreaterThanOrEqualTo(fieldNanos.get("tags[0]"));
+        assertThat(profiler.getFieldNanosPerEvent().get("source")).isEqualTo(fieldNanos.get("source") / 2D);
+
+        // Verify the pause.
+        profiler.setSampleRate(0);
+        layout.toByteArray(logEvent);
+        assertThat(profiler.getSampledEventCount()).isEqualTo(2);
+        assertThatThrownBy(() -> profiler.setSampleRate(-1)).isInstanceOf(IllegalArgumentException.class);
+
+        // Verify the reset.
+        profiler.reset();
+        assertThat(profiler.getSampledEventCount()).isZero();
+        assertThat(profiler.getFieldNanos()).containsEntry("level", 0L);
+        assertThat(profiler.getFieldNanosPerEvent()).containsEntry("level", 0D);
+
+    }
+
+    @Test
+    public void test_profilerEnabled_MBean_registration() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        LoggerContext loggerContext = new LoggerContext(LogstashLayoutTest.class.getSimpleName());
+        try {
+            Configuration config = createLoggerContextConfiguration(loggerContext);
+            loggerContext.start(config);
+            LogstashLayout layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(config)
+                    .setEventTemplate("{\"message\": \"${json:message}\"}")
+                    .setProfilerEnabled(true)
+                    .setProfilerSampleRate(0)
+                    .setMetricsName("test")
+                    .build();
+            ObjectName objectName =
+                    LogstashLayoutMBeans.createObjectName(loggerContext.getName(), "test", "Profiler");
+            assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+            assertThat(mbeanServer.isRegistered(
+                    LogstashLayoutMBeans.createObjectName(loggerContext.getName(), "test", null)))
+                    .isFalse();
+
+            // Verify that the profiling can be enabled at runtime.
+            layout.toByteArray(LOG_EVENTS.get(0));
+            assertThat(mbeanServer.getAttribute(objectName, "SampledEventCount")).isEqualTo(0L);
+            mbeanServer.setAttribute(objectName, new Attribute("SampleRate", 1));
+            layout.toByteArray(LOG_EVENTS.get(0));
+            assertThat(mbeanServer.getAttribute(objectName, "SampledEventCount")).isEqualTo(1L);
+
+            loggerContext.stop();
+            assertThat(mbeanServer.isRegistered(objectName)).isFalse();
+        } finally {
+            loggerContext.stop();
+        }
+    }
+
+    @Test
+    public void test_outputFormat() throws IOException {
+
+        // Create the JSON layout.
+        String eventTemplate = "{" +
+                "\"@version\": 1," +
+                "\"level\": \"${json:level}\"," +
+                "\"message\": \"${json:message}\"," +
+                "\"epochSecs\": \"${json:timestamp:epoch:divisor=1e9}\"," +
+                "\"mdc\": \"${json:mdc}\"," +
+                "\"ndc\": \"${json:ndc}\"," +
+                "\"error\": {" +
+                "\"class\": \"${json:exception:className}\"," +
+                "\"stackTrace\": \"${json:exception:stackTrace}\"" +
+                "}" +
+                "}";
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate(eventTemplate)
+                .setStackTraceEnabled(true);
+        LogstashLayout jsonLayout = layoutBuilder.build();
+        assertThat(jsonLayout.getContentType()).isEqualTo("application/json; charset=UTF-8");
+        List<JsonNode> expectedNodes = new ArrayList<>();
+        for (LogEvent logEvent : LOG_EVENTS) {
+            expectedNodes.add(OBJECT_MAPPER.readTree(jsonLayout.toSerializable(logEvent)));
+        }
+
+        // Verify the binary formats against the JSON one.
+        Map<OutputFormat, ObjectMapper> objectMapperByOutputFormat = new LinkedHashMap<>();
+        objectMapperByOutputFormat.put(OutputFormat.CBOR, new ObjectMapper(new CBORFactory()));
+        objectMapperByOutputFormat.put(OutputFormat.SMILE, new ObjectMapper(new SmileFactory()));
+        for (Map.Entry<OutputFormat, ObjectMapper> entry : objectMapperByOutputFormat.entrySet()) {
+            OutputFormat outputFormat = entry.getKey();
+            ObjectMapper objectMapper = entry.getValue();
+            LogstashLayout layout = layoutBuilder.setOutputFormat(outputFormat).build();
+            assertThat(layout.getContentType()).isEqualTo(outputFormat.getContentType());
+            assertThatThrownBy(() -> layout.toSerializable(LOG_EVENTS.get(0)))
+                    .isInstanceOf(UnsupportedOperationException.class);
+
+            // Encode the events back-to-back, twice to exercise both the
+            // batch and the single event paths.
+            FixedByteBufferDestination destination = new FixedByteBufferDestination(1024 * 1024);
+            layout.encodeAll(LOG_EVENTS, destination);
+            for (LogEvent logEvent : LOG_EVENTS) {
+                layout.encode(logEvent, destination);
+            }
+            byte[] toByteArrayOutputBytes = layout.toByteArray(LOG_EVENTS.get(0));
+
+            // Split the frames by their length prefixes and decode them.
+            ByteBuffer byteBuffer = destination.getByteBuffer();
+            // noinspection RedundantCast (for Java 8 compatibility)
+            ((Buffer) byteBuffer).flip();
+            List<JsonNode> actualNodes = new ArrayList<>();
+            while (byteBuffer.hasRemaining()) {
+                int eventByteCount = byteBuffer.getInt();
+                byte[] eventBytes = new byte[eventByteCount];
+                byteBuffer.get(eventBytes);
+                actualNodes.add(objectMapper.readTree(eventBytes));
+                if (actualNodes.size() == 1) {
+                    assertThat(toByteArrayOutputBytes)
+                            .as("outputFormat=%s", outputFormat)
+                            .hasSize(Integer.BYTES + eventByteCount)
+                            .endsWith(eventBytes);
+                }
+            }
+            List<JsonNode> expectedBatchNodes = new ArrayList<>(expectedNodes);
+            expectedBatchNodes.addAll(expectedNodes);
+            assertThat(actualNodes.toString())
+                    .as("outputFormat=%s", outputFormat)
+                    .isEqualTo(expectedBatchNodes.toString());
+        }
+
+    }
+
+    @Test
+    public void test_outputFormat_invalid_options() {
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setEventTemplate("{\"message\": \"${json:message}\"}")
+                .setOutputFormat(OutputFormat.SMILE);
+        assertThat(layoutBuilder.build().getContentType()).isEqualTo("application/x-jackson-smile");
+        assertThatThrownBy(() -> LogstashLayout
+                .newBuilder()
+                .setConfiguration(CONFIGURATION)
+                .setOutputFormat(null)
+                .build())
+                .isInstanceOf(NullPointerException.class)
+                .hasMessageContaining("outputFormat");
+        assertThatThrownBy(() -> layoutBuilder.setPrettyPrintEnabled(true).build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("prettyPrintEnabled requires outputFormat=json");
+        layoutBuilder.setPrettyPrintEnabled(false);
+        assertThatThrownBy(() -> layoutBuilder.setDirectJsonGeneratorEnabled(true).build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("directJsonGeneratorEnabled requires outputFormat=json");
+        layoutBuilder.setDirectJsonGeneratorEnabled(false);
+        assertThatThrownBy(() -> layoutBuilder.setEventTruncationEnabled(true).build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("eventTruncationEnabled requires outputFormat=json");
+        layoutBuilder.setEventTruncationEnabled(false);
+        assertThatThrownBy(() -> layoutBuilder.setDestinationStreamingEnabled(true).build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("destinationStreamingEnabled requires outputFormat=json");
+        layoutBuilder.setDestinationStreamingEnabled(false);
+        assertThatThrownBy(() -> layoutBuilder.setMessageJsonMode(MessageJsonMode.RAW).build())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("messageJsonMode=raw requires outputFormat=json");
+    }
+
+    private static Configuration createLoggerContextConfiguration(LoggerContext loggerContext) {
+        ConfigurationBuilder<BuiltConfiguration> configBuilder = ConfigurationBuilderFactory.newConfigurationBuilder();
+        configBuilder.setLoggerContext(loggerContext);
+        return configBuilder.build();
+    }
+
 }
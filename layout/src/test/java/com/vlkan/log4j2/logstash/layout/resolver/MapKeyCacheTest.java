@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.vlkan.log4j2.logstash.layout.util.StringMatchers;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class MapKeyCacheTest {
+
+    @Test
+    public void test_get() {
+        MapKeyCache cache = new MapKeyCache(StringMatchers.ofPattern("trace.*", 0), 10);
+        MapKeyCache.Entry traceIdEntry = cache.get("traceId");
+        Assertions.assertThat(traceIdEntry.isMatching()).isTrue();
+        Assertions.assertThat(traceIdEntry.getFieldName().getValue()).isEqualTo("traceId");
+        Assertions.assertThat(cache.get("traceId")).isSameAs(traceIdEntry);
+        Assertions.assertThat(cache.get("spanId").isMatching()).isFalse();
+    }
+
+    @Test
+    public void test_get_by_value() {
+        MapKeyCache cache = new MapKeyCache(null, 10);
+        MapKeyCache.Entry entry = cache.get("userId");
+        // noinspection StringOperationCanBeSimplified (need a distinct instance)
+        MapKeyCache.Entry otherEntry = cache.get(new String("userId"));
+        Assertions.assertThat(otherEntry.isMatching()).isTrue();
+        Assertions.assertThat(otherEntry.getFieldName()).isSameAs(entry.getFieldName());
+    }
+
+    @Test
+    public void test_get_escaped() {
+        MapKeyCache cache = new MapKeyCache(null, 10);
+        byte[] quotedKey = cache.get("a\"b").getFieldName().asQuotedUTF8();
+        Assertions.assertThat(new String(quotedKey, StandardCharsets.UTF_8)).isEqualTo("a\\\"b");
+    }
+
+    @Test
+    public void test_maxSize() {
+        MapKeyCache cache = new MapKeyCache(StringMatchers.ofPattern("key[0-9]+", 0), 4);
+        for (int keyIndex = 0; keyIndex < 100; keyIndex++) {
+            String key = "key" + keyIndex;
+            MapKeyCache.Entry entry = cache.get(key);
+            Assertions.assertThat(entry.isMatching()).isTrue();
+            Assertions.assertThat(entry.getFieldName().getValue()).isEqualTo(key);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.time.MutableInstant;
+import org.apache.logging.log4j.core.util.datetime.FastDateFormat;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TimestampResolverTest {
+
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    private static final Locale LOCALE = Locale.US;
+
+    private static final FastDateFormat SECOND_FORMAT =
+            FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss", TIME_ZONE, LOCALE);
+
+    @Test
+    public void test_striped_format_resolver() throws Exception {
+        EventResolverContext context = EventResolverContext
+                .newBuilder()
+                .setObjectMapper(new ObjectMapper())
+                .setSubstitutor(new DefaultConfiguration().getStrSubstitutor())
+                .setWriterCapacity(1024)
+                .setTimeZone(TIME_ZONE)
+                .setLocale(LOCALE)
+                .setTimestampFormat(FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'", TIME_ZONE, LOCALE))
+                .build();
+        for (int stripeCount : new int[]{1, 2, 8}) {
+            EventResolver resolver = TimestampResolver.createStripedFormatResolver(context, stripeCount);
+            int threadCount = 8;
+            ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+                    int microOffset = threadIndex;
+                    futures.add(executorService.submit(() -> {
+                        resolveAndCheck(resolver, microOffset);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Resolves distinct instants spanning a few seconds, such that both the
+     * shared and the newly formatted seconds get exercised.
+     */
+    private static void resolveAndCheck(EventResolver resolver, int microOffset) throws IOException {
+        long startEpochSecond = 1_500_000_000L;
+        MutableLogEvent logEvent = new MutableLogEvent();
+        MutableInstant instant = (MutableInstant) logEvent.getInstant();
+        for (int eventIndex = 0; eventIndex < 10_000; eventIndex++) {
+            long epochSecond = startEpochSecond + eventIndex / 2_000;
+            int nanoOfSecond = 1_000 * (eventIndex * 100 + microOffset) % 1_000_000_000;
+            instant.initFromEpochSecond(epochSecond, nanoOfSecond);
+            String expectedTimestamp = String.format(
+                    "%s.%06dZ",
+                    SECOND_FORMAT.format(epochSecond * 1_000L),
+                    nanoOfSecond / 1_000);
+            Assertions
+                    .assertThat(resolve(resolver, logEvent))
+                    .isEqualTo('"' + expectedTimestamp + '"');
+        }
+    }
+
+    private static String resolve(EventResolver resolver, MutableLogEvent logEvent) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator jsonGenerator = new JsonFactory().createGenerator(writer)) {
+            jsonGenerator.setRootValueSeparator(new SerializedString(""));
+            resolver.resolve(logEvent, jsonGenerator);
+        }
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.vlkan.log4j2.logstash.layout.util.LazyFieldName;
+import org.apache.logging.log4j.util.Strings;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class UnrolledCompositeResolverTest {
+
+    @Test
+    public void test_object() throws IOException {
+
+        // Create the resolvers, where every other one has no value.
+        int childCount = 2 * UnrolledCompositeResolver.MAX_CHILD_COUNT + 1;
+        List<SerializedString> names = new ArrayList<>();
+        List<LazyFieldName[]> fieldNames = new ArrayList<>();
+        List<TemplateResolver<Integer>> resolvers = new ArrayList<>();
+        for (int childIndex = 0; childIndex < childCount; childIndex++) {
+            SerializedString name = new SerializedString("f" + childIndex);
+            names.add(name);
+            fieldNames.add(new LazyFieldName[]{new LazyFieldName(null, name)});
+            resolvers.add(createResolver(childIndex % 2 == 0));
+        }
+        TemplateResolver<Integer> resolver = UnrolledCompositeResolver.of(names, null, resolvers);
+        TemplateResolver<Integer> excludingResolver = UnrolledCompositeResolver.of(names, fieldNames, resolvers);
+
+        // Check if every resolver is of its own class.
+        Assertions.assertThat(resolver.getClass().getName()).isEqualTo(UnrolledCompositeResolver.class.getName());
+        Assertions.assertThat(resolver.getClass()).isNotEqualTo(UnrolledCompositeResolver.class);
+
+        // Check the outputs.
+        String expectedOutput = IntStream
+                .range(0, childCount)
+                .mapToObj(childIndex -> String.format("\"f%d\":%s", childIndex, childIndex % 2 == 0 ? "1" : "null"))
+                .collect(Collectors.joining(",", "{", "}"));
+        Assertions.assertThat(resolve(resolver, 1)).isEqualTo(expectedOutput);
+        String expectedExcludingOutput = IntStream
+                .range(0, childCount)
+                .filter(childIndex -> childIndex % 2 == 0)
+                .mapToObj(childIndex -> String.format("\"f%d\":1", childIndex))
+                .collect(Collectors.joining(",", "{", "}"));
+        Assertions.assertThat(resolve(excludingResolver, 1)).isEqualTo(expectedExcludingOutput);
+
+    }
+
+    @Test
+    public void test_array() throws IOException {
+        List<LazyFieldName[]> fieldNames = new ArrayList<>();
+        List<TemplateResolver<Integer>> resolvers = new ArrayList<>();
+        for (int childIndex = 0; childIndex < UnrolledCompositeResolver.MAX_CHILD_COUNT + 1; childIndex++) {
+            fieldNames.add(new LazyFieldName[]{new LazyFieldName(null, null)});
+            resolvers.add(createResolver(childIndex == UnrolledCompositeResolver.MAX_CHILD_COUNT));
+        }
+        TemplateResolver<Integer> resolver = UnrolledCompositeResolver.of(null, null, resolvers);
+        TemplateResolver<Integer> excludingResolver = UnrolledCompositeResolver.of(null, fieldNames, resolvers);
+        String expectedOutput = "[" + Strings.repeat("null,", UnrolledCompositeResolver.MAX_CHILD_COUNT) + "2]";
+        Assertions.assertThat(resolve(resolver, 2)).isEqualTo(expectedOutput);
+        // The only value resolves from the chained resolver.
+        Assertions.assertThat(resolve(excludingResolver, 2)).isEqualTo("[2]");
+    }
+
+    private static TemplateResolver<Integer> createResolver(boolean resolvable) {
+        return new TemplateResolver<Integer>() {
+
+            @Override
+            public void resolve(Integer value, JsonGenerator jsonGenerator) throws IOException {
+                if (resolvable) {
+                    jsonGenerator.writeNumber(value);
+                } else {
+                    jsonGenerator.writeNull();
+                }
+            }
+
+            @Override
+            public boolean resolveField(Integer value, JsonGenerator jsonGenerator, LazyFieldName fieldName) throws IOException {
+                if (resolvable) {
+                    fieldName.write(jsonGenerator);
+                    jsonGenerator.writeNumber(value);
+                }
+                return resolvable;
+            }
+
+        };
+    }
+
+    private static String resolve(TemplateResolver<Integer> resolver, int value) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator jsonGenerator = new JsonFactory().createGenerator(writer)) {
+            resolver.resolve(value, jsonGenerator);
+        }
+        return writer.toString();
+    }
+
+}
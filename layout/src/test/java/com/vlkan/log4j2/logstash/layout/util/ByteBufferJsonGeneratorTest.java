@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.vlkan.log4j2.logstash.layout.ObjectMapperFixture;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ByteBufferJsonGeneratorTest {
+
+    private static final JsonFactory JSON_FACTORY = ObjectMapperFixture.OBJECT_MAPPER.getFactory();
+
+    private interface JsonWriter {
+
+        void write(JsonGenerator jsonGenerator) throws IOException;
+
+    }
+
+    @Test
+    public void test_strings() throws IOException {
+        String[] texts = {
+                "",
+                "foo",
+                "\"quoted\" \\back\\slashed/",
+                "\b\f\n\r\t\u0000\u001f\u007f",
+                "ĞÜŞİÖÇ ğüşıöç",
+                "அஆஇฬ๘",
+                "emoji 😀"
+        };
+        for (String text : texts) {
+            assertEqualOutputs(jsonGenerator -> jsonGenerator.writeString(text));
+            assertEqualOutputs(jsonGenerator -> jsonGenerator.writeString(new SerializedString(text)));
+            assertEqualOutputs(jsonGenerator -> jsonGenerator.writeString(text.toCharArray(), 0, text.length()));
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            assertEqualOutputs(jsonGenerator -> jsonGenerator.writeUTF8String(textBytes, 0, textBytes.length));
+            assertEqualOutputs(jsonGenerator -> {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeFieldName(text);
+                jsonGenerator.writeString(text);
+                jsonGenerator.writeFieldName(new SerializedString(text + '!'));
+                jsonGenerator.writeString(text);
+                jsonGenerator.writeEndObject();
+            });
+        }
+    }
+
+    @Test
+    public void test_lone_surrogates() throws IOException {
+        // Not using SerializedString, which fails to encode lone surrogates.
+        String text = "lone \uD83D surrogates \uDE00";
+        assertEqualOutputs(jsonGenerator -> jsonGenerator.writeString(text));
+        assertEqualOutputs(jsonGenerator -> jsonGenerator.writeString(text.toCharArray(), 0, text.length()));
+    }
+
+    @Test
+    public void test_numbers() throws IOException {
+        assertEqualOutputs(jsonGenerator -> {
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeNumber(0);
+            jsonGenerator.writeNumber(Integer.MIN_VALUE);
+            jsonGenerator.writeNumber(Integer.MAX_VALUE);
+            jsonGenerator.writeNumber(Long.MIN_VALUE);
+            jsonGenerator.writeNumber(Long.MAX_VALUE);
+            jsonGenerator.writeNumber(BigInteger.TEN.pow(30));
+            jsonGenerator.writeNumber(new BigDecimal("1.5e-30"));
+            jsonGenerator.writeNumber(Math.PI);
+            jsonGenerator.writeNumber(Double.NaN);
+            jsonGenerator.writeNumber(-1.5F);
+            jsonGenerator.writeNumber("12.34");
+            jsonGenerator.writeEndArray();
+        });
+    }
+
+    @Test
+    public void test_literals_and_binary() throws IOException {
+        byte[] binary = new byte[257];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        for (int length = 0; length < 4; length++) {
+            int finalLength = length;
+            assertEqualOutputs(jsonGenerator -> jsonGenerator.writeBinary(binary, 0, finalLength));
+        }
+        assertEqualOutputs(jsonGenerator -> {
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeBoolean(true);
+            jsonGenerator.writeBoolean(false);
+            jsonGenerator.writeNull();
+            jsonGenerator.writeBinary(binary);
+            jsonGenerator.writeRawValue("{\"raw\":\"ĞÜŞ😀\"}");
+            jsonGenerator.writeEndArray();
+        });
+    }
+
+    @Test
+    public void test_nested_objects() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("null", null);
+        object.put("list", Arrays.asList(1, "two", 3.0, Collections.singletonMap("four", 4)));
+        object.put("empty", Collections.emptyMap());
+        object.put("text", "\"Ĝ\"");
+        JsonWriter writer = jsonGenerator -> {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeObjectField("object", object);
+            jsonGenerator.writeFieldName("array");
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeEndObject();
+        };
+        assertEqualOutputs(writer);
+        assertEqualOutputs(jsonGenerator -> {
+            jsonGenerator.useDefaultPrettyPrinter();
+            writer.write(jsonGenerator);
+        });
+    }
+
+    @Test
+    public void test_maxStringLength() throws IOException {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        JsonGenerator jsonGenerator = createJsonGenerator(outputStream, 3);
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeFieldName("abcdef");
+        jsonGenerator.writeString("ĞÜŞİÖÇ");
+        jsonGenerator.writeFieldName(new SerializedString("xyz"));
+        jsonGenerator.writeString(new SerializedString("\"\"\"\""));
+        jsonGenerator.writeEndObject();
+        String json = outputStream.toString(StandardCharsets.UTF_8);
+        Assertions.assertThat(json).isEqualTo("{\"abc\":\"ĞÜŞ\",\"xyz\":\"\\\"\\\"\\\"\"}");
+    }
+
+    @Test
+    public void test_buffer_overflow() throws IOException {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(8);
+        JsonGenerator jsonGenerator = createJsonGenerator(outputStream, 0);
+        jsonGenerator.writeStartArray();
+        jsonGenerator.writeString("foo");
+        Assertions
+                .assertThatThrownBy(() -> jsonGenerator.writeString("bar"))
+                .isInstanceOf(BufferOverflowException.class);
+    }
+
+    @Test
+    public void test_buffer_growth() throws IOException {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(4, 1024);
+        JsonGenerator jsonGenerator = createJsonGenerator(outputStream, 0);
+        jsonGenerator.writeStartArray();
+        for (int i = 0; i < 100; i++) {
+            jsonGenerator.writeString("foo");
+        }
+        jsonGenerator.writeEndArray();
+        jsonGenerator.flush();
+        String json = outputStream.toString(StandardCharsets.UTF_8);
+        Assertions.assertThat(json).isEqualTo(writeUsingJackson(jsonGenerator_ -> {
+            jsonGenerator_.writeStartArray();
+            for (int i = 0; i < 100; i++) {
+                jsonGenerator_.writeString("foo");
+            }
+            jsonGenerator_.writeEndArray();
+        }));
+    }
+
+    @Test
+    public void test_truncation() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("message", "ĞÜŞ message 😀");
+        object.put("list", Arrays.asList(1, "two", Collections.singletonMap("three", Arrays.asList(3, 3.0))));
+        object.put("empty", Collections.emptyMap());
+        object.put("text", "\"quoted\"");
+        JsonWriter writer = jsonGenerator -> {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeObjectField("object", object);
+            jsonGenerator.writeNumberField("number", 123456789);
+            jsonGenerator.writeEndObject();
+        };
+        for (boolean prettyPrintEnabled : new boolean[]{false, true}) {
+            JsonWriter finalWriter = prettyPrintEnabled
+                    ? jsonGenerator -> {
+                        jsonGenerator.useDefaultPrettyPrinter();
+                        writer.write(jsonGenerator);
+                    }
+                    : writer;
+            String fullJson = writeUsingByteBuffer(finalWriter);
+            int fullByteCount = fullJson.getBytes(StandardCharsets.UTF_8).length;
+            for (int maxByteCount = 1; maxByteCount <= fullByteCount; maxByteCount++) {
+                ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+                ByteBufferJsonGenerator jsonGenerator = new ByteBufferJsonGenerator(
+                        JSON_FACTORY.getGeneratorFeatures(),
+                        JSON_FACTORY.getCodec(),
+                        outputStream,
+                        0,
+                        maxByteCount);
+                try {
+                    finalWriter.write(jsonGenerator);
+                    jsonGenerator.flush();
+                }
+                // Object serialization wraps the overflow into a JsonMappingException.
+                catch (BufferOverflowException | JsonMappingException ignored) {
+                    Assertions.assertThat(jsonGenerator.isTruncated()).isTrue();
+                }
+                String json = outputStream.toString(StandardCharsets.UTF_8);
+                Map<String, Object> actualObject = ObjectMapperFixture.OBJECT_MAPPER.readValue(
+                        json, new TypeReference<Map<String, Object>>() {});
+                if (jsonGenerator.isTruncated()) {
+                    Assertions.assertThat(actualObject).containsEntry("_truncated", true);
+                } else {
+                    Assertions.assertThat(json).isEqualTo(fullJson);
+                }
+            }
+        }
+    }
+
+    private static void assertEqualOutputs(JsonWriter writer) throws IOException {
+        String expectedJson = writeUsingJackson(writer);
+        String actualJson = writeUsingByteBuffer(writer);
+        Assertions.assertThat(actualJson).isEqualTo(expectedJson);
+    }
+
+    private static String writeUsingJackson(JsonWriter writer) throws IOException {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             JsonGenerator jsonGenerator = JSON_FACTORY.createGenerator(outputStream)) {
+            writer.write(jsonGenerator);
+            jsonGenerator.flush();
+            return outputStream.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
+    private static String writeUsingByteBuffer(JsonWriter writer) throws IOException {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024 * 16);
+        try (JsonGenerator jsonGenerator = createJsonGenerator(outputStream, 0)) {
+            writer.write(jsonGenerator);
+            jsonGenerator.flush();
+            return outputStream.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static JsonGenerator createJsonGenerator(ByteBufferOutputStream outputStream, int maxStringLength) {
+        return new ByteBufferJsonGenerator(
+                JSON_FACTORY.getGeneratorFeatures(),
+                JSON_FACTORY.getCodec(),
+                outputStream,
+                maxStringLength);
+    }
+
+}
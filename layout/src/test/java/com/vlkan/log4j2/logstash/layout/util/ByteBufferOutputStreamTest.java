@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ByteBufferOutputStreamTest {
+
+    @Test
+    public void test_growth() {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(4, 10);
+        outputStream.write("abc".getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertThat(outputStream.getByteBuffer().capacity()).isEqualTo(4);
+        outputStream.write('d');
+        outputStream.write("ef".getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertThat(outputStream.getByteBuffer().capacity()).isEqualTo(8);
+        outputStream.write("ghij".getBytes(StandardCharsets.US_ASCII), 0, 4);
+        Assertions.assertThat(outputStream.getByteBuffer().capacity()).isEqualTo(10);
+        Assertions.assertThat(outputStream.toString(StandardCharsets.US_ASCII)).isEqualTo("abcdefghij");
+        Assertions
+                .assertThatThrownBy(() -> outputStream.write('k'))
+                .isInstanceOf(BufferOverflowException.class);
+    }
+
+    @Test
+    public void test_reserve() {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(2, 8);
+        outputStream.write('a');
+        // Bytes up to the given position are retained, even if not reflected in the buffer position yet.
+        outputStream.getByteBuffer().array()[1] = 'b';
+        Assertions.assertThat(outputStream.reserve(2, 3).capacity()).isEqualTo(5);
+        Assertions.assertThat(outputStream.toString(StandardCharsets.US_ASCII)).isEqualTo("ab");
+        Assertions
+                .assertThatThrownBy(() -> outputStream.reserve(2, 7))
+                .isInstanceOf(BufferOverflowException.class);
+    }
+
+    @Test
+    public void test_shrink() {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(4, 16);
+        outputStream.write(new byte[16]);
+        outputStream.clear();
+        Assertions.assertThat(outputStream.getByteBuffer().capacity()).isEqualTo(16);
+        for (int clearIndex = 1; clearIndex <= ByteBufferOutputStream.SHRINK_CLEAR_COUNT; clearIndex++) {
+            // Writes exceeding the initial capacity restart the quiet period.
+            outputStream.write(new byte[clearIndex == 1 ? 5 : 4]);
+            outputStream.clear();
+        }
+        Assertions.assertThat(outputStream.getByteBuffer().capacity()).isEqualTo(16);
+        outputStream.clear();
+        Assertions.assertThat(outputStream.getByteBuffer().capacity()).isEqualTo(4);
+    }
+
+    @Test
+    public void test_attach() {
+
+        // Create a destination collecting the drained bytes.
+        ByteArrayOutputStream drainedBytes = new ByteArrayOutputStream();
+        ByteBuffer destinationByteBuffer = ByteBuffer.allocate(4);
+        ByteBufferDestination destination = new ByteBufferDestination() {
+
+            @Override
+            public ByteBuffer getByteBuffer() {
+                return destinationByteBuffer;
+            }
+
+            @Override
+            public ByteBuffer drain(ByteBuffer byteBuffer) {
+                byteBuffer.flip();
+                writeBytes(byteBuffer);
+                byteBuffer.clear();
+                return byteBuffer;
+            }
+
+            @Override
+            public void writeBytes(ByteBuffer byteBuffer) {
+                writeBytes(byteBuffer.array(), byteBuffer.position(), byteBuffer.remaining());
+                byteBuffer.position(byteBuffer.limit());
+            }
+
+            @Override
+            public void writeBytes(byte[] data, int offset, int length) {
+                drainedBytes.write(data, offset, length);
+            }
+
+        };
+        destinationByteBuffer.put((byte) '>');
+
+        // Write without draining and revert.
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(2, 8);
+        outputStream.write('x');
+        outputStream.attach(destination);
+        outputStream.write("ab".getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertThat(outputStream.size()).isEqualTo(2);
+        Assertions.assertThat(outputStream.revert()).isTrue();
+        Assertions.assertThat(destinationByteBuffer.position()).isEqualTo(1);
+
+        // Write with draining.
+        outputStream.write("abcdefg".getBytes(StandardCharsets.US_ASCII));
+        outputStream.write('h');
+        Assertions.assertThat(outputStream.size()).isEqualTo(8);
+        Assertions.assertThat(outputStream.revert()).isFalse();
+        // The limit is checked while draining.
+        Assertions
+                .assertThatThrownBy(() -> outputStream.write("ijkl".getBytes(StandardCharsets.US_ASCII)))
+                .isInstanceOf(BufferOverflowException.class);
+        outputStream.detach();
+        Assertions.assertThat(drainedBytes.toString()).isEqualTo(">abcdefg");
+        Assertions.assertThat(new String(destinationByteBuffer.array(), 0, destinationByteBuffer.position()))
+                .isEqualTo("hijk");
+
+        // Verify the restored buffer.
+        Assertions.assertThat(outputStream.toString(StandardCharsets.US_ASCII)).isEqualTo("x");
+
+    }
+
+}
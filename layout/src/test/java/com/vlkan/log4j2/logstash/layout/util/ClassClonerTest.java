@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.function.Supplier;
+
+public class ClassClonerTest {
+
+    public static final class Greeter implements Supplier<String> {
+
+        @Override
+        public String get() {
+            return "hello";
+        }
+
+    }
+
+    @Test
+    public void test_cloneClass() throws Exception {
+        @SuppressWarnings("rawtypes")
+        Class<? extends Supplier> clazz1 = ClassCloner.cloneClass(Greeter.class, Supplier.class);
+        @SuppressWarnings("rawtypes")
+        Class<? extends Supplier> clazz2 = ClassCloner.cloneClass(Greeter.class, Supplier.class);
+        Assertions.assertThat(clazz1).isNotEqualTo(Greeter.class).isNotEqualTo(clazz2);
+        Assertions.assertThat(clazz1.getName()).isEqualTo(Greeter.class.getName());
+        Assertions.assertThat(clazz1.getClassLoader().getParent()).isSameAs(Greeter.class.getClassLoader());
+        Assertions.assertThat(clazz1.getDeclaredConstructor().newInstance().get()).isEqualTo("hello");
+        Assertions.assertThat(clazz2.getDeclaredConstructor().newInstance().get()).isEqualTo("hello");
+    }
+
+    @Test
+    public void test_cloneClass_with_key() {
+        @SuppressWarnings("rawtypes")
+        Class<? extends Supplier> clazz1 = ClassCloner.cloneClass(Greeter.class, Supplier.class, "key1");
+        @SuppressWarnings("rawtypes")
+        Class<? extends Supplier> clazz2 = ClassCloner.cloneClass(Greeter.class, Supplier.class, "key2");
+        Assertions.assertThat(clazz1).isNotEqualTo(Greeter.class).isNotEqualTo(clazz2);
+        Assertions.assertThat(ClassCloner.cloneClass(Greeter.class, Supplier.class, "key1")).isSameAs(clazz1);
+        Assertions.assertThat(ClassCloner.cloneClass(Greeter.class, Supplier.class, "key2")).isSameAs(clazz2);
+    }
+
+    @Test
+    public void test_cloneClass_without_bytecode() {
+        // Classes of the bootstrap class loader are not cloned.
+        Assertions.assertThat(ClassCloner.cloneClass(String.class, CharSequence.class)).isSameAs(String.class);
+    }
+
+}
@@ -17,6 +17,8 @@
 package com.vlkan.log4j2.logstash.layout.util;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.vlkan.log4j2.logstash.layout.ObjectMapperFixture;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
@@ -102,4 +104,45 @@ public class JsonGeneratorsTest {
                 .hasMessageContaining("negative fraction");
     }
 
+    @Test
+    public void test_copyNonEmptyValue() throws IOException {
+        String json = "{\"a\":null,\"b\":\"\",\"c\":{\"d\":[null,{}],\"e\":[]}," +
+                "\"f\":[1,\"\",{\"g\":\"x\"}],\"h\":{\"i\":{\"j\":0}}}";
+        Assertions
+                .assertThat(copyNonEmptyValue(json))
+                .isEqualTo("{\"outer\":{\"inner\":{\"f\":[1,{\"g\":\"x\"}],\"h\":{\"i\":{\"j\":0}}}}}");
+    }
+
+    @Test
+    public void test_copyNonEmptyValue_with_empty_values() throws IOException {
+        for (String json : new String[]{"null", "\"\"", "[]", "{}", "{\"a\":{\"b\":[null,\"\"]}}"}) {
+            Assertions.assertThat(copyNonEmptyValue(json)).as("json=%s", json).isEqualTo("{}");
+        }
+    }
+
+    /**
+     * Copies the given JSON into an object, where neither the enclosing
+     * field nor the value field is started yet.
+     */
+    private static String copyNonEmptyValue(String json) throws IOException {
+        LazyFieldName outerFieldName = new LazyFieldName(null, new SerializedString("outer"));
+        LazyFieldName innerFieldName = new LazyFieldName(outerFieldName, new SerializedString("inner"));
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             JsonParser jsonParser = ObjectMapperFixture.OBJECT_MAPPER.getFactory().createParser(json);
+             JsonGenerator jsonGenerator = ObjectMapperFixture
+                     .OBJECT_MAPPER
+                     .getFactory()
+                     .createGenerator(outputStream)) {
+            jsonGenerator.writeStartObject();
+            jsonParser.nextToken();
+            boolean written = JsonGenerators.copyNonEmptyValue(jsonParser, jsonGenerator, innerFieldName);
+            if (written) {
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndObject();
+            jsonGenerator.flush();
+            return outputStream.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
 }
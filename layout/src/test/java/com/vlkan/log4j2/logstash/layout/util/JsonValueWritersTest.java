@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+public class JsonValueWritersTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private enum Color { RED, GREEN { @Override public String toString() { return "green"; } } }
+
+    private enum AnnotatedColor { @JsonProperty("r") RED }
+
+    @Test
+    public void test_databind_compatibility() throws IOException {
+        List<Object> values = Arrays.asList(
+                "text \"quoted\" ç",
+                new StringBuilder("builder"),
+                new StringBuffer("buffer"),
+                'c',
+                true,
+                (byte) 1,
+                (short) 2,
+                3,
+                4L,
+                new BigInteger("12345678901234567890"),
+                new BigDecimal("1.25"),
+                1.5f,
+                -0.1f,
+                Float.MIN_VALUE,
+                Float.MAX_VALUE,
+                1.5D,
+                1e-7D,
+                1e21D,
+                Double.MIN_VALUE,
+                Double.MAX_VALUE,
+                Double.NaN,
+                Float.NEGATIVE_INFINITY,
+                UUID.randomUUID(),
+                new UUID(0, 0),
+                new UUID(-1, -1),
+                Color.RED,
+                Color.GREEN,
+                AnnotatedColor.RED,
+                new byte[]{1, 2, 3},
+                new char[]{'a', 'b'},
+                new boolean[]{true, false},
+                new short[]{1, -1},
+                new int[]{1, Integer.MIN_VALUE},
+                new long[]{1, Long.MAX_VALUE},
+                new float[]{1.1f, -2},
+                new double[]{1.1, -2, 1e300},
+                Arrays.asList(1, "two", 3.0, null),
+                new LinkedHashSet<>(Arrays.asList(Color.RED, 'x')),
+                Collections.singletonMap("key", "value"));
+        for (Object value : values) {
+            String expectedJson = OBJECT_MAPPER.writeValueAsString(value);
+            Assertions.assertThat(writeJacksonJson(value)).as("value=%s", value).isEqualTo(expectedJson);
+            Assertions.assertThat(writeDirectJson(value)).as("value=%s", value).isEqualTo(expectedJson);
+        }
+    }
+
+    @Test
+    public void test_random_doubles() throws IOException {
+        Random random = new Random(0);
+        for (int trialIndex = 0; trialIndex < 10_000; trialIndex++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            String expectedJson = OBJECT_MAPPER.writeValueAsString(value);
+            Assertions.assertThat(writeDirectJson(value)).isEqualTo(expectedJson);
+        }
+    }
+
+    @Test
+    public void test_enum_features() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.WRITE_ENUMS_USING_TO_STRING);
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        try (JsonGenerator jsonGenerator = new JsonFactory(objectMapper).createGenerator(outputStream)) {
+            JsonValueWriters.getDefault().write(jsonGenerator, Color.GREEN);
+        }
+        Assertions.assertThat(outputStream.toString(StandardCharsets.UTF_8)).isEqualTo("\"green\"");
+    }
+
+    @Test
+    public void test_java_time() throws IOException {
+        List<Object> values = new ArrayList<>();
+        for (int nano : new int[]{0, 1, 100_000_000, 120_000, 123_456_789}) {
+            for (Instant instant : new Instant[]{Instant.EPOCH, Instant.parse("1969-12-31T23:59:59Z"), Instant.parse("2020-02-29T13:45:06Z"), Instant.parse("0000-01-01T00:00:00Z"), Instant.parse("9999-12-31T23:59:59Z")}) {
+                values.add(instant.plusNanos(nano));
+            }
+            values.add(LocalTime.of(10, 15).plusNanos(nano));
+            values.add(LocalDateTime.of(2020, 1, 2, 3, 4).plusNanos(nano));
+            values.add(OffsetDateTime.of(2020, 1, 2, 3, 4, 5, nano, ZoneOffset.ofHoursMinutes(-5, -30)));
+            values.add(OffsetDateTime.of(2020, 1, 2, 3, 4, 5, nano, ZoneOffset.UTC));
+        }
+        values.add(Instant.MAX);
+        values.add(Instant.MIN);
+        values.add(LocalDate.of(2020, 12, 31));
+        values.add(LocalDate.of(12, 1, 1));
+        values.add(LocalDate.MAX);
+        values.add(LocalDateTime.MIN);
+        values.add(OffsetDateTime.MAX);
+        Random random = new Random(0);
+        for (int trialIndex = 0; trialIndex < 1_000; trialIndex++) {
+            values.add(Instant.ofEpochSecond(random.nextInt(), random.nextInt(1_000_000_000)));
+        }
+        for (Object value : values) {
+            String expectedJson = '"' + value.toString() + '"';
+            Assertions.assertThat(writeJacksonJson(value)).isEqualTo(expectedJson);
+            Assertions.assertThat(writeDirectJson(value)).isEqualTo(expectedJson);
+        }
+    }
+
+    @Test
+    public void test_register() throws IOException {
+        JsonValueWriters jsonValueWriters = JsonValueWriters
+                .newBuilder()
+                .register(CharSequence.class, (jsonGenerator, value) -> jsonGenerator.writeString("cs"))
+                .register(StringBuilder.class, (jsonGenerator, value) -> jsonGenerator.writeString("sb"))
+                .register(Number.class, (jsonGenerator, value) -> jsonGenerator.writeNumber(value.intValue()))
+                .build();
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        try (JsonGenerator jsonGenerator = new JsonFactory(OBJECT_MAPPER).createGenerator(outputStream)) {
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeObject(null);
+            for (Object value : new Object[]{"s", new StringBuilder(), new StringBuffer(), 1.5, true}) {
+                jsonValueWriters.write(jsonGenerator, value);
+            }
+            jsonGenerator.writeEndArray();
+        }
+        Assertions
+                .assertThat(outputStream.toString(StandardCharsets.UTF_8))
+                .isEqualTo("[null,\"cs\",\"sb\",\"cs\",1,true]");
+    }
+
+    private static String writeJacksonJson(Object value) throws IOException {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        try (JsonGenerator jsonGenerator = new JsonFactory(OBJECT_MAPPER).createGenerator(outputStream)) {
+            JsonValueWriters.getDefault().write(jsonGenerator, value);
+        }
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String writeDirectJson(Object value) throws IOException {
+        JsonFactory jsonFactory = new JsonFactory(OBJECT_MAPPER);
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        try (JsonGenerator jsonGenerator = new ByteBufferJsonGenerator(
+                jsonFactory.getGeneratorFeatures(),
+                OBJECT_MAPPER,
+                outputStream,
+                0)) {
+            JsonValueWriters.getDefault().write(jsonGenerator, value);
+        }
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+}
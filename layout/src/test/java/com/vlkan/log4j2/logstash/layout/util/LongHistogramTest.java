@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LongHistogramTest {
+
+    @Test
+    public void test_bucket_bounds() {
+        Random random = new Random(0);
+        for (int trialIndex = 0; trialIndex < 10_000; trialIndex++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(Long.SIZE - 1));
+            int bucketIndex = LongHistogram.getBucketIndex(value);
+            long bucketMaxValue = LongHistogram.getBucketMaxValue(bucketIndex);
+            Assertions.assertThat(bucketMaxValue).as("value=%d", value).isGreaterThanOrEqualTo(value);
+            Assertions.assertThat(bucketMaxValue - value).as("value=%d", value).isLessThanOrEqualTo(value / 8);
+            if (bucketIndex > 0) {
+                long previousBucketMaxValue = LongHistogram.getBucketMaxValue(bucketIndex - 1);
+                Assertions.assertThat(previousBucketMaxValue).as("value=%d", value).isLessThan(value);
+            }
+        }
+        Assertions.assertThat(LongHistogram.getBucketMaxValue(LongHistogram.getBucketIndex(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void test_percentiles() {
+        LongHistogram histogram = new LongHistogram();
+        Assertions.assertThat(histogram.getCount()).isZero();
+        Assertions.assertThat(histogram.getValueAtPercentile(50)).isZero();
+        Assertions.assertThat(histogram.getMaxValue()).isZero();
+        for (int value = 1; value <= 1_000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-1);
+        Assertions.assertThat(histogram.getCount()).isEqualTo(1_001);
+        Assertions.assertThat(histogram.getValueAtPercentile(0)).isZero();
+        Assertions.assertThat(histogram.getValueAtPercentile(50)).isBetween(500L, 500L + 500L / 8);
+        Assertions.assertThat(histogram.getValueAtPercentile(99)).isBetween(990L, 990L + 990L / 8);
+        Assertions.assertThat(histogram.getValueAtPercentile(100)).isEqualTo(histogram.getMaxValue());
+        Assertions.assertThat(histogram.getMaxValue()).isBetween(1_000L, 1_000L + 1_000L / 8);
+        Assertions
+                .assertThatThrownBy(() -> histogram.getValueAtPercentile(101))
+                .isInstanceOf(IllegalArgumentException.class);
+        histogram.reset();
+        Assertions.assertThat(histogram.getCount()).isZero();
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+public class PerfectHashStringSetTest {
+
+    @Test
+    public void test_contains() {
+        String[] strings = IntStream
+                .range(0, 100)
+                .mapToObj(index -> "key" + index)
+                .toArray(String[]::new);
+        PerfectHashStringSet set = new PerfectHashStringSet(strings);
+        for (String string : strings) {
+            Assertions.assertThat(set.contains(string)).isTrue();
+        }
+        Assertions.assertThat(set.contains("key100")).isFalse();
+        Assertions.assertThat(set.contains("key")).isFalse();
+    }
+
+    @Test
+    public void test_contains_with_hash_collisions() {
+        // "Aa" and "BB" share the same hash code, hence no perfect table exists.
+        PerfectHashStringSet set = new PerfectHashStringSet(new String[]{"Aa", "BB", "AaAa", "BBBB", "AaBB"});
+        Assertions.assertThat(set.contains("Aa")).isTrue();
+        Assertions.assertThat(set.contains("BB")).isTrue();
+        Assertions.assertThat(set.contains("AaBB")).isTrue();
+        Assertions.assertThat(set.contains("BBAa")).isFalse();
+        Assertions.assertThat(set.containsPrefixOf("BBx")).isTrue();
+        Assertions.assertThat(set.containsPrefixOf("Ab")).isFalse();
+    }
+
+    @Test
+    public void test_empty() {
+        PerfectHashStringSet set = new PerfectHashStringSet(new String[0]);
+        Assertions.assertThat(set.contains("")).isFalse();
+        Assertions.assertThat(set.containsPrefixOf("a")).isFalse();
+    }
+
+    @Test
+    public void test_nulls() {
+        Assertions
+                .assertThatThrownBy(() -> new PerfectHashStringSet(new String[]{"a", null}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
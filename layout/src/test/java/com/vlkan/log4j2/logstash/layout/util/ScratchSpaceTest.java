@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+public class ScratchSpaceTest {
+
+    @Test
+    public void test_get() {
+        ScratchSpace scratchSpace = new ScratchSpace();
+        Supplier<StringBuilder> supplier1 = StringBuilder::new;
+        Supplier<StringBuilder> supplier2 = StringBuilder::new;
+        StringBuilder object1 = scratchSpace.get(supplier1);
+        StringBuilder object2 = scratchSpace.get(supplier2);
+        Assertions.assertThat(object1).isNotSameAs(object2);
+        // Exceed the initial capacity.
+        for (int supplierIndex = 0; supplierIndex < 10; supplierIndex++) {
+            Supplier<Object> supplier = Object::new;
+            Assertions.assertThat(scratchSpace.get(supplier)).isSameAs(scratchSpace.get(supplier));
+        }
+        Assertions.assertThat(scratchSpace.get(supplier1)).isSameAs(object1);
+        Assertions.assertThat(scratchSpace.get(supplier2)).isSameAs(object2);
+    }
+
+    @Test
+    public void test_of() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonFactory jsonFactory = new JsonFactory(objectMapper);
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        try (JsonGenerator jacksonJsonGenerator = jsonFactory.createGenerator(outputStream);
+             JsonGenerator directJsonGenerator = new ByteBufferJsonGenerator(
+                     jsonFactory.getGeneratorFeatures(),
+                     objectMapper,
+                     outputStream,
+                     0)) {
+            Assertions.assertThat(ScratchSpace.of(jacksonJsonGenerator)).isSameAs(outputStream.getScratchSpace());
+            Assertions.assertThat(ScratchSpace.of(directJsonGenerator)).isSameAs(outputStream.getScratchSpace());
+        }
+    }
+
+    @Test
+    public void test_writeDouble() throws IOException {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(1024);
+        try (JsonGenerator jsonGenerator = new JsonFactory().createGenerator(outputStream)) {
+            // Root values get separated by a space.
+            JsonGenerators.writeDouble(jsonGenerator, 1, 2);
+            JsonGenerators.writeDouble(jsonGenerator, Long.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        Assertions
+                .assertThat(outputStream.toString(StandardCharsets.US_ASCII))
+                .isEqualTo("1.2 " + Long.MIN_VALUE + '.' + Integer.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+public class StackTraceTextRendererTest {
+
+    private static final StackTraceElement[] COMMON_FRAMES = {
+            new StackTraceElement("com.acme.Service", "call", "Service.java", 42),
+            new StackTraceElement("com.acme.Main", "main", "Main.java", 7)
+    };
+
+    @Test
+    public void test_frame_formats() throws IOException {
+        Throwable throwable = new RuntimeException("frames");
+        throwable.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("com.acme.Native", "invoke0", null, -2),
+                new StackTraceElement("com.acme.Unknown", "run", null, -1),
+                new StackTraceElement("com.acme.NoLine", "run", "NoLine.java", -1),
+                new StackTraceElement("com.acme.Line", "run", "Line.java", 1234567890)
+        });
+        assertEqualOutputs(throwable);
+    }
+
+    @Test
+    public void test_causes_and_suppressed() throws IOException {
+        Throwable rootCause = createThrowable(new IllegalStateException(), "rootCause", 1);
+        Throwable cause = createThrowable(new IllegalArgumentException("cause", rootCause), "cause", 2);
+        Throwable throwable = createThrowable(new RuntimeException("throwable", cause), "throwable", 3);
+        Throwable suppressed = createThrowable(new RuntimeException("suppressed"), "suppressed", 1);
+        suppressed.addSuppressed(createThrowable(new Exception("nestedSuppressed"), "nestedSuppressed", 0));
+        throwable.addSuppressed(suppressed);
+        cause.addSuppressed(createThrowable(new Error((String) null), "causeSuppressed", 2));
+        assertEqualOutputs(throwable);
+    }
+
+    @Test
+    public void test_circular_references() throws IOException {
+        Throwable cause = createThrowable(new RuntimeException("cause"), "cause", 1);
+        Throwable throwable = createThrowable(new RuntimeException("throwable", cause), "throwable", 1);
+        cause.initCause(throwable);
+        throwable.addSuppressed(cause);
+        assertEqualOutputs(throwable);
+    }
+
+    @Test
+    public void test_overridden_toString() throws IOException {
+        Throwable cause = new RuntimeException("cause") {
+            @Override
+            public String toString() {
+                return "custom " + getMessage();
+            }
+        };
+        Throwable throwable = new RuntimeException("throwable", cause) {
+            @Override
+            public String getLocalizedMessage() {
+                return "localized " + getMessage();
+            }
+        };
+        assertEqualOutputs(throwable);
+    }
+
+    @Test
+    public void test_thrown_exception() throws IOException {
+        try {
+            Integer.parseInt("NaN");
+        } catch (NumberFormatException error) {
+            assertEqualOutputs(new RuntimeException("wrapper", error));
+        }
+    }
+
+    @Test
+    public void test_overflow() throws IOException {
+        Throwable throwable = createThrowable(new RuntimeException("overflow"), "overflow", 100);
+        String expectedOutput = printStackTrace(throwable);
+        BufferedPrintWriter writer = BufferedPrintWriter.ofCapacity(expectedOutput.length() / 2);
+        new StackTraceTextRenderer().render(throwable, writer);
+        Assertions.assertThat(writer.isOverflow()).isTrue();
+        String actualOutput = new String(writer.getBuffer(), 0, writer.getPosition());
+        Assertions.assertThat(actualOutput).isEqualTo(expectedOutput.substring(0, writer.getCapacity()));
+    }
+
+    @Test
+    public void test_limits() throws IOException {
+
+        // Create a throwable with a causal chain of length 3.
+        Throwable rootCause = createThrowable(new IllegalStateException("rootCause"), "rootCause", 1);
+        Throwable cause = createThrowable(new IllegalArgumentException("cause", rootCause), "cause", 1);
+        Throwable throwable = createThrowable(new RuntimeException("throwable", cause), "throwable", 3);
+        String fullOutput = printStackTrace(throwable);
+
+        // Check the cause limit.
+        String lineSeparator = System.lineSeparator();
+        StackTraceFrameFilter frameFilter = new StackTraceFrameFilter(2, new String[0], new String[]{"com.acme.Main"});
+        String causeLimitedOutput = render(throwable, new StackTraceTextRenderer(frameFilter, 1, Integer.MAX_VALUE));
+        Assertions.assertThat(causeLimitedOutput).isEqualTo("" +
+                "java.lang.RuntimeException: throwable" + lineSeparator +
+                "\tat com.acme.throwable.method0(throwable.java:0)" + lineSeparator +
+                "\tat com.acme.throwable.method1(throwable.java:1)" + lineSeparator +
+                "\t... 3 frames omitted" + lineSeparator +
+                "Caused by: java.lang.IllegalArgumentException: cause" + lineSeparator +
+                "\tat com.acme.cause.method0(cause.java:0)" + lineSeparator +
+                "\t... 2 more" + lineSeparator +
+                "\t... 1 causes omitted" + lineSeparator);
+
+        // Check the length limit.
+        for (int maxLength : new int[]{1, 37, 38, fullOutput.length() - 1, fullOutput.length()}) {
+            String lengthLimitedOutput = render(
+                    throwable,
+                    new StackTraceTextRenderer(StackTraceFrameFilter.ACCEPT_ALL, Integer.MAX_VALUE, maxLength));
+            Assertions.assertThat(lengthLimitedOutput).isEqualTo(fullOutput.substring(0, maxLength));
+        }
+
+    }
+
+    @Test
+    public void test_allocations() throws IOException {
+
+        // Check if thread allocation measurement is available.
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        // Create the throwable.
+        Throwable rootCause = createThrowable(new IllegalStateException("rootCause"), "rootCause", 20);
+        Throwable cause = createThrowable(new IllegalArgumentException("cause", rootCause), "cause", 20);
+        Throwable throwable = createThrowable(new RuntimeException("throwable", cause), "throwable", 20);
+        int frameCount = rootCause.getStackTrace().length +
+                cause.getStackTrace().length +
+                throwable.getStackTrace().length;
+
+        // Warm up.
+        StackTraceTextRenderer renderer = new StackTraceTextRenderer();
+        BufferedPrintWriter writer = BufferedPrintWriter.ofCapacity(1024 * 64);
+        int renderCount = 1_000;
+        for (int i = 0; i < renderCount; i++) {
+            writer.close();
+            renderer.render(throwable, writer);
+        }
+        Assertions.assertThat(new String(writer.getBuffer(), 0, writer.getPosition()))
+                .isEqualTo(printStackTrace(throwable));
+
+        // Measure allocations, excluding the ones of the measurement itself.
+        long threadId = Thread.currentThread().getId();
+        long measurementBytes = -allocationMXBean.getThreadAllocatedBytes(threadId) +
+                allocationMXBean.getThreadAllocatedBytes(threadId);
+        long startBytes = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < renderCount; i++) {
+            writer.close();
+            renderer.render(throwable, writer);
+        }
+        long allocatedBytes = allocationMXBean.getThreadAllocatedBytes(threadId) - startBytes - measurementBytes;
+
+        // Verify that only the StackTraceElement[] clones are allocated.
+        long maxCloneBytes = 3 * 16 + 8 * frameCount;
+        Assertions.assertThat(allocatedBytes).isLessThanOrEqualTo(renderCount * maxCloneBytes);
+
+    }
+
+    private static Throwable createThrowable(Throwable throwable, String name, int frameCount) {
+        StackTraceElement[] frames = new StackTraceElement[frameCount + COMMON_FRAMES.length];
+        for (int frameIndex = 0; frameIndex < frameCount; frameIndex++) {
+            frames[frameIndex] = new StackTraceElement(
+                    "com.acme." + name, "method" + frameIndex, name + ".java", frameIndex);
+        }
+        System.arraycopy(COMMON_FRAMES, 0, frames, frameCount, COMMON_FRAMES.length);
+        throwable.setStackTrace(frames);
+        return throwable;
+    }
+
+    private static void assertEqualOutputs(Throwable throwable) throws IOException {
+        String expectedOutput = printStackTrace(throwable);
+        StringWriter writer = new StringWriter();
+        new StackTraceTextRenderer().render(throwable, writer);
+        Assertions.assertThat(writer.toString()).isEqualTo(expectedOutput);
+    }
+
+    private static String render(Throwable throwable, StackTraceTextRenderer renderer) throws IOException {
+        StringWriter writer = new StringWriter();
+        renderer.render(throwable, writer);
+        return writer.toString();
+    }
+
+    private static String printStackTrace(Throwable throwable) {
+        StringWriter writer = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.function.Predicate;
+
+public class StringMatchersTest {
+
+    @Test
+    public void test_ofPattern() {
+        for (int cacheSize : new int[]{0, 1, 4}) {
+            Predicate<String> matcher = StringMatchers.ofPattern("id-[0-9]+", cacheSize);
+            // Repeat to hit the cache, and exceed its size to evict entries.
+            for (int trialIndex = 0; trialIndex < 2; trialIndex++) {
+                for (int itemIndex = 0; itemIndex < 10; itemIndex++) {
+                    Assertions.assertThat(matcher.test("id-" + itemIndex)).isTrue();
+                    Assertions.assertThat(matcher.test("id" + itemIndex)).isFalse();
+                }
+            }
+        }
+        Assertions
+                .assertThatThrownBy(() -> StringMatchers.ofPattern(".*", -1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("cacheSize");
+    }
+
+    @Test
+    public void test_ofValues() {
+        Predicate<String> matcher = StringMatchers.ofValues(new String[]{"traceId", "spanId", "traceId"});
+        Assertions.assertThat(matcher.test("traceId")).isTrue();
+        Assertions.assertThat(matcher.test("spanId")).isTrue();
+        Assertions.assertThat(matcher.test("trace")).isFalse();
+        Assertions.assertThat(matcher.test("traceIds")).isFalse();
+        Assertions.assertThat(matcher.test("")).isFalse();
+    }
+
+    @Test
+    public void test_ofPrefixes() {
+        Predicate<String> matcher = StringMatchers.ofPrefixes(new String[]{"a", "bcd", "bc"});
+        Assertions.assertThat(matcher.test("a")).isTrue();
+        Assertions.assertThat(matcher.test("abc")).isTrue();
+        Assertions.assertThat(matcher.test("bc")).isTrue();
+        Assertions.assertThat(matcher.test("bcde")).isTrue();
+        Assertions.assertThat(matcher.test("b")).isFalse();
+        Assertions.assertThat(matcher.test("cab")).isFalse();
+        Assertions.assertThat(matcher.test("")).isFalse();
+        Assertions.assertThat(StringMatchers.ofPrefixes(new String[]{""}).test("any")).isTrue();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StripedObjectPoolTest {
+
+    @Test
+    public void test_capacity() {
+        Assertions.assertThat(createPool(1, new AtomicInteger()).getCapacity()).isEqualTo(1);
+        Assertions.assertThat(createPool(3, new AtomicInteger()).getCapacity()).isEqualTo(4);
+        Assertions.assertThat(createPool(16, new AtomicInteger()).getCapacity()).isEqualTo(16);
+        Assertions
+                .assertThatThrownBy(() -> createPool(0, new AtomicInteger()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("capacity");
+    }
+
+    @Test
+    public void test_acquire_release() {
+
+        // Acquire from an empty pool.
+        AtomicInteger disposalCount = new AtomicInteger();
+        StripedObjectPool<Object> pool = createPool(2, disposalCount);
+        Object object1 = pool.acquire();
+        Object object2 = pool.acquire();
+        Object object3 = pool.acquire();
+        Assertions.assertThat(object1).isNotSameAs(object2).isNotSameAs(object3);
+        Assertions.assertThat(object2).isNotSameAs(object3);
+
+        // Release into the pool until it is full.
+        pool.release(object1);
+        pool.release(object2);
+        Assertions.assertThat(disposalCount.get()).isEqualTo(0);
+        pool.release(object3);
+        Assertions.assertThat(disposalCount.get()).isEqualTo(1);
+
+        // Acquire the pooled objects.
+        Set<Object> pooledObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+        pooledObjects.add(pool.acquire());
+        pooledObjects.add(pool.acquire());
+        Assertions.assertThat(pooledObjects).containsExactlyInAnyOrder(object1, object2);
+        Assertions.assertThat(pool.acquire()).isNotIn(object1, object2, object3);
+
+    }
+
+    @Test
+    public void test_concurrent_acquire_release() throws Exception {
+        int threadCount = 8;
+        int iterationCount = 10_000;
+        StripedObjectPool<Object> pool = createPool(threadCount, new AtomicInteger());
+        Set<Object> acquiredObjects = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+                futures.add(executorService.submit(() -> {
+                    for (int iterationIndex = 0; iterationIndex < iterationCount; iterationIndex++) {
+                        Object object = pool.acquire();
+                        // Objects must never be shared by concurrent owners.
+                        Assertions.assertThat(acquiredObjects.add(object)).isTrue();
+                        Assertions.assertThat(acquiredObjects.remove(object)).isTrue();
+                        pool.release(object);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static StripedObjectPool<Object> createPool(int capacity, AtomicInteger disposalCount) {
+        return new StripedObjectPool<>(capacity, Object::new, ignored -> disposalCount.incrementAndGet());
+    }
+
+}
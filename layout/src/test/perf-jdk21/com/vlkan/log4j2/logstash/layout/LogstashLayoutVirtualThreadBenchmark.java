@@ -0,0 +1,94 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the allocation rate and throughput of serialization contexts
+ * bound to thread locals (i.e., allocated per virtual thread, since each task
+ * runs on a new one) versus pooled ones, while serializing each event in a
+ * separate virtual thread, as in thread-per-request servers.
+ * <p>
+ * Requires Java 21, hence only compiled by the {@code jdk21} profile.
+ */
+@State(Scope.Benchmark)
+public class LogstashLayoutVirtualThreadBenchmark {
+
+    private static final int LOG_EVENT_COUNT = 1_000;
+
+    @Param({"0", "256"})
+    private int serializationContextPoolSize;
+
+    private LogstashLayout layout;
+
+    private List<LogEvent> logEvents;
+
+    private ExecutorService executorService;
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(LogstashLayoutVirtualThreadBenchmark.class.getSimpleName())
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(20))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(30))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() {
+        this.layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(new DefaultConfiguration())
+                .setEventTemplateUri("classpath:Log4j2JsonLayout.json")
+                .setStackTraceEnabled(true)
+                .setMaxByteCount(4096)
+                .setSerializationContextPoolSize(serializationContextPoolSize)
+                .build();
+        this.logEvents = LogEventFixture.createLiteLogEvents(LOG_EVENT_COUNT);
+        this.executorService = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.close();
+    }
+
+    @Benchmark
+    public long liteLogstashLayout4JsonLayout() throws InterruptedException {
+        LongAdder byteCount = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(logEvents.size());
+        for (LogEvent logEvent : logEvents) {
+            executorService.execute(() -> {
+                try {
+                    byteCount.add(layout.toByteArray(logEvent).length);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        return byteCount.sum();
+    }
+
+}
@@ -20,11 +20,11 @@ import org.apache.logging.log4j.core.layout.ByteBufferDestination;
 
 import java.nio.ByteBuffer;
 
-class BlackHoleByteBufferDestination implements ByteBufferDestination {
+public class BlackHoleByteBufferDestination implements ByteBufferDestination {
 
     private final ByteBuffer byteBuffer;
 
-    BlackHoleByteBufferDestination(int maxByteCount) {
+    public BlackHoleByteBufferDestination(int maxByteCount) {
         this.byteBuffer = ByteBuffer.allocate(maxByteCount);
     }
 
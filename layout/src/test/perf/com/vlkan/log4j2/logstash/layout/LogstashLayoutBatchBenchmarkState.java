@@ -0,0 +1,47 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class LogstashLayoutBatchBenchmarkState {
+
+    private static final int LOG_EVENT_COUNT = 1_024;
+
+    @Param({"1", "16", "128", "1024"})
+    private int batchSize;
+
+    private List<List<LogEvent>> fullLogEventBatches;
+
+    private List<List<LogEvent>> liteLogEventBatches;
+
+    @Setup
+    public void setup() {
+        this.fullLogEventBatches = createBatches(LogEventFixture.createFullLogEvents(LOG_EVENT_COUNT), batchSize);
+        this.liteLogEventBatches = createBatches(LogEventFixture.createLiteLogEvents(LOG_EVENT_COUNT), batchSize);
+    }
+
+    private static List<List<LogEvent>> createBatches(List<LogEvent> logEvents, int batchSize) {
+        List<List<LogEvent>> batches = new ArrayList<>();
+        for (int startIndex = 0; startIndex < logEvents.size(); startIndex += batchSize) {
+            int endIndex = Math.min(startIndex + batchSize, logEvents.size());
+            batches.add(logEvents.subList(startIndex, endIndex));
+        }
+        return batches;
+    }
+
+    List<List<LogEvent>> getFullLogEventBatches() {
+        return fullLogEventBatches;
+    }
+
+    List<List<LogEvent>> getLiteLogEventBatches() {
+        return liteLogEventBatches;
+    }
+
+}
@@ -40,7 +40,7 @@ public class LogstashLayoutBenchmark {
      * Add project dependencies to <code>java.class.path</code> property used by JMH.
      * @see <a href="https://stackoverflow.com/q/35574688/1278899">How to Run a JMH Benchmark in Maven Using exec:java Instead of exec:exec</a>
      */
-    private static void fixJavaClassPath() {
+    public static void fixJavaClassPath() {
         URLClassLoader classLoader = (URLClassLoader) LogstashLayoutBenchmark.class.getClassLoader();
         StringBuilder classpathBuilder = new StringBuilder();
         for (URL url : classLoader.getURLs()) {
@@ -70,6 +70,64 @@ public class LogstashLayoutBenchmark {
         return benchmark(state.getLogstashLayout4JsonLayout(), state.getLiteLogEvents(), state.getByteBufferDestination());
     }
 
+    @Benchmark
+    public static int fullDirectLogstashLayout4JsonLayout(LogstashLayoutBenchmarkState state) {
+        return benchmark(state.getDirectLogstashLayout4JsonLayout(), state.getFullLogEvents(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int liteDirectLogstashLayout4JsonLayout(LogstashLayoutBenchmarkState state) {
+        return benchmark(state.getDirectLogstashLayout4JsonLayout(), state.getLiteLogEvents(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int fullStreamingLogstashLayout4JsonLayout(LogstashLayoutBenchmarkState state) {
+        return benchmark(state.getStreamingLogstashLayout4JsonLayout(), state.getFullLogEvents(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int liteStreamingLogstashLayout4JsonLayout(LogstashLayoutBenchmarkState state) {
+        return benchmark(state.getStreamingLogstashLayout4JsonLayout(), state.getLiteLogEvents(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int fullBatchedLogstashLayout4JsonLayout(
+            LogstashLayoutBenchmarkState state,
+            LogstashLayoutBatchBenchmarkState batchState) {
+        return benchmarkBatches(state.getLogstashLayout4JsonLayout(), batchState.getFullLogEventBatches(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int liteBatchedLogstashLayout4JsonLayout(
+            LogstashLayoutBenchmarkState state,
+            LogstashLayoutBatchBenchmarkState batchState) {
+        return benchmarkBatches(state.getLogstashLayout4JsonLayout(), batchState.getLiteLogEventBatches(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int fullBatchedStreamingLogstashLayout4JsonLayout(
+            LogstashLayoutBenchmarkState state,
+            LogstashLayoutBatchBenchmarkState batchState) {
+        return benchmarkBatches(state.getStreamingLogstashLayout4JsonLayout(), batchState.getFullLogEventBatches(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int liteBatchedStreamingLogstashLayout4JsonLayout(
+            LogstashLayoutBenchmarkState state,
+            LogstashLayoutBatchBenchmarkState batchState) {
+        return benchmarkBatches(state.getStreamingLogstashLayout4JsonLayout(), batchState.getLiteLogEventBatches(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int fullEmptyPropertyExcludingLogstashLayout4JsonLayout(LogstashLayoutBenchmarkState state) {
+        return benchmark(state.getEmptyPropertyExcludingLogstashLayout4JsonLayout(), state.getFullLogEvents(), state.getByteBufferDestination());
+    }
+
+    @Benchmark
+    public static int liteEmptyPropertyExcludingLogstashLayout4JsonLayout(LogstashLayoutBenchmarkState state) {
+        return benchmark(state.getEmptyPropertyExcludingLogstashLayout4JsonLayout(), state.getLiteLogEvents(), state.getByteBufferDestination());
+    }
+
     @Benchmark
     public static int fullLogstashLayout4EcsLayout(LogstashLayoutBenchmarkState state) {
         return benchmark(state.getLogstashLayout4EcsLayout(), state.getFullLogEvents(), state.getByteBufferDestination());
@@ -130,6 +188,23 @@ public class LogstashLayoutBenchmark {
         return benchmark(state.getGelfLayout(), state.getLiteLogEvents(), state.getByteBufferDestination());
     }
 
+    private static int benchmarkBatches(
+            LogstashLayout layout,
+            List<List<LogEvent>> logEventBatches,
+            ByteBufferDestination destination) {
+        int position = 0;
+        // noinspection ForLoopReplaceableByForEach (for loop avoids iterator allocations)
+        for (int batchIndex = 0; batchIndex < logEventBatches.size(); batchIndex++) {
+            List<LogEvent> logEvents = logEventBatches.get(batchIndex);
+            layout.encodeAll(logEvents, destination);
+            // Clear the destination per batch, as a flushing appender would do.
+            ByteBuffer byteBuffer = destination.getByteBuffer();
+            position += byteBuffer.position();
+            byteBuffer.clear();
+        }
+        return position;
+    }
+
     private static int benchmark(Layout<String> layout, List<LogEvent> logEvents, ByteBufferDestination destination) {
         // noinspection ForLoopReplaceableByForEach (for loop avoids iterator allocations)
         for (int logEventIndex = 0; logEventIndex < logEvents.size(); logEventIndex++) {
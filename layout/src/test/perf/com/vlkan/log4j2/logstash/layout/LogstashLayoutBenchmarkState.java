@@ -25,6 +25,12 @@ public class LogstashLayoutBenchmarkState {
 
     private final LogstashLayout logstashLayout4JsonLayout;
 
+    private final LogstashLayout directLogstashLayout4JsonLayout;
+
+    private final LogstashLayout streamingLogstashLayout4JsonLayout;
+
+    private final LogstashLayout emptyPropertyExcludingLogstashLayout4JsonLayout;
+
     private final LogstashLayout logstashLayout4EcsLayout;
 
     private final LogstashLayout logstashLayout4GelfLayout;
@@ -43,7 +49,10 @@ public class LogstashLayoutBenchmarkState {
 
     public LogstashLayoutBenchmarkState() {
         this.byteBufferDestination = new BlackHoleByteBufferDestination(1024 * 512);
-        this.logstashLayout4JsonLayout = createLogstashLayout4JsonLayout();
+        this.logstashLayout4JsonLayout = createLogstashLayout4JsonLayout(false, false, false);
+        this.directLogstashLayout4JsonLayout = createLogstashLayout4JsonLayout(true, false, false);
+        this.streamingLogstashLayout4JsonLayout = createLogstashLayout4JsonLayout(true, false, true);
+        this.emptyPropertyExcludingLogstashLayout4JsonLayout = createLogstashLayout4JsonLayout(false, true, false);
         this.logstashLayout4EcsLayout = createLogstashLayout4EcsLayout();
         this.logstashLayout4GelfLayout = createLogstashLayout4GelfLayout();
         this.defaultJsonLayout = createDefaultJsonLayout();
@@ -55,13 +64,19 @@ public class LogstashLayoutBenchmarkState {
         this.liteLogEvents = LogEventFixture.createLiteLogEvents(logEventCount);
     }
 
-    private static LogstashLayout createLogstashLayout4JsonLayout() {
+    private static LogstashLayout createLogstashLayout4JsonLayout(
+            boolean directJsonGeneratorEnabled,
+            boolean emptyPropertyExclusionEnabled,
+            boolean destinationStreamingEnabled) {
         return LogstashLayout
                 .newBuilder()
                 .setConfiguration(CONFIGURATION)
                 .setEventTemplateUri("classpath:Log4j2JsonLayout.json")
                 .setStackTraceEnabled(true)
                 .setMaxByteCount(LOGSTASH_LAYOUT_MAX_BYTE_COUNT)
+                .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                .setEmptyPropertyExclusionEnabled(emptyPropertyExclusionEnabled)
+                .setDestinationStreamingEnabled(destinationStreamingEnabled)
                 .build();
     }
 
@@ -138,6 +153,18 @@ public class LogstashLayoutBenchmarkState {
         return logstashLayout4JsonLayout;
     }
 
+    LogstashLayout getDirectLogstashLayout4JsonLayout() {
+        return directLogstashLayout4JsonLayout;
+    }
+
+    LogstashLayout getStreamingLogstashLayout4JsonLayout() {
+        return streamingLogstashLayout4JsonLayout;
+    }
+
+    LogstashLayout getEmptyPropertyExcludingLogstashLayout4JsonLayout() {
+        return emptyPropertyExcludingLogstashLayout4JsonLayout;
+    }
+
     LogstashLayout getLogstashLayout4EcsLayout() {
         return logstashLayout4EcsLayout;
     }
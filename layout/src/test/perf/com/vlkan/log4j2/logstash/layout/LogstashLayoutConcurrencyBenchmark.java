@@ -0,0 +1,162 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how the throughput and the allocation rate of the layout scale
+ * with the number of threads sharing it, with thread locals enabled and
+ * disabled, for each way of serializing an event, i.e., {@code encode()} into
+ * a destination shared by all threads or owned by each thread, {@code
+ * toByteArray()}, and {@code toSerializable()}.
+ * <p>
+ * Log4j reads the thread locals flag once per JVM, hence {@link #main(String[])}
+ * runs the benchmarks once per flag and thread count, passing the flag to the
+ * forks as system properties, and writes all results into a single file.
+ */
+@State(Scope.Benchmark)
+public class LogstashLayoutConcurrencyBenchmark {
+
+    private static final int LOG_EVENT_COUNT = 1_000;
+
+    private static final int DESTINATION_BYTE_COUNT = 1024 * 512;
+
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+
+    private static final boolean[] THREAD_LOCALS_ENABLED_FLAGS = {true, false};
+
+    /**
+     * Mirrors the {@code log4j2.enable.threadlocals} property of the fork,
+     * such that results can be told apart.
+     */
+    @Param({"true", "false"})
+    private boolean threadLocalsEnabled;
+
+    private LogstashLayout layout;
+
+    private List<LogEvent> logEvents;
+
+    private ByteBufferDestination sharedDestination;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final ByteBufferDestination destination =
+                new BlackHoleByteBufferDestination(DESTINATION_BYTE_COUNT);
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        List<RunResult> results = new ArrayList<>();
+        for (boolean threadLocalsEnabled : THREAD_LOCALS_ENABLED_FLAGS) {
+            for (int threadCount : THREAD_COUNTS) {
+                Options options = new OptionsBuilder()
+                        .include(LogstashLayoutConcurrencyBenchmark.class.getSimpleName())
+                        .param("threadLocalsEnabled", String.valueOf(threadLocalsEnabled))
+                        .jvmArgsAppend(
+                                "-Dlog4j2.enable.threadlocals=" + threadLocalsEnabled,
+                                "-Dlog4j2.is.webapp=" + !threadLocalsEnabled)
+                        .threads(threadCount)
+                        .forks(2)
+                        .warmupIterations(3)
+                        .warmupTime(TimeValue.seconds(10))
+                        .measurementIterations(3)
+                        .measurementTime(TimeValue.seconds(10))
+                        .addProfiler(GCProfiler.class)
+                        .build();
+                results.addAll(new Runner(options).run());
+            }
+        }
+        String jsonOutputFile = System.getProperty("log4j2.logstashLayoutConcurrencyBenchmark.jsonOutputFile");
+        if (jsonOutputFile != null) {
+            ResultFormatFactory
+                    .getInstance(ResultFormatType.JSON, jsonOutputFile)
+                    .writeOut(results);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        if (threadLocalsEnabled != Constants.ENABLE_THREADLOCALS) {
+            String message = String.format(
+                    "threadLocalsEnabled=%s does not match the fork (Constants.ENABLE_THREADLOCALS=%s)",
+                    threadLocalsEnabled, Constants.ENABLE_THREADLOCALS);
+            throw new IllegalStateException(message);
+        }
+        this.layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(new DefaultConfiguration())
+                .setEventTemplateUri("classpath:Log4j2JsonLayout.json")
+                .setStackTraceEnabled(true)
+                .setMaxByteCount(4096)
+                .build();
+        this.logEvents = LogEventFixture.createLiteLogEvents(LOG_EVENT_COUNT);
+        this.sharedDestination = new BlackHoleByteBufferDestination(DESTINATION_BYTE_COUNT);
+    }
+
+    /**
+     * Encodes into a single destination, which {@link LogstashLayout}
+     * writes into while holding its lock, as appenders share theirs.
+     */
+    @Benchmark
+    public int encodeToSharedDestination() {
+        return encode(sharedDestination);
+    }
+
+    @Benchmark
+    public int encodeToThreadDestination(ThreadState threadState) {
+        return encode(threadState.destination);
+    }
+
+    private int encode(ByteBufferDestination destination) {
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int logEventIndex = 0; logEventIndex < logEvents.size(); logEventIndex++) {
+            LogEvent logEvent = logEvents.get(logEventIndex);
+            // The destination drains (i.e., clears) itself once it is full.
+            layout.encode(logEvent, destination);
+        }
+        return logEvents.size();
+    }
+
+    @Benchmark
+    public int toByteArray() {
+        int byteCount = 0;
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int logEventIndex = 0; logEventIndex < logEvents.size(); logEventIndex++) {
+            LogEvent logEvent = logEvents.get(logEventIndex);
+            byteCount += layout.toByteArray(logEvent).length;
+        }
+        return byteCount;
+    }
+
+    @Benchmark
+    public int toSerializable() {
+        int charCount = 0;
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int logEventIndex = 0; logEventIndex < logEvents.size(); logEventIndex++) {
+            LogEvent logEvent = logEvents.get(logEventIndex);
+            charCount += layout.toSerializable(logEvent).length();
+        }
+        return charCount;
+    }
+
+}
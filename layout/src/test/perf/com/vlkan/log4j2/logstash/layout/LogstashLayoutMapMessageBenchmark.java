@@ -0,0 +1,82 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.List;
+
+/**
+ * Measures the serialization of structured events, i.e., events carrying
+ * {@code MapMessage}s rendered via {@code ${json:message:json}}, using both
+ * the Jackson and the direct generators.
+ */
+@State(Scope.Benchmark)
+public class LogstashLayoutMapMessageBenchmark {
+
+    private static final String EVENT_TEMPLATE = "{" +
+            "\"@timestamp\": \"${json:timestamp}\", " +
+            "\"level\": \"${json:level}\", " +
+            "\"logger\": \"${json:logger:name}\", " +
+            "\"event\": \"${json:message:json}\", " +
+            "\"mdc\": \"${json:mdc}\"" +
+            "}";
+
+    private static final int LOG_EVENT_COUNT = 1_000;
+
+    @Param({"false", "true"})
+    private boolean directJsonGeneratorEnabled;
+
+    private LogstashLayout layout;
+
+    private List<LogEvent> logEvents;
+
+    private ByteBufferDestination destination;
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        Options options = new OptionsBuilder()
+                .include(LogstashLayoutMapMessageBenchmark.class.getSimpleName())
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(20))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(30))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() {
+        this.layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(new DefaultConfiguration())
+                .setEventTemplate(EVENT_TEMPLATE)
+                .setMaxByteCount(4096)
+                .setDirectJsonGeneratorEnabled(directJsonGeneratorEnabled)
+                .build();
+        this.logEvents = LogEventFixture.createMapMessageLogEvents(LOG_EVENT_COUNT);
+        this.destination = new BlackHoleByteBufferDestination(1024 * 512);
+    }
+
+    @Benchmark
+    public int mapMessageLogstashLayout() {
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int eventIndex = 0; eventIndex < logEvents.size(); eventIndex++) {
+            layout.encode(logEvents.get(eventIndex), destination);
+        }
+        return destination.getByteBuffer().position();
+    }
+
+}
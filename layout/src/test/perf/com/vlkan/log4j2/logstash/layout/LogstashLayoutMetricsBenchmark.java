@@ -0,0 +1,86 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per event overhead of {@code metricsEnabled=true}, using both
+ * an empty template, where the overhead dominates, and a full one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogstashLayoutMetricsBenchmark {
+
+    private static final int LOG_EVENT_COUNT = 1_000;
+
+    @Param({"{}", "classpath:Log4j2JsonLayout.json"})
+    private String eventTemplate;
+
+    @Param({"false", "true"})
+    private boolean metricsEnabled;
+
+    private LogstashLayout layout;
+
+    private List<LogEvent> logEvents;
+
+    private ByteBufferDestination destination;
+
+    private int logEventIndex;
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        Options options = new OptionsBuilder()
+                .include(LogstashLayoutMetricsBenchmark.class.getSimpleName())
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(10))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(10))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() {
+        LogstashLayout.Builder layoutBuilder = LogstashLayout
+                .newBuilder()
+                .setConfiguration(new DefaultConfiguration())
+                .setStackTraceEnabled(true)
+                .setMaxByteCount(4096)
+                .setMetricsEnabled(metricsEnabled);
+        this.layout = eventTemplate.startsWith("classpath:")
+                ? layoutBuilder.setEventTemplateUri(eventTemplate).build()
+                : layoutBuilder.setEventTemplate(eventTemplate).build();
+        this.logEvents = LogEventFixture.createLiteLogEvents(LOG_EVENT_COUNT);
+        this.destination = new BlackHoleByteBufferDestination(1024 * 512);
+    }
+
+    @Benchmark
+    public ByteBufferDestination encode() {
+        LogEvent logEvent = logEvents.get(logEventIndex);
+        logEventIndex = (logEventIndex + 1) % LOG_EVENT_COUNT;
+        // The destination drains (i.e., clears) itself once it is full.
+        layout.encode(logEvent, destination);
+        return destination;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the encoding costs of the output formats. Since the smaller
+ * output of binary formats is what they are used for in the first place, the
+ * mean event size per format gets printed during the setup, including the
+ * length prefix of binary formats and the line separator of JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogstashLayoutOutputFormatBenchmark {
+
+    private static final int LOG_EVENT_COUNT = 1_000;
+
+    @Param({"classpath:Log4j2JsonLayout.json", "classpath:LogstashJsonEventLayoutV1.json"})
+    private String eventTemplateUri;
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    private OutputFormat outputFormat;
+
+    private LogstashLayout layout;
+
+    private List<LogEvent> logEvents;
+
+    private ByteBufferDestination destination;
+
+    private int logEventIndex;
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        Options options = new OptionsBuilder()
+                .include(LogstashLayoutOutputFormatBenchmark.class.getSimpleName())
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(10))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(10))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() {
+        this.layout = LogstashLayout
+                .newBuilder()
+                .setConfiguration(new DefaultConfiguration())
+                .setEventTemplateUri(eventTemplateUri)
+                .setStackTraceEnabled(true)
+                .setMaxByteCount(4096)
+                .setOutputFormat(outputFormat)
+                .build();
+        this.logEvents = LogEventFixture.createLiteLogEvents(LOG_EVENT_COUNT);
+        this.destination = new BlackHoleByteBufferDestination(1024 * 512);
+        long totalByteCount = 0;
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int logEventIndex = 0; logEventIndex < LOG_EVENT_COUNT; logEventIndex++) {
+            totalByteCount += layout.toByteArray(logEvents.get(logEventIndex)).length;
+        }
+        System.out.format(
+                "%noutputFormat=%s meanEventByteCount=%.1f%n",
+                outputFormat, (double) totalByteCount / LOG_EVENT_COUNT);
+    }
+
+    @Benchmark
+    public ByteBufferDestination encode() {
+        LogEvent logEvent = logEvents.get(logEventIndex);
+        logEventIndex = (logEventIndex + 1) % LOG_EVENT_COUNT;
+        // The destination drains (i.e., clears) itself once it is full.
+        layout.encode(logEvent, destination);
+        return destination;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.vlkan.log4j2.logstash.layout;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the generic and the specialized (i.e., {@code
+ * templateSpecializationEnabled=true}) template resolvers, while 1, 3, and 10
+ * layouts with distinct templates are in use. Generic resolvers share their
+ * call sites among all layouts, hence their type profiles get polluted as
+ * the number of templates grows.
+ */
+@State(Scope.Benchmark)
+public class LogstashLayoutTemplateSpecializationBenchmark {
+
+    private static final String[][] FIELDS = {
+            {"timestamp", "\"${json:timestamp}\""},
+            {"level", "\"${json:level}\""},
+            {"logger", "\"${json:logger:name}\""},
+            {"thread", "\"${json:thread:name}\""},
+            {"message", "\"${json:message}\""},
+            {"mdc", "\"${json:mdc}\""},
+            {"ndc", "\"${json:ndc}\""},
+            {"error", "\"${json:exception:stackTrace:text}\""},
+            {"version", "1"},
+            {"tags", "[\"benchmark\", \"${json:level}\"]"}
+    };
+
+    private static final int LOG_EVENT_COUNT = 1_000;
+
+    @Param({"1", "3", "10"})
+    private int layoutCount;
+
+    @Param({"false", "true"})
+    private boolean templateSpecializationEnabled;
+
+    private LogstashLayout[] layouts;
+
+    private List<LogEvent> logEvents;
+
+    private ByteBufferDestination destination;
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        Options options = new OptionsBuilder()
+                .include(LogstashLayoutTemplateSpecializationBenchmark.class.getSimpleName())
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(20))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(30))
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() {
+        this.layouts = new LogstashLayout[layoutCount];
+        for (int layoutIndex = 0; layoutIndex < layoutCount; layoutIndex++) {
+            layouts[layoutIndex] = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(new DefaultConfiguration())
+                    .setEventTemplate(createEventTemplate(layoutIndex))
+                    .setStackTraceEnabled(true)
+                    .setMaxByteCount(4096)
+                    .setTemplateSpecializationEnabled(templateSpecializationEnabled)
+                    .build();
+        }
+        this.logEvents = LogEventFixture.createLiteLogEvents(LOG_EVENT_COUNT);
+        this.destination = new BlackHoleByteBufferDestination(1024 * 512);
+    }
+
+    /**
+     * Creates a distinct template per index by rotating the fields, both at
+     * the root and in a nested object.
+     */
+    private static String createEventTemplate(int layoutIndex) {
+        List<String[]> fields = new ArrayList<>(Arrays.asList(FIELDS));
+        StringBuilder templateBuilder = new StringBuilder("{");
+        for (int fieldIndex = 0; fieldIndex < fields.size(); fieldIndex++) {
+            String[] field = fields.get((fieldIndex + layoutIndex) % fields.size());
+            templateBuilder.append('"').append(field[0]).append("\": ").append(field[1]).append(", ");
+        }
+        templateBuilder.append("\"nested\": {");
+        for (int fieldIndex = 0; fieldIndex < 3; fieldIndex++) {
+            String[] field = fields.get((fieldIndex + 2 * layoutIndex) % fields.size());
+            if (fieldIndex > 0) {
+                templateBuilder.append(", ");
+            }
+            templateBuilder.append('"').append(field[0]).append("\": ").append(field[1]);
+        }
+        return templateBuilder.append("}}").toString();
+    }
+
+    @Benchmark
+    public int liteLogstashLayout() {
+        // Cycle through the layouts, as distinct appenders would do.
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int eventIndex = 0; eventIndex < logEvents.size(); eventIndex++) {
+            LogEvent logEvent = logEvents.get(eventIndex);
+            LogstashLayout layout = layouts[eventIndex % layoutCount];
+            layout.encode(logEvent, destination);
+        }
+        return destination.getByteBuffer().position();
+    }
+
+}
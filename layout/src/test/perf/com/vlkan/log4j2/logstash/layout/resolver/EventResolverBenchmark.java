@@ -0,0 +1,307 @@
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.vlkan.log4j2.logstash.layout.BlackHoleByteBufferDestination;
+import com.vlkan.log4j2.logstash.layout.LogstashLayout;
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutBenchmark;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.lookup.MainMapLookup;
+import org.apache.logging.log4j.message.MapMessage;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.spi.MutableThreadContextStack;
+import org.apache.logging.log4j.spi.ThreadContextStack;
+import org.apache.logging.log4j.util.StringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of each {@code ${json:...}} directive in isolation, that
+ * is, the time and the allocation per event of a layout employing a template
+ * of a single field resolved by the directive, e.g., {@code {"field":
+ * "${json:timestamp:epoch}"}}. The cost of an empty template (i.e., {@code
+ * {}}) is measured too, such that the fixed cost of encoding an event can be
+ * subtracted.
+ * <p>
+ * {@link #main(String[])} checks that every resolver has at least one
+ * directive, runs the benchmarks with the GC profiler, and prints the
+ * resolvers ordered by their cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventResolverBenchmark {
+
+    private static final String GC_ALLOC_RATE_NORM_LABEL = "·gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        checkResolverCoverage();
+        Options options = new OptionsBuilder()
+                .include(EventResolverBenchmark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(3))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(5))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        printCosts(results);
+        String jsonOutputFile = System.getProperty("log4j2.eventResolverBenchmark.jsonOutputFile");
+        if (jsonOutputFile != null) {
+            ResultFormatFactory
+                    .getInstance(ResultFormatType.JSON, jsonOutputFile)
+                    .writeOut(results);
+        }
+    }
+
+    /**
+     * Fails if a resolver is not exercised by any directive, e.g., a new one
+     * introduced without updating the benchmark.
+     */
+    private static void checkResolverCoverage() throws NoSuchFieldException {
+        Set<String> directives = new LinkedHashSet<>();
+        directives.addAll(readParamValues(DirectiveState.class, "directive"));
+        directives.addAll(readParamValues(ContextDataState.class, "directive"));
+        Set<String> uncoveredResolverNames =
+                new LinkedHashSet<>(EventResolverFactories.getResolverFactoryByName().keySet());
+        for (String directive : directives) {
+            int colonIndex = directive.indexOf(':');
+            String resolverName = colonIndex < 0 ? directive : directive.substring(0, colonIndex);
+            uncoveredResolverNames.remove(resolverName);
+        }
+        if (!uncoveredResolverNames.isEmpty()) {
+            throw new IllegalStateException("resolvers without directives: " + uncoveredResolverNames);
+        }
+    }
+
+    private static List<String> readParamValues(Class<?> stateClass, String fieldName) throws NoSuchFieldException {
+        Param param = stateClass.getDeclaredField(fieldName).getAnnotation(Param.class);
+        return Arrays.asList(param.value());
+    }
+
+    private static void printCosts(Collection<RunResult> results) {
+        List<RunResult> sortedResults = new ArrayList<>(results);
+        sortedResults.sort(Comparator.comparingDouble(result -> result.getPrimaryResult().getScore()));
+        System.out.format("%n%-64s %12s %12s%n", "directive", "ns/op", "B/op");
+        for (RunResult result : sortedResults) {
+            Result<?> allocResult = result.getSecondaryResults().get(GC_ALLOC_RATE_NORM_LABEL);
+            System.out.format(
+                    "%-64s %12.1f %12.1f%n",
+                    describe(result),
+                    result.getPrimaryResult().getScore(),
+                    allocResult != null ? allocResult.getScore() : Double.NaN);
+        }
+    }
+
+    private static String describe(RunResult result) {
+        String directive = result.getParams().getParam("directive");
+        if (directive == null) {
+            return "(empty template)";
+        }
+        String contextDataEntryCount = result.getParams().getParam("contextDataEntryCount");
+        return contextDataEntryCount == null
+                ? directive
+                : String.format("%s (%s entries)", directive, contextDataEntryCount);
+    }
+
+    abstract static class AbstractState {
+
+        private final ByteBufferDestination destination = new BlackHoleByteBufferDestination(1024 * 512);
+
+        private LogstashLayout layout;
+
+        private LogEvent logEvent;
+
+        void setUp(String eventTemplate, LogEvent logEvent) {
+            this.layout = LogstashLayout
+                    .newBuilder()
+                    .setConfiguration(new DefaultConfiguration())
+                    .setEventTemplate(eventTemplate)
+                    .setLocationInfoEnabled(true)
+                    .setStackTraceEnabled(true)
+                    .setMaxByteCount(1024 * 64)
+                    .build();
+            this.logEvent = logEvent;
+        }
+
+        ByteBufferDestination encode() {
+            // The destination drains (i.e., clears) itself once it is full.
+            layout.encode(logEvent, destination);
+            return destination;
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptyTemplateState extends AbstractState {
+
+        @Setup
+        public void setUp() {
+            setUp("{}", createLogEvent(new SimpleMessage("foo"), 0));
+        }
+
+    }
+
+    /**
+     * Directives of all resolvers except {@code mdc}, which is covered by
+     * {@link ContextDataState} for varying context data sizes.
+     */
+    @State(Scope.Benchmark)
+    public static class DirectiveState extends AbstractState {
+
+        @Param({
+                "endOfBatch",
+                "exception:className",
+                "exception:message",
+                "exception:stackTrace",
+                "exception:stackTrace:maxFrameCount=10",
+                "exception:stackTrace:text",
+                "exception:stackTrace:text:maxFrameCount=10,maxCauseCount=0",
+                "exceptionRootCause:className",
+                "exceptionRootCause:message",
+                "exceptionRootCause:stackTrace",
+                "exceptionRootCause:stackTrace:text",
+                "level",
+                "level:severity",
+                "level:severity:code",
+                "logger:fqcn",
+                "logger:name",
+                "main:--service",
+                "map:http.path",
+                "marker:name",
+                "message",
+                "message:json",
+                "ndc",
+                "source:className",
+                "source:fileName",
+                "source:lineNumber",
+                "source:methodName",
+                "thread:id",
+                "thread:name",
+                "thread:priority",
+                "timestamp",
+                "timestamp:epoch",
+                "timestamp:epoch:divisor=1e6",
+                "timestamp:epoch:divisor=1e6,integral",
+                "timestamp:epoch:divisor=1e9,integral"
+        })
+        private String directive;
+
+        @Setup
+        public void setUp() {
+            MainMapLookup.setMainArguments("--service", "orders");
+            Message message = directive.startsWith("map:")
+                    ? new MapMessage<>().with("http.method", "GET").with("http.path", "/api/v1/orders/1")
+                    : new SimpleMessage("foo");
+            setUp(createEventTemplate(directive), createLogEvent(message, 4));
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class ContextDataState extends AbstractState {
+
+        @Param({"mdc", "mdc:key0"})
+        private String directive;
+
+        @Param({"0", "10", "50"})
+        private int contextDataEntryCount;
+
+        @Setup
+        public void setUp() {
+            setUp(createEventTemplate(directive), createLogEvent(new SimpleMessage("foo"), contextDataEntryCount));
+        }
+
+    }
+
+    private static String createEventTemplate(String directive) {
+        return "{\"field\": \"${json:" + directive + "}\"}";
+    }
+
+    private static LogEvent createLogEvent(Message message, int contextDataEntryCount) {
+
+        // Create exception.
+        Exception sourceHelper = new Exception();
+        StackTraceElement source = sourceHelper.getStackTrace()[0];
+        Exception cause = new NullPointerException("testNPEx");
+        IOException exception = new IOException("testIOEx", cause);
+
+        // Create context data.
+        StringMap contextData = ContextDataFactory.createContextData();
+        for (int entryIndex = 0; entryIndex < contextDataEntryCount; entryIndex++) {
+            contextData.putValue("key" + entryIndex, "value" + entryIndex);
+        }
+
+        // Create context stack.
+        ThreadContextStack contextStack = new MutableThreadContextStack();
+        contextStack.push("stack_msg1");
+        contextStack.push("stack_msg2");
+
+        long timeMillis = System.currentTimeMillis();
+        return Log4jLogEvent
+                .newBuilder()
+                .setLoggerName("a.B")
+                .setLoggerFqcn("f.q.c.n")
+                .setLevel(Level.INFO)
+                .setMarker(MarkerManager.getMarker("AUDIT"))
+                .setMessage(message)
+                .setThrown(exception)
+                .setContextData(contextData)
+                .setContextStack(contextStack)
+                .setThreadId(1L)
+                .setThreadName("main")
+                .setThreadPriority(5)
+                .setSource(source)
+                .setTimeMillis(timeMillis)
+                .setNanoTime(timeMillis * 2)
+                .build();
+
+    }
+
+    @Benchmark
+    public static ByteBufferDestination emptyTemplate(EmptyTemplateState state) {
+        return state.encode();
+    }
+
+    @Benchmark
+    public static ByteBufferDestination directive(DirectiveState state) {
+        return state.encode();
+    }
+
+    @Benchmark
+    public static ByteBufferDestination contextData(ContextDataState state) {
+        return state.encode();
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutBenchmark;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferJsonGenerator;
+import com.vlkan.log4j2.logstash.layout.util.ByteBufferOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing the constant field names and string values of a template
+ * as {@link String}s, which get escaped and encoded on every event, versus as
+ * {@link SerializedString}s pre-encoded at compile time, as {@link
+ * TemplateResolvers} does, for both the Jackson and the direct generators.
+ * The fields are the constant ones of a Logstash event template.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateConstantEncodingBenchmark {
+
+    private static final String[][] FIELDS = {
+            {"@version", "1"},
+            {"type", "application"},
+            {"service", "log4j2-logstash-layout"},
+            {"environment", "production"},
+            {"datacenter", "eu-west-1"},
+            {"host", "app-server-01.example.com"}
+    };
+
+    private static final String[] FIELD_NAMES = new String[FIELDS.length];
+
+    private static final String[] FIELD_VALUES = new String[FIELDS.length];
+
+    private static final SerializedString[] SERIALIZED_FIELD_NAMES = new SerializedString[FIELDS.length];
+
+    private static final SerializedString[] SERIALIZED_FIELD_VALUES = new SerializedString[FIELDS.length];
+
+    static {
+        for (int fieldIndex = 0; fieldIndex < FIELDS.length; fieldIndex++) {
+            FIELD_NAMES[fieldIndex] = FIELDS[fieldIndex][0];
+            FIELD_VALUES[fieldIndex] = FIELDS[fieldIndex][1];
+            SERIALIZED_FIELD_NAMES[fieldIndex] = new SerializedString(FIELDS[fieldIndex][0]);
+            SERIALIZED_FIELD_VALUES[fieldIndex] = new SerializedString(FIELDS[fieldIndex][1]);
+            // Let the pre-encoded bytes get cached, as it is the case for compiled templates.
+            SERIALIZED_FIELD_NAMES[fieldIndex].asQuotedUTF8();
+            SERIALIZED_FIELD_VALUES[fieldIndex].asQuotedUTF8();
+        }
+    }
+
+    @Param({"false", "true"})
+    private boolean directJsonGeneratorEnabled;
+
+    private ByteBufferOutputStream outputStream;
+
+    private JsonGenerator jsonGenerator;
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        Options options = new OptionsBuilder()
+                .include(TemplateConstantEncodingBenchmark.class.getSimpleName())
+                .forks(2)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(5))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(10))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        JsonFactory jsonFactory = new JsonFactory();
+        outputStream = new ByteBufferOutputStream(1024);
+        if (directJsonGeneratorEnabled) {
+            // Root values are not separated by the direct generator.
+            jsonGenerator = new ByteBufferJsonGenerator(jsonFactory.getGeneratorFeatures(), null, outputStream, 0);
+        } else {
+            jsonGenerator = jsonFactory.createGenerator(outputStream);
+            jsonGenerator.setRootValueSeparator(new SerializedString(""));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        jsonGenerator.close();
+    }
+
+    @Benchmark
+    public ByteBufferOutputStream stringTokens() throws IOException {
+        outputStream.clear();
+        jsonGenerator.writeStartObject();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int fieldIndex = 0; fieldIndex < FIELD_NAMES.length; fieldIndex++) {
+            jsonGenerator.writeFieldName(FIELD_NAMES[fieldIndex]);
+            jsonGenerator.writeString(FIELD_VALUES[fieldIndex]);
+        }
+        jsonGenerator.writeEndObject();
+        jsonGenerator.flush();
+        return outputStream;
+    }
+
+    @Benchmark
+    public ByteBufferOutputStream serializedStringTokens() throws IOException {
+        outputStream.clear();
+        jsonGenerator.writeStartObject();
+        // noinspection ForLoopReplaceableByForEach (avoid iterator instantiation)
+        for (int fieldIndex = 0; fieldIndex < SERIALIZED_FIELD_NAMES.length; fieldIndex++) {
+            jsonGenerator.writeFieldName(SERIALIZED_FIELD_NAMES[fieldIndex]);
+            jsonGenerator.writeString(SERIALIZED_FIELD_VALUES[fieldIndex]);
+        }
+        jsonGenerator.writeEndObject();
+        jsonGenerator.flush();
+        return outputStream;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017-2020 Volkan Yazıcı
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permits and
+ * limitations under the License.
+ */
+
+package com.vlkan.log4j2.logstash.layout.resolver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vlkan.log4j2.logstash.layout.LogstashLayoutBenchmark;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.time.MutableInstant;
+import org.apache.logging.log4j.core.util.datetime.FastDateFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Compares the formatted timestamp resolvers used when thread locals are
+ * disabled: a single stripe (i.e., a globally locked context for formatting
+ * new seconds) versus the default striped pool, for 1 to 64 threads.
+ */
+public class TimestampResolverBenchmark {
+
+    private static final int MAX_THREAD_COUNT = 64;
+
+    public static void main(String[] args) throws Exception {
+        LogstashLayoutBenchmark.fixJavaClassPath();
+        for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+            Options options = new OptionsBuilder()
+                    .include(TimestampResolverBenchmark.class.getSimpleName())
+                    .threads(threadCount)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(5))
+                    .measurementIterations(3)
+                    .measurementTime(TimeValue.seconds(10))
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ResolverState {
+
+        private final EventResolver lockingResolver;
+
+        private final EventResolver stripedResolver;
+
+        public ResolverState() {
+            TimeZone timeZone = TimeZone.getTimeZone("UTC");
+            Locale locale = Locale.US;
+            EventResolverContext context = EventResolverContext
+                    .newBuilder()
+                    .setObjectMapper(new ObjectMapper())
+                    .setSubstitutor(new DefaultConfiguration().getStrSubstitutor())
+                    .setWriterCapacity(1024)
+                    .setTimeZone(timeZone)
+                    .setLocale(locale)
+                    .setTimestampFormat(FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSSSSSZZZ", timeZone, locale))
+                    .build();
+            this.lockingResolver = TimestampResolver.createStripedFormatResolver(context, 1);
+            this.stripedResolver = TimestampResolver.createStripedFormatResolver(context, 2 * Runtime.getRuntime().availableProcessors());
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+
+        };
+
+        private final MutableLogEvent logEvent = new MutableLogEvent();
+
+        private JsonGenerator jsonGenerator;
+
+        private long epochNanos;
+
+        @Setup
+        public void setUp() throws IOException {
+            jsonGenerator = new JsonFactory().createGenerator(NULL_OUTPUT_STREAM);
+            jsonGenerator.setRootValueSeparator(new SerializedString(""));
+            epochNanos = System.currentTimeMillis() * 1_000_000L;
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            jsonGenerator.close();
+        }
+
+        /**
+         * Advances the event instant by a microsecond to emulate distinct
+         * timestamps sharing the same second.
+         */
+        private MutableLogEvent nextLogEvent() {
+            epochNanos += 1_000L;
+            MutableInstant instant = (MutableInstant) logEvent.getInstant();
+            instant.initFromEpochSecond(epochNanos / 1_000_000_000L, (int) (epochNanos % 1_000_000_000L));
+            return logEvent;
+        }
+
+    }
+
+    @Benchmark
+    public static JsonGenerator lockingFormatResolver(ResolverState resolverState, ThreadState threadState) throws IOException {
+        resolverState.lockingResolver.resolve(threadState.nextLogEvent(), threadState.jsonGenerator);
+        return threadState.jsonGenerator;
+    }
+
+    @Benchmark
+    public static JsonGenerator stripedFormatResolver(ResolverState resolverState, ThreadState threadState) throws IOException {
+        resolverState.stripedResolver.resolve(threadState.nextLogEvent(), threadState.jsonGenerator);
+        return threadState.jsonGenerator;
+    }
+
+}